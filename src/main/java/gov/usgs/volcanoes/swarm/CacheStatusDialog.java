@@ -0,0 +1,123 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0 Universal
+ * public domain dedication. https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm;
+
+import gov.usgs.volcanoes.swarm.data.CacheMetrics;
+import gov.usgs.volcanoes.swarm.data.CachedDataSource;
+import java.awt.BorderLayout;
+import java.awt.Dimension;
+import java.awt.FlowLayout;
+import java.awt.Font;
+import java.awt.Point;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import javax.swing.JButton;
+import javax.swing.JDialog;
+import javax.swing.JFrame;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTextArea;
+import javax.swing.Timer;
+
+/**
+ * A dialog showing how the data cache is being used. The display is refreshed every second
+ * while the dialog is open.
+ */
+public class CacheStatusDialog extends JDialog {
+  private static final long serialVersionUID = 1L;
+  private static final JFrame applicationFrame = Swarm.getApplicationFrame();
+
+  private static final int WIDTH = 420;
+  private static final int HEIGHT = 500;
+  private static final int REFRESH_INTERVAL = 1000;
+
+  private final JTextArea report;
+  private final Timer timer;
+
+  /**
+   * Constructor.
+   */
+  public CacheStatusDialog() {
+    super(applicationFrame, "Cache Status", false);
+    setSize(WIDTH, HEIGHT);
+
+    report = new JTextArea();
+    report.setEditable(false);
+    report.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+
+    final JButton resetButton = new JButton("Reset");
+    resetButton.addActionListener(new ActionListener() {
+      public void actionPerformed(ActionEvent e) {
+        getMetrics().reset();
+        update();
+      }
+    });
+
+    final JButton closeButton = new JButton("Close");
+    closeButton.addActionListener(new ActionListener() {
+      public void actionPerformed(ActionEvent e) {
+        setVisible(false);
+      }
+    });
+
+    final JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.CENTER));
+    buttonPanel.add(resetButton);
+    buttonPanel.add(closeButton);
+
+    final JPanel mainPanel = new JPanel(new BorderLayout());
+    mainPanel.add(new JScrollPane(report), BorderLayout.CENTER);
+    mainPanel.add(buttonPanel, BorderLayout.SOUTH);
+    setContentPane(mainPanel);
+
+    timer = new Timer(REFRESH_INTERVAL, new ActionListener() {
+      public void actionPerformed(ActionEvent e) {
+        update();
+      }
+    });
+
+    addWindowListener(new WindowAdapter() {
+      @Override
+      public void windowClosing(WindowEvent e) {
+        timer.stop();
+      }
+    });
+  }
+
+  private static CacheMetrics getMetrics() {
+    return CachedDataSource.getInstance().getMetrics();
+  }
+
+  /**
+   * Refresh the display. Should only be called on the Event Dispatch Thread.
+   */
+  public void update() {
+    final int caret = report.getCaretPosition();
+    report.setText(getMetrics().getReport());
+    report.setCaretPosition(Math.min(caret, report.getDocument().getLength()));
+  }
+
+  /**
+   * set visible.
+   *
+   * @see java.awt.Dialog#setVisible(boolean)
+   */
+  @Override
+  public void setVisible(boolean v) {
+    if (v) {
+      final Dimension parentSize = applicationFrame.getSize();
+      final Point parentLoc = applicationFrame.getLocation();
+      setLocation(parentLoc.x + (parentSize.width / 2 - WIDTH / 2),
+          parentLoc.y + (parentSize.height / 2 - HEIGHT / 2));
+      update();
+      timer.start();
+    } else {
+      timer.stop();
+    }
+    super.setVisible(v);
+  }
+}
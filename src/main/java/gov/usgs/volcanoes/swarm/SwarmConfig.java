@@ -127,6 +127,27 @@ public class SwarmConfig {
   public String fdsnDataselectUrl;
   public String fdsnStationUrl;
 
+  public String cacheSize;
+  public int waveCacheShare;
+  public int helicorderCacheShare;
+  public int rsamCacheShare;
+
+  public int waveCompressionAge;
+
+  public boolean offHeapCache;
+  public int offHeapCacheSize;
+
+  public boolean diskCache;
+  public String diskCacheDir;
+  public int diskCacheDays;
+
+  public int prefetchBandwidth;
+  public int prefetchMemory;
+
+  public boolean pipelineWaveServers;
+
+  public int channelCacheHours;
+
   public String user;
 
   private SwarmConfig() {
@@ -416,6 +437,28 @@ public class SwarmConfig {
     fdsnStationUrl = StringUtils.stringToString(config.getString("fdsnStationURL"),
         "http://service.iris.edu/fdsnws/station/1/query");
 
+    cacheSize = StringUtils.stringToString(config.getString("cacheSize"), "16%");
+    waveCacheShare = StringUtils.stringToInt(config.getString("waveCacheShare"), 50);
+    helicorderCacheShare = StringUtils.stringToInt(config.getString("helicorderCacheShare"), 40);
+    rsamCacheShare = StringUtils.stringToInt(config.getString("rsamCacheShare"), 10);
+
+    waveCompressionAge = StringUtils.stringToInt(config.getString("waveCompressionAge"), 120);
+
+    offHeapCache = StringUtils.stringToBoolean(config.getString("offHeapCache"), false);
+    offHeapCacheSize = StringUtils.stringToInt(config.getString("offHeapCacheSize"), 1024);
+
+    diskCache = StringUtils.stringToBoolean(config.getString("diskCache"), false);
+    diskCacheDir = StringUtils.stringToString(config.getString("diskCacheDir"), "cache");
+    diskCacheDays = StringUtils.stringToInt(config.getString("diskCacheDays"), 7);
+
+    prefetchBandwidth = StringUtils.stringToInt(config.getString("prefetchBandwidth"), 256);
+    prefetchMemory = StringUtils.stringToInt(config.getString("prefetchMemory"), 64);
+
+    pipelineWaveServers =
+        StringUtils.stringToBoolean(config.getString("pipelineWaveServers"), true);
+
+    channelCacheHours = StringUtils.stringToInt(config.getString("channelCacheHours"), 24);
+
     layout = StringUtils.stringToString(config.getString("layout"), "");
 
     loadLayout = StringUtils.stringToBoolean(config.getString("loadLayout"), false);
@@ -594,6 +637,27 @@ public class SwarmConfig {
     config.put("fdsnDataselectURL", fdsnDataselectUrl);
     config.put("fdsnStationURL", fdsnStationUrl);
 
+    config.put("cacheSize", cacheSize);
+    config.put("waveCacheShare", Integer.toString(waveCacheShare));
+    config.put("helicorderCacheShare", Integer.toString(helicorderCacheShare));
+    config.put("rsamCacheShare", Integer.toString(rsamCacheShare));
+
+    config.put("waveCompressionAge", Integer.toString(waveCompressionAge));
+
+    config.put("offHeapCache", Boolean.toString(offHeapCache));
+    config.put("offHeapCacheSize", Integer.toString(offHeapCacheSize));
+
+    config.put("diskCache", Boolean.toString(diskCache));
+    config.put("diskCacheDir", diskCacheDir);
+    config.put("diskCacheDays", Integer.toString(diskCacheDays));
+
+    config.put("prefetchBandwidth", Integer.toString(prefetchBandwidth));
+    config.put("prefetchMemory", Integer.toString(prefetchMemory));
+
+    config.put("pipelineWaveServers", Boolean.toString(pipelineWaveServers));
+
+    config.put("channelCacheHours", Integer.toString(channelCacheHours));
+
     config.put("layout", layout);
     config.put("loadLayout", Boolean.toString(loadLayout));
 
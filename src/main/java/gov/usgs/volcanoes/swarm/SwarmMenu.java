@@ -80,8 +80,10 @@ public class SwarmMenu extends JMenuBar implements InternalFrameListener {
 
   private JMenu helpMenu;
   private JMenuItem about;
+  private JMenuItem cacheStatus;
 
   private AboutDialog aboutDialog;
+  private CacheStatusDialog cacheStatusDialog;
 
   private Map<JInternalFrame, InternalFrameMenuItem> windows;
   private Map<SwarmLayout, JMenuItem> layouts;
@@ -472,6 +474,18 @@ public class SwarmMenu extends JMenuBar implements InternalFrameListener {
     });
 
     helpMenu.add(about);
+
+    cacheStatus = new JMenuItem("Cache Status...");
+    cacheStatus.setMnemonic('C');
+    cacheStatus.addActionListener(new ActionListener() {
+      public void actionPerformed(ActionEvent e) {
+        if (cacheStatusDialog == null) {
+          cacheStatusDialog = new CacheStatusDialog();
+        }
+        cacheStatusDialog.setVisible(true);
+      }
+    });
+    helpMenu.add(cacheStatus);
     add(helpMenu);
   }
 
@@ -24,6 +24,7 @@ import gov.usgs.volcanoes.swarm.chooser.node.MessageNode;
 import gov.usgs.volcanoes.swarm.chooser.node.ProgressNode;
 import gov.usgs.volcanoes.swarm.chooser.node.RootNode;
 import gov.usgs.volcanoes.swarm.chooser.node.ServerNode;
+import gov.usgs.volcanoes.swarm.data.ChannelCache;
 import gov.usgs.volcanoes.swarm.data.DataSourceType;
 import gov.usgs.volcanoes.swarm.data.FileDataSource;
 import gov.usgs.volcanoes.swarm.data.RsamSource;
@@ -392,7 +393,7 @@ public class DataChooser extends JPanel {
             List<ServerNode> servers = getSelectedServers();
             if (servers != null) {
               for (ServerNode server : servers) {
-                dataSourceSelected(server, null);
+                dataSourceSelected(server, null, true);
               }
             }
           }
@@ -760,6 +761,7 @@ public class DataChooser extends JPanel {
     List<String> channels = null;
     try {
       channels = sds.getChannels();
+      ChannelCache.INSTANCE.put(sds, channels);
       MapFrame.getInstance().reset(false);
       sds.close();
     } catch (Exception e) {
@@ -775,10 +777,14 @@ public class DataChooser extends JPanel {
     private List<String> channels;
     private ServerNode source;
     private ActionListener finishListener;
+    private boolean refresh;
+    private boolean fromCache;
+    private boolean stale;
 
-    public DataSourceOpener(ServerNode src, ActionListener fl) {
+    public DataSourceOpener(ServerNode src, ActionListener fl, boolean refresh) {
       source = src;
       finishListener = fl;
+      this.refresh = refresh;
     }
 
     /**
@@ -828,6 +834,14 @@ public class DataChooser extends JPanel {
      */
     public Object construct() {
       SeismicDataSource sds = source.getSource();
+      if (!refresh) {
+        channels = ChannelCache.INSTANCE.get(sds);
+        if (channels != null) {
+          fromCache = true;
+          stale = !ChannelCache.INSTANCE.isFresh(sds);
+          return null;
+        }
+      }
       sds.addListener(listener);
       channels = openSource(sds);
       return null;
@@ -846,6 +860,12 @@ public class DataChooser extends JPanel {
         populateServer(source, channels, false, false);
         id = OK;
         openedSources.add(source.getSource().getName());
+        if (fromCache) {
+          MapFrame.getInstance().reset(false);
+        }
+        if (stale) {
+          new ChannelRevalidator(source, channels).start();
+        }
       } else {
         source.setBroken(true);
         model.reload(source);
@@ -860,8 +880,39 @@ public class DataChooser extends JPanel {
     }
   }
 
+  /**
+   * ChannelRevalidator. Asks a source shown from the channel cache for its channels again, and
+   * shows them if they've changed.
+   */
+  private class ChannelRevalidator extends SwingWorker {
+    private ServerNode source;
+    private List<String> cached;
+    private List<String> channels;
+
+    public ChannelRevalidator(ServerNode src, List<String> cached) {
+      source = src;
+      this.cached = cached;
+    }
+
+    public Object construct() {
+      channels = openSource(source.getSource());
+      return null;
+    }
+
+    public void finished() {
+      if (channels != null && !channels.equals(cached)) {
+        populateServer(source, channels, false, false);
+      }
+    }
+  }
+
   private void dataSourceSelected(final ServerNode source, ActionListener listener) {
-    DataSourceOpener opener = new DataSourceOpener(source, listener);
+    dataSourceSelected(source, listener, false);
+  }
+
+  private void dataSourceSelected(final ServerNode source, ActionListener listener,
+      boolean refresh) {
+    DataSourceOpener opener = new DataSourceOpener(source, listener, refresh);
     opener.start();
   }
 
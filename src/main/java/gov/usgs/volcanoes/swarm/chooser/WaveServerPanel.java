@@ -22,6 +22,7 @@ public class WaveServerPanel extends DataSourcePanel {
   private JTextField wsTimeout;
   private JTextField gulperSize;
   private JTextField gulperDelay;
+  private JTextField gulperParallelism;
   private JComboBox<String> wsOffset;
 
   public WaveServerPanel() {
@@ -34,6 +35,7 @@ public class WaveServerPanel extends DataSourcePanel {
     wsTimeout = new JTextField();
     gulperSize = new JTextField();
     gulperDelay = new JTextField();
+    gulperParallelism = new JTextField();
     String[] tzs = TimeZone.getAvailableIDs();
     Arrays.sort(tzs);
     wsOffset = new JComboBox<String>(tzs);
@@ -52,6 +54,7 @@ public class WaveServerPanel extends DataSourcePanel {
     String t = "2.0";
     String gs = "30";
     String gd = "1.0";
+    String gp = "2";
     wsOffset.setSelectedItem("UTC");
 
     if (source != null && source.indexOf(";ws:") != -1) {
@@ -64,12 +67,16 @@ public class WaveServerPanel extends DataSourcePanel {
       if (ss.length >= 6) {
         wsOffset.setSelectedItem(ss[5]);
       }
+      if (ss.length >= 7) {
+        gp = ss[6];
+      }
     }
     wsHost.setText(h);
     wsPort.setText(p);
     wsTimeout.setText(t);
     gulperSize.setText(gs);
     gulperDelay.setText(gd);
+    gulperParallelism.setText(gp);
 
   }
 
@@ -104,6 +111,12 @@ public class WaveServerPanel extends DataSourcePanel {
     builder.append("Gulp delay:");
     builder.append(gulperDelay);
     builder.append(" seconds");
+    builder.nextLine();
+
+    builder.append("Parallel gulps:");
+    builder.append(gulperParallelism);
+    builder.append(" requests at once");
+    builder.nextLine();
 
     builder.append("Tank file time zone:");
     builder.append(wsOffset, 3);
@@ -141,6 +154,11 @@ public class WaveServerPanel extends DataSourcePanel {
       message = "The gulper delay must be greater than or equal to 0 seconds. ";
     }
 
+    int gp = StringUtils.stringToInt(gulperParallelism.getText(), -1);
+    if (gp < 1) {
+      message = "The number of parallel gulps must be at least 1. ";
+    }
+
     if (message != null) {
       JOptionPane.showMessageDialog(applicationFrame, message, "Error", JOptionPane.ERROR_MESSAGE);
       return false;
@@ -154,8 +172,9 @@ public class WaveServerPanel extends DataSourcePanel {
     int timeout = (int) (Double.parseDouble(wsTimeout.getText()) * 1000);
     int gs = (int) (Double.parseDouble(gulperSize.getText()) * 60);
     int gd = (int) (Double.parseDouble(gulperDelay.getText()) * 1000);
-    String result = String.format("ws:%s:%s:%d:%d:%d:%s", wsHost.getText(), wsPort.getText(),
-        timeout, gs, gd, wsOffset.getSelectedItem());
+    int gp = Integer.parseInt(gulperParallelism.getText());
+    String result = String.format("ws:%s:%s:%d:%d:%d:%s:%d", wsHost.getText(), wsPort.getText(),
+        timeout, gs, gd, wsOffset.getSelectedItem(), gp);
     return result;
   }
 
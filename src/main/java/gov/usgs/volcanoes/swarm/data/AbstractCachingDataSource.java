@@ -8,12 +8,26 @@ package gov.usgs.volcanoes.swarm.data;
 import gov.usgs.volcanoes.core.data.HelicorderData;
 import gov.usgs.volcanoes.core.data.RSAMData;
 import gov.usgs.volcanoes.core.data.Wave;
+import gov.usgs.volcanoes.core.time.J2kSec;
 import gov.usgs.volcanoes.swarm.Swarm;
+import java.lang.ref.SoftReference;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
 import javax.swing.JFrame;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -27,6 +41,23 @@ import cern.colt.matrix.DoubleMatrix2D;
  * <p>
  * Mostly build with Dan's code pulled from CachedDataSource.
  *
+ * <p>
+ * Channels are guarded by a fixed set of striped read/write locks, so readers never wait on
+ * writers to other channels. Size enforcement runs on its own thread after puts.
+ *
+ * <p>
+ * Waves, helicorders, and RSAM each have an LRU list which tracks their total size. When the cache
+ * is over <code>maxSize</code>, entries are evicted one at a time, least recently used first, from
+ * whichever kind of entry is furthest over its share of the cache. <code>maxSize</code> starts at
+ * the configured budget, drops whenever the heap is still nearly full after a collection, and
+ * creeps back up once the heap has room again. Every cache counts against the same budget, so
+ * <code>maxSize</code> bounds the caches' combined size, and entries are evicted from whichever
+ * cache holds the most.
+ *
+ * <p>
+ * An optional <code>DiskCache</code> sits beneath the memory cache. Entries evicted from memory are
+ * written to it, and requests for data missing from memory are filled from it first.
+ *
  * @author Tom Parker
  */
 public abstract class AbstractCachingDataSource extends SeismicDataSource implements RsamSource {
@@ -41,23 +72,302 @@ public abstract class AbstractCachingDataSource extends SeismicDataSource implem
   /** microsecond conversion. */
   protected static final double FROM_USEC = 1E-6;
 
-  protected long maxSize;
-  protected Map<String, List<CachedHelicorder>> helicorderCache;
-  protected Map<String, List<CachedWave>> waveCache;
-  protected Map<String, List<CachedRsam>> rsamCache;
-  protected CachePurgeAction[] purgeActions;
+  /** source of cache entry ids. */
+  private static final AtomicLong ENTRY_IDS = new AtomicLong();
+
+  /** every cache, since they share one budget. */
+  private static final List<AbstractCachingDataSource> CACHES =
+      new CopyOnWriteArrayList<AbstractCachingDataSource>();
+
+  /** number of locks shared among channels. */
+  private static final int LOCK_STRIPES = 64;
+
+  /** waves untouched for this long are moved to the off-heap store, in ms. */
+  private static final long OFF_HEAP_DELAY = 60 * 1000;
+
+  /** how often to look for waves to compress or move off-heap, in ms. */
+  private static final long AGING_SCAN_INTERVAL = 10 * 1000;
+
+  /** seconds of helicorder data held by each cache entry. */
+  private static final int HELICORDER_CHUNK = 60 * 60;
+
+  /** seconds per row at each level of the helicorder pyramid. Each divides the next. */
+  public static final int[] HELICORDER_RESOLUTIONS = {1, 10, 60, 600};
+
+  /** gaps in memory shorter than this aren't looked for on disk, in seconds. */
+  private static final double MIN_DISK_GAP = 1;
+
+  /** gaps shorter than this aren't fetched from a source, in seconds. */
+  private static final double MIN_FETCH_GAP = 0.1;
+
+  /** how long a source is believed to have no data for a span it returned nothing for, in ms. */
+  private static final long EMPTY_TTL = 10 * 60 * 1000;
+
+  /** data this recent may still be on its way to the source, so is never known-empty, in s. */
+  private static final double RECENT_DATA = 2 * 60;
+
+  /** longest time to wait for another thread's fetch of the same data, in ms. */
+  private static final long PENDING_TIMEOUT = 30 * 1000;
+
+  /** fraction of the budget the cache shrinks to each time the heap is under pressure. */
+  private static final double BUDGET_SHRINK = 0.75;
+
+  /** fraction of the budget the cache grows by while the heap has room to spare. */
+  private static final double BUDGET_GROW = 1.1;
+
+  /** the cache never shrinks below this fraction of its configured budget. */
+  private static final double MIN_BUDGET = 0.1;
+
+  /** most wave data fetched at once when computing RSAM, in seconds. */
+  private static final int RSAM_CHUNK = 60 * 60;
+
+  /** delay between chunks fetched to compute RSAM, in ms. */
+  private static final int RSAM_DELAY = 1000;
+
+  /** bytes the cache may use on the heap. Lowered while the heap is under pressure. */
+  protected volatile long maxSize;
+
+  /** configured cache budget, in bytes. */
+  protected long budget;
+  protected Map<String, IntervalIndex<CachedHelicorder>> helicorderCache;
+  protected Map<String, IntervalIndex<CachedWave>> waveCache;
+  protected Map<String, IntervalIndex<CachedRsam>> rsamCache;
+  protected final CacheLru<CachedWave> waveLru;
+  protected final CacheLru<CachedHelicorder> helicorderLru;
+  protected final CacheLru<CachedRsam> rsamLru;
+
+  /** waves held off-heap. They use no heap, so they're kept out of waveLru. */
+  protected final CacheLru<CachedWave> offHeapLru;
+  protected OffHeapSampleStore offHeapStore;
+  protected DiskCache diskCache;
+  protected final CacheMetrics metrics;
+
+  /** per-channel record of spans known to be missing upstream or being fetched. */
+  private final Map<String, CoverageMap> coverage;
+
+  /** RSAM calculators fed by arriving waves, by channel and period. */
+  private final Map<String, Map<Integer, RsamCalculator>> rsamCalculators;
+
+  /** latest RSAM backfill by source, channel, and period. Guarded by itself. */
+  private final Map<String, RsamGulper> rsamBackfills;
+
+  /** waves unchanged for this long are compressed, in ms. Zero to keep waves uncompressed. */
+  protected long compressionAge;
   protected static Logger logger;
   protected static final JFrame applicationFrame = Swarm.getApplicationFrame();
 
+  private final ReadWriteLock[] locks;
+  private final ExecutorService sizeEnforcer;
+  private final AtomicBoolean sizeCheckPending;
+  private long lastAgingScan;
+
   /**
    * Constructor.
    */
   public AbstractCachingDataSource() {
-    helicorderCache = new HashMap<String, List<CachedHelicorder>>();
-    waveCache = new HashMap<String, List<CachedWave>>();
-    rsamCache = new HashMap<String, List<CachedRsam>>();
-    maxSize = Runtime.getRuntime().maxMemory() / 6;
-    createPurgeActions();
+    helicorderCache = new ConcurrentHashMap<String, IntervalIndex<CachedHelicorder>>();
+    waveCache = new ConcurrentHashMap<String, IntervalIndex<CachedWave>>();
+    rsamCache = new ConcurrentHashMap<String, IntervalIndex<CachedRsam>>();
+    budget = Runtime.getRuntime().maxMemory() / 6;
+    maxSize = budget;
+    waveLru = new CacheLru<CachedWave>("wave", 0.5);
+    helicorderLru = new CacheLru<CachedHelicorder>("helicorder", 0.4);
+    rsamLru = new CacheLru<CachedRsam>("RSAM", 0.1);
+    offHeapLru = new CacheLru<CachedWave>("off-heap wave", 1);
+    coverage = new ConcurrentHashMap<String, CoverageMap>();
+    rsamCalculators = new ConcurrentHashMap<String, Map<Integer, RsamCalculator>>();
+    rsamBackfills = new HashMap<String, RsamGulper>();
+
+    metrics = new CacheMetrics(this);
+    locks = new ReadWriteLock[LOCK_STRIPES];
+    for (int i = 0; i < locks.length; i++) {
+      locks[i] = new TimedReadWriteLock(metrics);
+    }
+    sizeCheckPending = new AtomicBoolean();
+    sizeEnforcer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+      public Thread newThread(final Runnable r) {
+        final Thread thread = new Thread(r, "Cache size enforcer");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    HeapMonitor.onPressure(new Runnable() {
+      public void run() {
+        shrinkBudget();
+      }
+    });
+    CACHES.add(this);
+  }
+
+  /**
+   * Set the cache budget, either as a percentage of the maximum heap size, such as
+   * <code>20%</code>, or as a number of bytes with an optional K, M or G suffix, such as
+   * <code>512M</code>. The cache uses less than this while the heap is under pressure.
+   * 
+   * @param spec budget
+   */
+  public void setBudget(final String spec) {
+    final long size = parseBudget(spec);
+    if (size <= 0) {
+      LOGGER.warn("Ignoring cache size {}, keeping {} bytes", spec, budget);
+      return;
+    }
+    budget = size;
+    maxSize = size;
+    requestSizeCheck();
+  }
+
+  private static long parseBudget(final String spec) {
+    if (spec == null) {
+      return -1;
+    }
+    String s = spec.trim().toUpperCase();
+    if (s.isEmpty()) {
+      return -1;
+    }
+    try {
+      if (s.endsWith("%")) {
+        final double percent = Double.parseDouble(s.substring(0, s.length() - 1));
+        if (percent <= 0 || percent > 100) {
+          return -1;
+        }
+        return (long) (Runtime.getRuntime().maxMemory() * percent / 100);
+      }
+
+      long unit = 1;
+      final char suffix = s.charAt(s.length() - 1);
+      if (suffix == 'K') {
+        unit = 1024L;
+      } else if (suffix == 'M') {
+        unit = 1024L * 1024;
+      } else if (suffix == 'G') {
+        unit = 1024L * 1024 * 1024;
+      }
+      if (unit > 1) {
+        s = s.substring(0, s.length() - 1);
+      }
+      return (long) (Double.parseDouble(s) * unit);
+    } catch (final NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  /**
+   * Shrink the cache because live data is filling the heap. Called when a heap pool is still
+   * nearly full after a collection, so entries are let go before the collector starts running
+   * full collections back to back.
+   */
+  private void shrinkBudget() {
+    final long floor = (long) (budget * MIN_BUDGET);
+    final long size = Math.max(floor, (long) (Math.min(maxSize, getSize()) * BUDGET_SHRINK));
+    if (size < maxSize) {
+      maxSize = size;
+      LOGGER.info("Heap under pressure, cache shrunk to {} bytes", size);
+      requestSizeCheck();
+    }
+  }
+
+  /** Let the cache grow back towards its budget while the heap has room to spare. */
+  private void growBudget() {
+    if (maxSize < budget) {
+      maxSize = Math.min(budget, (long) (maxSize * BUDGET_GROW));
+      LOGGER.debug("cache grown to {} bytes", maxSize);
+    }
+  }
+
+  /**
+   * Divide the cache among the kinds of entries. A kind may use more than its share while the
+   * cache has room, but is the first to lose entries once the cache is full.
+   * 
+   * @param waves wave share
+   * @param helicorders helicorder share
+   * @param rsam RSAM share
+   */
+  public void setShares(final double waves, final double helicorders, final double rsam) {
+    final double total = waves + helicorders + rsam;
+    if (total <= 0) {
+      return;
+    }
+    waveLru.setShare(waves / total);
+    helicorderLru.setShare(helicorders / total);
+    rsamLru.setShare(rsam / total);
+    requestSizeCheck();
+  }
+
+  /**
+   * Keep wave samples outside of the Java heap. Waves which haven't changed for a minute are moved
+   * to the off-heap store and read back on demand. Off-heap samples do not count against
+   * <code>maxSize</code>.
+   * 
+   * @param capacity off-heap capacity in bytes, or zero to keep all samples on the heap
+   */
+  public void setOffHeapCapacity(final long capacity) {
+    if (capacity > 0) {
+      offHeapStore = new OffHeapSampleStore(capacity);
+      LOGGER.info("Caching wave samples off-heap, up to {} bytes", capacity);
+    } else {
+      offHeapStore = null;
+    }
+  }
+
+  /**
+   * Compress waves which haven't changed for a while. Compressed waves stay on the heap and count
+   * against <code>maxSize</code> at their compressed size; reads decode only the samples they
+   * need. Recent data, which is still being appended to, stays uncompressed.
+   * 
+   * @param seconds age at which waves are compressed, or zero to keep waves uncompressed
+   */
+  public void setCompressionAge(final int seconds) {
+    compressionAge = Math.max(0, seconds) * 1000L;
+    if (compressionAge > 0) {
+      LOGGER.info("Compressing cached waves after {} seconds", seconds);
+    }
+  }
+
+  /**
+   * Keep a copy of evicted data on disk and look there before going to a data source.
+   * 
+   * @param diskCache disk tier, or null to keep data in memory only
+   */
+  public void setDiskCache(final DiskCache diskCache) {
+    this.diskCache = diskCache;
+  }
+
+  /**
+   * Write everything held in memory to the disk tier, so it's available after a restart.
+   */
+  public void persist() {
+    final DiskCache disk = diskCache;
+    if (disk == null) {
+      return;
+    }
+    persist(waveCache, disk);
+    persist(helicorderCache, disk);
+  }
+
+  private <T extends CacheEntry> void persist(final Map<String, IntervalIndex<T>> cache,
+      final DiskCache disk) {
+    for (final Map.Entry<String, IntervalIndex<T>> entry : cache.entrySet()) {
+      final ReadWriteLock lock = getLock(entry.getKey());
+      lock.readLock().lock();
+      try {
+        for (final T ce : entry.getValue().entries()) {
+          ce.spill(disk);
+        }
+      } finally {
+        lock.readLock().unlock();
+      }
+    }
+  }
+
+  /**
+   * Get the lock guarding a channel. Channels share a fixed number of locks.
+   * 
+   * @param station channel
+   * @return read/write lock for the channel
+   */
+  protected ReadWriteLock getLock(final String station) {
+    return locks[(station.hashCode() & 0x7fffffff) % LOCK_STRIPES];
   }
 
   @Override
@@ -71,36 +381,70 @@ public abstract class AbstractCachingDataSource extends SeismicDataSource implem
   public void flush() {
     flushWaves();
     flushHelicorders();
+    coverage.clear();
+    if (diskCache != null) {
+      diskCache.clear();
+    }
     System.gc();
   }
 
-  @Override
-  public boolean isActiveSource() {
-    return false;
+  public CacheMetrics getMetrics() {
+    return metrics;
   }
 
   /**
-   * Get total size of cache.
+   * Count the entries held for each channel.
    * 
-   * @return
+   * @return channel to {waves, helicorders, RSAM} counts, ordered by channel
    */
-  public synchronized long getSize() {
-    long size = getSize(waveCache);
-    size += getSize(helicorderCache);
-    size += getSize(rsamCache);
-    return size;
+  Map<String, int[]> getEntryCounts() {
+    final Map<String, int[]> counts = new TreeMap<String, int[]>();
+    countEntries(waveCache, counts, 0);
+    countEntries(helicorderCache, counts, 1);
+    countEntries(rsamCache, counts, 2);
+    return counts;
   }
 
-  private synchronized <T extends CacheEntry> long getSize(final Map<String, List<T>> cache) {
-    long size = 0;
-    for (final String key : cache.keySet()) {
-      final List<T> cwl = cache.get(key);
-
-      for (final T ce : cwl) {
-        size += ce.getMemorySize();
+  private <T extends CacheEntry> void countEntries(final Map<String, IntervalIndex<T>> cache,
+      final Map<String, int[]> counts, final int kind) {
+    for (final Map.Entry<String, IntervalIndex<T>> entry : cache.entrySet()) {
+      int[] c = counts.get(entry.getKey());
+      if (c == null) {
+        c = new int[3];
+        counts.put(entry.getKey(), c);
+      }
+      final ReadWriteLock lock = getLock(entry.getKey());
+      lock.readLock().lock();
+      try {
+        c[kind] = entry.getValue().size();
+      } finally {
+        lock.readLock().unlock();
       }
     }
-    return size;
+  }
+
+  /**
+   * Get bytes held in the off-heap store.
+   * 
+   * @return off-heap size, zero if samples are kept on the heap
+   */
+  public long getOffHeapSize() {
+    final OffHeapSampleStore store = offHeapStore;
+    return store == null ? 0 : store.getUsed();
+  }
+
+  @Override
+  public boolean isActiveSource() {
+    return false;
+  }
+
+  /**
+   * Get total size of cache on the Java heap.
+   * 
+   * @return
+   */
+  public long getSize() {
+    return waveLru.getSize() + helicorderLru.getSize() + rsamLru.getSize();
   }
 
   /**
@@ -110,76 +454,209 @@ public abstract class AbstractCachingDataSource extends SeismicDataSource implem
     long size = outputCache("Wave", waveCache);
     size += outputCache("Helicorder", helicorderCache);
     System.out.println("Wave Last Access Order:");
-    final List<CacheEntry> wl = getEntriesByLastAccess(waveCache);
+    final List<CachedWave> wl = waveLru.snapshot();
+    wl.addAll(offHeapLru.snapshot());
     for (final CacheEntry ce : wl) {
       System.out.println(ce.getInfoString());
     }
 
     System.out.println("Helicorder Last Access Order:");
-    final List<CacheEntry> hl = getEntriesByLastAccess(helicorderCache);
+    final List<CachedHelicorder> hl = helicorderLru.snapshot();
     for (final CacheEntry ce : hl) {
       System.out.println(ce.getInfoString());
     }
 
     System.out.println("Total size: " + size + " bytes");
+    System.out.print(metrics.getReport());
+  }
+
+  /**
+   * Ask the size enforcer to check the cache. Requests made while a check is already queued are
+   * folded into that check.
+   */
+  protected void requestSizeCheck() {
+    if (sizeCheckPending.compareAndSet(false, true)) {
+      sizeEnforcer.execute(new Runnable() {
+        public void run() {
+          sizeCheckPending.set(false);
+          try {
+            enforceSize();
+          } catch (final RuntimeException e) {
+            LOGGER.error("Unable to enforce cache size", e);
+          }
+        }
+      });
+    }
   }
 
-  private synchronized <T extends CacheEntry> List<CacheEntry> getEntriesByLastAccess(
-      final Map<String, List<T>> cache) {
-    final List<CacheEntry> cl = new ArrayList<CacheEntry>();
-    for (final String key : cache.keySet()) {
-      final List<T> cwl = cache.get(key);
-      for (final T ce : cwl) {
-        cl.add(ce);
+  /** Only called from the size enforcer thread. */
+  private void enforceSize() {
+    final long now = System.currentTimeMillis();
+    if (now - lastAgingScan >= AGING_SCAN_INTERVAL) {
+      lastAgingScan = now;
+      // shrinking is left to heap notifications, which come only after fresh collections
+      if (HeapMonitor.getUsage() < HeapMonitor.LOW_WATER) {
+        growBudget();
+      }
+      if (compressionAge > 0) {
+        compressWaves(now - compressionAge);
+      }
+      if (offHeapStore != null) {
+        moveWavesOffHeap();
       }
     }
 
-    return cl;
+    long evicted = 0;
+    while (getSharedSize() > maxSize) {
+      final long size = getLargestCache().evictEldest();
+      if (size < 0) {
+        break;
+      }
+      evicted += size;
+    }
+    if (evicted > 0) {
+      LOGGER.debug("evicted {} bytes from cache", evicted);
+    }
   }
 
-  /**
-   * Create purge actions.
-   */
-  public void createPurgeActions() {
-    purgeActions = new CachePurgeAction[] {
-        // purge anything that hasn't been hit in 5 minutes
-        new TimeLimitWavePurgeAction(waveCache, 5 * 60 * 1000),
-        new TimeLimitHelicorderPurgeAction(helicorderCache, 5 * 60 * 1000),
-        new TimeLimitRsamPurgeAction(rsamCache, 5 * 60 * 1000),
+  /** Get the combined size of every cache on the Java heap. */
+  private static long getSharedSize() {
+    long size = 0;
+    for (final AbstractCachingDataSource cache : CACHES) {
+      size += cache.getSize();
+    }
+    return size;
+  }
 
-        // cut waves larger than 3 hours in half keeping latest half
-        new HalveLargeWavesPurgeAction(waveCache, 3 * 60 * 60),
+  /** Get the cache holding the most on the Java heap. */
+  private static AbstractCachingDataSource getLargestCache() {
+    AbstractCachingDataSource largest = null;
+    for (final AbstractCachingDataSource cache : CACHES) {
+      if (largest == null || cache.getSize() > largest.getSize()) {
+        largest = cache;
+      }
+    }
+    return largest;
+  }
 
-        // cut waves larger than 1 hour in half
-        new HalveLargeWavesPurgeAction(waveCache, 60 * 60),
+  /**
+   * Evict the least recently used entry of the kind furthest over its share of the cache.
+   * 
+   * @return bytes evicted, or -1 if the cache is empty
+   */
+  private long evictEldest() {
+    CacheLru<?> victim = null;
+    double worst = 0;
+    for (final CacheLru<?> lru : new CacheLru<?>[] {waveLru, helicorderLru, rsamLru}) {
+      final double load = lru.getSize() / Math.max(lru.getShare() * maxSize, 1);
+      if (lru.getSize() > 0 && load > worst) {
+        victim = lru;
+        worst = load;
+      }
+    }
 
-        // getting to the last resort, purge wave cache
-        new CompleteWavePurgeAction(waveCache),
+    if (victim == waveLru) {
+      return evictEldest(waveLru, waveCache);
+    } else if (victim == helicorderLru) {
+      return evictEldest(helicorderLru, helicorderCache);
+    } else if (victim == rsamLru) {
+      return evictEldest(rsamLru, rsamCache);
+    } else {
+      return -1;
+    }
+  }
 
-        // should halve large helis
+  private <T extends CacheEntry> long evictEldest(final CacheLru<T> lru,
+      final Map<String, IntervalIndex<T>> cache) {
+    final T ce = lru.eldest();
+    if (ce == null) {
+      return -1;
+    }
+    final int size = ce.getMemorySize();
+    // if another thread got to it first the next eldest is tried on the next pass
+    return removeEntryFromCache(ce, cache, CacheMetrics.Reason.SIZE) ? size : 0;
+  }
 
-        // nothing left to do, purge helicorder cache
-        new CompleteHelicorderPurgeAction(helicorderCache) };
+  /**
+   * Compress waves which haven't changed since a given time.
+   * 
+   * @param cutoff time in ms
+   */
+  private void compressWaves(final long cutoff) {
+    long saved = 0;
+    for (final CachedWave cw : waveLru.snapshot()) {
+      if (cw.lastModified >= cutoff || !cw.isCompressible()) {
+        continue;
+      }
+      final ReadWriteLock lock = getLock(cw.station);
+      lock.writeLock().lock();
+      try {
+        final IntervalIndex<CachedWave> waves = waveCache.get(cw.station);
+        if (waves != null && waves.contains(cw)) {
+          saved += cw.compress();
+        }
+      } finally {
+        lock.writeLock().unlock();
+      }
+    }
+    if (saved > 0) {
+      LOGGER.debug("compressed cached waves, saving {} bytes", saved);
+    }
   }
 
-  /** TODO: maybe this should be an observer. */
-  private synchronized void enforceSize() {
-    if (purgeActions == null) {
+  /**
+   * Move waves which haven't changed recently to the off-heap store. When the store is full the
+   * least recently used off-heap waves are dropped to make room.
+   */
+  private void moveWavesOffHeap() {
+    final OffHeapSampleStore store = offHeapStore;
+    if (store == null) {
       return;
     }
+    final long cutoff = System.currentTimeMillis() - OFF_HEAP_DELAY;
+    final List<CachedWave> candidates = new ArrayList<CachedWave>();
+    for (final CachedWave cw : waveLru.snapshot()) {
+      if (cw.lastModified < cutoff && cw.isRaw()) {
+        candidates.add(cw);
+      }
+    }
 
-    long target = getSize() - maxSize;
-    int i = 0;
-    while (target > 0 && i < purgeActions.length) {
-      final long chunk = purgeActions[i].purge();
-      LOGGER.debug("purged {} bytes from cache", chunk);
-      target -= chunk;
-      i++;
+    // most recently used first, so the least valuable waves are the ones that don't fit
+    Collections.reverse(candidates);
+    for (final CachedWave cw : candidates) {
+      final ReadWriteLock lock = getLock(cw.station);
+      boolean stored;
+      lock.writeLock().lock();
+      try {
+        final IntervalIndex<CachedWave> waves = waveCache.get(cw.station);
+        if (waves == null || !waves.contains(cw)) {
+          continue;
+        }
+        stored = cw.moveOffHeap(store);
+      } finally {
+        lock.writeLock().unlock();
+      }
+
+      CachedWave victim = offHeapLru.eldest();
+      while (!stored && victim != null && victim.lastAccess < cw.lastAccess) {
+        removeEntryFromCache(victim, waveCache, CacheMetrics.Reason.OFF_HEAP);
+        lock.writeLock().lock();
+        try {
+          stored = cw.moveOffHeap(store);
+        } finally {
+          lock.writeLock().unlock();
+        }
+        victim = offHeapLru.eldest();
+      }
+      if (!stored) {
+        return;
+      }
     }
   }
 
-  private synchronized void putWaveInCache(final String channel, final Wave wave,
-      final List<CachedWave> waves) {
+  /** Caller must hold the channel's write lock. */
+  private void putWaveInCache(final String channel, final Wave wave,
+      final IntervalIndex<CachedWave> waves) {
     if (wave.getMemorySize() > MAX_WAVE_SIZE) {
       final Wave[] splitWaves = wave.split();
       putWaveInCache(channel, splitWaves[0], waves);
@@ -192,8 +669,9 @@ public abstract class AbstractCachingDataSource extends SeismicDataSource implem
     cw.t2 = wave.getEndTime();
     cw.wave = wave;
     cw.lastAccess = System.currentTimeMillis();
+    cw.lastModified = cw.lastAccess;
     waves.add(cw);
-    enforceSize();
+    requestSizeCheck();
   }
 
   /**
@@ -202,148 +680,278 @@ public abstract class AbstractCachingDataSource extends SeismicDataSource implem
    * @param station channel
    * @param rsamData rsam data
    */
-  public void putRsam(final String station, RSAMData rsamData) {
-    if (rsamData == null || rsamData.getData() == null) {
+  public void putRsam(final String station, final RSAMData rsamData) {
+    if (rsamData == null || rsamData.getData() == null || rsamData.getData().rows() == 0) {
       return;
     }
 
-    List<CachedRsam> rsams = rsamCache.get(station);
+    final ReadWriteLock lock = getLock(station);
+    lock.writeLock().lock();
+    try {
+      insertRsam(station, rsamData.getData(), rsamData.getPeriod());
+    } finally {
+      lock.writeLock().unlock();
+    }
+    requestSizeCheck();
+  }
+
+  /**
+   * Put computed RSAM into cache. Rows for times already cached are dropped.
+   * 
+   * @param station channel
+   * @param period seconds per row
+   * @param rows {time, value} rows ordered by time
+   */
+  private void putRsamRows(final String station, final int period, final List<double[]> rows) {
+    final ReadWriteLock lock = getLock(station);
+    lock.writeLock().lock();
+    try {
+      final IntervalIndex<CachedRsam> rsams = rsamCache.get(station);
+      final List<double[]> fresh = new ArrayList<double[]>();
+      for (final double[] row : rows) {
+        boolean cached = false;
+        if (rsams != null) {
+          for (final CachedRsam cr : rsams.findOverlapping(row[0], row[0] + period)) {
+            cached |= cr.period == period && cr.holds(row[0]);
+          }
+        }
+        if (!cached) {
+          fresh.add(row);
+        }
+      }
+      if (fresh.isEmpty()) {
+        return;
+      }
+
+      final DoubleMatrix2D data = DoubleFactory2D.dense.make(fresh.size(), 2);
+      for (int i = 0; i < fresh.size(); i++) {
+        data.setQuick(i, 0, fresh.get(i)[0]);
+        data.setQuick(i, 1, fresh.get(i)[1]);
+      }
+      insertRsam(station, data, period);
+    } finally {
+      lock.writeLock().unlock();
+    }
+    requestSizeCheck();
+  }
+
+  /**
+   * Add RSAM rows to the cache, merging them with cached rows for the same period which overlap
+   * or adjoin them. Caller must hold the channel's write lock.
+   */
+  private void insertRsam(final String station, DoubleMatrix2D data, final int period) {
+    IntervalIndex<CachedRsam> rsams = rsamCache.get(station);
     if (rsams == null) {
-      rsams = new ArrayList<CachedRsam>();
-      final CachedRsam cr = new CachedRsam();
-      cr.station = station;
-      cr.t1 = rsamData.getStartTime();
-      cr.t2 = rsamData.getEndTime();
-      cr.rsamData = rsamData;
-      cr.lastAccess = System.currentTimeMillis();
-      rsams.add(cr);
+      rsams = new IntervalIndex<CachedRsam>(rsamLru);
       rsamCache.put(station, rsams);
-      enforceSize();
-    } else {
-      boolean add = true;
-      for (int i = 0; i < rsams.size(); i++) {
-        final CachedRsam ch = rsams.get(i);
-        if (ch.rsamData.overlaps(rsamData) && rsamData != ch.rsamData) {
-          rsams.remove(ch);
-          final RSAMData newRsam = ch.rsamData.combine(rsamData);
-          putRsam(station, newRsam);
-          rsamData = newRsam;
-          i = 0;
-          add = false;
-        }
+    }
+
+    double t1 = data.getQuick(0, 0);
+    double t2 = data.getQuick(data.rows() - 1, 0) + period;
+    for (final CachedRsam cr : rsams.findOverlapping(t1 - period, t2 + period)) {
+      if (cr.period == period && cr.t1 <= t2 && t1 <= cr.t2) {
+        rsams.remove(cr);
+        data = mergeRows(cr.rsamData.getData(), data);
+        t1 = Math.min(t1, cr.t1);
+        t2 = Math.max(t2, cr.t2);
+        metrics.merged();
       }
+    }
+
+    final RSAMData rsamData = new RSAMData();
+    rsamData.setData(data);
+    final CachedRsam cr = new CachedRsam();
+    cr.station = station;
+    cr.period = period;
+    cr.t1 = t1;
+    cr.t2 = t2;
+    cr.rsamData = rsamData;
+    cr.lastAccess = System.currentTimeMillis();
+    rsams.add(cr);
+  }
 
-      if (add) {
-        final CachedRsam ch = new CachedRsam();
-        ch.station = station;
-        ch.t1 = rsamData.getStartTime();
-        ch.t2 = rsamData.getEndTime();
-        ch.rsamData = rsamData;
-        ch.lastAccess = System.currentTimeMillis();
-        rsams.add(ch);
-        enforceSize();
+  /**
+   * Merge two sets of rows ordered by time. Where both have a row for the same time the second
+   * set's is kept.
+   */
+  private static DoubleMatrix2D mergeRows(final DoubleMatrix2D a, final DoubleMatrix2D b) {
+    final DoubleMatrix2D merged = DoubleFactory2D.dense.make(a.rows() + b.rows(), 2);
+    int i = 0;
+    int j = 0;
+    int n = 0;
+    while (i < a.rows() || j < b.rows()) {
+      final DoubleMatrix2D src;
+      final int row;
+      if (j == b.rows() || (i < a.rows() && a.getQuick(i, 0) < b.getQuick(j, 0))) {
+        src = a;
+        row = i++;
+      } else {
+        if (i < a.rows() && a.getQuick(i, 0) == b.getQuick(j, 0)) {
+          i++;
+        }
+        src = b;
+        row = j++;
       }
+      merged.setQuick(n, 0, src.getQuick(row, 0));
+      merged.setQuick(n, 1, src.getQuick(row, 1));
+      n++;
     }
+    return merged.viewPart(0, 0, n, 2).copy();
   }
 
   /**
-   * Put helicorder.
+   * Put helicorder. Rows replace any cached data for the same second, and the whole span of the
+   * helicorder is marked as cached even where it has no rows.
    * 
    * @param station channel
    * @param helicorder helicorder data
    */
-  public synchronized void putHelicorder(final String station, HelicorderData helicorder) {
-    List<CachedHelicorder> helis = helicorderCache.get(station);
-    if (helis == null) {
-      helis = new ArrayList<CachedHelicorder>();
-      final CachedHelicorder ch = new CachedHelicorder();
-      ch.station = station;
-      ch.t1 = helicorder.getStartTime();
-      ch.t2 = helicorder.getEndTime();
-      ch.helicorder = helicorder;
-      ch.lastAccess = System.currentTimeMillis();
-      helis.add(ch);
-      helicorderCache.put(station, helis);
-      enforceSize();
-    } else {
-      boolean add = true;
-      for (int i = 0; i < helis.size(); i++) {
-        final CachedHelicorder ch = helis.get(i);
-
-        if (ch.helicorder.overlaps(helicorder)) {
-          final HelicorderData newHeli = ch.helicorder.combine(helicorder);
-          ch.t1 = newHeli.getStartTime();
-          ch.t2 = newHeli.getEndTime();
-          ch.helicorder = newHeli;
-          ch.lastAccess = System.currentTimeMillis();
+  public void putHelicorder(final String station, final HelicorderData helicorder) {
+    final DoubleMatrix2D data = helicorder.getData();
+    if (data == null || data.rows() == 0) {
+      return;
+    }
 
-          helicorder = newHeli;
-          i = 0;
-          add = false;
-          break;
-        }
-      }
+    long first = Long.MAX_VALUE;
+    long last = Long.MIN_VALUE;
+    for (int i = 0; i < data.rows(); i++) {
+      final long second = (long) Math.floor(data.getQuick(i, 0));
+      first = Math.min(first, second);
+      last = Math.max(last, second);
+    }
 
-      if (add) {
-        final CachedHelicorder ch = new CachedHelicorder();
-        ch.station = station;
-        ch.t1 = helicorder.getStartTime();
-        ch.t2 = helicorder.getEndTime();
-        ch.helicorder = helicorder;
-        ch.lastAccess = System.currentTimeMillis();
-        helis.add(ch);
-        enforceSize();
+    final ReadWriteLock lock = getLock(station);
+    lock.writeLock().lock();
+    try {
+      final IntervalIndex<CachedHelicorder> helis = getHelicorders(station);
+      cover(station, helis, first, last + 1);
+      CachedHelicorder ch = null;
+      for (int i = 0; i < data.rows(); i++) {
+        final long second = (long) Math.floor(data.getQuick(i, 0));
+        ch = getChunk(station, helis, second, ch);
+        ch.put(ch.index(second), data.getQuick(i, 1), data.getQuick(i, 2));
       }
+    } finally {
+      lock.writeLock().unlock();
     }
+    requestSizeCheck();
   }
 
   /**
-   * Cache wave as helicorder.
+   * Cache wave as helicorder. The wave is summarized into per-second min and max, which are merged
+   * into the cached helicorder in place.
    * 
    * @param station channel
    * @param wave wave data
    */
-  public synchronized void cacheWaveAsHelicorder(final String station, final Wave wave) {
-    if (inHelicorderCache(station, wave.getStartTime(), wave.getEndTime())) {
+  public void cacheWaveAsHelicorder(final String station, final Wave wave) {
+    final int samples = wave.numSamples();
+    if (samples == 0) {
       return;
     }
 
-    final int seconds = (int) Math.ceil(wave.numSamples() * wave.getSamplingPeriod());
-    final DoubleMatrix2D data = DoubleFactory2D.dense.make(seconds, 3);
-    for (int i = 0; i < seconds; i++) {
-      data.setQuick(i, 1, Integer.MAX_VALUE);
-      data.setQuick(i, 2, Integer.MIN_VALUE);
+    // summarize outside of the lock
+    final double start = wave.getStartTime();
+    final double period = wave.getSamplingPeriod();
+    final long first = (long) Math.floor(start);
+    final int seconds = (int) ((long) Math.floor(start + (samples - 1) * period) - first + 1);
+    final double[] min = new double[seconds];
+    final double[] max = new double[seconds];
+    Arrays.fill(min, Double.NaN);
+    Arrays.fill(max, Double.NaN);
+    for (int i = 0; i < samples; i++) {
+      final int sample = wave.buffer[i];
+      if (sample != Wave.NO_DATA) {
+        final int s = (int) ((long) Math.floor(start + i * period) - first);
+        if (Double.isNaN(min[s])) {
+          min[s] = sample;
+          max[s] = sample;
+        } else {
+          min[s] = Math.min(min[s], sample);
+          max[s] = Math.max(max[s], sample);
+        }
+      }
     }
 
-    final long sPeriod = (long) (wave.getSamplingPeriod() * TO_USEC);
-    final long startTime = (long) (wave.getStartTime() * TO_USEC);
-    for (int sampleIndex = 0; sampleIndex < wave.numSamples(); sampleIndex++) {
-      final long sampleTime = startTime + sampleIndex * sPeriod;
-      final int sample = wave.buffer[sampleIndex];
-
-      if (sample != Wave.NO_DATA) {
-        final int secondIndex = (int) ((sampleTime - startTime) / TO_USEC);
-        data.setQuick(secondIndex, 0, sampleTime / TO_USEC);
-        data.setQuick(secondIndex, 1, Math.min(data.getQuick(secondIndex, 1), sample));
-        data.setQuick(secondIndex, 2, Math.max(data.getQuick(secondIndex, 2), sample));
+    final ReadWriteLock lock = getLock(station);
+    lock.writeLock().lock();
+    try {
+      final IntervalIndex<CachedHelicorder> helis = getHelicorders(station);
+      cover(station, helis, first, first + seconds);
+      CachedHelicorder ch = null;
+      for (int s = 0; s < seconds; s++) {
+        if (!Double.isNaN(min[s])) {
+          ch = getChunk(station, helis, first + s, ch);
+          ch.merge(ch.index(first + s), min[s], max[s]);
+        }
       }
+    } finally {
+      lock.writeLock().unlock();
+    }
+    requestSizeCheck();
+  }
 
+  /** Caller must hold the channel's write lock. */
+  private IntervalIndex<CachedHelicorder> getHelicorders(final String station) {
+    IntervalIndex<CachedHelicorder> helis = helicorderCache.get(station);
+    if (helis == null) {
+      helis = new IntervalIndex<CachedHelicorder>(helicorderLru);
+      helicorderCache.put(station, helis);
     }
+    return helis;
+  }
 
-    for (int i = 0; i < seconds; i++) {
-      final double min = data.getQuick(i, 1);
-      if (min == Integer.MAX_VALUE) {
-        data.setQuick(i, 1, wave.mean());
-      }
-      final double max = data.getQuick(i, 2);
-      if (max == Integer.MIN_VALUE) {
-        data.setQuick(i, 2, wave.mean());
-      }
+  /**
+   * Find the chunk holding a second. Caller must hold the channel's lock, and the write lock if
+   * create is true.
+   * 
+   * @param current chunk to check first, may be null
+   * @param create create the chunk if it doesn't exist
+   * @return chunk, or null if there is none and create is false
+   */
+  private CachedHelicorder findChunk(final String station,
+      final IntervalIndex<CachedHelicorder> helis, final long second,
+      final CachedHelicorder current, final boolean create) {
+    if (current != null && current.holds(second)) {
+      return current;
+    }
+
+    final long start = Math.floorDiv(second, HELICORDER_CHUNK) * HELICORDER_CHUNK;
+    final CachedHelicorder ch = helis.findContaining(start, start);
+    if (ch != null && ch.holds(second)) {
+      return ch;
+    }
+    if (!create) {
+      return null;
     }
 
-    final HelicorderData hd = new HelicorderData();
-    hd.setData(data);
-    putHelicorder(station, hd);
+    final CachedHelicorder chunk = new CachedHelicorder(station, start);
+    helis.add(chunk);
+    return chunk;
+  }
+
+  /** Caller must hold the channel's write lock. */
+  private CachedHelicorder getChunk(final String station,
+      final IntervalIndex<CachedHelicorder> helis, final long second,
+      final CachedHelicorder current) {
+    return findChunk(station, helis, second, current, true);
+  }
+
+  /**
+   * Mark seconds as cached. Caller must hold the channel's write lock.
+   * 
+   * @param from first second
+   * @param to second after the last
+   */
+  private void cover(final String station, final IntervalIndex<CachedHelicorder> helis,
+      final long from, final long to) {
+    long second = from;
+    while (second < to) {
+      final CachedHelicorder ch = getChunk(station, helis, second, null);
+      final long end = Math.min(to, (long) ch.t2);
+      ch.cover(ch.index(second), ch.index(end - 1) + 1);
+      second = end;
+    }
   }
 
   public boolean isEmpty() {
@@ -356,22 +964,35 @@ public abstract class AbstractCachingDataSource extends SeismicDataSource implem
    * @param station channel
    * @param t1 start time
    * @param t2 end time
-   * @return
+   * @return true if every second in the time span has been cached
    */
-  public synchronized boolean inHelicorderCache(final String station, final double t1,
-      final double t2) {
-    final List<CachedHelicorder> helis = helicorderCache.get(station);
-    if (helis == null) {
-      return false;
-    }
-    for (final CachedHelicorder ch : helis) {
-      if (t1 >= ch.t1 && t2 <= ch.t2) {
-        return true;
+  public boolean inHelicorderCache(final String station, final double t1, final double t2) {
+    final ReadWriteLock lock = getLock(station);
+    lock.readLock().lock();
+    try {
+      final IntervalIndex<CachedHelicorder> helis = helicorderCache.get(station);
+      if (helis == null) {
+        return false;
       }
-    }
 
-    return false;
-  }
+      long second = (long) Math.floor(t1);
+      final long to = Math.max(second + 1, (long) Math.ceil(t2));
+      while (second < to) {
+        final CachedHelicorder ch = findChunk(station, helis, second, null, false);
+        if (ch == null) {
+          return false;
+        }
+        final long end = Math.min(to, (long) ch.t2);
+        if (!ch.covers(ch.index(second), ch.index(end - 1) + 1)) {
+          return false;
+        }
+        second = end;
+      }
+      return true;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
 
   /**
    * Get RSAM.
@@ -380,47 +1001,419 @@ public abstract class AbstractCachingDataSource extends SeismicDataSource implem
    */
   public RSAMData getRsam(final String channel, final double t1, final double t2,
       final int period) {
-    final List<CachedRsam> rsam = rsamCache.get(channel);
-    if (rsam == null) {
+    final RSAMData rd = getCachedRsam(channel, t1, t2, period);
+    metrics.lookup(CacheMetrics.Operation.RSAM, rd != null);
+    return rd;
+  }
+
+  /**
+   * Get RSAM, computing whatever isn't cached from waves. What's cached is returned at once, and
+   * the rest is computed in the background, a chunk of waves at a time, on the source's fetch
+   * scheduler; the waves themselves aren't kept in the cache. Once a channel's RSAM has been
+   * asked for, waves put in the cache for it update its RSAM as they arrive.
+   * 
+   * @param channel channel
+   * @param t1 start time
+   * @param t2 end time
+   * @param period seconds per row
+   * @param source source of waves
+   * @return RSAM or null if there's none
+   */
+  public RSAMData getRsam(final String channel, final double t1, final double t2,
+      final int period, final SeismicDataSource source) {
+    getRsamCalculator(channel, period);
+
+    final RSAMData cached = getCachedRsam(channel, t1, t2, period);
+    metrics.lookup(CacheMetrics.Operation.RSAM, cached != null);
+    if (cached != null) {
+      return cached;
+    }
+
+    if (!findRsamGaps(channel, t1, Math.min(t2, J2kSec.now()), period).isEmpty()) {
+      backfillRsam(channel, t1, t2, period, source);
+    }
+    return collectRsam(channel, t1, t2, period);
+  }
+
+  /**
+   * Start computing a channel's missing RSAM in the background, unless a backfill for it is
+   * already underway. Spans a finished backfill covered aren't fetched again for a while, since
+   * what's still missing there is probably missing upstream.
+   */
+  private void backfillRsam(final String channel, final double t1, final double t2,
+      final int period, final SeismicDataSource source) {
+    final String key = source.toConfigString() + ":" + channel + ":" + period;
+    synchronized (rsamBackfills) {
+      final RsamGulper last = rsamBackfills.get(key);
+      if (last != null && last.hasMore()) {
+        last.from = Math.min(t1, last.from);
+        last.update(last.from, last.to);
+        return;
+      }
+
+      double from = t1;
+      if (last != null && last.from <= t1 && (last.finishedAt == 0
+          || System.currentTimeMillis() - last.finishedAt < EMPTY_TTL)) {
+        from = Math.max(t1, last.to - period);
+      }
+      final double to = Math.min(t2, J2kSec.now());
+      if (to - from < period) {
+        return;
+      }
+      final RsamGulper gulper = new RsamGulper(key, source, channel, from, to, period);
+      gulper.update(from, to);
+      gulper.start();
+      rsamBackfills.put(key, gulper);
+    }
+  }
+
+  private RsamCalculator getRsamCalculator(final String channel, final int period) {
+    Map<Integer, RsamCalculator> calcs = rsamCalculators.get(channel);
+    if (calcs == null) {
+      final Map<Integer, RsamCalculator> newCalcs =
+          new ConcurrentHashMap<Integer, RsamCalculator>();
+      calcs = rsamCalculators.putIfAbsent(channel, newCalcs);
+      if (calcs == null) {
+        calcs = newCalcs;
+      }
+    }
+
+    RsamCalculator calc = calcs.get(period);
+    if (calc == null) {
+      final RsamCalculator newCalc = new RsamCalculator(period);
+      calc = calcs.putIfAbsent(period, newCalc);
+      if (calc == null) {
+        calc = newCalc;
+      }
+    }
+    return calc;
+  }
+
+  /** Feed a newly arrived wave to the channel's RSAM calculators. */
+  private void updateRsam(final String station, final Wave wave) {
+    final Map<Integer, RsamCalculator> calcs = rsamCalculators.get(station);
+    if (calcs == null) {
+      return;
+    }
+    for (final RsamCalculator calc : calcs.values()) {
+      final List<double[]> rows = calc.update(wave);
+      if (!rows.isEmpty()) {
+        putRsamRows(station, calc.getPeriod(), rows);
+      }
+    }
+  }
+
+  /**
+   * Find the parts of a time span with no cached RSAM at a given period.
+   * 
+   * @return list of {start, end} gaps, possibly empty
+   */
+  private List<double[]> findRsamGaps(final String station, final double t1, final double t2,
+      final int period) {
+    final List<double[]> gaps = new ArrayList<double[]>();
+    double pos = t1;
+    final ReadWriteLock lock = getLock(station);
+    lock.readLock().lock();
+    try {
+      final IntervalIndex<CachedRsam> rsams = rsamCache.get(station);
+      if (rsams != null) {
+        for (final CachedRsam cr : rsams.findOverlapping(t1, t2)) {
+          if (cr.period != period) {
+            continue;
+          }
+          if (cr.t1 - pos >= period) {
+            gaps.add(new double[] {pos, cr.t1});
+          }
+          pos = Math.max(pos, cr.t2);
+        }
+      }
+    } finally {
+      lock.readLock().unlock();
+    }
+    if (t2 - pos >= period) {
+      gaps.add(new double[] {pos, t2});
+    }
+    return gaps;
+  }
+
+  /**
+   * Gather cached RSAM rows between two times from every entry at a given period.
+   * 
+   * @return RSAM or null if there are no rows
+   */
+  private RSAMData collectRsam(final String station, final double t1, final double t2,
+      final int period) {
+    final List<double[]> rows = new ArrayList<double[]>();
+    final ReadWriteLock lock = getLock(station);
+    lock.readLock().lock();
+    try {
+      final IntervalIndex<CachedRsam> rsams = rsamCache.get(station);
+      if (rsams == null) {
+        return null;
+      }
+      for (final CachedRsam cr : rsams.findOverlapping(t1, t2)) {
+        if (cr.period != period) {
+          continue;
+        }
+        cr.touch();
+        final DoubleMatrix2D d = cr.rsamData.getData();
+        for (int i = 0; i < d.rows(); i++) {
+          final double t = d.getQuick(i, 0);
+          if (t >= t1 && t < t2) {
+            rows.add(new double[] {t, d.getQuick(i, 1)});
+          }
+        }
+      }
+    } finally {
+      lock.readLock().unlock();
+    }
+    if (rows.isEmpty()) {
       return null;
-    } else {
+    }
+
+    final DoubleMatrix2D data = DoubleFactory2D.dense.make(rows.size(), 2);
+    for (int i = 0; i < rows.size(); i++) {
+      data.setQuick(i, 0, rows.get(i)[0]);
+      data.setQuick(i, 1, rows.get(i)[1]);
+    }
+    final RSAMData rd = new RSAMData();
+    rd.setData(data);
+    return rd;
+  }
+
+  private RSAMData getCachedRsam(final String channel, final double t1, final double t2,
+      final int period) {
+    final ReadWriteLock lock = getLock(channel);
+    lock.readLock().lock();
+    try {
+      final IntervalIndex<CachedRsam> rsam = rsamCache.get(channel);
+      if (rsam == null) {
+        return null;
+      }
 
-      for (final CachedRsam cr : rsam) {
-        if (cr.rsamData.getPeriod() != period) {
+      for (final CachedRsam cr : rsam.findOverlapping(t1, t2)) {
+        if (cr.period != period) {
           continue;
         }
         if (t1 >= cr.t1 && t2 <= cr.t2) {
+          cr.touch();
           return cr.slice(t1, t2);
         }
       }
+    } finally {
+      lock.readLock().unlock();
     }
     return null;
   }
 
-  @Override
-  public synchronized Wave getWave(final String station, final double t1, final double t2) {
+  /**
+   * Find the parts of a time span not held in memory.
+   * 
+   * @param cache cache to search
+   * @param station channel
+   * @param t1 start time
+   * @param t2 end time
+   * @param minGap gaps shorter than this are ignored
+   * @return list of {start, end} gaps, possibly empty
+   */
+  private <T extends CacheEntry> List<double[]> findGaps(
+      final Map<String, IntervalIndex<T>> cache, final String station, final double t1,
+      final double t2, final double minGap) {
+    final List<double[]> gaps = new ArrayList<double[]>();
+    double pos = t1;
+    final ReadWriteLock lock = getLock(station);
+    lock.readLock().lock();
+    try {
+      final IntervalIndex<T> entries = cache.get(station);
+      if (entries != null) {
+        for (final T ce : entries.findOverlapping(t1, t2)) {
+          if (ce.t1 - pos >= minGap) {
+            gaps.add(new double[] {pos, ce.t1});
+          }
+          pos = Math.max(pos, ce.t2);
+        }
+      }
+    } finally {
+      lock.readLock().unlock();
+    }
+    if (t2 - pos >= minGap) {
+      gaps.add(new double[] {pos, t2});
+    }
+    return gaps;
+  }
 
-    final List<CachedWave> waves = waveCache.get(station);
-    if (waves == null) {
-      return null;
-    } else {
-      for (final CachedWave cw : waves) {
-        if (t1 >= cw.t1 && t2 <= cw.t2) {
-          // TODO: fix this. It's a sloppy.
-          try {
-            final int[] newbuf = new int[(int) ((t2 - t1) * cw.wave.getSamplingRate())];
-            final int i = (int) ((t1 - cw.wave.getStartTime()) * cw.wave.getSamplingRate());
-            System.arraycopy(cw.wave.buffer, i, newbuf, 0, newbuf.length);
-            final Wave sw = new Wave(newbuf, t1, cw.wave.getSamplingRate());
-            cw.lastAccess = System.currentTimeMillis();
-            return sw;
-          } catch (final ArrayIndexOutOfBoundsException e) {
-            return null;
+  /**
+   * Check whether waves for a whole time span are held in memory.
+   * 
+   * @param station channel
+   * @param t1 start time
+   * @param t2 end time
+   * @return true if there are no gaps longer than a second
+   */
+  protected boolean isWaveCached(final String station, final double t1, final double t2) {
+    return findGaps(waveCache, station, t1, t2, MIN_DISK_GAP).isEmpty();
+  }
+
+  /**
+   * Fill gaps in the wave cache from the disk tier.
+   * 
+   * @return true if anything was found on disk
+   */
+  private boolean loadWavesFromDisk(final String station, final double t1, final double t2) {
+    final DiskCache disk = diskCache;
+    if (disk == null) {
+      return false;
+    }
+
+    boolean loaded = false;
+    for (final double[] gap : findGaps(waveCache, station, t1, t2, MIN_DISK_GAP)) {
+      for (final Wave wave : disk.getWaves(station, gap[0], gap[1])) {
+        putWave(station, wave);
+        loaded = true;
+      }
+    }
+    return loaded;
+  }
+
+  /**
+   * Fill gaps in the helicorder cache from the disk tier.
+   * 
+   * @return true if anything was found on disk
+   */
+  private boolean loadHelicordersFromDisk(final String station, final double t1,
+      final double t2) {
+    final DiskCache disk = diskCache;
+    if (disk == null) {
+      return false;
+    }
+
+    boolean loaded = false;
+    for (final double[] gap : findHelicorderGaps(station, t1, t2)) {
+      final HelicorderData hd = disk.getHelicorder(station, gap[0], gap[1]);
+      if (hd != null) {
+        putHelicorder(station, hd);
+        loaded = true;
+      }
+    }
+    return loaded;
+  }
+
+  /**
+   * Find the runs of seconds in a time span which haven't been cached.
+   * 
+   * @return list of {start, end} gaps, possibly empty
+   */
+  private List<double[]> findHelicorderGaps(final String station, final double t1,
+      final double t2) {
+    final List<double[]> gaps = new ArrayList<double[]>();
+    final long from = (long) Math.floor(t1);
+    final long to = (long) Math.ceil(t2);
+    long gapStart = from;
+    final ReadWriteLock lock = getLock(station);
+    lock.readLock().lock();
+    try {
+      final IntervalIndex<CachedHelicorder> helis = helicorderCache.get(station);
+      CachedHelicorder ch = null;
+      for (long second = from; helis != null && second < to; second++) {
+        ch = findChunk(station, helis, second, ch, false);
+        if (ch != null && ch.covers(ch.index(second), ch.index(second) + 1)) {
+          if (second - gapStart >= MIN_DISK_GAP) {
+            gaps.add(new double[] {gapStart, second});
           }
+          gapStart = second + 1;
         }
       }
+    } finally {
+      lock.readLock().unlock();
+    }
+    if (to - gapStart >= MIN_DISK_GAP) {
+      gaps.add(new double[] {gapStart, to});
+    }
+    return gaps;
+  }
+
+  @Override
+  public Wave getWave(final String station, final double t1, final double t2) {
+    Wave wave = getCachedWave(station, t1, t2);
+    if (wave == null && loadWavesFromDisk(station, t1, t2)) {
+      wave = getCachedWave(station, t1, t2);
+    }
+    metrics.lookup(CacheMetrics.Operation.WAVE, wave != null);
+    return wave;
+  }
+
+  /**
+   * Get a view of cached samples without copying them. The view is backed by the cached wave,
+   * which stays valid after the entry leaves the cache but must never be modified.
+   * 
+   * @param station channel
+   * @param t1 start time
+   * @param t2 end time
+   * @return view or null if no single cached wave holds the whole span
+   */
+  @Override
+  public WaveView getWaveView(final String station, final double t1, final double t2) {
+    WaveView view = getCachedView(station, t1, t2);
+    if (view == null && loadWavesFromDisk(station, t1, t2)) {
+      view = getCachedView(station, t1, t2);
+    }
+    metrics.lookup(CacheMetrics.Operation.WAVE, view != null);
+    return view;
+  }
+
+  private WaveView getCachedView(final String station, final double t1, final double t2) {
+    final ReadWriteLock lock = getLock(station);
+    lock.readLock().lock();
+    try {
+      final IntervalIndex<CachedWave> waves = waveCache.get(station);
+      if (waves == null) {
+        return null;
+      }
+
+      final CachedWave cw = waves.findContaining(t1, t2);
+      if (cw == null) {
+        return null;
+      }
+
+      final WaveView view = WaveView.of(cw.getWave(), t1, t2);
+      if (view != null) {
+        cw.touch();
+      }
+      return view;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  private Wave getCachedWave(final String station, final double t1, final double t2) {
+    final ReadWriteLock lock = getLock(station);
+    lock.readLock().lock();
+    try {
+      final IntervalIndex<CachedWave> waves = waveCache.get(station);
+      if (waves == null) {
+        return null;
+      }
+
+      final CachedWave cw = waves.findContaining(t1, t2);
+      if (cw == null) {
+        return null;
+      }
+
+      // TODO: fix this. It's a sloppy.
+      try {
+        final double samplingRate = cw.getSamplingRate();
+        final int[] newbuf = new int[(int) ((t2 - t1) * samplingRate)];
+        final int i = (int) ((t1 - cw.t1) * samplingRate);
+        cw.read(i, newbuf, 0, newbuf.length);
+        final Wave sw = new Wave(newbuf, t1, samplingRate);
+        cw.touch();
+        return sw;
+      } catch (final ArrayIndexOutOfBoundsException e) {
+        return null;
+      }
+    } finally {
+      lock.readLock().unlock();
     }
-    return null;
   }
 
   @Override
@@ -447,71 +1440,360 @@ public abstract class AbstractCachingDataSource extends SeismicDataSource implem
    * @param t2 end time
    * @return
    */
-  public synchronized Wave getBestWave(final String station, final double t1, final double t2) {
-    Wave wave;
-    final List<CachedWave> waves = waveCache.get(station);
-    if (waves == null) {
-      return null;
-    } else {
-      final List<Wave> parts = new ArrayList<Wave>();
-      double minT = 1E300;
-      double maxT = -1E300;
-      for (final CachedWave cw : waves) {
-        if (cw.wave.overlaps(t1, t2)) {
-          parts.add(cw.wave);
-          minT = Math.min(minT, cw.t1);
-          maxT = Math.max(maxT, cw.t2);
+  public Wave getBestWave(final String station, final double t1, final double t2) {
+    final Wave wave = findBestWave(station, t1, t2);
+    metrics.lookup(CacheMetrics.Operation.BEST_WAVE, wave != null);
+    return wave;
+  }
+
+  private Wave findBestWave(final String station, final double t1, final double t2) {
+    Wave wave = joinParts(station, t1, t2);
+    // the disk tier is only searched for what memory doesn't hold
+    if ((wave == null || !isWaveCached(station, t1, t2)) && loadWavesFromDisk(station, t1, t2)) {
+      wave = joinParts(station, t1, t2);
+    }
+    return wave;
+  }
+
+  /**
+   * Join whatever cached waves overlap a time span.
+   * 
+   * @return wave, with gaps where nothing is cached, or null if nothing is
+   */
+  private Wave joinParts(final String station, final double t1, final double t2) {
+    final ReadWriteLock lock = getLock(station);
+    lock.readLock().lock();
+    try {
+      final List<CachedWave> parts = findParts(station, t1, t2);
+      if (parts.isEmpty()) {
+        return null;
+      } else if (parts.size() == 1) {
+        return parts.get(0).getWave();
+      } else {
+        return joinWaves(parts, t1, t2);
+      }
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Find the cached waves overlapping a time span and mark them as used. Caller must hold the
+   * channel's read lock.
+   * 
+   * @return cached waves ordered by start time, possibly empty
+   */
+  private List<CachedWave> findParts(final String station, final double t1, final double t2) {
+    final List<CachedWave> parts = new ArrayList<CachedWave>();
+    final IntervalIndex<CachedWave> waves = waveCache.get(station);
+    if (waves != null) {
+      for (final CachedWave cw : waves.findOverlapping(t1, t2)) {
+        if (cw.t1 < t2 && t1 < cw.t2) {
+          parts.add(cw);
+          cw.touch();
         }
       }
+    }
+    return parts;
+  }
 
-      if (parts.size() == 1) {
-        return parts.get(0);
+  /**
+   * Get a wave, fetching from upstream only the parts of the span which aren't cached, aren't
+   * known to be missing upstream, and aren't already being fetched by another thread. Fetched
+   * waves are put in the cache, so the fetcher needn't do so.
+   * 
+   * <p>
+   * Parts which are still missing after a fetch are remembered for a while so they aren't asked
+   * for again on every repaint. Recent data is never remembered as missing since it may still
+   * be on its way to the source.
+   * 
+   * @param station channel
+   * @param t1 start time
+   * @param t2 end time
+   * @param fetcher fetches missing data from upstream
+   * @return wave or null if there's no data for the span
+   */
+  public Wave getWave(final String station, final double t1, final double t2,
+      final WaveFetcher fetcher) {
+    final Wave cached = getWave(station, t1, t2);
+    if (cached != null) {
+      return cached;
+    }
+
+    final CoverageMap map = getCoverage(station);
+    final List<double[]> gaps = claimGaps(map, station, t1, t2);
+    Wave fetched = null;
+    boolean complete = false;
+    try {
+      for (final double[] gap : gaps) {
+        final Wave wave = fetcher.fetch(gap[0], gap[1]);
+        if (wave != null && wave.buffer != null && wave.buffer.length > 0) {
+          putWave(station, wave);
+          fetched = wave;
+        }
       }
+      complete = true;
+    } finally {
+      releaseGaps(map, station, gaps, complete);
+    }
+    map.awaitPending(t1, t2, PENDING_TIMEOUT);
 
-      wave = Wave.join(parts, minT, maxT);
-      if (wave != null) {
-        wave = wave.subset(t1, t2);
+    final Wave joined = joinCached(station, t1, t2);
+    if (joined != null) {
+      return joined;
+    }
+
+    // only reached if what was fetched has already been evicted
+    return gaps.size() == 1 ? fetched : null;
+  }
+
+  /**
+   * Get waves for several channels, fetching what's missing for all of them with one call to
+   * the fetcher. Otherwise as <code>getWave(String, double, double, WaveFetcher)</code>.
+   * 
+   * @param stations channels
+   * @param t1 start time
+   * @param t2 end time
+   * @param fetcher fetches missing data for many channels from upstream
+   * @return wave for each channel, in the order given; null where there's no data
+   */
+  public Map<String, Wave> getWaves(final Collection<String> stations, final double t1,
+      final double t2, final WaveBatchFetcher fetcher) {
+    final Map<String, Wave> waves = new LinkedHashMap<String, Wave>();
+    final Map<String, List<double[]>> claimed = new LinkedHashMap<String, List<double[]>>();
+    final Map<String, List<double[]>> missing = new LinkedHashMap<String, List<double[]>>();
+    for (final String station : stations) {
+      final Wave cached = getWave(station, t1, t2);
+      waves.put(station, cached);
+      if (cached == null) {
+        final List<double[]> gaps = claimGaps(getCoverage(station), station, t1, t2);
+        claimed.put(station, gaps);
+        if (!gaps.isEmpty()) {
+          missing.put(station, gaps);
+        }
       }
     }
-    return wave;
+
+    boolean complete = false;
+    try {
+      if (!missing.isEmpty()) {
+        final Map<String, List<Wave>> fetched = fetcher.fetch(missing);
+        for (final Map.Entry<String, List<Wave>> entry : fetched.entrySet()) {
+          if (!missing.containsKey(entry.getKey())) {
+            continue;
+          }
+          for (final Wave wave : entry.getValue()) {
+            if (wave != null && wave.buffer != null && wave.buffer.length > 0) {
+              putWave(entry.getKey(), wave);
+            }
+          }
+        }
+      }
+      complete = true;
+    } finally {
+      for (final Map.Entry<String, List<double[]>> entry : claimed.entrySet()) {
+        releaseGaps(getCoverage(entry.getKey()), entry.getKey(), entry.getValue(), complete);
+      }
+    }
+
+    for (final String station : claimed.keySet()) {
+      getCoverage(station).awaitPending(t1, t2, PENDING_TIMEOUT);
+      waves.put(station, joinCached(station, t1, t2));
+    }
+    return waves;
+  }
+
+  /** Join the cached parts of a span, or return null if none are cached. */
+  private Wave joinCached(final String station, final double t1, final double t2) {
+    final ReadWriteLock lock = getLock(station);
+    lock.readLock().lock();
+    try {
+      final List<CachedWave> parts = findParts(station, t1, t2);
+      if (!parts.isEmpty()) {
+        return joinWaves(parts, t1, t2);
+      }
+      return null;
+    } finally {
+      lock.readLock().unlock();
+    }
   }
 
   /**
-   * Put wave.
+   * Find the parts of a span which need fetching and mark them as being fetched, for sources
+   * which can't fetch through a <code>WaveFetcher</code>. Each call must be followed by a call
+   * to <code>releaseGaps</code>.
+   * 
+   * @param station channel
+   * @param t1 start time
+   * @param t2 end time
+   * @return list of {start, end} gaps ordered by start time, possibly empty
+   */
+  public List<double[]> claimGaps(final String station, final double t1, final double t2) {
+    return claimGaps(getCoverage(station), station, t1, t2);
+  }
+
+  /**
+   * Mark gaps returned by <code>claimGaps</code> as no longer being fetched.
+   * 
+   * @param station channel
+   * @param gaps claimed gaps
+   * @param complete true if every gap was fetched, so what's still missing isn't upstream
+   */
+  public void releaseGaps(final String station, final List<double[]> gaps,
+      final boolean complete) {
+    releaseGaps(getCoverage(station), station, gaps, complete);
+  }
+
+  private CoverageMap getCoverage(final String station) {
+    final CoverageMap map = coverage.get(station);
+    if (map != null) {
+      return map;
+    }
+    final CoverageMap newMap = new CoverageMap(EMPTY_TTL);
+    final CoverageMap oldMap = coverage.putIfAbsent(station, newMap);
+    return oldMap == null ? newMap : oldMap;
+  }
+
+  /**
+   * Find the parts of a span which need fetching and mark them as being fetched.
+   * 
+   * @return list of {start, end} gaps, possibly empty
+   */
+  private List<double[]> claimGaps(final CoverageMap map, final String station, final double t1,
+      final double t2) {
+    synchronized (map) {
+      final List<double[]> gaps =
+          map.subtract(findGaps(waveCache, station, t1, t2, MIN_FETCH_GAP), MIN_FETCH_GAP);
+      for (final double[] gap : gaps) {
+        map.mark(gap[0], gap[1], CoverageMap.State.PENDING);
+      }
+      return gaps;
+    }
+  }
+
+  /**
+   * Mark claimed gaps as no longer being fetched.
+   * 
+   * @param gaps gaps returned by claimGaps
+   * @param complete true if every gap was fetched, so what's still missing isn't upstream
+   */
+  private void releaseGaps(final CoverageMap map, final String station,
+      final List<double[]> gaps, final boolean complete) {
+    final double recent = J2kSec.now() - RECENT_DATA;
+    synchronized (map) {
+      for (final double[] gap : gaps) {
+        map.clear(gap[0], gap[1], CoverageMap.State.PENDING);
+        if (complete && gap[0] < recent) {
+          final double end = Math.min(gap[1], recent);
+          for (final double[] missing : findGaps(waveCache, station, gap[0], end,
+              MIN_FETCH_GAP)) {
+            map.mark(missing[0], missing[1], CoverageMap.State.EMPTY);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Copy the part of several cached waves between two times into a new wave. Samples are read
+   * straight from each cached wave into the result, so nothing is copied twice and compressed or
+   * off-heap waves aren't decoded in full. Gaps are filled with <code>Wave.NO_DATA</code> and
+   * waves at a different sampling rate from the first are skipped. Caller must hold the
+   * channel's read lock.
+   * 
+   * @param parts cached waves ordered by start time
+   * @param t1 start time
+   * @param t2 end time
+   * @return new wave
+   */
+  private static Wave joinWaves(final List<CachedWave> parts, final double t1, final double t2) {
+    final CachedWave first = parts.get(0);
+    final double samplingRate = first.getSamplingRate();
+    double end = first.t2;
+    for (final CachedWave cw : parts) {
+      end = Math.max(end, cw.t2);
+    }
+
+    // samples are placed on the sample grid of the earliest wave
+    final int from = (int) Math.max(0, Math.floor((t1 - first.t1) * samplingRate));
+    final int to = (int) Math.ceil((Math.min(t2, end) - first.t1) * samplingRate);
+    final int[] buffer = new int[Math.max(0, to - from)];
+    Arrays.fill(buffer, Wave.NO_DATA);
+    for (final CachedWave cw : parts) {
+      if (cw.getSamplingRate() != samplingRate) {
+        continue;
+      }
+      final int pos = (int) Math.round((cw.t1 - first.t1) * samplingRate) - from;
+      final int srcPos = Math.max(0, -pos);
+      final int len = Math.min(cw.numSamples(), buffer.length - pos) - srcPos;
+      if (len > 0) {
+        cw.read(srcPos, buffer, pos + srcPos, len);
+      }
+    }
+    return new Wave(buffer, first.t1 + from / samplingRate, samplingRate);
+  }
+
+  /**
+   * Put wave. Overlapping and adjacent cached waves are merged with the new wave in a single
+   * pass.
    * 
    * @param station channel
    * @param wave wave
    */
-  public synchronized void putWave(final String station, final Wave wave) {
-    List<CachedWave> waves = waveCache.get(station);
-    if (waves == null) {
-      waves = new ArrayList<CachedWave>();
-      waveCache.put(station, waves);
-      putWaveInCache(station, wave, waves);
-    } else {
-      for (final CachedWave cw : waves) {
+  public void putWave(final String station, final Wave wave) {
+    final ReadWriteLock lock = getLock(station);
+    lock.writeLock().lock();
+    try {
+      IntervalIndex<CachedWave> waves = waveCache.get(station);
+      if (waves == null) {
+        waves = new IntervalIndex<CachedWave>(waveLru);
+        waveCache.put(station, waves);
+      }
+      mergeWave(station, wave, waves);
+    } finally {
+      lock.writeLock().unlock();
+    }
+    updateRsam(station, wave);
+  }
+
+  /** Caller must hold the channel's write lock. */
+  private void mergeWave(final String station, Wave wave,
+      final IntervalIndex<CachedWave> waves) {
+
+    // look a little past either end to catch adjacent waves. Merging may grow the wave, so look
+    // again until nothing else joins.
+    boolean merged = true;
+    while (merged) {
+      merged = false;
+      final double margin = Math.max(1, wave.getSamplingPeriod() * 2);
+      for (final CachedWave cw : waves.findOverlapping(wave.getStartTime() - margin,
+          wave.getEndTime() + margin)) {
+        final Wave cached = cw.getWave();
         boolean join = false;
-        if (cw.wave.adjacent(wave)) {
-          if (cw.wave.getMemorySize() + wave.getMemorySize() < MAX_WAVE_SIZE) {
+        if (cached.adjacent(wave)) {
+          if (cached.getMemorySize() + wave.getMemorySize() < MAX_WAVE_SIZE) {
             join = true;
           }
         }
-        if (cw.wave.overlaps(wave)) {
+        if (cached.overlaps(wave)) {
           join = true;
         }
 
         if (join) {
-          final Wave newWave = cw.wave.combine(wave);
-          if (newWave != null) {
-            waves.remove(cw);
-            putWave(station, newWave);
+          final Wave newWave = cached.combine(wave);
+          if (newWave == null) {
+            return;
           }
-          return;
+          waves.remove(cw);
+          cw.release();
+          metrics.merged();
+          wave = newWave;
+          merged = true;
         }
       }
-
-      putWaveInCache(station, wave, waves);
     }
+
+    putWaveInCache(station, wave, waves);
   }
 
   // this version, the one that implements SeismicDataSource, will only
@@ -520,308 +1802,841 @@ public abstract class AbstractCachingDataSource extends SeismicDataSource implem
   // side use
   // the version below
   @Override
-  public synchronized HelicorderData getHelicorder(String station, final double startTime,
+  public HelicorderData getHelicorder(final String station, final double startTime,
       final double endTime, final GulperListener gl) {
+    return getHelicorder(station, startTime, endTime, gl, 1);
+  }
+
+  @Override
+  public HelicorderData getHelicorder(String station, final double startTime,
+      final double endTime, final GulperListener gl, final int resolution) {
     station = station.replace(' ', '$');
-    final List<CachedHelicorder> helis = helicorderCache.get(station);
-    if (helis == null) {
+    loadHelicordersFromDisk(station, startTime, endTime);
+    final HelicorderData hd = sliceHelicorder(station, startTime, endTime, null, resolution);
+    metrics.lookup(CacheMetrics.Operation.HELICORDER, hd != null);
+    return hd;
+  }
+
+  /**
+   * Get helicorder data.
+   * 
+   * @param station channel
+   * @param t1 start time
+   * @param t2 end time
+   * @param source data source
+   * @return
+   */
+  public HelicorderData getHelicorder(final String station, final double t1, final double t2,
+      final SeismicDataSource source) {
+    return getHelicorder(station, t1, t2, source, 1);
+  }
+
+  /**
+   * Get helicorder data, filling either side of the cached data from a source.
+   * 
+   * @param station channel
+   * @param t1 start time
+   * @param t2 end time
+   * @param source data source
+   * @param resolution requested seconds per row
+   * @return
+   */
+  public HelicorderData getHelicorder(final String station, final double t1, final double t2,
+      final SeismicDataSource source, final int resolution) {
+    loadHelicordersFromDisk(station, t1, t2);
+
+    // find the span of cached data, then release the lock before going to the source
+    long ct1 = Long.MAX_VALUE;
+    long ct2 = Long.MIN_VALUE;
+    final long from = (long) Math.ceil(t1);
+    final long to = (long) Math.ceil(t2);
+    final ReadWriteLock lock = getLock(station);
+    lock.readLock().lock();
+    try {
+      final IntervalIndex<CachedHelicorder> helis = helicorderCache.get(station);
+      final List<CachedHelicorder> chunks;
+      if (helis == null) {
+        chunks = Collections.emptyList();
+      } else {
+        chunks = helis.findOverlapping(from, to);
+      }
+      for (final CachedHelicorder ch : chunks) {
+        final int i1 = ch.index(Math.max(from, (long) ch.t1));
+        final int i2 = ch.index(Math.min(to, (long) ch.t2) - 1) + 1;
+        final int first = ch.firstCovered(i1, i2);
+        if (first >= 0) {
+          ct1 = Math.min(ct1, (long) ch.t1 + first);
+          ct2 = Math.max(ct2, (long) ch.t1 + ch.lastCovered(i1, i2) + 1);
+        }
+      }
+    } finally {
+      lock.readLock().unlock();
+    }
+
+    metrics.lookup(CacheMetrics.Operation.HELICORDER, ct1 <= ct2);
+    if (ct1 > ct2) {
       return null;
-    } else {
-      HelicorderData hd = new HelicorderData();
-      HelicorderData hd2 = null;
-      for (final CachedHelicorder ch : helis) {
-        // found the whole thing, just return the needed subset
-        if (startTime >= ch.t1 && endTime <= ch.t2) {
-          hd2 = ch.helicorder.subset(startTime, endTime);
-          ch.lastAccess = System.currentTimeMillis();
-          return hd2;
+    }
+
+    final List<HelicorderData> fetched = new ArrayList<HelicorderData>();
+
+    // asked for area extends to the left of the cache
+    if (ct1 - t1 >= 1) {
+      final HelicorderData nhd = source.getHelicorder(station, t1, ct1, null);
+      if (nhd != null) {
+        fetched.add(nhd);
+      }
+    }
+
+    // asked for area extends to the right of the cache
+    if (ct2 < t2) {
+      final HelicorderData nhd = source.getHelicorder(station, ct2, t2, null);
+      if (nhd != null) {
+        fetched.add(nhd);
+      }
+    }
+
+    return sliceHelicorder(station, t1, t2, fetched, resolution);
+  }
+
+  /**
+   * Copy cached helicorder rows for a time span into a new HelicorderData. Only the requested rows
+   * are copied, taken from the coarsest level of the pyramid that is no coarser than the requested
+   * resolution. The first and last rows carry the times of the first and last seconds with data,
+   * so start and end times are exact at any resolution.
+   * 
+   * @param station channel
+   * @param t1 start time
+   * @param t2 end time
+   * @param extra rows from elsewhere to include where the cache has none, may be null
+   * @param resolution requested seconds per row
+   * @return helicorder data, or null if there are no rows
+   */
+  private HelicorderData sliceHelicorder(final String station, final double t1, final double t2,
+      final List<HelicorderData> extra, final int resolution) {
+    final int level = helicorderLevel(resolution);
+    final int res = HELICORDER_RESOLUTIONS[level];
+    final long from = (long) Math.ceil(t1);
+    final long to = (long) Math.floor(t2) + 1;
+    final ReadWriteLock lock = getLock(station);
+    lock.readLock().lock();
+    try {
+      final IntervalIndex<CachedHelicorder> helis = helicorderCache.get(station);
+      final List<CachedHelicorder> chunks = helis == null
+          ? Collections.<CachedHelicorder>emptyList() : helis.findOverlapping(from, to);
+
+      int cachedRows = 0;
+      for (final CachedHelicorder ch : chunks) {
+        cachedRows += ch.countRows(level, ch.clip(from), ch.clip(to));
+      }
+
+      // rows from elsewhere for seconds the cache doesn't have, binned to the resolution. Bins
+      // the cache already has are widened, the rest are added.
+      final TreeMap<Long, double[]> newBins = new TreeMap<Long, double[]>();
+      final TreeMap<Long, double[]> cachedBins = new TreeMap<Long, double[]>();
+      if (extra != null) {
+        for (final HelicorderData hd : extra) {
+          final DoubleMatrix2D data = hd.getData();
+          CachedHelicorder ch = null;
+          for (int i = 0; data != null && i < data.rows(); i++) {
+            final double t = data.getQuick(i, 0);
+            if (t < t1 || t > t2) {
+              continue;
+            }
+            final long second = (long) Math.floor(t);
+            ch = helis == null ? null : findChunk(station, helis, second, ch, false);
+            if (ch != null && ch.hasRow(ch.index(second))) {
+              continue;
+            }
+            final long bin = Math.floorDiv(second, res);
+            final TreeMap<Long, double[]> bins =
+                ch != null && ch.countRows(level, ch.clip(Math.max(from, bin * res)),
+                    ch.clip(Math.min(to, bin * res + res))) > 0 ? cachedBins : newBins;
+            final double[] row = bins.get(bin);
+            if (row == null) {
+              bins.put(bin, new double[] {t, data.getQuick(i, 1), data.getQuick(i, 2)});
+            } else {
+              row[0] = Math.min(row[0], t);
+              row[1] = Math.min(row[1], data.getQuick(i, 1));
+              row[2] = Math.max(row[2], data.getQuick(i, 2));
+            }
+          }
         }
+      }
+
+      final int rows = cachedRows + newBins.size();
+      if (rows == 0) {
+        return null;
+      }
+
+      final DoubleMatrix2D data = DoubleFactory2D.dense.make(rows, 3);
+      int row = 0;
+      for (final CachedHelicorder ch : chunks) {
+        row = ch.copyRows(level, ch.clip(from), ch.clip(to), data, row);
+        ch.touch();
+      }
 
-        // just a piece, put it in the result
-        if (startTime <= ch.t1 && endTime >= ch.t2) {
-          hd2 = ch.helicorder;
-        } else if (endTime >= ch.t1 && endTime <= ch.t2) {
-          // cached is right side
-          hd2 = ch.helicorder.subset(ch.t1, endTime);
-        } else if (startTime >= ch.t1 && startTime <= ch.t2) {
-          // cached is left side
-          hd2 = ch.helicorder.subset(startTime, ch.t2);
+      if (level > 0 && cachedRows > 0) {
+        long first = Long.MAX_VALUE;
+        long last = Long.MIN_VALUE;
+        for (final CachedHelicorder ch : chunks) {
+          final int i = ch.firstRow(ch.clip(from), ch.clip(to));
+          if (i >= 0) {
+            first = Math.min(first, (long) ch.t1 + i);
+            last = Math.max(last, (long) ch.t1 + ch.lastRow(ch.clip(from), ch.clip(to)));
+          }
         }
+        data.setQuick(cachedRows - 1, 0, last);
+        data.setQuick(0, 0, first);
+      }
 
-        // if cached data found
-        if (hd2 != null) {
-          hd.concatenate(hd2);
-          ch.lastAccess = System.currentTimeMillis();
-          hd2 = null;
+      for (final Map.Entry<Long, double[]> bin : cachedBins.entrySet()) {
+        final int i = findBin(data, cachedRows, bin.getKey(), res);
+        if (i >= 0) {
+          data.setQuick(i, 1, Math.min(data.getQuick(i, 1), bin.getValue()[1]));
+          data.setQuick(i, 2, Math.max(data.getQuick(i, 2), bin.getValue()[2]));
         }
       }
-      hd.sort();
-      if (hd.getData() == null) {
-        hd = null;
+      for (final double[] r : newBins.values()) {
+        data.setQuick(row, 0, r[0]);
+        data.setQuick(row, 1, r[1]);
+        data.setQuick(row, 2, r[2]);
+        row++;
       }
 
+      final HelicorderData hd = new HelicorderData();
+      hd.setData(data);
+      if (!newBins.isEmpty()) {
+        hd.sort();
+      }
       return hd;
+    } finally {
+      lock.readLock().unlock();
     }
   }
 
   /**
-   * Get helicorder data.
+   * Find the row holding a bin in rows sorted by time.
    * 
-   * @param station channel
-   * @param t1 start time
-   * @param t2 end time
-   * @param source data source
-   * @return
+   * @return row index or -1 if not found
    */
-  public synchronized HelicorderData getHelicorder(final String station, final double t1,
-      final double t2, final SeismicDataSource source) {
-    final List<CachedHelicorder> helis = helicorderCache.get(station);
-    if (helis == null) {
-      return null;
-    } else {
-      HelicorderData hd;
-      for (final CachedHelicorder ch : helis) {
-        // asked for area completely within one cache entry
-        if (t1 >= ch.t1 && t2 <= ch.t2) {
-          // System.out.println("totally cached");
-          hd = ch.helicorder.subset(t1, t2);
-          ch.lastAccess = System.currentTimeMillis();
-          return hd;
-        }
-
-        // one entry completely within asked for area
-        if (t1 < ch.t1 && t2 > ch.t2) {
-          // System.out.println("cache is centered chunk");
-          HelicorderData nhd = source.getHelicorder(station, t1, ch.t1, null);
-          if (nhd != null) {
-            hd = ch.helicorder.combine(nhd);
-          } else {
-            hd = ch.helicorder;
-          }
-          nhd = source.getHelicorder(station, ch.t2, t2, null);
-          if (nhd != null) {
-            hd = hd.combine(nhd);
-          }
-          ch.lastAccess = System.currentTimeMillis();
-          return hd;
-        }
-
-        // asked for area is to left but overlaps
-        if (t1 < ch.t1 && t2 > ch.t1 && t2 <= ch.t2) {
-          // System.out.println("cache overlaps on right side");
-          final HelicorderData nhd = source.getHelicorder(station, t1, ch.t1, null);
-          if (nhd != null) {
-            hd = ch.helicorder.combine(nhd);
-            ch.lastAccess = System.currentTimeMillis();
-            return hd;
-          } else {
-            ch.lastAccess = System.currentTimeMillis();
-            return ch.helicorder;
-          }
-
-        }
-
-        // asked for area is to right but overlaps
-        if (t1 > ch.t1 && t1 < ch.t2 && t2 > ch.t2) {
-          // System.out.println("cache overlaps on left side");
-          final HelicorderData nhd = source.getHelicorder(station, ch.t2, t2, null);
-          if (nhd != null) {
-            hd = ch.helicorder.combine(nhd);
-            ch.lastAccess = System.currentTimeMillis();
-            return hd;
-          } else {
-            ch.lastAccess = System.currentTimeMillis();
-            return ch.helicorder;
-          }
-        }
+  private static int findBin(final DoubleMatrix2D data, final int rows, final long bin,
+      final int res) {
+    int lo = 0;
+    int hi = rows - 1;
+    while (lo <= hi) {
+      final int mid = (lo + hi) >>> 1;
+      final long b = Math.floorDiv((long) Math.floor(data.getQuick(mid, 0)), res);
+      if (b < bin) {
+        lo = mid + 1;
+      } else if (b > bin) {
+        hi = mid - 1;
+      } else {
+        return mid;
       }
     }
-    return null;
+    return -1;
+  }
+
+  /**
+   * Get the pyramid level to use for a resolution.
+   * 
+   * @param resolution requested seconds per row
+   * @return index into HELICORDER_RESOLUTIONS of the coarsest level no coarser than requested
+   */
+  private static int helicorderLevel(final int resolution) {
+    int level = 0;
+    while (level + 1 < HELICORDER_RESOLUTIONS.length
+        && HELICORDER_RESOLUTIONS[level + 1] <= resolution) {
+      level++;
+    }
+    return level;
   }
 
   private void flushHelicorders() {
-    helicorderCache.clear();// = new HashMap();
+    clear(helicorderCache);
     System.out.println("Helicorder Cache Flushed");
   }
 
   private void flushWaves() {
-    waveCache.clear();// = new HashMap();
+    clear(waveCache);
+    final OffHeapSampleStore store = offHeapStore;
+    if (store != null) {
+      store.clear();
+    }
     System.out.println("Wave Cache Flushed");
   }
 
+  private <T extends CacheEntry> void clear(final Map<String, IntervalIndex<T>> cache) {
+    for (final String station : new ArrayList<String>(cache.keySet())) {
+      final ReadWriteLock lock = getLock(station);
+      lock.writeLock().lock();
+      try {
+        final IntervalIndex<T> entries = cache.remove(station);
+        if (entries != null) {
+          for (final T ce : entries.entries()) {
+            metrics.evicted(CacheMetrics.Reason.FLUSH, ce.getStoredSize());
+            ce.release();
+          }
+          entries.clear();
+        }
+      } finally {
+        lock.writeLock().unlock();
+      }
+    }
+  }
+
   private <T extends CacheEntry> long outputCache(final String type,
-      final Map<String, List<T>> cache) {
+      final Map<String, IntervalIndex<T>> cache) {
     long size = 0;
     System.out.println(type + " cache");
-    for (final String key : cache.keySet()) {
-      System.out.println("\t" + key);
-      final List<T> cwl = cache.get(key);
-
-      for (final T ce : cwl) {
-        size += ce.getMemorySize();
-        System.out.println("\t\t" + ce.getInfoString());
+    for (final Map.Entry<String, IntervalIndex<T>> entry : cache.entrySet()) {
+      System.out.println("\t" + entry.getKey());
+      final ReadWriteLock lock = getLock(entry.getKey());
+      lock.readLock().lock();
+      try {
+        for (final T ce : entry.getValue().entries()) {
+          size += ce.getMemorySize();
+          System.out.println("\t\t" + ce.getInfoString());
+        }
+      } finally {
+        lock.readLock().unlock();
       }
     }
     System.out.println(type + " size: " + size + " bytes");
     return size;
   }
 
-  private synchronized <T extends CacheEntry> void removeEntryFromCache(final CacheEntry ce,
-      final Map<String, List<T>> cache) {
-    final List<T> cl = cache.get(ce.station);
-    cl.remove(ce);
-    System.out.println("Removed: " + ce.getInfoString());
+  private <T extends CacheEntry> boolean removeEntryFromCache(final T ce,
+      final Map<String, IntervalIndex<T>> cache, final CacheMetrics.Reason reason) {
+    final ReadWriteLock lock = getLock(ce.station);
+    lock.writeLock().lock();
+    try {
+      final IntervalIndex<T> cl = cache.get(ce.station);
+      if (cl == null || !cl.remove(ce)) {
+        return false;
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+    LOGGER.debug("Removed: {}", ce.getInfoString());
+    metrics.evicted(reason, ce.getStoredSize());
+    evict(ce);
+    return true;
   }
 
-  private class HalveLargeWavesPurgeAction extends CachePurgeAction {
-    private final int maxTime;
-    private final Map<String, List<CachedWave>> cache;
-
-    public HalveLargeWavesPurgeAction(final Map<String, List<CachedWave>> c, final int m) {
-      cache = c;
-      maxTime = m;
+  /**
+   * Spill an entry to the disk tier and release its storage. The entry must already be out of the
+   * cache, so no lock is needed.
+   */
+  private void evict(final CacheEntry ce) {
+    final DiskCache disk = diskCache;
+    if (disk != null) {
+      ce.spill(disk);
     }
+    ce.release();
+  }
 
-    @Override
-    public long purge() {
-      final List<CacheEntry> items = getEntriesByLastAccess(cache);
+  abstract class CacheEntry implements Comparable<CacheEntry> {
+    public final long id = ENTRY_IDS.incrementAndGet();
+    public String station;
+    public double t1;
+    public double t2;
+    public volatile long lastAccess;
 
-      long chunk = 0;
+    /** LRU list holding this entry, and its links and recorded size. Guarded by the list. */
+    CacheLru<?> lru;
+    CacheEntry lruPrev;
+    CacheEntry lruNext;
+    int lruSize;
 
-      for (final CacheEntry ce : items) {
-        final CachedWave cw = (CachedWave) ce;
-        if (cw.wave.getEndTime() - cw.wave.getStartTime() > maxTime) {
-          final long before = cw.getMemorySize();
-          final double nst =
-              cw.wave.getEndTime() - (cw.wave.getEndTime() - cw.wave.getStartTime()) / 2;
-          cw.wave = cw.wave.subset(nst, cw.wave.getEndTime());
-          cw.t1 = cw.wave.getStartTime();
-          cw.t2 = cw.wave.getEndTime();
-          chunk += cw.getMemorySize() - before;
-        }
+    public int compareTo(final CacheEntry oce) {
+      return (int) (lastAccess - oce.lastAccess);
+    }
+
+    /**
+     * Record a hit. Caller must hold the channel's lock.
+     */
+    public void touch() {
+      lastAccess = System.currentTimeMillis();
+      final CacheLru<?> l = lru;
+      if (l != null) {
+        l.touch(this);
+      }
+    }
+
+    /**
+     * Take the entry out of its LRU list. Caller must hold the channel's write lock.
+     */
+    void unlink() {
+      final CacheLru<?> l = lru;
+      if (l != null) {
+        l.remove(this);
       }
-      return chunk;
     }
+
+    public abstract String getInfoString();
+
+    public abstract int getMemorySize();
+
+    /**
+     * Get bytes held by this entry, wherever they're stored.
+     * 
+     * @return size in bytes
+     */
+    public long getStoredSize() {
+      return getMemorySize();
+    }
+
+    /**
+     * Release any storage held outside of the heap. Called once the entry has been removed from
+     * the cache.
+     */
+    public void release() {}
+
+    /**
+     * Write the entry to the disk tier. Caller must hold the channel's lock or have removed the
+     * entry from the cache.
+     * 
+     * @param disk disk tier
+     */
+    public void spill(final DiskCache disk) {}
   }
 
-  private class TimeLimitWavePurgeAction extends CachePurgeAction {
-    private final long interval;
-    private final Map<String, List<CachedWave>> cache;
+  public class CachedWave extends CacheEntry implements Comparable<CacheEntry> {
+    /** samples on the heap, null while they are compressed or held off-heap. */
+    private Wave wave;
+    private CompressedSamples compressed;
+    private OffHeapSampleStore.Samples offHeap;
+
+    /** store holding the off-heap samples, which may no longer be the cache's store. */
+    private OffHeapSampleStore offHeapOwner;
+    private double samplingRate;
+    public long lastModified;
 
-    public TimeLimitWavePurgeAction(final Map<String, List<CachedWave>> c, final long i) {
-      cache = c;
-      interval = i;
+    /** set once compression has been tried and didn't save anything. */
+    private boolean incompressible;
+
+    /** most recent decoding of compressed or off-heap samples, kept until memory is short. */
+    private SoftReference<Wave> decoded;
+
+    /**
+     * Get the cached wave. Compressed and off-heap waves are decoded onto the heap, and the
+     * decoded wave is reused until the garbage collector needs the space. The result must not be
+     * modified.
+     * 
+     * @return the wave
+     */
+    public Wave getWave() {
+      if (wave != null) {
+        return wave;
+      }
+      Wave w = decoded == null ? null : decoded.get();
+      if (w == null) {
+        final int[] samples = compressed != null ? compressed.toArray() : offHeap.toArray();
+        w = new Wave(samples, t1, samplingRate);
+        decoded = new SoftReference<Wave>(w);
+      }
+      return w;
     }
 
-    @Override
-    public long purge() {
-      final List<CacheEntry> items = getEntriesByLastAccess(cache);
+    public double getSamplingRate() {
+      return wave != null ? wave.getSamplingRate() : samplingRate;
+    }
 
-      long chunk = 0;
-      final long now = System.currentTimeMillis();
+    public boolean isOnHeap() {
+      return wave != null || compressed != null;
+    }
 
-      for (final CacheEntry ce : items) {
-        if (now - ce.lastAccess > interval) {
-          removeEntryFromCache(ce, cache);
-          chunk += ce.getMemorySize();
-        }
+    /**
+     * Get the number of samples.
+     * 
+     * @return sample count
+     */
+    public int numSamples() {
+      if (wave != null) {
+        return wave.numSamples();
+      } else if (compressed != null) {
+        return compressed.length();
+      } else {
+        return offHeap.length();
       }
-      return chunk;
     }
-  }
 
-  private class TimeLimitHelicorderPurgeAction extends CachePurgeAction {
-    private final long interval;
-    private final Map<String, List<CachedHelicorder>> cache;
+    /**
+     * Check whether samples are held as a plain array on the heap.
+     * 
+     * @return true if samples are neither compressed nor off-heap
+     */
+    public boolean isRaw() {
+      return wave != null;
+    }
+
+    private boolean isCompressible() {
+      return wave != null && !incompressible;
+    }
+
+    /**
+     * Copy samples out of the cached wave without materializing the whole wave.
+     * 
+     * @param srcPos index of first sample
+     * @param dest destination array
+     * @param destPos position of first sample in destination
+     * @param len number of samples
+     */
+    public void read(final int srcPos, final int[] dest, final int destPos, final int len) {
+      if (wave != null) {
+        System.arraycopy(wave.buffer, srcPos, dest, destPos, len);
+      } else if (compressed != null) {
+        compressed.read(srcPos, dest, destPos, len);
+      } else {
+        offHeap.read(srcPos, dest, destPos, len);
+      }
+    }
+
+    /**
+     * Compress samples. Waves which don't get smaller are left as they are. Caller must hold the
+     * channel's write lock.
+     * 
+     * @return bytes saved
+     */
+    private int compress() {
+      if (!isCompressible()) {
+        return 0;
+      }
+      final CompressedSamples samples = CompressedSamples.compress(wave.buffer);
+      final int saved = wave.getMemorySize() - samples.getMemorySize();
+      if (saved <= 0) {
+        incompressible = true;
+        return 0;
+      }
+      samplingRate = wave.getSamplingRate();
+      compressed = samples;
+      wave = null;
+      if (lru != null) {
+        lru.resize(this);
+      }
+      return saved;
+    }
+
+    /**
+     * Move samples into the off-heap store. Caller must hold the channel's write lock.
+     * 
+     * @param store off-heap store
+     * @return true if the samples are off the heap
+     */
+    private boolean moveOffHeap(final OffHeapSampleStore store) {
+      if (wave == null) {
+        return true;
+      }
+      final OffHeapSampleStore.Samples samples = store.store(wave.buffer);
+      if (samples == null) {
+        return false;
+      }
+      samplingRate = wave.getSamplingRate();
+      offHeap = samples;
+      offHeapOwner = store;
+      wave = null;
+      if (lru != null) {
+        unlink();
+        offHeapLru.add(this);
+      }
+      return true;
+    }
+
+    @Override
+    public void spill(final DiskCache disk) {
+      disk.putWave(station, getWave());
+    }
 
-    public TimeLimitHelicorderPurgeAction(final Map<String, List<CachedHelicorder>> c,
-        final long i) {
-      cache = c;
-      interval = i;
+    @Override
+    public void release() {
+      if (offHeap != null) {
+        offHeapOwner.free(offHeap);
+        offHeap = null;
+        offHeapOwner = null;
+      }
+      decoded = null;
     }
 
     @Override
-    public long purge() {
-      final List<CacheEntry> items = getEntriesByLastAccess(cache);
+    public String getInfoString() {
+      final long ms = System.currentTimeMillis() - lastAccess;
+      final String where;
+      if (wave != null) {
+        where = "";
+      } else if (compressed != null) {
+        where = " compressed";
+      } else {
+        where = " off-heap";
+      }
+      return "[" + ms + "ms] " + (t2 - t1) + "s, " + getStoredSize() + " bytes" + where + ", "
+          + t1 + " => " + t2;
+    }
 
-      long chunk = 0;
-      final long now = System.currentTimeMillis();
+    @Override
+    public long getStoredSize() {
+      final OffHeapSampleStore.Samples samples = offHeap;
+      return samples == null ? getMemorySize() : samples.getMemorySize();
+    }
 
-      for (final CacheEntry ce : items) {
-        if (now - ce.lastAccess > interval) {
-          removeEntryFromCache(ce, cache);
-          chunk += ce.getMemorySize();
-        }
+    /**
+     * Get bytes held on the heap.
+     * 
+     * @return heap size, zero for waves held off-heap
+     */
+    @Override
+    public int getMemorySize() {
+      if (wave != null) {
+        return wave.getMemorySize();
+      } else if (compressed != null) {
+        return compressed.getMemorySize();
+      } else {
+        return 0;
       }
-      return chunk;
     }
   }
 
-  private class TimeLimitRsamPurgeAction extends CachePurgeAction {
-    private final long interval;
-    private final Map<String, List<CachedRsam>> cache;
 
-    public TimeLimitRsamPurgeAction(final Map<String, List<CachedRsam>> c, final long i) {
-      cache = c;
-      interval = i;
+  /**
+   * One hour of helicorder data for a channel. Chunks cover fixed hours, so their span never
+   * changes, and data is written into them in place as it arrives.
+   *
+   * <p>
+   * Alongside the per-second data each chunk keeps a min/max pyramid with one level for each of
+   * <code>HELICORDER_RESOLUTIONS</code>. Each level is kept current as data arrives, so reading a
+   * coarse level never looks at the seconds beneath it.
+   */
+  public class CachedHelicorder extends CacheEntry {
+    /** min and max for each level, NaN where there is no data. Level 0 is per second. */
+    private final double[][] min;
+    private final double[][] max;
+
+    /** seconds which have been cached, whether or not there was data. */
+    private final long[] covered;
+    private int rows;
+
+    private CachedHelicorder(final String station, final long start) {
+      this.station = station;
+      t1 = start;
+      t2 = start + HELICORDER_CHUNK;
+      min = new double[HELICORDER_RESOLUTIONS.length][];
+      max = new double[HELICORDER_RESOLUTIONS.length][];
+      for (int level = 0; level < HELICORDER_RESOLUTIONS.length; level++) {
+        min[level] = new double[HELICORDER_CHUNK / HELICORDER_RESOLUTIONS[level]];
+        max[level] = new double[HELICORDER_CHUNK / HELICORDER_RESOLUTIONS[level]];
+        Arrays.fill(min[level], Double.NaN);
+        Arrays.fill(max[level], Double.NaN);
+      }
+      covered = new long[(HELICORDER_CHUNK + 63) / 64];
+      lastAccess = System.currentTimeMillis();
     }
 
-    @Override
-    public long purge() {
-      final List<CacheEntry> items = getEntriesByLastAccess(cache);
+    private boolean holds(final long second) {
+      return second >= t1 && second < t2;
+    }
 
-      long chunk = 0;
-      final long now = System.currentTimeMillis();
+    private int index(final long second) {
+      return (int) (second - (long) t1);
+    }
+
+    /** Index of a second, clamped to this chunk. */
+    private int clip(final long second) {
+      return (int) Math.max(0, Math.min(HELICORDER_CHUNK, second - (long) t1));
+    }
+
+    private boolean hasRow(final int i) {
+      return !Double.isNaN(min[0][i]);
+    }
+
+    /** Replace a second. Caller must hold the channel's write lock. */
+    private void put(final int i, final double mn, final double mx) {
+      if (!hasRow(i)) {
+        merge(i, mn, mx);
+        return;
+      }
 
-      for (final CacheEntry ce : items) {
-        if (now - ce.lastAccess > interval) {
-          removeEntryFromCache(ce, cache);
-          chunk += ce.getMemorySize();
+      min[0][i] = mn;
+      max[0][i] = mx;
+      // the new values may be narrower, so rebuild the bins above from the level below
+      for (int level = 1; level < HELICORDER_RESOLUTIONS.length; level++) {
+        final int ratio = HELICORDER_RESOLUTIONS[level] / HELICORDER_RESOLUTIONS[level - 1];
+        final int bin = i / HELICORDER_RESOLUTIONS[level];
+        double binMin = Double.NaN;
+        double binMax = Double.NaN;
+        for (int j = bin * ratio; j < bin * ratio + ratio; j++) {
+          if (!Double.isNaN(min[level - 1][j])) {
+            binMin = Double.isNaN(binMin) ? min[level - 1][j] : Math.min(binMin, min[level - 1][j]);
+            binMax = Double.isNaN(binMax) ? max[level - 1][j] : Math.max(binMax, max[level - 1][j]);
+          }
         }
+        min[level][bin] = binMin;
+        max[level][bin] = binMax;
       }
-      return chunk;
     }
-  }
 
-  protected abstract class CachePurgeAction {
-    public CachePurgeAction() {}
+    /** Widen a second to include new data. Caller must hold the channel's write lock. */
+    private void merge(final int i, final double mn, final double mx) {
+      if (!hasRow(i)) {
+        rows++;
+      }
+      for (int level = 0; level < HELICORDER_RESOLUTIONS.length; level++) {
+        final int bin = i / HELICORDER_RESOLUTIONS[level];
+        if (Double.isNaN(min[level][bin])) {
+          min[level][bin] = mn;
+          max[level][bin] = mx;
+        } else {
+          min[level][bin] = Math.min(min[level][bin], mn);
+          max[level][bin] = Math.max(max[level][bin], mx);
+        }
+      }
+    }
 
-    public abstract long purge();
-  }
+    private void cover(final int from, final int to) {
+      for (int i = from; i < to; i++) {
+        covered[i >> 6] |= 1L << i;
+      }
+    }
 
-  private abstract class CacheEntry implements Comparable<CacheEntry> {
-    public String station;
-    public double t1;
-    public double t2;
-    public long lastAccess;
+    private boolean isCovered(final int i) {
+      return (covered[i >> 6] & (1L << i)) != 0;
+    }
 
-    public int compareTo(final CacheEntry oce) {
-      return (int) (lastAccess - oce.lastAccess);
+    private boolean covers(final int from, final int to) {
+      for (int i = from; i < to; i++) {
+        if (!isCovered(i)) {
+          return false;
+        }
+      }
+      return true;
     }
 
-    public abstract String getInfoString();
+    private int firstCovered(final int from, final int to) {
+      for (int i = from; i < to; i++) {
+        if (isCovered(i)) {
+          return i;
+        }
+      }
+      return -1;
+    }
 
-    public abstract int getMemorySize();
-  }
+    private int lastCovered(final int from, final int to) {
+      for (int i = to - 1; i >= from; i--) {
+        if (isCovered(i)) {
+          return i;
+        }
+      }
+      return -1;
+    }
 
-  public class CachedWave extends CacheEntry implements Comparable<CacheEntry> {
-    public Wave wave;
+    private int firstRow(final int from, final int to) {
+      for (int i = from; i < to; i++) {
+        if (hasRow(i)) {
+          return i;
+        }
+      }
+      return -1;
+    }
 
-    @Override
-    public String getInfoString() {
-      final long ms = System.currentTimeMillis() - lastAccess;
-      return "[" + ms + "ms] " + (t2 - t1) + "s, " + wave.getMemorySize() + " bytes, " + t1 + " => "
-          + t2;
+    private int lastRow(final int from, final int to) {
+      for (int i = to - 1; i >= from; i--) {
+        if (hasRow(i)) {
+          return i;
+        }
+      }
+      return -1;
     }
 
-    @Override
-    public int getMemorySize() {
-      return wave.getMemorySize();
+    /**
+     * Count the rows a copy would produce. Bins cut by either end of the span count if they have
+     * data within it.
+     */
+    private int countRows(final int level, final int from, final int to) {
+      if (from == 0 && to == HELICORDER_CHUNK && level == 0) {
+        return rows;
+      }
+      final int res = HELICORDER_RESOLUTIONS[level];
+      int count = 0;
+      for (int bin = from / res; bin * res < to; bin++) {
+        final int start = bin * res;
+        if (start >= from && start + res <= to) {
+          if (!Double.isNaN(min[level][bin])) {
+            count++;
+          }
+        } else if (firstRow(Math.max(from, start), Math.min(to, start + res)) >= 0) {
+          count++;
+        }
+      }
+      return count;
     }
-  }
 
-  public class CachedHelicorder extends CacheEntry {
-    public HelicorderData helicorder;
+    /**
+     * Copy rows into a matrix. Bins cut by either end of the span are summarized from the seconds
+     * within it.
+     * 
+     * @return index of the row after the last one copied
+     */
+    private int copyRows(final int level, final int from, final int to, final DoubleMatrix2D dest,
+        int row) {
+      final long t = (long) t1;
+      final int res = HELICORDER_RESOLUTIONS[level];
+      for (int bin = from / res; bin * res < to; bin++) {
+        final int start = bin * res;
+        if (start >= from && start + res <= to) {
+          if (!Double.isNaN(min[level][bin])) {
+            dest.setQuick(row, 0, t + start);
+            dest.setQuick(row, 1, min[level][bin]);
+            dest.setQuick(row, 2, max[level][bin]);
+            row++;
+          }
+          continue;
+        }
+
+        final int i1 = Math.max(from, start);
+        final int i2 = Math.min(to, start + res);
+        final int first = firstRow(i1, i2);
+        if (first < 0) {
+          continue;
+        }
+        double binMin = min[0][first];
+        double binMax = max[0][first];
+        for (int i = first + 1; i < i2; i++) {
+          if (hasRow(i)) {
+            binMin = Math.min(binMin, min[0][i]);
+            binMax = Math.max(binMax, max[0][i]);
+          }
+        }
+        dest.setQuick(row, 0, t + first);
+        dest.setQuick(row, 1, binMin);
+        dest.setQuick(row, 2, binMax);
+        row++;
+      }
+      return row;
+    }
+
+    /**
+     * Get the chunk as HelicorderData. Caller must hold the channel's lock.
+     * 
+     * @return helicorder data or null if the chunk has no rows
+     */
+    public HelicorderData getHelicorder() {
+      if (rows == 0) {
+        return null;
+      }
+      final DoubleMatrix2D data = DoubleFactory2D.dense.make(rows, 3);
+      copyRows(0, 0, HELICORDER_CHUNK, data, 0);
+      final HelicorderData hd = new HelicorderData();
+      hd.setData(data);
+      return hd;
+    }
+
+    @Override
+    public void spill(final DiskCache disk) {
+      final HelicorderData hd = getHelicorder();
+      if (hd != null) {
+        disk.putHelicorder(station, hd);
+      }
+    }
 
     @Override
     public String toString() {
@@ -831,18 +2646,42 @@ public abstract class AbstractCachingDataSource extends SeismicDataSource implem
     @Override
     public String getInfoString() {
       final long ms = System.currentTimeMillis() - lastAccess;
-      return "[" + ms + "ms] " + (t2 - t1) + "s, " + helicorder.getMemorySize() + " bytes, " + t1
-          + " => " + t2;
+      return "[" + ms + "ms] " + rows + " rows, " + getMemorySize() + " bytes, " + t1 + " => "
+          + t2;
     }
 
     @Override
     public int getMemorySize() {
-      return helicorder.getMemorySize();
+      int size = covered.length * 8;
+      for (final double[] level : min) {
+        size += level.length * 16;
+      }
+      return size;
     }
   }
 
   public class CachedRsam extends CacheEntry {
     public RSAMData rsamData;
+    public int period;
+
+    /** Is there a row for a given time? */
+    private boolean holds(final double t) {
+      final DoubleMatrix2D d = rsamData.getData();
+      int lo = 0;
+      int hi = d.rows() - 1;
+      while (lo <= hi) {
+        final int mid = (lo + hi) >>> 1;
+        final double mt = d.getQuick(mid, 0);
+        if (mt < t) {
+          lo = mid + 1;
+        } else if (mt > t) {
+          hi = mid - 1;
+        } else {
+          return true;
+        }
+      }
+      return false;
+    }
 
     @Override
     public String toString() {
@@ -850,11 +2689,12 @@ public abstract class AbstractCachingDataSource extends SeismicDataSource implem
     }
 
     /**
-     * Slice.
+     * Slice. The entry runs to the end of its last row's period, so a span ending within that
+     * period ends with the last row.
      * 
      * @param t1 start time
      * @param t2 end time
-     * @return RSAM data
+     * @return RSAM data, with no rows if none start within the span
      */
     public RSAMData slice(final double t1, final double t2) {
       if (t1 >= this.t2 || t2 <= this.t1) {
@@ -864,8 +2704,8 @@ public abstract class AbstractCachingDataSource extends SeismicDataSource implem
       final DoubleMatrix2D d = rsamData.getData();
       int i = 0;
 
-      int firstRow = Integer.MAX_VALUE;
-      while (firstRow == Integer.MAX_VALUE && i < d.rows()) {
+      int firstRow = d.rows();
+      while (firstRow == d.rows() && i < d.rows()) {
         final double t = d.getQuick(i, 0);
         if (t >= t1) {
           firstRow = i;
@@ -874,8 +2714,8 @@ public abstract class AbstractCachingDataSource extends SeismicDataSource implem
         }
       }
 
-      int lastRow = -Integer.MAX_VALUE;
-      while (lastRow == -Integer.MAX_VALUE && i < d.rows()) {
+      int lastRow = d.rows();
+      while (lastRow == d.rows() && i < d.rows()) {
         final double t = d.getQuick(i, 0);
         if (t >= t2) {
           lastRow = i;
@@ -903,33 +2743,60 @@ public abstract class AbstractCachingDataSource extends SeismicDataSource implem
     }
   }
 
-  private class CompleteWavePurgeAction extends CachePurgeAction {
-    private final Map<String, List<CachedWave>> cache;
-
-    public CompleteWavePurgeAction(final Map<String, List<CachedWave>> c) {
-      cache = c;
+  /**
+   * Gulper computing one channel's missing RSAM at one period, newest first. Each chunk of waves
+   * is fetched without being kept in the cache and computed in one pass.
+   */
+  private class RsamGulper extends Gulper {
+    private final SeismicDataSource source;
+    private final int period;
+
+    /** span the backfill covers. Guarded by rsamBackfills. */
+    private double from;
+    private final double to;
+
+    /** when the backfill finished, in ms, or 0 if it hasn't. */
+    private volatile long finishedAt;
+
+    private RsamGulper(final String key, final SeismicDataSource source, final String channel,
+        final double t1, final double t2, final int period) {
+      super(GulperList.INSTANCE, key, source, channel, t1, t2,
+          Math.max(1, RSAM_CHUNK / period) * period, RSAM_DELAY);
+      this.source = source;
+      this.period = period;
+      from = t1;
+      to = t2;
     }
 
     @Override
-    public long purge() {
-      final long size = getSize(cache);
-      cache.clear();// = new HashMap();
-      return size;
+    protected boolean isCached(final double t1, final double t2) {
+      return findRsamGaps(getChannel(), t1, t2, period).isEmpty();
     }
-  }
-
-  private class CompleteHelicorderPurgeAction extends CachePurgeAction {
-    private final Map<String, List<CachedHelicorder>> cache;
 
-    public CompleteHelicorderPurgeAction(final Map<String, List<CachedHelicorder>> c) {
-      cache = c;
+    @Override
+    protected void gulp(final double t1, final double t2) {
+      if (isKilled()) {
+        return;
+      }
+      final String channel = getChannel();
+      final double start = Math.floor(t1 / period) * period;
+      final double end = Math.min(Math.ceil(t2 / period) * period, J2kSec.now());
+      final Wave wave = source.getUncachedWave(channel, start, end);
+      if (wave != null) {
+        final List<double[]> rows = RsamCalculator.compute(wave, period, start, end);
+        if (!rows.isEmpty()) {
+          putRsamRows(channel, period, rows);
+        }
+      }
     }
 
+    /**
+     * The source belongs to whoever asked for RSAM, so unlike a helicorder gulper's it's left
+     * open, and the gulper was never in the gulper list.
+     */
     @Override
-    public long purge() {
-      final long size = getSize(cache);
-      cache.clear();// = new HashMap();
-      return size;
+    void finish() {
+      finishedAt = System.currentTimeMillis();
     }
   }
 }
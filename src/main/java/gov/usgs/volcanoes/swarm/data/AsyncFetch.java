@@ -0,0 +1,127 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0 Universal
+ * public domain dedication. https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+/**
+ * Threads shared by asynchronous data source requests, so callers can have many requests
+ * outstanding without a thread each.
+ *
+ * <p>
+ * Futures returned here can be cancelled. Cancelling, or timing out, a request which is still
+ * waiting for a thread drops it; one which is running is interrupted.
+ */
+public final class AsyncFetch {
+
+  /** most blocking requests run at once. */
+  private static final int THREADS = 8;
+
+  private static final ThreadPoolExecutor EXECUTOR = new ThreadPoolExecutor(THREADS, THREADS, 60,
+      TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new Factory("Async fetch"));
+
+  private static final ScheduledExecutorService TIMER =
+      new ScheduledThreadPoolExecutor(1, new Factory("Async fetch timer"));
+
+  static {
+    EXECUTOR.allowCoreThreadTimeOut(true);
+  }
+
+  private AsyncFetch() {}
+
+  /**
+   * Run a blocking request on a shared thread.
+   *
+   * @param request request
+   * @return future result
+   */
+  public static <T> CompletableFuture<T> supply(final Callable<T> request) {
+    final CompletableFuture<T> future = new CompletableFuture<T>();
+    final Future<?> task = EXECUTOR.submit(new Runnable() {
+      public void run() {
+        if (future.isDone()) {
+          return;
+        }
+        try {
+          future.complete(request.call());
+        } catch (final Throwable e) {
+          future.completeExceptionally(e);
+        }
+      }
+    });
+    future.whenComplete(new BiConsumer<T, Throwable>() {
+      public void accept(final T result, final Throwable e) {
+        if (e != null) {
+          task.cancel(true);
+        }
+      }
+    });
+    return future;
+  }
+
+  /**
+   * Fail a future with a <code>TimeoutException</code> if it hasn't completed in time, which
+   * also stops the request behind it.
+   *
+   * @param future future
+   * @param timeout time to wait
+   * @param unit unit of timeout
+   * @return the same future
+   */
+  public static <T> CompletableFuture<T> withTimeout(final CompletableFuture<T> future,
+      final long timeout, final TimeUnit unit) {
+    final ScheduledFuture<?> timer = TIMER.schedule(new Runnable() {
+      public void run() {
+        future.completeExceptionally(new TimeoutException());
+      }
+    }, timeout, unit);
+    future.whenComplete(new BiConsumer<T, Throwable>() {
+      public void accept(final T result, final Throwable e) {
+        timer.cancel(false);
+      }
+    });
+    return future;
+  }
+
+  /**
+   * Run a short task after a delay, for requests which poll rather than block. The task runs on
+   * a thread shared by every poller, so must not block.
+   *
+   * @param task task
+   * @param delay delay in ms
+   * @return handle for cancelling the task
+   */
+  public static ScheduledFuture<?> schedule(final Runnable task, final long delay) {
+    return TIMER.schedule(task, delay, TimeUnit.MILLISECONDS);
+  }
+
+  private static class Factory implements ThreadFactory {
+    private final String name;
+    private final AtomicInteger count = new AtomicInteger();
+
+    private Factory(final String name) {
+      this.name = name;
+    }
+
+    public Thread newThread(final Runnable r) {
+      final Thread thread = new Thread(r, name + " " + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
@@ -0,0 +1,199 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0 Universal
+ * public domain dedication. https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+import gov.usgs.volcanoes.swarm.data.AbstractCachingDataSource.CacheEntry;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Access order and size accounting for one kind of cache entry.
+ *
+ * <p>
+ * Entries are linked into a doubly linked list, least recently used first. Adding, removing, and
+ * touching an entry are O(1), as is getting the total size, since each entry's size is recorded
+ * when it's added and kept up to date with <code>resize</code>.
+ *
+ * <p>
+ * An entry is in at most one list at a time. The list links live in the entry and are guarded by
+ * the list's monitor.
+ *
+ * @param <T> cache entry type
+ */
+class CacheLru<T extends CacheEntry> {
+
+  private final String name;
+  private CacheEntry head;
+  private CacheEntry tail;
+  private long size;
+  private int count;
+  private double share;
+
+  /**
+   * Constructor.
+   *
+   * @param name name used in log messages
+   * @param share fraction of the cache this list is budgeted
+   */
+  public CacheLru(final String name, final double share) {
+    this.name = name;
+    this.share = share;
+  }
+
+  /**
+   * Add an entry as the most recently used.
+   *
+   * @param entry cache entry, not in any list
+   */
+  public synchronized void add(final T entry) {
+    if (entry.lru != null) {
+      throw new IllegalStateException("entry is already in " + entry.lru);
+    }
+    entry.lru = this;
+    entry.lruSize = entry.getMemorySize();
+    size += entry.lruSize;
+    count++;
+    link(entry);
+  }
+
+  /**
+   * Remove an entry.
+   *
+   * @param entry cache entry
+   * @return true if the entry was in this list
+   */
+  public synchronized boolean remove(final CacheEntry entry) {
+    if (entry.lru != this) {
+      return false;
+    }
+    unlink(entry);
+    entry.lru = null;
+    size -= entry.lruSize;
+    count--;
+    return true;
+  }
+
+  /**
+   * Mark an entry as the most recently used.
+   *
+   * @param entry cache entry
+   */
+  public synchronized void touch(final CacheEntry entry) {
+    if (entry.lru != this || entry == tail) {
+      return;
+    }
+    unlink(entry);
+    link(entry);
+  }
+
+  /**
+   * Update the recorded size of an entry after it changes.
+   *
+   * @param entry cache entry
+   */
+  public synchronized void resize(final CacheEntry entry) {
+    if (entry.lru != this) {
+      return;
+    }
+    final int newSize = entry.getMemorySize();
+    size += newSize - entry.lruSize;
+    entry.lruSize = newSize;
+  }
+
+  /**
+   * Get the least recently used entry.
+   *
+   * @return eldest entry or null if empty
+   */
+  @SuppressWarnings("unchecked")
+  public synchronized T eldest() {
+    return (T) head;
+  }
+
+  /**
+   * Get all entries, least recently used first.
+   *
+   * @return copy of the list
+   */
+  @SuppressWarnings("unchecked")
+  public synchronized List<T> snapshot() {
+    final List<T> entries = new ArrayList<T>(count);
+    for (CacheEntry entry = head; entry != null; entry = entry.lruNext) {
+      entries.add((T) entry);
+    }
+    return entries;
+  }
+
+  /**
+   * Drop every entry.
+   */
+  public synchronized void clear() {
+    CacheEntry entry = head;
+    while (entry != null) {
+      final CacheEntry next = entry.lruNext;
+      entry.lruPrev = null;
+      entry.lruNext = null;
+      entry.lru = null;
+      entry = next;
+    }
+    head = null;
+    tail = null;
+    size = 0;
+    count = 0;
+  }
+
+  /**
+   * Get the total size of the entries.
+   *
+   * @return size in bytes
+   */
+  public synchronized long getSize() {
+    return size;
+  }
+
+  public synchronized int getCount() {
+    return count;
+  }
+
+  public double getShare() {
+    return share;
+  }
+
+  public void setShare(final double share) {
+    this.share = share;
+  }
+
+  @Override
+  public String toString() {
+    return name;
+  }
+
+  private void link(final CacheEntry entry) {
+    entry.lruPrev = tail;
+    entry.lruNext = null;
+    if (tail == null) {
+      head = entry;
+    } else {
+      tail.lruNext = entry;
+    }
+    tail = entry;
+  }
+
+  private void unlink(final CacheEntry entry) {
+    if (entry.lruPrev == null) {
+      head = entry.lruNext;
+    } else {
+      entry.lruPrev.lruNext = entry.lruNext;
+    }
+    if (entry.lruNext == null) {
+      tail = entry.lruPrev;
+    } else {
+      entry.lruNext.lruPrev = entry.lruPrev;
+    }
+    entry.lruPrev = null;
+    entry.lruNext = null;
+  }
+}
@@ -0,0 +1,318 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0 Universal
+ * public domain dedication. https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Counters describing how a cache is being used. Counters are updated without locking and may be
+ * read at any time; sizes and entry counts are taken from the cache when asked for.
+ */
+public class CacheMetrics implements CacheMetricsMBean {
+  private static final Logger LOGGER = LoggerFactory.getLogger(CacheMetrics.class);
+
+  /** Cache lookups which are counted as hits or misses. */
+  public enum Operation {
+    WAVE("getWave"), BEST_WAVE("getBestWave"), HELICORDER("getHelicorder"), RSAM("getRsam");
+
+    private final String name;
+
+    private Operation(final String name) {
+      this.name = name;
+    }
+
+    @Override
+    public String toString() {
+      return name;
+    }
+  }
+
+  /** Reasons an entry leaves the cache. */
+  public enum Reason {
+    /** cache is over its size limit. */
+    SIZE("size"),
+
+    /** off-heap store needed room for a more recently used wave. */
+    OFF_HEAP("off-heap full"),
+
+    /** cache was cleared. */
+    FLUSH("flush");
+
+    private final String name;
+
+    private Reason(final String name) {
+      this.name = name;
+    }
+
+    @Override
+    public String toString() {
+      return name;
+    }
+  }
+
+  private final AbstractCachingDataSource cache;
+  private final AtomicLongArray hits;
+  private final AtomicLongArray misses;
+  private final AtomicLongArray evictions;
+  private final AtomicLongArray evictedBytes;
+  private final AtomicLong merges;
+  private final AtomicLong readLockNanos;
+  private final AtomicLong writeLockNanos;
+
+  /**
+   * Constructor.
+   *
+   * @param cache cache being measured
+   */
+  public CacheMetrics(final AbstractCachingDataSource cache) {
+    this.cache = cache;
+    hits = new AtomicLongArray(Operation.values().length);
+    misses = new AtomicLongArray(Operation.values().length);
+    evictions = new AtomicLongArray(Reason.values().length);
+    evictedBytes = new AtomicLongArray(Reason.values().length);
+    merges = new AtomicLong();
+    readLockNanos = new AtomicLong();
+    writeLockNanos = new AtomicLong();
+  }
+
+  /**
+   * Register with the platform MBean server. Failure is logged and otherwise ignored.
+   *
+   * @param name object name
+   */
+  public void register(final String name) {
+    try {
+      final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      final ObjectName objectName = new ObjectName(name);
+      if (!server.isRegistered(objectName)) {
+        server.registerMBean(this, objectName);
+      }
+    } catch (final JMException e) {
+      LOGGER.warn("Unable to register cache metrics as {}: {}", name, e.getMessage());
+    }
+  }
+
+  /**
+   * Count a lookup.
+   *
+   * @param op operation
+   * @param hit true if the cache had the data
+   */
+  public void lookup(final Operation op, final boolean hit) {
+    (hit ? hits : misses).incrementAndGet(op.ordinal());
+  }
+
+  /**
+   * Count an entry leaving the cache.
+   *
+   * @param reason why it left
+   * @param bytes bytes it held
+   */
+  public void evicted(final Reason reason, final long bytes) {
+    evictions.incrementAndGet(reason.ordinal());
+    evictedBytes.addAndGet(reason.ordinal(), bytes);
+  }
+
+  /**
+   * Count entries combined into one.
+   */
+  public void merged() {
+    merges.incrementAndGet();
+  }
+
+  /**
+   * Add time spent holding a cache lock.
+   *
+   * @param write true for the write lock
+   * @param nanos hold time
+   */
+  public void lockHeld(final boolean write, final long nanos) {
+    (write ? writeLockNanos : readLockNanos).addAndGet(nanos);
+  }
+
+  public long getHits(final Operation op) {
+    return hits.get(op.ordinal());
+  }
+
+  public long getMisses(final Operation op) {
+    return misses.get(op.ordinal());
+  }
+
+  public long getEvictions(final Reason reason) {
+    return evictions.get(reason.ordinal());
+  }
+
+  public long getEvictedBytes(final Reason reason) {
+    return evictedBytes.get(reason.ordinal());
+  }
+
+  public long getMaxSize() {
+    return cache.maxSize;
+  }
+
+  public long getWaveBytes() {
+    return cache.waveLru.getSize();
+  }
+
+  public long getHelicorderBytes() {
+    return cache.helicorderLru.getSize();
+  }
+
+  public long getRsamBytes() {
+    return cache.rsamLru.getSize();
+  }
+
+  public long getOffHeapBytes() {
+    return cache.getOffHeapSize();
+  }
+
+  public long getWaveHits() {
+    return getHits(Operation.WAVE);
+  }
+
+  public long getWaveMisses() {
+    return getMisses(Operation.WAVE);
+  }
+
+  public long getBestWaveHits() {
+    return getHits(Operation.BEST_WAVE);
+  }
+
+  public long getBestWaveMisses() {
+    return getMisses(Operation.BEST_WAVE);
+  }
+
+  public long getHelicorderHits() {
+    return getHits(Operation.HELICORDER);
+  }
+
+  public long getHelicorderMisses() {
+    return getMisses(Operation.HELICORDER);
+  }
+
+  public long getRsamHits() {
+    return getHits(Operation.RSAM);
+  }
+
+  public long getRsamMisses() {
+    return getMisses(Operation.RSAM);
+  }
+
+  public long getSizeEvictions() {
+    return getEvictions(Reason.SIZE);
+  }
+
+  public long getSizeEvictedBytes() {
+    return getEvictedBytes(Reason.SIZE);
+  }
+
+  public long getOffHeapEvictions() {
+    return getEvictions(Reason.OFF_HEAP);
+  }
+
+  public long getOffHeapEvictedBytes() {
+    return getEvictedBytes(Reason.OFF_HEAP);
+  }
+
+  public long getFlushEvictions() {
+    return getEvictions(Reason.FLUSH);
+  }
+
+  public long getFlushEvictedBytes() {
+    return getEvictedBytes(Reason.FLUSH);
+  }
+
+  public long getMerges() {
+    return merges.get();
+  }
+
+  public long getReadLockMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(readLockNanos.get());
+  }
+
+  public long getWriteLockMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(writeLockNanos.get());
+  }
+
+  /**
+   * Get the number of entries held for each channel.
+   *
+   * @return one "channel: waves, helicorders, RSAM" line per channel
+   */
+  public String[] getChannelEntryCounts() {
+    final Map<String, int[]> counts = cache.getEntryCounts();
+    final String[] lines = new String[counts.size()];
+    int i = 0;
+    for (final Map.Entry<String, int[]> entry : counts.entrySet()) {
+      final int[] c = entry.getValue();
+      lines[i++] = entry.getKey().replace('$', ' ') + ": " + c[0] + " waves, " + c[1]
+          + " helicorders, " + c[2] + " RSAM";
+    }
+    return lines;
+  }
+
+  /**
+   * Get every metric as text.
+   *
+   * @return multi-line report
+   */
+  public String getReport() {
+    final StringBuilder sb = new StringBuilder();
+    sb.append("Size (max ").append(getMaxSize()).append(" bytes)\n");
+    sb.append("  waves: ").append(getWaveBytes()).append(" bytes\n");
+    sb.append("  helicorders: ").append(getHelicorderBytes()).append(" bytes\n");
+    sb.append("  RSAM: ").append(getRsamBytes()).append(" bytes\n");
+    sb.append("  off-heap: ").append(getOffHeapBytes()).append(" bytes\n");
+
+    sb.append("Lookups (hits/misses)\n");
+    for (final Operation op : Operation.values()) {
+      sb.append("  ").append(op).append(": ").append(getHits(op)).append('/')
+          .append(getMisses(op)).append('\n');
+    }
+
+    sb.append("Evictions (entries/bytes)\n");
+    for (final Reason reason : Reason.values()) {
+      sb.append("  ").append(reason).append(": ").append(getEvictions(reason)).append('/')
+          .append(getEvictedBytes(reason)).append('\n');
+    }
+
+    sb.append("Merges: ").append(getMerges()).append('\n');
+    sb.append("Lock held (read/write): ").append(getReadLockMillis()).append('/')
+        .append(getWriteLockMillis()).append(" ms\n");
+
+    sb.append("Entries\n");
+    for (final String line : getChannelEntryCounts()) {
+      sb.append("  ").append(line).append('\n');
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Zero every counter.
+   */
+  public void reset() {
+    for (int i = 0; i < hits.length(); i++) {
+      hits.set(i, 0);
+      misses.set(i, 0);
+    }
+    for (int i = 0; i < evictions.length(); i++) {
+      evictions.set(i, 0);
+      evictedBytes.set(i, 0);
+    }
+    merges.set(0);
+    readLockNanos.set(0);
+    writeLockNanos.set(0);
+  }
+}
@@ -0,0 +1,64 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0 Universal
+ * public domain dedication. https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+/**
+ * Management interface for cache metrics.
+ *
+ * @see CacheMetrics
+ */
+public interface CacheMetricsMBean {
+
+  long getMaxSize();
+
+  long getWaveBytes();
+
+  long getHelicorderBytes();
+
+  long getRsamBytes();
+
+  long getOffHeapBytes();
+
+  long getWaveHits();
+
+  long getWaveMisses();
+
+  long getBestWaveHits();
+
+  long getBestWaveMisses();
+
+  long getHelicorderHits();
+
+  long getHelicorderMisses();
+
+  long getRsamHits();
+
+  long getRsamMisses();
+
+  long getSizeEvictions();
+
+  long getSizeEvictedBytes();
+
+  long getOffHeapEvictions();
+
+  long getOffHeapEvictedBytes();
+
+  long getFlushEvictions();
+
+  long getFlushEvictedBytes();
+
+  long getMerges();
+
+  long getReadLockMillis();
+
+  long getWriteLockMillis();
+
+  String[] getChannelEntryCounts();
+
+  String getReport();
+
+  void reset();
+}
@@ -1,5 +1,11 @@
 package gov.usgs.volcanoes.swarm.data;
 
+import gov.usgs.volcanoes.core.time.J2kSec;
+import gov.usgs.volcanoes.swarm.SwarmConfig;
+import java.io.File;
+import java.util.Timer;
+import java.util.TimerTask;
+
 /**
  * An implementation of <code>SeismicDataSource</code> that is used by Swarm to cache all data that
  * it comes across.
@@ -8,8 +14,45 @@ package gov.usgs.volcanoes.swarm.data;
  */
 public class CachedDataSource extends AbstractCachingDataSource {
 
+  /** how often days past the disk cache's retention period are removed, in ms. */
+  private static final long CLEAN_INTERVAL = 60 * 60 * 1000;
+
   private CachedDataSource(String name) {
     super();
+    SwarmConfig config = SwarmConfig.getInstance();
+    setBudget(config.cacheSize);
+    setShares(config.waveCacheShare, config.helicorderCacheShare, config.rsamCacheShare);
+    setCompressionAge(config.waveCompressionAge);
+    getMetrics().register("gov.usgs.volcanoes.swarm:type=Cache,name=cache");
+    if (config.offHeapCache) {
+      setOffHeapCapacity(config.offHeapCacheSize * 1024L * 1024L);
+    }
+    if (config.diskCache) {
+      createDiskCache(new File(config.diskCacheDir), config.diskCacheDays);
+    }
+  }
+
+  /**
+   * Set up the disk tier. Days past the retention period are removed in the background, at
+   * startup and every hour after, and everything in memory is written out when Swarm exits.
+   */
+  private void createDiskCache(final File dir, final int days) {
+    final DiskCache disk = new DiskCache(dir);
+    setDiskCache(disk);
+
+    final Timer cleaner = new Timer("Disk cache cleaner", true);
+    cleaner.schedule(new TimerTask() {
+      @Override
+      public void run() {
+        disk.removeOlderThan(J2kSec.now() - days * 24 * 60 * 60);
+      }
+    }, 0, CLEAN_INTERVAL);
+
+    Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+      public void run() {
+        persist();
+      }
+    }, "Disk cache writer"));
   }
 
   private static class CachedDataSourceHolder {
@@ -24,6 +67,11 @@ public class CachedDataSource extends AbstractCachingDataSource {
     return "cache:";
   }
 
+  @Override
+  public boolean canCacheChannels() {
+    return false;
+  }
+
   @Override
   public void close() {
     // TODO Auto-generated method stub
@@ -0,0 +1,216 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0 Universal
+ * public domain dedication. https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+import gov.usgs.volcanoes.swarm.Metadata;
+import gov.usgs.volcanoes.swarm.SwarmConfig;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TimeZone;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Channel lists kept on disk, so a source's channels can be shown without asking the source.
+ *
+ * <p>
+ * Each source has a file, named after its configuration rather than its name, under
+ * <code>channels</code> in the disk cache directory. The file lists the source's channels along
+ * with the metadata the source supplied for them: location, time span, alias, unit, time zone,
+ * and groups. Reading the file puts that metadata back as if the source had just been asked.
+ *
+ * <p>
+ * A list younger than <code>channelCacheHours</code> is fresh. An older one can still be shown
+ * while the source is asked again in the background. Setting <code>channelCacheHours</code> to 0
+ * turns the cache off.
+ */
+public final class ChannelCache {
+  private static final Logger LOGGER = LoggerFactory.getLogger(ChannelCache.class);
+
+  public static final ChannelCache INSTANCE = new ChannelCache();
+
+  /** file header, naming the format version. */
+  private static final String MAGIC = "SWCH1";
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private ChannelCache() {}
+
+  /**
+   * Get a source's cached channels, restoring their metadata.
+   *
+   * @param source data source
+   * @return channels, fresh or not, or null if there are none cached
+   */
+  public List<String> get(final SeismicDataSource source) {
+    final File file = getFile(source);
+    if (file == null || !file.canRead()) {
+      return null;
+    }
+
+    final List<String> channels = new ArrayList<String>();
+    BufferedReader in = null;
+    try {
+      in = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF8));
+      if (!MAGIC.equals(in.readLine())) {
+        return null;
+      }
+      final SwarmConfig config = SwarmConfig.getInstance();
+      String line;
+      while ((line = in.readLine()) != null) {
+        final String[] fields = line.split("\t", -1);
+        if (fields.length < 9) {
+          continue;
+        }
+        final Metadata md = config.getMetadata(fields[0], true);
+        md.updateLongitude(Double.parseDouble(fields[1]));
+        md.updateLatitude(Double.parseDouble(fields[2]));
+        md.updateHeight(Double.parseDouble(fields[3]));
+        if (!fields[4].isEmpty()) {
+          md.updateMinTime(Double.parseDouble(fields[4]));
+          md.updateMaxTime(Double.parseDouble(fields[5]));
+        }
+        if (!fields[6].isEmpty()) {
+          md.updateAlias(fields[6]);
+        }
+        if (!fields[7].isEmpty()) {
+          md.updateUnits(fields[7]);
+        }
+        md.updateTimeZone(fields[8]);
+        for (int i = 9; i < fields.length; i++) {
+          md.addGroup(fields[i]);
+        }
+        md.source = source;
+        channels.add(fields[0]);
+      }
+    } catch (final IOException e) {
+      LOGGER.warn("cannot read channel cache {}", file, e);
+      return null;
+    } catch (final NumberFormatException e) {
+      LOGGER.warn("corrupt channel cache {}", file);
+      return null;
+    } finally {
+      close(in);
+    }
+    return channels;
+  }
+
+  /**
+   * Check whether a source's cached channels are young enough to use without asking the source.
+   *
+   * @param source data source
+   * @return true if fresh
+   */
+  public boolean isFresh(final SeismicDataSource source) {
+    final File file = getFile(source);
+    if (file == null || !file.exists()) {
+      return false;
+    }
+    final long ttl = SwarmConfig.getInstance().channelCacheHours * 60L * 60 * 1000;
+    return System.currentTimeMillis() - file.lastModified() < ttl;
+  }
+
+  /**
+   * Save a source's channels, with the metadata it supplied for them.
+   *
+   * @param source data source
+   * @param channels channels
+   */
+  public void put(final SeismicDataSource source, final List<String> channels) {
+    final File file = getFile(source);
+    if (file == null || channels == null) {
+      return;
+    }
+    file.getParentFile().mkdirs();
+
+    final File temp = new File(file.getPath() + ".tmp");
+    final SwarmConfig config = SwarmConfig.getInstance();
+    PrintWriter out = null;
+    try {
+      out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(temp), UTF8));
+      out.println(MAGIC);
+      for (final String channel : channels) {
+        final StringBuilder line = new StringBuilder(clean(channel));
+        final Metadata md = config.getMetadata(channel);
+        if (md == null) {
+          line.append("\tNaN\tNaN\tNaN\t\t\t\t\t");
+        } else {
+          line.append('\t').append(md.getLongitude());
+          line.append('\t').append(md.getLatitude());
+          line.append('\t').append(md.getHeight());
+          if (Double.isNaN(md.getMinTime()) && Double.isNaN(md.getMaxTime())) {
+            line.append("\t\t");
+          } else {
+            line.append('\t').append(md.getMinTime()).append('\t').append(md.getMaxTime());
+          }
+          line.append('\t').append(clean(md.getAlias()));
+          line.append('\t').append(clean(md.getUnit()));
+          final TimeZone tz = md.getTimeZone();
+          line.append('\t').append(tz == null ? "" : tz.getID());
+          if (md.getGroups() != null) {
+            for (final String group : md.getGroups()) {
+              line.append('\t').append(clean(group));
+            }
+          }
+        }
+        out.println(line);
+      }
+      out.close();
+      if (out.checkError()) {
+        throw new IOException("write failed");
+      }
+      if (!temp.renameTo(file)) {
+        file.delete();
+        if (!temp.renameTo(file)) {
+          throw new IOException("cannot replace " + file);
+        }
+      }
+    } catch (final IOException e) {
+      LOGGER.warn("cannot write channel cache {}", file, e);
+      temp.delete();
+    } finally {
+      close(out);
+    }
+  }
+
+  /** Get the file for a source, or null if its channels aren't cached. */
+  private File getFile(final SeismicDataSource source) {
+    final SwarmConfig config = SwarmConfig.getInstance();
+    if (config.channelCacheHours <= 0 || !source.canCacheChannels()) {
+      return null;
+    }
+    final String configString = source.toConfigString();
+    final String key = configString.substring(configString.indexOf(';') + 1);
+    final String fileName = key.replaceAll("[^A-Za-z0-9._-]", "_");
+    return new File(new File(config.diskCacheDir, "channels"),
+        fileName + "-" + Integer.toHexString(key.hashCode()) + ".txt");
+  }
+
+  /** Keep a field from breaking the line it's written on. */
+  private static String clean(final String s) {
+    return s == null ? "" : s.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+  }
+
+  private static void close(final Closeable c) {
+    if (c != null) {
+      try {
+        c.close();
+      } catch (final IOException e) {
+        // nothing to do
+      }
+    }
+  }
+}
@@ -0,0 +1,103 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0 Universal
+ * public domain dedication. https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Wave samples held compressed on the heap.
+ *
+ * <p>
+ * Samples are split into fixed-size blocks, each encoded on its own with <code>SampleCodec</code>,
+ * and the offset of every block is recorded. A read only decodes the blocks it touches, and
+ * decodes straight into the caller's buffer.
+ */
+public class CompressedSamples {
+
+  /** samples per independently decodable block. */
+  public static final int BLOCK_SAMPLES = 4 * 1024;
+
+  /** rough size of the object headers and fields. */
+  private static final int OVERHEAD = 48;
+
+  private final byte[] data;
+  private final int[] offsets;
+  private final int length;
+
+  private CompressedSamples(final byte[] data, final int[] offsets, final int length) {
+    this.data = data;
+    this.offsets = offsets;
+    this.length = length;
+  }
+
+  /**
+   * Compress samples.
+   *
+   * @param samples samples to compress
+   * @return compressed samples
+   */
+  public static CompressedSamples compress(final int[] samples) {
+    final int blocks = (samples.length + BLOCK_SAMPLES - 1) / BLOCK_SAMPLES;
+    final int[] offsets = new int[blocks];
+    final ByteArrayOutputStream out = new ByteArrayOutputStream(samples.length * 2);
+    for (int block = 0; block < blocks; block++) {
+      final int pos = block * BLOCK_SAMPLES;
+      offsets[block] = out.size();
+      final byte[] encoded =
+          SampleCodec.encode(samples, pos, Math.min(BLOCK_SAMPLES, samples.length - pos));
+      out.write(encoded, 0, encoded.length);
+    }
+    return new CompressedSamples(out.toByteArray(), offsets, samples.length);
+  }
+
+  public int length() {
+    return length;
+  }
+
+  /**
+   * Decompress samples.
+   *
+   * @param srcPos index of first sample to decompress
+   * @param dest destination array
+   * @param destPos index in destination of first sample
+   * @param len number of samples to decompress
+   */
+  public void read(int srcPos, final int[] dest, int destPos, int len) {
+    if (srcPos < 0 || len < 0 || srcPos + len > length) {
+      throw new ArrayIndexOutOfBoundsException(srcPos + len);
+    }
+
+    while (len > 0) {
+      final int block = srcPos / BLOCK_SAMPLES;
+      final int skip = srcPos % BLOCK_SAMPLES;
+      final int n = Math.min(BLOCK_SAMPLES - skip, len);
+      SampleCodec.decode(data, offsets[block], dest, destPos, skip, n);
+      srcPos += n;
+      destPos += n;
+      len -= n;
+    }
+  }
+
+  /**
+   * Decompress every sample.
+   *
+   * @return new array of samples
+   */
+  public int[] toArray() {
+    final int[] samples = new int[length];
+    read(0, samples, 0, length);
+    return samples;
+  }
+
+  /**
+   * Get bytes used on the heap.
+   *
+   * @return size in bytes
+   */
+  public int getMemorySize() {
+    return data.length + offsets.length * 4 + OVERHEAD;
+  }
+}
@@ -0,0 +1,198 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0 Universal
+ * public domain dedication. https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * What's known about the parts of one channel's timeline which aren't in the cache.
+ *
+ * <p>
+ * Ranges present in the cache are found from the wave index, which is always current, so only
+ * what the index can't tell is recorded here: ranges a source was asked for and had no data, and
+ * ranges a fetch is underway for. Known-empty ranges expire so data which arrives late at the
+ * server is eventually fetched.
+ *
+ * <p>
+ * Ranges never overlap; marking a range replaces whatever was recorded for it.
+ */
+class CoverageMap {
+
+  /** State of a recorded range. */
+  public enum State {
+    /** the source had no data. */
+    EMPTY,
+
+    /** a fetch is underway. */
+    PENDING
+  }
+
+  private final TreeMap<Double, Span> spans;
+  private final long emptyTtl;
+
+  /**
+   * Constructor.
+   *
+   * @param emptyTtl how long a range is known to be empty, in ms
+   */
+  public CoverageMap(final long emptyTtl) {
+    this.emptyTtl = emptyTtl;
+    spans = new TreeMap<Double, Span>();
+  }
+
+  /**
+   * Record the state of a range.
+   *
+   * @param t1 start time
+   * @param t2 end time
+   * @param state state
+   */
+  public synchronized void mark(final double t1, final double t2, final State state) {
+    if (t2 <= t1) {
+      return;
+    }
+    cut(t1, t2);
+    spans.put(t1, new Span(t1, t2, state, System.currentTimeMillis()));
+  }
+
+  /**
+   * Forget the parts of a range in a given state.
+   *
+   * @param t1 start time
+   * @param t2 end time
+   * @param state state to forget
+   */
+  public synchronized void clear(final double t1, final double t2, final State state) {
+    final List<Span> keep = new ArrayList<Span>();
+    for (final Span span : overlapping(t1, t2)) {
+      if (span.state != state) {
+        keep.add(span);
+      }
+    }
+    cut(t1, t2);
+    for (final Span span : keep) {
+      final Span clipped =
+          new Span(Math.max(t1, span.t1), Math.min(t2, span.t2), span.state, span.marked);
+      spans.put(clipped.t1, clipped);
+    }
+    if (state == State.PENDING) {
+      notifyAll();
+    }
+  }
+
+  /**
+   * Remove known-empty and pending ranges from a list of gaps.
+   *
+   * @param gaps {start, end} gaps ordered by start time
+   * @param minGap pieces shorter than this are dropped
+   * @return what's left, possibly empty
+   */
+  public synchronized List<double[]> subtract(final List<double[]> gaps, final double minGap) {
+    final long cutoff = System.currentTimeMillis() - emptyTtl;
+    final List<double[]> result = new ArrayList<double[]>();
+    for (final double[] gap : gaps) {
+      double pos = gap[0];
+      for (final Span span : overlapping(gap[0], gap[1])) {
+        if (span.state == State.EMPTY && span.marked < cutoff) {
+          spans.remove(span.t1);
+          continue;
+        }
+        if (span.t1 - pos >= minGap) {
+          result.add(new double[] {pos, span.t1});
+        }
+        pos = Math.max(pos, span.t2);
+      }
+      if (gap[1] - pos >= minGap) {
+        result.add(new double[] {pos, gap[1]});
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Wait until no fetch is underway for any part of a range.
+   *
+   * @param t1 start time
+   * @param t2 end time
+   * @param timeout longest time to wait, in ms
+   * @return true if nothing is pending
+   */
+  public synchronized boolean awaitPending(final double t1, final double t2,
+      final long timeout) {
+    final long end = System.currentTimeMillis() + timeout;
+    while (isPending(t1, t2)) {
+      final long remaining = end - System.currentTimeMillis();
+      if (remaining <= 0) {
+        return false;
+      }
+      try {
+        wait(remaining);
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return false;
+      }
+    }
+    return true;
+  }
+
+  public synchronized boolean isEmpty() {
+    return spans.isEmpty();
+  }
+
+  private boolean isPending(final double t1, final double t2) {
+    for (final Span span : overlapping(t1, t2)) {
+      if (span.state == State.PENDING) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** Spans overlapping a range, ordered by start time. */
+  private List<Span> overlapping(final double t1, final double t2) {
+    final List<Span> result = new ArrayList<Span>();
+    final Map.Entry<Double, Span> before = spans.lowerEntry(t1);
+    if (before != null && before.getValue().t2 > t1) {
+      result.add(before.getValue());
+    }
+    result.addAll(spans.subMap(t1, true, t2, false).values());
+    return result;
+  }
+
+  /** Remove a range from every span, splitting spans which straddle its ends. */
+  private void cut(final double t1, final double t2) {
+    final List<Span> pieces = new ArrayList<Span>();
+    for (final Span span : overlapping(t1, t2)) {
+      spans.remove(span.t1);
+      if (span.t1 < t1) {
+        pieces.add(new Span(span.t1, t1, span.state, span.marked));
+      }
+      if (span.t2 > t2) {
+        pieces.add(new Span(t2, span.t2, span.state, span.marked));
+      }
+    }
+    for (final Span piece : pieces) {
+      spans.put(piece.t1, piece);
+    }
+  }
+
+  private static class Span {
+    private final double t1;
+    private final double t2;
+    private final State state;
+    private final long marked;
+
+    private Span(final double t1, final double t2, final State state, final long marked) {
+      this.t1 = t1;
+      this.t2 = t2;
+      this.state = state;
+      this.marked = marked;
+    }
+  }
+}
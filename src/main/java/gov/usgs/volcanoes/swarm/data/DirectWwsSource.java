@@ -3,6 +3,7 @@ package gov.usgs.volcanoes.swarm.data;
 import gov.usgs.volcanoes.core.data.HelicorderData;
 import gov.usgs.volcanoes.core.data.Scnl;
 import gov.usgs.volcanoes.core.data.Wave;
+import gov.usgs.volcanoes.core.time.J2kSec;
 import gov.usgs.volcanoes.core.util.UtilException;
 import gov.usgs.volcanoes.winston.Channel;
 import gov.usgs.volcanoes.winston.db.Channels;
@@ -10,22 +11,47 @@ import gov.usgs.volcanoes.winston.db.Data;
 import gov.usgs.volcanoes.winston.db.WinstonDatabase;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * An implementation of <code>SeismicDataSource</code> that communicates directly with a Winston
  * database. Essentially identical to DirectWinstonSource.
  *
+ * <p>
+ * The configuration is <code>driver|url|prefix</code>, optionally followed by
+ * <code>|connections</code>, the most database connections the source opens at once; one by
+ * default. Each query borrows a connection, so with more than one, queries for different
+ * channels run side by side, and a span covering several days is read a day table at a time in
+ * parallel. Connections are kept open between queries, along with the statements Winston has
+ * prepared on them.
  *
  * @author Dan Cervelli
  */
 public class DirectWwsSource extends SeismicDataSource {
+  private static final long DAY_MS = 24 * 60 * 60 * 1000L;
+
   private String dbDriver;
   private String dbUrl;
   private String dbPrefix;
+  private int connections = 1;
 
-  private WinstonDatabase winston;
-  private Data data;
-  private Channels stations;
+  private BlockingQueue<Connection> idle;
+  private int open;
+
+  /**
+   * reads the days of a multi-day span beyond the first, which the caller reads itself. Created
+   * when first needed.
+   */
+  private ThreadPoolExecutor dayReader;
 
   // explicit default constructor required for reflection
   public DirectWwsSource() {}
@@ -40,39 +66,212 @@ public class DirectWwsSource extends SeismicDataSource {
     dbDriver = ss[0];
     dbUrl = ss[1];
     dbPrefix = ss[2];
+    if (ss.length >= 4) {
+      connections = Math.max(1, Integer.parseInt(ss[3]));
+    }
 
-    winston = new WinstonDatabase(dbDriver, dbUrl, dbPrefix);
-    stations = new Channels(winston);
-    data = new Data(winston);
+    allowConcurrentFetches();
+    idle = new LinkedBlockingQueue<Connection>();
+    idle.add(new Connection());
+    open = 1;
   }
 
+  /**
+   * Close the idle connections and let the day reader's threads go. The source is shared, so it
+   * stays usable; connections are opened again as they're needed, and those in use are kept.
+   */
   public void close() {
-    winston.close();
+    Connection c;
+    while ((c = idle.poll()) != null) {
+      c.winston.close();
+      synchronized (this) {
+        open--;
+      }
+    }
+    synchronized (this) {
+      if (dayReader != null) {
+        dayReader.shutdown();
+        dayReader = null;
+      }
+    }
+  }
+
+  private synchronized ThreadPoolExecutor dayReader() {
+    if (dayReader == null) {
+      dayReader = new ThreadPoolExecutor(connections, connections, 60, TimeUnit.SECONDS,
+          new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+              Thread thread = new Thread(r, "Winston day reader");
+              thread.setDaemon(true);
+              return thread;
+            }
+          });
+      dayReader.allowCoreThreadTimeOut(true);
+    }
+    return dayReader;
   }
 
   /**
-   * Get wave.
-   * 
-   * @see gov.usgs.volcanoes.swarm.data.SeismicDataSource#getWave(java.lang.String, double, double)
+   * Borrow a connection, opening one if none is idle and fewer than the configured number are
+   * open, otherwise waiting for one to come back. Waits are short, since a connection closed
+   * while idle leaves room to open another rather than coming back.
    */
-  public synchronized Wave getWave(String station, double t1, double t2) {
-    CachedDataSource cache = CachedDataSource.getInstance();
+  private Connection borrow() throws InterruptedException {
+    while (true) {
+      Connection c = idle.poll();
+      if (c != null) {
+        return c;
+      }
+      synchronized (this) {
+        if (open < connections) {
+          open++;
+          return new Connection();
+        }
+      }
+      c = idle.poll(1, TimeUnit.SECONDS);
+      if (c != null) {
+        return c;
+      }
+    }
+  }
+
+  private void giveBack(Connection c) {
+    idle.add(c);
+  }
 
-    Wave sw = cache.getWave(station, t1, t2);
-    if (sw == null) {
+  /**
+   * Split a span at UTC midnights, where Winston starts a new table.
+   *
+   * @param t1 start time in j2k
+   * @param t2 end time in j2k
+   * @param overlap whether the pieces may share their boundaries
+   * @return pieces as start and end pairs
+   */
+  private static List<double[]> days(double t1, double t2, boolean overlap) {
+    List<double[]> days = new ArrayList<double[]>();
+    double start = t1;
+    while (true) {
+      long midnight = (Math.floorDiv(J2kSec.asEpoch(start), DAY_MS) + 1) * DAY_MS;
+      double end = J2kSec.fromEpoch(midnight);
+      if (end >= t2) {
+        break;
+      }
+      // helicorder rows are whole seconds, so ending a second early leaves the midnight row to
+      // the next day alone
+      double last = overlap ? end : end - 1;
+      if (last > start) {
+        days.add(new double[] {start, last});
+      }
+      start = end;
+    }
+    days.add(new double[] {start, t2});
+    return days;
+  }
+
+  /**
+   * Read a span, a day per connection when it covers several days.
+   *
+   * @param t1 start time in j2k
+   * @param t2 end time in j2k
+   * @param overlap whether pieces may share their boundaries
+   * @param reader reads one piece
+   * @return pieces read, in order, leaving out those with no data
+   */
+  private <T> List<T> readDays(double t1, double t2, boolean overlap, final DayReader<T> reader)
+      throws InterruptedException {
+    List<double[]> days = connections > 1 ? days(t1, t2, overlap) : null;
+    if (days == null || days.size() == 1) {
+      List<T> result = new ArrayList<T>();
+      T piece = read(reader, t1, t2);
+      if (piece != null) {
+        result.add(piece);
+      }
+      return result;
+    }
+
+    ThreadPoolExecutor dayReader = dayReader();
+    List<Future<T>> futures = new ArrayList<Future<T>>();
+    for (final double[] day : days.subList(1, days.size())) {
+      Callable<T> task = new Callable<T>() {
+        public T call() throws Exception {
+          return read(reader, day[0], day[1]);
+        }
+      };
       try {
-        sw = data.getWave(station, t1, t2, 0);
-      } catch (UtilException e) {
-        //
+        futures.add(dayReader.submit(task));
+      } catch (RejectedExecutionException e) {
+        // closed since it was fetched, so read the day here
+        FutureTask<T> future = new FutureTask<T>(task);
+        future.run();
+        futures.add(future);
+      }
+    }
+
+    List<T> result = new ArrayList<T>();
+    try {
+      T first = read(reader, days.get(0)[0], days.get(0)[1]);
+      if (first != null) {
+        result.add(first);
       }
-      if (sw != null && !sw.isData()) {
-        sw = null;
+      for (Future<T> future : futures) {
+        try {
+          T piece = future.get();
+          if (piece != null) {
+            result.add(piece);
+          }
+        } catch (ExecutionException e) {
+          // leave a gap for the day which failed
+        }
       }
-      if (sw != null && sw.buffer != null && sw.buffer.length > 0) {
-        cache.putWave(station, sw);
+    } finally {
+      for (Future<T> future : futures) {
+        future.cancel(true);
       }
     }
-    return sw;
+    return result;
+  }
+
+  private <T> T read(DayReader<T> reader, double t1, double t2) throws InterruptedException {
+    Connection c = borrow();
+    try {
+      return reader.read(c.data, t1, t2);
+    } catch (UtilException e) {
+      return null;
+    } finally {
+      giveBack(c);
+    }
+  }
+
+  /**
+   * Get wave.
+   * 
+   * @see gov.usgs.volcanoes.swarm.data.SeismicDataSource#getWave(java.lang.String, double, double)
+   */
+  public Wave getWave(final String station, double t1, double t2) {
+    return getWave(station, t1, t2, new WaveFetcher() {
+      public Wave fetch(double t1, double t2) {
+        Wave sw = null;
+        try {
+          List<Wave> waves = readDays(t1, t2, true, new DayReader<Wave>() {
+            public Wave read(Data data, double t1, double t2) throws UtilException {
+              Wave wave = data.getWave(station, t1, t2, 0);
+              return wave != null && wave.isData() ? wave : null;
+            }
+          });
+          if (waves.size() == 1) {
+            sw = waves.get(0);
+          } else if (waves.size() > 1) {
+            sw = Wave.join(waves);
+          }
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        if (sw != null && !sw.isData()) {
+          sw = null;
+        }
+        return sw;
+      }
+    });
   }
 
   /**
@@ -80,11 +279,22 @@ public class DirectWwsSource extends SeismicDataSource {
    * 
    * @see gov.usgs.volcanoes.swarm.data.SeismicDataSource#getChannels()
    */
-  public synchronized List<String> getChannels() {
-    List<Channel> chs = stations.getChannels();
+  public List<String> getChannels() {
     List<String> result = new ArrayList<String>();
-    for (Channel ch : chs) {
-      result.add(ch.toString());
+    Connection c;
+    try {
+      c = borrow();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return result;
+    }
+    try {
+      List<Channel> chs = c.stations.getChannels();
+      for (Channel ch : chs) {
+        result.add(ch.toString());
+      }
+    } finally {
+      giveBack(c);
     }
     return result;
   }
@@ -95,15 +305,40 @@ public class DirectWwsSource extends SeismicDataSource {
    * @see gov.usgs.volcanoes.swarm.data.SeismicDataSource#getHelicorder (java.lang.String, double,
    *      double, gov.usgs.volcanoes.swarm.data.GulperListener)
    */
-  public synchronized HelicorderData getHelicorder(String station, double t1, double t2,
+  public HelicorderData getHelicorder(String station, double t1, double t2,
       GulperListener gl) {
+    return getHelicorder(station, t1, t2, gl, 1);
+  }
+
+  @Override
+  public HelicorderData getHelicorder(String station, double t1, double t2,
+      GulperListener gl, int resolution) {
     CachedDataSource cache = CachedDataSource.getInstance();
-    HelicorderData hd = cache.getHelicorder(station, t1, t2, this);
+    HelicorderData hd = cache.getHelicorder(station, t1, t2, this, resolution);
     if (hd == null) {
+      final Scnl scnl;
       try {
-        hd = data.getHelicorderData(Scnl.parse(station), t1, t2, 0);
+        scnl = Scnl.parse(station);
       } catch (UtilException e) {
-        //
+        System.err.println("DirectWwsSource.getHelicorder: Cannot parse station " + station);
+        return null;
+      }
+      try {
+        List<HelicorderData> days = readDays(t1, t2, false, new DayReader<HelicorderData>() {
+          public HelicorderData read(Data data, double t1, double t2) throws UtilException {
+            HelicorderData day = data.getHelicorderData(scnl, t1, t2, 0);
+            return day != null && day.rows() != 0 ? day : null;
+          }
+        });
+        for (HelicorderData day : days) {
+          if (hd == null) {
+            hd = day;
+          } else {
+            hd.concatenate(day);
+          }
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
       }
       if (hd != null && hd.rows() != 0) {
         cache.putHelicorder(station, hd);
@@ -116,6 +351,25 @@ public class DirectWwsSource extends SeismicDataSource {
 
   public String toConfigString() {
     String typeString = DataSourceType.getShortName(this.getClass());
-    return String.format("%s;%s:%s|%s|%s", name, typeString, dbDriver, dbUrl, dbPrefix);
+    return String.format("%s;%s:%s|%s|%s|%d", name, typeString, dbDriver, dbUrl, dbPrefix,
+        connections);
+  }
+
+  /** Reads one piece of a span. */
+  private interface DayReader<T> {
+    T read(Data data, double t1, double t2) throws UtilException;
+  }
+
+  /** A database connection, with the Winston objects which query it. */
+  private class Connection {
+    private final WinstonDatabase winston;
+    private final Data data;
+    private final Channels stations;
+
+    private Connection() {
+      winston = new WinstonDatabase(dbDriver, dbUrl, dbPrefix);
+      stations = new Channels(winston);
+      data = new Data(winston);
+    }
   }
 }
@@ -0,0 +1,693 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0 Universal
+ * public domain dedication. https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+import gov.usgs.volcanoes.core.data.HelicorderData;
+import gov.usgs.volcanoes.core.data.Wave;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import cern.colt.matrix.DoubleFactory2D;
+import cern.colt.matrix.DoubleMatrix2D;
+
+/**
+ * A persistent cache tier on the local disk, beneath the in-memory cache.
+ *
+ * <p>
+ * Each channel has a directory holding one wave segment and one helicorder segment per UTC day.
+ * Segments are append-only files of records. Wave records hold a start time, sampling rate, and
+ * samples compressed with <code>SampleCodec</code>. Helicorder records hold a run of consecutive
+ * one second rows of time, min, and max. The first time a segment is used its record headers are
+ * scanned into an in-memory time index, so later lookups only read the records they need.
+ *
+ * <p>
+ * Only the parts of a wave or helicorder not already on disk are written, so writing the same data
+ * twice doesn't grow a segment.
+ *
+ * <p>
+ * At most <code>MAX_SEGMENTS</code> segments are kept open. Past that, the least recently used
+ * idle segments are closed, dropping their index until they're next used.
+ */
+public class DiskCache {
+  private static final Logger LOGGER = LoggerFactory.getLogger(DiskCache.class);
+
+  /** J2K epoch as seconds since the Unix epoch. */
+  private static final double J2K_EPOCH = 946728000;
+
+  private static final int DAY = 24 * 60 * 60;
+
+  /** J2K is noon based, days are not. */
+  private static final int DAY_OFFSET = 12 * 60 * 60;
+
+  /** segment file header, "SWC" and a format version. */
+  private static final int MAGIC = 0x53574301;
+
+  private static final String WAVE_SUFFIX = ".wave";
+  private static final String HELICORDER_SUFFIX = ".heli";
+
+  /** start time, sampling rate, sample count, encoded length. */
+  private static final int WAVE_HEADER = 8 + 8 + 4 + 4;
+
+  /** start time, end time, row count. */
+  private static final int HELICORDER_HEADER = 8 + 8 + 4;
+
+  /** time, min, max. */
+  private static final int HELICORDER_ROW = 8 + 8 + 8;
+
+  /** most segments kept open. */
+  private static final int MAX_SEGMENTS = 256;
+
+  private final File root;
+
+  /** open segments, least recently used first. */
+  private final LinkedHashMap<String, Segment> segments;
+
+  /**
+   * Constructor.
+   *
+   * @param root directory holding the cache
+   */
+  public DiskCache(final File root) {
+    this.root = root;
+    segments = new LinkedHashMap<String, Segment>(16, 0.75f, true);
+    if (!root.isDirectory() && !root.mkdirs()) {
+      LOGGER.warn("Unable to create disk cache directory {}", root);
+    }
+  }
+
+  /**
+   * Write the parts of a wave not already on disk.
+   *
+   * @param channel channel
+   * @param wave wave
+   */
+  public void putWave(final String channel, final Wave wave) {
+    final int n = wave.numSamples();
+    final double samplingRate = wave.getSamplingRate();
+    if (n == 0 || samplingRate <= 0) {
+      return;
+    }
+
+    final double start = wave.getStartTime();
+    final double end = start + n / samplingRate;
+    for (long day = dayOf(start); dayStart(day) < end; day++) {
+      final Segment segment = openSegment(channel, day, WAVE_SUFFIX);
+      try {
+        final double dayEnd = Math.min(end, dayStart(day + 1));
+        for (final double[] gap : segment.findGaps(Math.max(start, dayStart(day)), dayEnd)) {
+          final int i1 = Math.max(0, (int) Math.round((gap[0] - start) * samplingRate));
+          final int i2 = Math.min(n, (int) Math.round((gap[1] - start) * samplingRate));
+          if (i2 <= i1) {
+            continue;
+          }
+          final byte[] samples = SampleCodec.encode(wave.buffer, i1, i2 - i1);
+          final ByteArrayOutputStream bytes =
+              new ByteArrayOutputStream(WAVE_HEADER + samples.length);
+          final DataOutputStream out = new DataOutputStream(bytes);
+          try {
+            final double t1 = start + i1 / samplingRate;
+            out.writeDouble(t1);
+            out.writeDouble(samplingRate);
+            out.writeInt(i2 - i1);
+            out.writeInt(samples.length);
+            out.write(samples);
+            segment.append(t1, t1 + (i2 - i1) / samplingRate, bytes.toByteArray());
+          } catch (final IOException e) {
+            LOGGER.warn("Unable to write {}: {}", segment.file, e.getMessage());
+            return;
+          }
+        }
+      } finally {
+        segment.lock.unlock();
+      }
+    }
+  }
+
+  /**
+   * Read waves from disk.
+   *
+   * @param channel channel
+   * @param t1 start time
+   * @param t2 end time
+   * @return waves overlapping the time span, trimmed to it. Empty if nothing is on disk.
+   */
+  public List<Wave> getWaves(final String channel, final double t1, final double t2) {
+    final List<Wave> waves = new ArrayList<Wave>();
+    for (long day = dayOf(t1); dayStart(day) < t2; day++) {
+      final Segment segment = openSegment(channel, day, WAVE_SUFFIX);
+      try {
+        for (final Record record : segment.findOverlapping(t1, t2)) {
+          try {
+            final DataInputStream in = segment.read(record);
+            final double start = in.readDouble();
+            final double samplingRate = in.readDouble();
+            final int n = in.readInt();
+            final byte[] samples = new byte[in.readInt()];
+            in.readFully(samples);
+
+            final int skip = Math.max(0, (int) Math.floor((t1 - start) * samplingRate));
+            final int len = Math.min(n, (int) Math.ceil((t2 - start) * samplingRate)) - skip;
+            if (len <= 0) {
+              continue;
+            }
+            final int[] buffer = new int[len];
+            SampleCodec.decode(samples, 0, buffer, 0, skip, len);
+            final Wave wave = new Wave(buffer, start + skip / samplingRate, samplingRate);
+            wave.register();
+            waves.add(wave);
+          } catch (final IOException e) {
+            LOGGER.warn("Unable to read {}: {}", segment.file, e.getMessage());
+            break;
+          }
+        }
+      } finally {
+        segment.lock.unlock();
+      }
+    }
+    return waves;
+  }
+
+  /**
+   * Write the rows of a helicorder not already on disk.
+   *
+   * @param channel channel
+   * @param helicorder helicorder data
+   */
+  public void putHelicorder(final String channel, final HelicorderData helicorder) {
+    final DoubleMatrix2D data = helicorder.getData();
+    if (data == null || data.rows() == 0) {
+      return;
+    }
+
+    // sort rows into days
+    final Map<Long, TreeMap<Double, Integer>> days = new TreeMap<Long, TreeMap<Double, Integer>>();
+    for (int i = 0; i < data.rows(); i++) {
+      final double t = data.getQuick(i, 0);
+      final long day = dayOf(t);
+      TreeMap<Double, Integer> rows = days.get(day);
+      if (rows == null) {
+        rows = new TreeMap<Double, Integer>();
+        days.put(day, rows);
+      }
+      rows.put(t, i);
+    }
+
+    for (final Map.Entry<Long, TreeMap<Double, Integer>> entry : days.entrySet()) {
+      final Segment segment = openSegment(channel, entry.getKey(), HELICORDER_SUFFIX);
+      try {
+        final List<Integer> run = new ArrayList<Integer>();
+        double last = Double.NaN;
+        for (final Map.Entry<Double, Integer> row : entry.getValue().entrySet()) {
+          final double t = row.getKey();
+          if (segment.covers(t)) {
+            continue;
+          }
+          // records hold runs of consecutive seconds, so they never claim to cover a gap
+          if (!run.isEmpty() && t - last > 1) {
+            if (!appendRows(segment, data, run)) {
+              return;
+            }
+            run.clear();
+          }
+          run.add(row.getValue());
+          last = t;
+        }
+        if (!run.isEmpty() && !appendRows(segment, data, run)) {
+          return;
+        }
+      } finally {
+        segment.lock.unlock();
+      }
+    }
+  }
+
+  /**
+   * Read a helicorder from disk.
+   *
+   * @param channel channel
+   * @param t1 start time
+   * @param t2 end time
+   * @return helicorder rows within the time span, or null if nothing is on disk
+   */
+  public HelicorderData getHelicorder(final String channel, final double t1, final double t2) {
+    final TreeMap<Double, double[]> rows = new TreeMap<Double, double[]>();
+    for (long day = dayOf(t1); dayStart(day) <= t2; day++) {
+      final Segment segment = openSegment(channel, day, HELICORDER_SUFFIX);
+      try {
+        for (final Record record : segment.findOverlapping(t1, t2)) {
+          try {
+            final DataInputStream in = segment.read(record);
+            in.readDouble();
+            in.readDouble();
+            final int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+              final double t = in.readDouble();
+              final double min = in.readDouble();
+              final double max = in.readDouble();
+              if (t >= t1 && t <= t2) {
+                rows.put(t, new double[] {t, min, max});
+              }
+            }
+          } catch (final IOException e) {
+            LOGGER.warn("Unable to read {}: {}", segment.file, e.getMessage());
+            break;
+          }
+        }
+      } finally {
+        segment.lock.unlock();
+      }
+    }
+
+    if (rows.isEmpty()) {
+      return null;
+    }
+
+    final DoubleMatrix2D data = DoubleFactory2D.dense.make(rows.size(), 3);
+    int i = 0;
+    for (final double[] row : rows.values()) {
+      data.setQuick(i, 0, row[0]);
+      data.setQuick(i, 1, row[1]);
+      data.setQuick(i, 2, row[2]);
+      i++;
+    }
+    final HelicorderData hd = new HelicorderData();
+    hd.setData(data);
+    return hd;
+  }
+
+  /**
+   * Delete segments for days which ended before the given time.
+   *
+   * @param t J2K time
+   */
+  public void removeOlderThan(final double t) {
+    final SimpleDateFormat format = dayFormat();
+    final File[] channels = root.listFiles();
+    if (channels == null) {
+      return;
+    }
+
+    synchronized (segments) {
+      for (final File dir : channels) {
+        final File[] files = dir.listFiles();
+        if (files == null) {
+          continue;
+        }
+        for (final File file : files) {
+          final String name = file.getName();
+          final int dot = name.indexOf('.');
+          if (dot < 0) {
+            continue;
+          }
+          try {
+            final double start =
+                format.parse(name.substring(0, dot)).getTime() / 1000.0 - J2K_EPOCH;
+            if (start + DAY <= t) {
+              final Segment segment =
+                  segments.remove(dir.getName() + "/" + dayOf(start) + name.substring(dot));
+              if (segment != null) {
+                segment.lock.lock();
+              }
+              try {
+                if (!file.delete()) {
+                  LOGGER.debug("Unable to delete {}", file);
+                }
+              } finally {
+                if (segment != null) {
+                  segment.close();
+                  segment.lock.unlock();
+                }
+              }
+            }
+          } catch (final ParseException e) {
+            // not ours
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Delete everything on disk.
+   */
+  public void clear() {
+    synchronized (segments) {
+      for (final Segment segment : segments.values()) {
+        segment.lock.lock();
+        segment.close();
+        segment.lock.unlock();
+      }
+      segments.clear();
+      final File[] channels = root.listFiles();
+      if (channels == null) {
+        return;
+      }
+      for (final File dir : channels) {
+        final File[] files = dir.listFiles();
+        if (files != null) {
+          for (final File file : files) {
+            file.delete();
+          }
+        }
+        dir.delete();
+      }
+    }
+  }
+
+  /** Caller must hold the segment's lock. */
+  private boolean appendRows(final Segment segment, final DoubleMatrix2D data,
+      final List<Integer> rows) {
+    final ByteArrayOutputStream bytes =
+        new ByteArrayOutputStream(HELICORDER_HEADER + rows.size() * HELICORDER_ROW);
+    final DataOutputStream out = new DataOutputStream(bytes);
+    final double t1 = data.getQuick(rows.get(0), 0);
+    final double t2 = data.getQuick(rows.get(rows.size() - 1), 0) + 1;
+    try {
+      out.writeDouble(t1);
+      out.writeDouble(t2);
+      out.writeInt(rows.size());
+      for (final int row : rows) {
+        out.writeDouble(data.getQuick(row, 0));
+        out.writeDouble(data.getQuick(row, 1));
+        out.writeDouble(data.getQuick(row, 2));
+      }
+      segment.append(t1, t2, bytes.toByteArray());
+      return true;
+    } catch (final IOException e) {
+      LOGGER.warn("Unable to write {}: {}", segment.file, e.getMessage());
+      return false;
+    }
+  }
+
+  /**
+   * Get a segment, opening it if it isn't open. The caller must release the segment's lock.
+   *
+   * @return segment, locked
+   */
+  private Segment openSegment(final String channel, final long day, final String suffix) {
+    final String dir = channel.replaceAll("[^A-Za-z0-9._-]", "_");
+    final String key = dir + "/" + day + suffix;
+    while (true) {
+      Segment segment;
+      synchronized (segments) {
+        segment = segments.get(key);
+        if (segment == null) {
+          final String name = dayFormat().format((long) ((dayStart(day) + J2K_EPOCH) * 1000));
+          final boolean wave = WAVE_SUFFIX.equals(suffix);
+          segment = new Segment(new File(new File(root, dir), name + suffix),
+              wave ? WAVE_HEADER : HELICORDER_HEADER, wave);
+          segments.put(key, segment);
+          closeIdleSegments();
+        }
+      }
+      segment.lock.lock();
+      // closed between being found and being locked, so open it afresh
+      if (!segment.closed) {
+        return segment;
+      }
+      segment.lock.unlock();
+    }
+  }
+
+  /**
+   * Close the least recently used segments past the limit, skipping those in use. Caller must
+   * hold the monitor of the segment map.
+   */
+  private void closeIdleSegments() {
+    final Iterator<Segment> it = segments.values().iterator();
+    int excess = segments.size() - MAX_SEGMENTS;
+    while (excess > 0 && it.hasNext()) {
+      final Segment segment = it.next();
+      if (segment.lock.tryLock()) {
+        try {
+          segment.close();
+          it.remove();
+          excess--;
+        } finally {
+          segment.lock.unlock();
+        }
+      }
+    }
+  }
+
+  /**
+   * Get the number of open segments.
+   *
+   * @return open segments
+   */
+  int getOpenSegments() {
+    synchronized (segments) {
+      return segments.size();
+    }
+  }
+
+  private static SimpleDateFormat dayFormat() {
+    final SimpleDateFormat format = new SimpleDateFormat("yyyyMMdd");
+    format.setTimeZone(TimeZone.getTimeZone("UTC"));
+    return format;
+  }
+
+  private static long dayOf(final double t) {
+    return (long) Math.floor((t + DAY_OFFSET) / DAY);
+  }
+
+  private static double dayStart(final long day) {
+    return day * DAY - DAY_OFFSET;
+  }
+
+  /**
+   * Location of a record in a segment.
+   */
+  private static class Record {
+    private final double t1;
+    private final double t2;
+    private final long offset;
+    private final int length;
+
+    private Record(final double t1, final double t2, final long offset, final int length) {
+      this.t1 = t1;
+      this.t2 = t2;
+      this.offset = offset;
+      this.length = length;
+    }
+  }
+
+  /**
+   * One segment file and its time index. Callers must hold the segment's lock. Once closed, a
+   * segment is out of the segment map and mustn't be used.
+   */
+  private static class Segment {
+    private final ReentrantLock lock = new ReentrantLock();
+    private final File file;
+    private final int headerLength;
+    private final boolean wave;
+    private List<Record> records;
+    private long length;
+    private boolean closed;
+
+    private Segment(final File file, final int headerLength, final boolean wave) {
+      this.file = file;
+      this.headerLength = headerLength;
+      this.wave = wave;
+    }
+
+    /**
+     * Drop the index.
+     */
+    private void close() {
+      closed = true;
+      records = null;
+    }
+
+    /**
+     * Find records which overlap a time span.
+     */
+    private List<Record> findOverlapping(final double t1, final double t2) {
+      load();
+      final List<Record> result = new ArrayList<Record>();
+      for (final Record record : records) {
+        if (record.t1 > t2) {
+          break;
+        }
+        if (record.t2 > t1) {
+          result.add(record);
+        }
+      }
+      return result;
+    }
+
+    private boolean covers(final double t) {
+      load();
+      for (final Record record : records) {
+        if (record.t1 > t) {
+          break;
+        }
+        if (t < record.t2) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    /**
+     * Find the parts of a time span not held in this segment.
+     */
+    private List<double[]> findGaps(final double t1, final double t2) {
+      final List<double[]> gaps = new ArrayList<double[]>();
+      double pos = t1;
+      for (final Record record : findOverlapping(t1, t2)) {
+        if (record.t1 > pos) {
+          gaps.add(new double[] {pos, record.t1});
+        }
+        pos = Math.max(pos, record.t2);
+      }
+      if (pos < t2) {
+        gaps.add(new double[] {pos, t2});
+      }
+      return gaps;
+    }
+
+    private DataInputStream read(final Record record) throws IOException {
+      final byte[] bytes = new byte[record.length];
+      final RandomAccessFile raf = new RandomAccessFile(file, "r");
+      try {
+        raf.seek(record.offset);
+        raf.readFully(bytes);
+      } finally {
+        raf.close();
+      }
+      return new DataInputStream(new ByteArrayInputStream(bytes));
+    }
+
+    private void append(final double t1, final double t2, final byte[] bytes) throws IOException {
+      load();
+      final File dir = file.getParentFile();
+      if (!dir.isDirectory() && !dir.mkdirs()) {
+        throw new IOException("unable to create " + dir);
+      }
+
+      final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+      try {
+        if (length == 0) {
+          raf.setLength(0);
+          raf.writeInt(MAGIC);
+          length = 4;
+        }
+        raf.seek(length);
+        raf.write(bytes);
+      } finally {
+        raf.close();
+      }
+
+      final Record record = new Record(t1, t2, length, bytes.length);
+      length += bytes.length;
+      int i = records.size();
+      while (i > 0 && records.get(i - 1).t1 > t1) {
+        i--;
+      }
+      records.add(i, record);
+    }
+
+    /**
+     * Scan record headers into the index. A partial record left by a crash is dropped and
+     * overwritten by the next append.
+     */
+    private void load() {
+      if (records != null) {
+        return;
+      }
+      records = new ArrayList<Record>();
+      length = 0;
+      if (!file.exists()) {
+        return;
+      }
+
+      DataInputStream in = null;
+      try {
+        in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        if (in.readInt() != MAGIC) {
+          LOGGER.warn("Ignoring unrecognized cache file {}", file);
+          return;
+        }
+        long pos = 4;
+        final long fileLength = file.length();
+        while (pos + headerLength <= fileLength) {
+          final double t1 = in.readDouble();
+          final double second = in.readDouble();
+          final int count = in.readInt();
+          final int payload;
+          final double t2;
+          if (wave) {
+            payload = in.readInt();
+            t2 = t1 + count / second;
+          } else {
+            payload = count * HELICORDER_ROW;
+            t2 = second;
+          }
+          final int recordLength = headerLength + payload;
+          if (pos + recordLength > fileLength) {
+            break;
+          }
+          skipFully(in, payload);
+          records.add(new Record(t1, t2, pos, recordLength));
+          pos += recordLength;
+        }
+        length = pos;
+      } catch (final IOException e) {
+        LOGGER.warn("Unable to read {}: {}", file, e.getMessage());
+        if (!records.isEmpty()) {
+          final Record last = records.get(records.size() - 1);
+          length = last.offset + last.length;
+        }
+      } finally {
+        if (in != null) {
+          try {
+            in.close();
+          } catch (final IOException e) {
+            // nothing to do
+          }
+        }
+      }
+
+      Collections.sort(records, new Comparator<Record>() {
+        public int compare(final Record r1, final Record r2) {
+          return Double.compare(r1.t1, r2.t1);
+        }
+      });
+    }
+
+    private static void skipFully(final DataInputStream in, int n) throws IOException {
+      while (n > 0) {
+        final int skipped = in.skipBytes(n);
+        if (skipped <= 0) {
+          throw new EOFException();
+        }
+        n -= skipped;
+      }
+    }
+  }
+}
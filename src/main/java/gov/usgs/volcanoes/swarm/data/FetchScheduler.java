@@ -0,0 +1,273 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0 Universal
+ * public domain dedication. https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+import gov.usgs.volcanoes.core.time.J2kSec;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs the gulpers for one data source on a small set of shared threads, so opening many
+ * helicorders doesn't open as many simultaneous requests to the server.
+ *
+ * <p>
+ * As many chunks as the source's fetch parallelism allows are gulped at once, whether for one
+ * gulper or several, so a lone helicorder backfills several chunks at a time. Gulpers take turns
+ * claiming chunks. The next chunk goes first to a gulper whose next chunk is in a span one of its
+ * listeners is showing, then to the gulper whose next chunk is most recent, so what's on screen
+ * and the newest data on every helicorder arrive before anyone's deep backfill. Gulpers whose
+ * chunks are equally urgent are served round-robin. After each gulp a gulper waits out its gulp
+ * delay before claiming another chunk, without holding a thread, and a killed gulper gets no
+ * more turns.
+ *
+ * <p>
+ * Once a scheduler has had no gulpers for a while its threads exit and it's forgotten, so
+ * sources which are edited or removed don't leave threads behind. Submitting a gulper to it
+ * again starts new threads.
+ */
+public class FetchScheduler {
+  private static final Logger LOGGER = LoggerFactory.getLogger(FetchScheduler.class);
+
+  /** chunks whose ages differ by less than this are equally urgent, in seconds. */
+  private static final double PRIORITY_STEP = 60 * 60;
+
+  /** priority of chunks a listener is showing, ahead of every other. */
+  private static final long VISIBLE_PRIORITY = -1;
+
+  /** threads exit after having no gulpers for this long, in ms. */
+  private static final long RETIRE_DELAY = 60 * 1000;
+
+  /** tells a worker to exit. */
+  private static final Chunk RETIRE = new Chunk(null, 0, 0);
+
+  private static final Map<String, FetchScheduler> SCHEDULERS =
+      new HashMap<String, FetchScheduler>();
+
+  private final String name;
+  private final int parallelism;
+
+  /** threads exit after having no gulpers for this long, in ms. */
+  private final long retireDelay;
+  private final List<Gulper> gulpers;
+  private int workers;
+
+  /** when the last gulper left, in ms, or 0 if there are gulpers. */
+  private long idleSince;
+
+  /** source of round-robin turn numbers. */
+  private long turn;
+
+  /**
+   * Constructor. Schedulers are normally made by <code>getInstance</code>.
+   *
+   * @param name name the scheduler is found by
+   * @param parallelism most chunks gulped at once
+   * @param retireDelay how long threads wait for a gulper before exiting, in ms
+   */
+  FetchScheduler(final String name, final int parallelism, final long retireDelay) {
+    this.name = name;
+    this.parallelism = Math.max(1, parallelism);
+    this.retireDelay = retireDelay;
+    gulpers = new ArrayList<Gulper>();
+  }
+
+  /**
+   * Get the scheduler for a data source. Copies of a source share a scheduler.
+   *
+   * @param source data source
+   * @return scheduler
+   */
+  public static synchronized FetchScheduler getInstance(final SeismicDataSource source) {
+    final String key = source.toConfigString();
+    FetchScheduler scheduler = SCHEDULERS.get(key);
+    if (scheduler == null) {
+      scheduler = new FetchScheduler(key, source.getFetchParallelism(), RETIRE_DELAY);
+      SCHEDULERS.put(key, scheduler);
+    }
+    return scheduler;
+  }
+
+  /**
+   * Start running a gulper.
+   *
+   * @param gulper gulper
+   */
+  public synchronized void submit(final Gulper gulper) {
+    if (workers == 0) {
+      synchronized (FetchScheduler.class) {
+        if (!SCHEDULERS.containsKey(name)) {
+          SCHEDULERS.put(name, this);
+        }
+      }
+      workers = parallelism;
+      for (int i = 0; i < parallelism; i++) {
+        final Thread worker = new Thread(new Runnable() {
+          public void run() {
+            work();
+          }
+        }, "Fetcher " + (i + 1) + " for " + name);
+        worker.setDaemon(true);
+        worker.start();
+      }
+    }
+    gulper.turn = turn++;
+    gulper.readyAt = 0;
+    gulper.inFlight = 0;
+    gulpers.add(gulper);
+    idleSince = 0;
+    notifyAll();
+  }
+
+  /**
+   * Wake the workers, for instance because a gulper has been killed.
+   */
+  public synchronized void wake() {
+    notifyAll();
+  }
+
+  private void work() {
+    while (true) {
+      final List<Gulper> finished = new ArrayList<Gulper>();
+      final Chunk chunk;
+      try {
+        chunk = next(finished);
+      } catch (final InterruptedException e) {
+        return;
+      }
+      for (final Gulper g : finished) {
+        g.finish();
+      }
+      if (chunk == RETIRE) {
+        return;
+      }
+      if (chunk == null) {
+        continue;
+      }
+
+      final Gulper gulper = chunk.gulper;
+      try {
+        gulper.gulp(chunk.t1, chunk.t2);
+      } catch (final Throwable e) {
+        LOGGER.error("Exception during gulp of {}", gulper.getChannel(), e);
+      }
+
+      boolean done;
+      synchronized (this) {
+        gulper.inFlight--;
+        done = gulper.inFlight == 0 && !gulper.hasMore();
+        if (done) {
+          gulpers.remove(gulper);
+        } else {
+          gulper.readyAt = System.currentTimeMillis() + gulper.getDelay();
+        }
+        notifyAll();
+      }
+      if (done) {
+        gulper.finish();
+      }
+    }
+  }
+
+  /**
+   * Wait for the next chunk due to be gulped.
+   *
+   * @param finished receives finished or killed gulpers, which the caller must finish
+   * @return chunk, null if finished gulpers were found and no chunk is due, or
+   *         <code>RETIRE</code> if the calling worker should exit
+   */
+  private synchronized Chunk next(final List<Gulper> finished) throws InterruptedException {
+    while (true) {
+      final long now = System.currentTimeMillis();
+      final double j2kNow = J2kSec.now();
+      Gulper best = null;
+      long bestPriority = 0;
+      long wake = Long.MAX_VALUE;
+      final Iterator<Gulper> it = gulpers.iterator();
+      while (it.hasNext()) {
+        final Gulper g = it.next();
+        if (!g.hasMore()) {
+          if (g.inFlight == 0) {
+            it.remove();
+            finished.add(g);
+          }
+          continue;
+        }
+        if (g.inFlight >= parallelism) {
+          continue;
+        }
+        if (g.readyAt > now) {
+          wake = Math.min(wake, g.readyAt);
+          continue;
+        }
+        final long priority = g.isNextVisible() ? VISIBLE_PRIORITY
+            : (long) ((j2kNow - g.getNextTime()) / PRIORITY_STEP);
+        if (best == null || priority < bestPriority
+            || (priority == bestPriority && g.turn < best.turn)) {
+          best = g;
+          bestPriority = priority;
+        }
+      }
+
+      if (best != null) {
+        final double[] span = best.claim();
+        if (span == null) {
+          continue;
+        }
+        best.inFlight++;
+        best.turn = turn++;
+        return new Chunk(best, span[0], span[1]);
+      }
+      if (!finished.isEmpty()) {
+        return null;
+      }
+      if (gulpers.isEmpty()) {
+        if (idleSince == 0) {
+          idleSince = now;
+        }
+        if (now - idleSince >= retireDelay) {
+          retireWorker();
+          return RETIRE;
+        }
+        wait(retireDelay - (now - idleSince));
+      } else if (wake == Long.MAX_VALUE) {
+        wait();
+      } else {
+        wait(Math.max(1, wake - now));
+      }
+    }
+  }
+
+  /** Let a worker exit, forgetting the scheduler once the last has gone. */
+  private void retireWorker() {
+    workers--;
+    if (workers > 0) {
+      return;
+    }
+    synchronized (FetchScheduler.class) {
+      if (SCHEDULERS.get(name) == this) {
+        SCHEDULERS.remove(name);
+      }
+    }
+    LOGGER.debug("retired scheduler for {}", name);
+  }
+
+  private static class Chunk {
+    private final Gulper gulper;
+    private final double t1;
+    private final double t2;
+
+    private Chunk(final Gulper gulper, final double t1, final double t2) {
+      this.gulper = gulper;
+      this.t1 = t1;
+      this.t2 = t2;
+    }
+  }
+}
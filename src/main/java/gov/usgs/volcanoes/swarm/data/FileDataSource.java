@@ -1,6 +1,7 @@
 package gov.usgs.volcanoes.swarm.data;
 
 import gov.usgs.volcanoes.core.data.HelicorderData;
+import gov.usgs.volcanoes.core.data.RSAMData;
 import gov.usgs.volcanoes.core.data.Wave;
 import gov.usgs.volcanoes.core.data.file.FileType;
 import gov.usgs.volcanoes.core.data.file.SeismicDataFile;
@@ -25,6 +26,12 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
+ * Data read from files. Files are read whole into the cache, which shares its budget with the
+ * cache of fetched data; data evicted from it is read from the file again when next needed. A
+ * channel too big to stay in the cache is read back only around the span asked for, so reading
+ * it back doesn't evict what was read before it straight away.
+ * 
+ * <p>
  * TODO: remove reference to application frame. Non-GUI apps want to use the class too.
  *
  * @author Dan Cervelli
@@ -35,7 +42,11 @@ public class FileDataSource extends AbstractCachingDataSource {
 
   private static final FileDataSource INSTANCE = new FileDataSource();
 
+  /** waves read back from a file keep to this fraction of the cache. */
+  private static final double RELOAD_SHARE = 0.25;
+
   private final Map<String, double[]> channelTimes;
+  private final Map<String, List<FileSpan>> channelFiles;
   private final Set<String> openFiles;
   private static SwarmConfig swarmConfig;
   public static boolean useWinBatch = false;
@@ -44,11 +55,13 @@ public class FileDataSource extends AbstractCachingDataSource {
     super();
 
     channelTimes = new HashMap<String, double[]>();
+    channelFiles = new HashMap<String, List<FileSpan>>();
     openFiles = new HashSet<String>();
-    maxSize = Integer.MAX_VALUE;
     storeInUserConfig = false;
     name = "Files";
     swarmConfig = SwarmConfig.getInstance();
+    setBudget(swarmConfig.cacheSize);
+    getMetrics().register("gov.usgs.volcanoes.swarm:type=Cache,name=files");
   }
 
   public static FileDataSource getInstance() {
@@ -66,6 +79,9 @@ public class FileDataSource extends AbstractCachingDataSource {
     super.flush();
     openFiles.clear();
     channelTimes.clear();
+    synchronized (channelFiles) {
+      channelFiles.clear();
+    }
     fireChannelsUpdated();
   }
 
@@ -94,6 +110,7 @@ public class FileDataSource extends AbstractCachingDataSource {
       }
 
       SeismicDataFile file = SeismicDataFile.getFile(fileName);
+      FileType fileType = null;
 
       if (file == null) {
         if (dialog == null) {
@@ -105,7 +122,6 @@ public class FileDataSource extends AbstractCachingDataSource {
           dialog.setVisible(true);
         }
 
-        FileType fileType;
         if (dialog.isCancelled() || dialog.getFileType() == null) {
           fileType = FileType.UNKNOWN;
         } else {
@@ -130,7 +146,7 @@ public class FileDataSource extends AbstractCachingDataSource {
       }
 
       if (file != null) {
-        readFile(file);
+        readFile(file, fileType);
       } else {
         LOGGER.error("Could not open file: {} ", fs[i].getPath());
         JOptionPane.showMessageDialog(applicationFrame, "Could not open file: " + fileName, "Error",
@@ -140,7 +156,13 @@ public class FileDataSource extends AbstractCachingDataSource {
     }
   }
 
-  private void readFile(final SeismicDataFile file) {
+  /**
+   * Read a file into the cache.
+   * 
+   * @param file file
+   * @param fileType type chosen by the user, or null if it was recognized
+   */
+  private void readFile(final SeismicDataFile file, final FileType fileType) {
     final String fileName = file.getFileName();
 
     final SwingWorker worker = new SwingWorker() {
@@ -164,6 +186,8 @@ public class FileDataSource extends AbstractCachingDataSource {
             progress += progressInc;
             fireChannelsProgress(fileName, progress);
             updateChannelTimes(channel, wave.getStartTime(), wave.getEndTime());
+            addFileSpan(channel,
+                new FileSpan(fileName, fileType, wave.getStartTime(), wave.getEndTime()));
             progress += progressInc;
             fireChannelsProgress(fileName, progress);
             cacheWaveAsHelicorder(channel, wave);
@@ -218,7 +242,7 @@ public class FileDataSource extends AbstractCachingDataSource {
 
   @Override
   public HelicorderData getHelicorder(String channel, double t1, double t2,
-      final GulperListener gl) {
+      final GulperListener gl, final int resolution) {
     channel = channel.replace(' ', '$');
     final double[] ct = channelTimes.get(channel);
     if (ct == null) {
@@ -231,37 +255,117 @@ public class FileDataSource extends AbstractCachingDataSource {
       t2 = ct[1];
       t1 = t2 - dt;
     }
-    return super.getHelicorder(channel, t1, t2, gl);
+    reload(channel, t1, t2, true);
+    return super.getHelicorder(channel, t1, t2, gl, resolution);
   }
 
   @Override
   public Wave getWave(final String station, final double t1, final double t2) {
-    Wave wave;
-    final List<CachedWave> waves = waveCache.get(station.replace(' ', '$'));
-    if (waves == null) {
-      return null;
-    } else {
-      final List<Wave> parts = new ArrayList<Wave>();
-      double minT = 1E300;
-      double maxT = -1E300;
-      for (final CachedWave cw : waves) {
-        if (cw.wave.overlaps(t1, t2)) {
-          parts.add(cw.wave);
-          minT = Math.min(minT, cw.t1);
-          maxT = Math.max(maxT, cw.t2);
-        }
+    final String channel = station.replace(' ', '$');
+    reload(channel, t1, t2, false);
+    return getBestWave(channel, t1, t2);
+  }
+
+  private void addFileSpan(final String channel, final FileSpan span) {
+    synchronized (channelFiles) {
+      List<FileSpan> spans = channelFiles.get(channel);
+      if (spans == null) {
+        spans = new ArrayList<FileSpan>();
+        channelFiles.put(channel, spans);
       }
+      spans.add(span);
+    }
+  }
 
-      if (parts.size() == 1) {
-        return parts.get(0);
+  /**
+   * Read a channel's data back from its files where it's been evicted from the cache.
+   * 
+   * @param channel channel
+   * @param t1 start time
+   * @param t2 end time
+   * @param helicorder true to restore helicorder data, false to restore waves
+   */
+  private void reload(final String channel, final double t1, final double t2,
+      final boolean helicorder) {
+    final List<FileSpan> spans;
+    synchronized (channelFiles) {
+      final List<FileSpan> s = channelFiles.get(channel);
+      if (s == null) {
+        return;
       }
+      spans = new ArrayList<FileSpan>(s);
+    }
 
-      wave = Wave.join(parts, minT, maxT);
-      if (wave != null) {
-        wave = wave.subset(t1, t2);
+    for (final FileSpan span : spans) {
+      final double st = Math.max(t1, span.t1);
+      final double et = Math.min(t2, span.t2);
+      if (st >= et) {
+        continue;
+      }
+
+      // one reader at a time, so a file isn't read twice for the same miss
+      synchronized (span) {
+        final boolean cached =
+            helicorder ? inHelicorderCache(channel, st, et) : isWaveCached(channel, st, et);
+        if (cached) {
+          continue;
+        }
+
+        LOGGER.debug("re-reading {} for {}", span.fileName, channel);
+        try {
+          final SeismicDataFile file = span.fileType == null
+              ? SeismicDataFile.getFile(span.fileName)
+              : SeismicDataFile.getFile(span.fileName, span.fileType);
+          if (file == null) {
+            continue;
+          }
+          file.read();
+          final Wave wave = file.getWave(channel);
+          if (wave == null) {
+            continue;
+          }
+          if (helicorder) {
+            cacheWaveAsHelicorder(channel, wave);
+          } else {
+            putWave(channel, trim(wave, st, et));
+          }
+        } catch (final Exception e) {
+          LOGGER.error("Unable to re-read {}", span.fileName, e);
+        }
       }
     }
-    return wave;
+  }
+
+  /**
+   * Cut a wave read back from a file down to what the cache can hold without evicting it again
+   * at once: all of it if it fits in its share of the cache, otherwise the span asked for,
+   * widened to that share.
+   * 
+   * @param wave wave read from the file
+   * @param t1 start of the span asked for
+   * @param t2 end of the span asked for
+   * @return wave or part of it
+   */
+  private Wave trim(final Wave wave, final double t1, final double t2) {
+    final long room = (long) (maxSize * RELOAD_SHARE);
+    if (wave.getMemorySize() <= room) {
+      return wave;
+    }
+    final double seconds = room / 4.0 / wave.getSamplingRate();
+    final double pad = Math.max(0, (seconds - (t2 - t1)) / 2);
+    return wave.subset(Math.max(wave.getStartTime(), t1 - pad),
+        Math.min(wave.getEndTime(), t2 + pad));
+  }
+
+  @Override
+  public RSAMData getRsam(final String station, final double t1, final double t2,
+      final int period) {
+    return getRsam(station.replace(' ', '$'), t1, t2, period, this);
+  }
+
+  @Override
+  public WaveView getWaveView(final String station, final double t1, final double t2) {
+    return super.getWaveView(station.replace(' ', '$'), t1, t2);
   }
 
   @Override
@@ -269,9 +373,30 @@ public class FileDataSource extends AbstractCachingDataSource {
     return name + ";file:";
   }
 
+  @Override
+  public boolean canCacheChannels() {
+    return false;
+  }
+
   @Override
   public void close() {
     // TODO Auto-generated method stub
 
   }
+
+  /** Where to find a channel's data once it's left the cache. */
+  private static class FileSpan {
+    private final String fileName;
+    private final FileType fileType;
+    private final double t1;
+    private final double t2;
+
+    private FileSpan(final String fileName, final FileType fileType, final double t1,
+        final double t2) {
+      this.fileName = fileName;
+      this.fileType = fileType;
+      this.t1 = t1;
+      this.t2 = t2;
+    }
+  }
 }
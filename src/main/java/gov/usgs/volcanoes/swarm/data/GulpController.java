@@ -0,0 +1,110 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0 Universal
+ * public domain dedication. https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+import gov.usgs.volcanoes.core.data.Wave;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Chooses a gulper's chunk size and delay from how the server has been answering.
+ *
+ * <p>
+ * The configured gulp size and delay are the starting point. While gulps come back quickly and
+ * as fast as before, the chunk grows and the delay shrinks by a fixed step each gulp. When a
+ * gulp is slow, or delivers data at well under the rate seen so far, the chunk is halved and the
+ * delay doubled, as they are when a gulp fails. A gulp which returns nothing quickly leaves both
+ * alone, since sources answer nothing both when there's no data and when the request failed.
+ * Both stay within a factor of <code>RANGE</code> of the configured values.
+ */
+class GulpController {
+  private static final Logger LOGGER = LoggerFactory.getLogger(GulpController.class);
+
+  /** how far size and delay may move from their configured values. */
+  private static final int RANGE = 8;
+
+  /** chunks are never smaller than this, in seconds. */
+  private static final int MIN_SIZE = 60;
+
+  /** the delay never backs off to less than this, in ms. */
+  private static final int MIN_BACKOFF = 1000;
+
+  /** gulps taking longer than this are slow, in ms. */
+  private static final long SLOW_LATENCY = 10 * 1000;
+
+  /** gulps quicker than this are too short to measure a rate from, in ms. */
+  private static final long MIN_MEASURED = 500;
+
+  /** weight of the newest measurement in the smoothed rate. */
+  private static final double RATE_WEIGHT = 0.3;
+
+  private final String channel;
+  private final int minSize;
+  private final int maxSize;
+  private final int sizeStep;
+  private final int maxDelay;
+  private final int delayStep;
+
+  private int size;
+  private int delay;
+
+  /** smoothed rate, in samples per second of latency. */
+  private double rate;
+
+  /**
+   * Constructor.
+   *
+   * @param channel channel, for logging
+   * @param size configured chunk size, in seconds
+   * @param delay configured delay between gulps, in ms
+   */
+  public GulpController(final String channel, final int size, final int delay) {
+    this.channel = channel;
+    this.size = size;
+    this.delay = delay;
+    minSize = Math.min(size, Math.max(MIN_SIZE, size / RANGE));
+    maxSize = size * RANGE;
+    sizeStep = Math.max(MIN_SIZE, size / 4);
+    maxDelay = Math.max(delay, MIN_BACKOFF) * RANGE;
+    delayStep = Math.max(delay, MIN_BACKOFF) / 4;
+  }
+
+  public synchronized int getSize() {
+    return size;
+  }
+
+  public synchronized int getDelay() {
+    return delay;
+  }
+
+  /**
+   * Record how a gulp went and adjust size and delay.
+   *
+   * @param latency how long the gulp took, in ms
+   * @param wave wave gulped, or null if the source returned nothing
+   * @param failed true if the gulp failed with an error
+   */
+  public synchronized void record(final long latency, final Wave wave, final boolean failed) {
+    final int samples = wave == null ? 0 : wave.numSamples();
+    boolean congested = failed || latency > SLOW_LATENCY;
+    if (samples > 0 && latency >= MIN_MEASURED) {
+      final double r = samples * 1000.0 / latency;
+      if (rate > 0 && r < rate / 2) {
+        congested = true;
+      }
+      rate = rate == 0 ? r : rate + RATE_WEIGHT * (r - rate);
+    }
+
+    if (congested) {
+      size = Math.max(minSize, size / 2);
+      delay = Math.min(maxDelay, Math.max(delay * 2, delayStep));
+      LOGGER.debug("backing off {}: {}s chunks, {}ms delay", channel, size, delay);
+    } else if (wave != null) {
+      size = Math.min(maxSize, size + sizeStep);
+      delay = Math.max(0, delay - delayStep);
+    }
+  }
+}
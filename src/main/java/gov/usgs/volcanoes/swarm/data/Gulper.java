@@ -2,31 +2,65 @@ package gov.usgs.volcanoes.swarm.data;
 
 import gov.usgs.volcanoes.core.data.Wave;
 import gov.usgs.volcanoes.core.time.J2kSec;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * Gulper.
+ * Gulper. Fetches a span of data for one channel in chunks, newest first. Gulps are run by the
+ * data source's <code>FetchScheduler</code> rather than a thread of the gulper's own, and up to
+ * the source's fetch parallelism chunks may be gulped at once, each through its own copy of the
+ * source. Chunks gulped at once may finish in any order.
+ * 
+ * <p>
+ * The configured gulp size and delay are only starting points; a <code>GulpController</code>
+ * adjusts them as gulps show how quickly the server is answering.
  * 
  * @author Dan Cervelli
  */
-public class Gulper implements Runnable {
+public class Gulper {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(Gulper.class);
 
   private final SeismicDataSource gulpSource;
   private final GulperList gulperList;
   private final String channel;
+
+  /** guards lastTime and goalTime. Not the gulper's own lock, which listeners are called under. */
+  private final Object chunkLock = new Object();
   private double lastTime;
   private double goalTime;
-  private Thread thread;
+
+  /** copies of the source made for parallel gulps, and those not in use. */
+  private final List<SeismicDataSource> sources;
+  private final Deque<SeismicDataSource> idleSources;
+  private volatile boolean started;
+  private volatile boolean killed;
   private final String key;
   private final Set<GulperListener> listeners;
 
-  private final int gulpSize;
-  private final int gulpDelay;
+  /** copy of listeners, for asking what's on screen without taking the gulper's lock. */
+  private volatile GulperListener[] listenerCopy = new GulperListener[0];
+
+  /** scheduler running this gulper, once started. */
+  private volatile FetchScheduler scheduler;
+
+  /** chooses chunk size and delay, starting from the configured ones. */
+  private final GulpController controller;
+
+  /** round-robin position, set by the scheduler. */
+  long turn;
+
+  /** time before which the scheduler won't run this gulper again, in ms. */
+  long readyAt;
+
+  /** gulps underway, counted by the scheduler. */
+  int inFlight;
 
   /**
    * Create the gulper. This does not call methods to support subclassing.
@@ -41,12 +75,14 @@ public class Gulper implements Runnable {
    */
   public Gulper(final GulperList gl, final String k, final SeismicDataSource source,
       final String ch, final double t1, final double t2, final int size, final int delay) {
-    gulpSize = size;
-    gulpDelay = delay;
+    controller = new GulpController(ch, size, delay);
     gulperList = gl;
     gulpSource = source;
     key = k;
     listeners = new HashSet<GulperListener>();
+    sources = new ArrayList<SeismicDataSource>();
+    idleSources = new ArrayDeque<SeismicDataSource>();
+    idleSources.push(source);
     channel = ch;
     lastTime = t2;
 
@@ -58,10 +94,12 @@ public class Gulper implements Runnable {
 
   public synchronized void addListener(final GulperListener gl) {
     listeners.add(gl);
+    listenerCopy = listeners.toArray(new GulperListener[listeners.size()]);
   }
 
   public synchronized void removeListener(final GulperListener gl) {
     listeners.remove(gl);
+    listenerCopy = listeners.toArray(new GulperListener[listeners.size()]);
   }
 
   public String getChannel() {
@@ -76,12 +114,12 @@ public class Gulper implements Runnable {
    * Kill this gulper.
    */
   protected void kill() {
-    // use local copy to ensure it isn't changed elsewhere,
-    // no need to lock since OK to have multiple calls to Thread.interrupt
-    final Thread t = thread;
-    if (t != null) {
-      thread = null;
-      t.interrupt();
+    if (started && !killed) {
+      killed = true;
+      final FetchScheduler s = scheduler;
+      if (s != null) {
+        s.wake();
+      }
     }
   }
 
@@ -103,19 +141,72 @@ public class Gulper implements Runnable {
    * @return true if the gulper has been killed or was never started.
    */
   public boolean isKilled() {
-    return thread == null;
+    return !started || killed;
   }
 
-
   /**
    * Start gulper.
    */
   public void start() {
-    thread = new Thread(this);
-    thread.start();
+    start(FetchScheduler.getInstance(gulpSource));
+  }
+
+  /**
+   * Start gulper on a given scheduler.
+   *
+   * @param s scheduler to run the gulper
+   */
+  void start(final FetchScheduler s) {
+    started = true;
+    fireStarted();
+    scheduler = s;
+    scheduler.submit(this);
     LOGGER.debug("gulper started for {}", channel);
   }
 
+  public int getDelay() {
+    return controller.getDelay();
+  }
+
+  /**
+   * Get the end of the next chunk to be gulped. Gulping works backwards from here.
+   * 
+   * @return time in j2k
+   */
+  public double getNextTime() {
+    synchronized (chunkLock) {
+      return lastTime;
+    }
+  }
+
+  /**
+   * Determine whether the next chunk to be gulped falls within a span a listener is showing.
+   *
+   * @return true if the next chunk is on screen
+   */
+  boolean isNextVisible() {
+    final double t2 = getNextTime();
+    final double t1 = t2 - controller.getSize();
+    for (final GulperListener listener : listenerCopy) {
+      final double[] span = listener.getVisibleSpan();
+      if (span != null && t1 < span[1] && span[0] < t2) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Determine if there are chunks left to gulp.
+   *
+   * @return true if there's more to gulp
+   */
+  public boolean hasMore() {
+    synchronized (chunkLock) {
+      return lastTime > goalTime && !isKilled();
+    }
+  }
+
   /**
    * Update gulper.
    * 
@@ -123,19 +214,53 @@ public class Gulper implements Runnable {
    * @param t2 end time
    */
   public void update(final double t1, final double t2) {
-    final CachedDataSource cache = CachedDataSource.getInstance();
-    if (t2 < lastTime) {
-      lastTime = t2;
+    synchronized (chunkLock) {
+      if (t2 < lastTime) {
+        lastTime = t2;
+      }
+      goalTime = t1;
+      skipCached();
     }
-    goalTime = t1;
+  }
 
-    while (cache.inHelicorderCache(channel, lastTime - gulpSize, lastTime) && lastTime > goalTime
-        && !isKilled()) {
+  /** Move past chunks already in the cache. */
+  private void skipCached() {
+    final int gulpSize = controller.getSize();
+    while (isCached(lastTime - gulpSize, lastTime) && lastTime > goalTime && !isKilled()) {
       lastTime -= gulpSize;
       lastTime += 10;
     }
   }
 
+  /**
+   * Determine whether a chunk needn't be gulped because what it's for is already cached. A
+   * subclass gulping for something other than helicorders may override it.
+   *
+   * @param t1 start time
+   * @param t2 end time
+   * @return true if the chunk can be skipped
+   */
+  protected boolean isCached(final double t1, final double t2) {
+    return CachedDataSource.getInstance().inHelicorderCache(channel, t1, t2);
+  }
+
+  /**
+   * Take the next chunk to gulp. Called by the scheduler.
+   *
+   * @return {start, end} of the chunk, or null if there's nothing left to gulp
+   */
+  double[] claim() {
+    synchronized (chunkLock) {
+      if (lastTime <= goalTime || isKilled()) {
+        return null;
+      }
+      final double[] chunk = new double[] {lastTime - controller.getSize(), lastTime};
+      lastTime = chunk[0] + 10;
+      skipCached();
+      return chunk;
+    }
+  }
+
   protected synchronized void fireStarted() {
     for (final GulperListener listener : listeners) {
       listener.gulperStarted();
@@ -160,50 +285,70 @@ public class Gulper implements Runnable {
   }
 
   /**
-   * Thread's run method.
+   * Gulp a chunk taken with <code>claim</code>. Called by the scheduler, possibly on several
+   * threads at once; a subclass may override it.
    * 
-   * @see java.lang.Runnable#run()
+   * @param t1 start time
+   * @param t2 end time
    */
-  public void run() {
-    fireStarted();
-    runLoop();
-    gulpSource.close();
+  protected void gulp(final double t1, final double t2) {
     if (isKilled()) {
-      LOGGER.debug("gulper killed");
-    } else {
-      LOGGER.debug("gulper finished");
+      return;
+    }
+    final SeismicDataSource source = borrowSource();
+    try {
+      final long start = System.currentTimeMillis();
+      final Wave w;
+      try {
+        w = source.getWave(channel, t1, t2);
+      } catch (final RuntimeException e) {
+        controller.record(System.currentTimeMillis() - start, null, true);
+        throw e;
+      }
+      controller.record(System.currentTimeMillis() - start, w, false);
+      fireGulped(t1, t2, w);
+    } finally {
+      synchronized (idleSources) {
+        idleSources.push(source);
+      }
     }
-    gulperList.removeGulper(this);
-    fireStopped();
   }
 
-  /**
-   * This is the run loop which a subclass may override.
-   */
-  protected void runLoop() {
-    while (lastTime > goalTime && !isKilled()) {
-      try {
-        final double t1 = lastTime - gulpSize;
-        final double t2 = lastTime;
-        final Wave w = gulpSource.getWave(channel, t1, t2);
-        fireGulped(t1, t2, w);
-        update(goalTime, lastTime - gulpSize + 10);
-      } catch (final Throwable e) {
-        System.err.println("Exception during gulp:");
-        e.printStackTrace();
+  /** Get a source no other gulp is using, copying the original if need be. */
+  private SeismicDataSource borrowSource() {
+    synchronized (idleSources) {
+      if (!idleSources.isEmpty()) {
+        return idleSources.pop();
       }
-      delay();
     }
+    final SeismicDataSource copy = gulpSource.getCopy();
+    if (copy != gulpSource) {
+      synchronized (idleSources) {
+        sources.add(copy);
+      }
+    }
+    return copy;
   }
 
-  protected void delay() {
-    if (!isKilled()) {
-      try {
-        Thread.sleep(gulpDelay);
-      } catch (final InterruptedException ignore) {
-        //
+  /**
+   * Called by the scheduler once the gulper has finished or been killed and no gulps are
+   * underway.
+   */
+  void finish() {
+    gulpSource.close();
+    synchronized (idleSources) {
+      for (final SeismicDataSource source : sources) {
+        source.close();
       }
+      sources.clear();
+    }
+    if (isKilled()) {
+      LOGGER.debug("gulper killed");
+    } else {
+      LOGGER.debug("gulper finished");
     }
+    gulperList.removeGulper(this);
+    fireStopped();
   }
 
   @Override
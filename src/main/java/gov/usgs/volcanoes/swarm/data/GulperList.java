@@ -33,7 +33,7 @@ public class GulperList {
   public synchronized Gulper requestGulper(String key, GulperListener gl, SeismicDataSource source,
       String ch, double t1, double t2, int size, int delay) {
     Gulper g = gulpers.get(key);
-    if (g != null) {
+    if (g != null && !g.isKilled()) {
       g.addListener(gl);
       g.update(t1, t2);
     } else {
@@ -69,7 +69,10 @@ public class GulperList {
    * @param g gulper
    */
   public synchronized void removeGulper(Gulper g) {
-    gulpers.remove(g.getKey());
+    // a killed gulper may already have been replaced
+    if (gulpers.get(g.getKey()) == g) {
+      gulpers.remove(g.getKey());
+    }
   }
   
   /**
@@ -11,4 +11,12 @@ public interface GulperListener {
   public void gulperStopped(boolean killed);
 
   public void gulperGulped(double t1, double t2, boolean success);
+
+  /**
+   * Get the span this listener is showing on screen. Gulpers fetch chunks within it before any
+   * others. Called from the gulper's scheduler threads.
+   * 
+   * @return start and end time in j2k, or null if nothing is on screen
+   */
+  public double[] getVisibleSpan();
 }
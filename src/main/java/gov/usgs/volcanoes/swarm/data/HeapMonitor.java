@@ -0,0 +1,96 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0 Universal
+ * public domain dedication. https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.List;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Watches how full the long-lived heap pools are after garbage collection. What's left after a
+ * collection is live data, so a pool which stays nearly full after collecting is heading for
+ * back-to-back full collections and, eventually, an out of memory error.
+ */
+final class HeapMonitor {
+  private static final Logger LOGGER = LoggerFactory.getLogger(HeapMonitor.class);
+
+  /** pools fuller than this after a collection are under pressure. */
+  public static final double HIGH_WATER = 0.75;
+
+  /** pools emptier than this after a collection have room to spare. */
+  public static final double LOW_WATER = 0.5;
+
+  private static final List<MemoryPoolMXBean> POOLS = findPools();
+
+  private HeapMonitor() {}
+
+  /**
+   * Find heap pools whose usage after collection can be watched, and ask to be told when they
+   * pass the high water mark. Young pools are emptied by every minor collection, so they're
+   * skipped by only taking pools which also support a usage threshold.
+   */
+  private static List<MemoryPoolMXBean> findPools() {
+    final List<MemoryPoolMXBean> pools = new ArrayList<MemoryPoolMXBean>();
+    for (final MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      final long max = pool.getUsage().getMax();
+      if (pool.getType() == MemoryType.HEAP && pool.isUsageThresholdSupported()
+          && pool.isCollectionUsageThresholdSupported() && max > 0) {
+        pool.setCollectionUsageThreshold((long) (max * HIGH_WATER));
+        pools.add(pool);
+        LOGGER.debug("watching heap pool {}", pool.getName());
+      }
+    }
+    return pools;
+  }
+
+  /**
+   * Call a task whenever a watched pool is still over the high water mark after a collection.
+   * The task is called on a JMX thread, so should return quickly.
+   *
+   * @param task task
+   */
+  public static void onPressure(final Runnable task) {
+    final NotificationListener listener = new NotificationListener() {
+      public void handleNotification(final Notification notification, final Object handback) {
+        if (MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED
+            .equals(notification.getType())) {
+          task.run();
+        }
+      }
+    };
+    ((NotificationEmitter) ManagementFactory.getMemoryMXBean())
+        .addNotificationListener(listener, null, null);
+  }
+
+  /**
+   * Get how full the fullest watched pool was after its last collection. Where a pool hasn't
+   * been collected yet its current usage is used instead.
+   *
+   * @return fraction of the pool's maximum size, zero if no pool can be watched
+   */
+  public static double getUsage() {
+    double usage = 0;
+    for (final MemoryPoolMXBean pool : POOLS) {
+      MemoryUsage mu = pool.getCollectionUsage();
+      if (mu == null || mu.getUsed() == 0) {
+        mu = pool.getUsage();
+      }
+      if (mu.getMax() > 0) {
+        usage = Math.max(usage, (double) mu.getUsed() / mu.getMax());
+      }
+    }
+    return usage;
+  }
+}
@@ -0,0 +1,215 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0 Universal
+ * public domain dedication. https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * A time-ordered index of the cache entries for a single channel.
+ *
+ * <p>
+ * Entries are kept in a red-black tree keyed on start time. The span of every entry is tracked in
+ * a second tree so that overlap and containment queries only need to look back as far as the
+ * longest entry in the index, making lookups O(log n) plus the number of entries returned.
+ *
+ * <p>
+ * An entry's t1 and t2 must not change while it is in the index. Remove it, change it, and add it
+ * back.
+ *
+ * <p>
+ * Entries are added to an LRU list when they're indexed and taken out of whatever list they're in
+ * when they're removed, so the two always agree.
+ *
+ * @param <T> cache entry type
+ */
+class IntervalIndex<T extends AbstractCachingDataSource.CacheEntry> {
+
+  private final TreeMap<Key, T> entries;
+  private final TreeMap<Double, Integer> spans;
+  private final CacheLru<T> lru;
+
+  /**
+   * Constructor.
+   *
+   * @param lru access order list for new entries
+   */
+  public IntervalIndex(final CacheLru<T> lru) {
+    this.lru = lru;
+    entries = new TreeMap<Key, T>();
+    spans = new TreeMap<Double, Integer>();
+  }
+
+  /**
+   * Add an entry to the index.
+   *
+   * @param entry cache entry
+   */
+  public void add(final T entry) {
+    if (entries.put(new Key(entry.t1, entry.id), entry) == null) {
+      final double span = entry.t2 - entry.t1;
+      final Integer count = spans.get(span);
+      spans.put(span, count == null ? 1 : count + 1);
+      lru.add(entry);
+    }
+  }
+
+  /**
+   * Remove an entry from the index.
+   *
+   * @param entry cache entry
+   * @return true if the entry was in the index
+   */
+  public boolean remove(final T entry) {
+    if (entries.remove(new Key(entry.t1, entry.id)) == null) {
+      return false;
+    }
+    entry.unlink();
+    final double span = entry.t2 - entry.t1;
+    final Integer count = spans.get(span);
+    if (count != null) {
+      if (count <= 1) {
+        spans.remove(span);
+      } else {
+        spans.put(span, count - 1);
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Check whether an entry is in the index.
+   *
+   * @param entry cache entry
+   * @return true if the entry is in the index
+   */
+  public boolean contains(final T entry) {
+    return entries.get(new Key(entry.t1, entry.id)) == entry;
+  }
+
+  /**
+   * Find an entry which completely contains the given time span.
+   *
+   * @param t1 start time
+   * @param t2 end time
+   * @return containing entry or null if none
+   */
+  public T findContaining(final double t1, final double t2) {
+    if (entries.isEmpty()) {
+      return null;
+    }
+
+    final double earliest = t1 - maxSpan();
+    for (final T entry : entries.headMap(new Key(t1, Long.MAX_VALUE), true).descendingMap()
+        .values()) {
+      if (entry.t1 < earliest) {
+        break;
+      }
+      if (t2 <= entry.t2) {
+        return entry;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Find all entries which touch or overlap the given time span, ordered by start time.
+   *
+   * @param t1 start time
+   * @param t2 end time
+   * @return list of entries, possibly empty
+   */
+  public List<T> findOverlapping(final double t1, final double t2) {
+    if (entries.isEmpty()) {
+      return Collections.emptyList();
+    }
+
+    final NavigableMap<Key, T> candidates = entries.subMap(
+        new Key(t1 - maxSpan(), Long.MIN_VALUE), true, new Key(t2, Long.MAX_VALUE), true);
+    final List<T> result = new ArrayList<T>();
+    for (final T entry : candidates.values()) {
+      if (entry.t2 >= t1) {
+        result.add(entry);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Get all entries ordered by start time.
+   *
+   * @return unmodifiable view of entries
+   */
+  public Collection<T> entries() {
+    return Collections.unmodifiableCollection(entries.values());
+  }
+
+  /**
+   * Get first entry.
+   *
+   * @return earliest entry or null if empty
+   */
+  public T first() {
+    final Map.Entry<Key, T> entry = entries.firstEntry();
+    return entry == null ? null : entry.getValue();
+  }
+
+  /**
+   * Get last entry.
+   *
+   * @return entry with the latest start time or null if empty
+   */
+  public T last() {
+    final Map.Entry<Key, T> entry = entries.lastEntry();
+    return entry == null ? null : entry.getValue();
+  }
+
+  public int size() {
+    return entries.size();
+  }
+
+  public boolean isEmpty() {
+    return entries.isEmpty();
+  }
+
+  public void clear() {
+    for (final T entry : entries.values()) {
+      entry.unlink();
+    }
+    entries.clear();
+    spans.clear();
+  }
+
+  private double maxSpan() {
+    return spans.isEmpty() ? 0 : spans.lastKey();
+  }
+
+  /**
+   * Index key. Entries are ordered by start time, with ties broken by entry id.
+   */
+  private static class Key implements Comparable<Key> {
+    private final double time;
+    private final long id;
+
+    public Key(final double time, final long id) {
+      this.time = time;
+      this.id = id;
+    }
+
+    public int compareTo(final Key other) {
+      final int c = Double.compare(time, other.time);
+      if (c != 0) {
+        return c;
+      }
+      return Long.compare(id, other.id);
+    }
+  }
+}
@@ -0,0 +1,236 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0 Universal
+ * public domain dedication. https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Stores wave samples outside of the Java heap.
+ *
+ * <p>
+ * Samples are written into fixed-size blocks carved out of direct ByteBuffer segments. Segments
+ * are allocated on demand up to the configured capacity and are never returned to the operating
+ * system; freed blocks are reused. Because the samples are not on the heap they are never copied
+ * or scanned by the garbage collector.
+ */
+public class OffHeapSampleStore {
+  private static final Logger LOGGER = LoggerFactory.getLogger(OffHeapSampleStore.class);
+
+  /** samples per block. */
+  public static final int BLOCK_SAMPLES = 16 * 1024;
+
+  /** bytes per block. */
+  private static final int BLOCK_BYTES = BLOCK_SAMPLES * 4;
+
+  /** blocks per segment. 16MB segments. */
+  private static final int SEGMENT_BLOCKS = 256;
+
+  private final long capacity;
+  private final List<IntBuffer> segments;
+  private final Deque<Integer> freeBlocks;
+  private int allocatedBlocks;
+  private boolean exhausted;
+
+  /**
+   * Constructor.
+   *
+   * @param capacity maximum number of bytes to allocate off-heap
+   */
+  public OffHeapSampleStore(final long capacity) {
+    this.capacity = capacity;
+    segments = new ArrayList<IntBuffer>();
+    freeBlocks = new ArrayDeque<Integer>();
+  }
+
+  /**
+   * Copy samples into the store.
+   *
+   * @param samples samples to store
+   * @return handle to the stored samples or null if there is no room
+   */
+  public Samples store(final int[] samples) {
+    final int[] blocks = allocate((samples.length + BLOCK_SAMPLES - 1) / BLOCK_SAMPLES);
+    if (blocks == null) {
+      return null;
+    }
+
+    int pos = 0;
+    for (final int block : blocks) {
+      final int len = Math.min(BLOCK_SAMPLES, samples.length - pos);
+      final IntBuffer buf = blockBuffer(block);
+      buf.put(samples, pos, len);
+      pos += len;
+    }
+    return new Samples(blocks, samples.length);
+  }
+
+  /**
+   * Return the blocks used by a handle to the store. The handle must not be used again.
+   *
+   * @param samples handle to free
+   */
+  public synchronized void free(final Samples samples) {
+    if (samples.blocks == null) {
+      return;
+    }
+    for (final int block : samples.blocks) {
+      freeBlocks.push(block);
+    }
+    samples.blocks = null;
+  }
+
+  /**
+   * Free every block in the store.
+   */
+  public synchronized void clear() {
+    freeBlocks.clear();
+    for (int i = 0; i < allocatedBlocks; i++) {
+      freeBlocks.push(i);
+    }
+  }
+
+  /**
+   * Get the number of bytes currently holding samples.
+   *
+   * @return bytes in use
+   */
+  public synchronized long getUsed() {
+    return (long) (allocatedBlocks - freeBlocks.size()) * BLOCK_BYTES;
+  }
+
+  public long getCapacity() {
+    return capacity;
+  }
+
+  private synchronized int[] allocate(final int count) {
+    while (freeBlocks.size() < count) {
+      if (!addSegment()) {
+        return null;
+      }
+    }
+
+    final int[] blocks = new int[count];
+    for (int i = 0; i < count; i++) {
+      blocks[i] = freeBlocks.pop();
+    }
+    return blocks;
+  }
+
+  private boolean addSegment() {
+    if (exhausted || (long) (allocatedBlocks + SEGMENT_BLOCKS) * BLOCK_BYTES > capacity) {
+      return false;
+    }
+
+    try {
+      final ByteBuffer segment = ByteBuffer.allocateDirect(SEGMENT_BLOCKS * BLOCK_BYTES);
+      segment.order(ByteOrder.nativeOrder());
+      segments.add(segment.asIntBuffer());
+    } catch (final OutOfMemoryError e) {
+      // direct memory is limited by -XX:MaxDirectMemorySize, stop trying once it runs out
+      LOGGER.warn("Unable to allocate off-heap cache segment, holding at {} bytes",
+          (long) allocatedBlocks * BLOCK_BYTES);
+      exhausted = true;
+      return false;
+    }
+
+    for (int i = allocatedBlocks + SEGMENT_BLOCKS - 1; i >= allocatedBlocks; i--) {
+      freeBlocks.push(i);
+    }
+    allocatedBlocks += SEGMENT_BLOCKS;
+    return true;
+  }
+
+  /**
+   * Get a buffer positioned at the start of a block. Each caller gets its own duplicate so
+   * concurrent reads don't disturb each other.
+   */
+  private IntBuffer blockBuffer(final int block) {
+    final IntBuffer segment;
+    synchronized (this) {
+      segment = segments.get(block / SEGMENT_BLOCKS);
+    }
+    final IntBuffer buf = segment.duplicate();
+    buf.position((block % SEGMENT_BLOCKS) * BLOCK_SAMPLES);
+    return buf;
+  }
+
+  /**
+   * Handle to a run of samples held in the store.
+   */
+  public class Samples {
+    private int[] blocks;
+    private final int length;
+
+    private Samples(final int[] blocks, final int length) {
+      this.blocks = blocks;
+      this.length = length;
+    }
+
+    public int length() {
+      return length;
+    }
+
+    /**
+     * Copy samples out of the store.
+     *
+     * @param srcPos index of first sample to copy
+     * @param dest destination array
+     * @param destPos index in destination of first sample
+     * @param len number of samples to copy
+     */
+    public void read(int srcPos, final int[] dest, int destPos, int len) {
+      if (srcPos < 0 || len < 0 || srcPos + len > length) {
+        throw new ArrayIndexOutOfBoundsException(srcPos + len);
+      }
+
+      final int[] b = blocks;
+      if (b == null) {
+        throw new IllegalStateException("samples have been freed");
+      }
+
+      while (len > 0) {
+        final int block = srcPos / BLOCK_SAMPLES;
+        final int offset = srcPos % BLOCK_SAMPLES;
+        final int n = Math.min(len, BLOCK_SAMPLES - offset);
+        final IntBuffer buf = blockBuffer(b[block]);
+        buf.position(buf.position() + offset);
+        buf.get(dest, destPos, n);
+        srcPos += n;
+        destPos += n;
+        len -= n;
+      }
+    }
+
+    /**
+     * Copy all samples out of the store.
+     *
+     * @return new array holding the samples
+     */
+    public int[] toArray() {
+      final int[] samples = new int[length];
+      read(0, samples, 0, length);
+      return samples;
+    }
+
+    /**
+     * Get number of off-heap bytes used.
+     *
+     * @return bytes held by this handle
+     */
+    public int getMemorySize() {
+      final int[] b = blocks;
+      return b == null ? 0 : b.length * BLOCK_BYTES;
+    }
+  }
+}
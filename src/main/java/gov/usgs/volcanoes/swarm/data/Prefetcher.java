@@ -0,0 +1,318 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0 Universal
+ * public domain dedication. https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+import gov.usgs.volcanoes.core.data.HelicorderData;
+import gov.usgs.volcanoes.core.data.Wave;
+import gov.usgs.volcanoes.core.time.J2kSec;
+import gov.usgs.volcanoes.swarm.SwarmConfig;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Loads the windows views are likely to show next into the cache before they're asked for.
+ *
+ * <p>
+ * Each view reports the windows it shows. From the last two, the prefetcher works out which way
+ * and how far the view moved, shift or zoom, and fetches the next few windows along the same
+ * path: one when the user is browsing slowly, more when they're paging quickly. Moves of less
+ * than a sliver of the window, such as refreshes, and jumps of many windows are not navigation
+ * and predict nothing. A new move replaces whatever was still queued for that view.
+ *
+ * <p>
+ * Fetching is done on one low priority thread and kept within two budgets from the
+ * configuration: <code>prefetchBandwidth</code>, in KB/s, and <code>prefetchMemory</code>, in
+ * MB of prefetched data nobody has looked at yet. Data stops counting against the memory budget
+ * once a view shows it, it leaves the cache, or it has gone unused for a while. Setting either
+ * budget to 0 turns prefetching off.
+ */
+public final class Prefetcher {
+  private static final Logger LOGGER = LoggerFactory.getLogger(Prefetcher.class);
+
+  public static final Prefetcher INSTANCE = new Prefetcher();
+
+  /** most windows fetched ahead of a view. */
+  private static final int MAX_DEPTH = 4;
+
+  /** a view moving this often gets one window ahead, twice as often two, and so on, in ms. */
+  private static final long SLOW_MOVE = 2000;
+
+  /** moves shorter than this fraction of the window aren't navigation. */
+  private static final double MIN_MOVE = 0.01;
+
+  /** moves longer than this many windows are jumps, which predict nothing. */
+  private static final double MAX_JUMP = 10;
+
+  /** unused prefetched data stops counting against the memory budget after this, in ms. */
+  private static final long UNUSED_AGE = 10 * 60 * 1000;
+
+  /** unused bandwidth may be saved up for this long, in seconds. */
+  private static final double BURST = 5;
+
+  private final Map<Object, View> views;
+  private final LinkedList<Task> tasks;
+
+  /** prefetched windows still counting against the memory budget. */
+  private final List<Task> unused;
+
+  /** bandwidth available now, in bytes. May be negative after a large fetch. */
+  private double allowance;
+  private long allowanceTime;
+  private Thread worker;
+
+  private Prefetcher() {
+    views = new WeakHashMap<Object, View>();
+    tasks = new LinkedList<Task>();
+    unused = new ArrayList<Task>();
+  }
+
+  /**
+   * Note the window a wave view is showing.
+   *
+   * @param view the view, used only to tell views apart
+   * @param source data source
+   * @param channel channel
+   * @param t1 start time
+   * @param t2 end time
+   */
+  public void waveViewed(final Object view, final SeismicDataSource source, final String channel,
+      final double t1, final double t2) {
+    viewed(view, source, channel, t1, t2, false);
+  }
+
+  /**
+   * Note the window a helicorder is showing.
+   *
+   * @param view the view, used only to tell views apart
+   * @param source data source
+   * @param channel channel
+   * @param t1 start time
+   * @param t2 end time
+   */
+  public void helicorderViewed(final Object view, final SeismicDataSource source,
+      final String channel, final double t1, final double t2) {
+    if (source != null && source.canPrefetchHelicorders()) {
+      viewed(view, source, channel, t1, t2, true);
+    }
+  }
+
+  private synchronized void viewed(final Object key, final SeismicDataSource source,
+      final String channel, final double t1, final double t2, final boolean helicorder) {
+    if (source == null || channel == null || source instanceof CachedDataSource
+        || !source.isUseCache() || !(t2 > t1)) {
+      return;
+    }
+    // helicorders ask their source for the channel with '$' separators, wave views as shown
+    final String station = helicorder ? channel.replace(' ', '$') : channel;
+    settle(station, t1, t2, helicorder);
+
+    final long now = System.currentTimeMillis();
+    final View view = new View(source, station, t1, t2, now);
+    final View last = views.put(key, view);
+    if (last == null) {
+      return;
+    }
+    dropTasks(last);
+    if (last.source != source || !last.station.equals(station) || !isEnabled()) {
+      return;
+    }
+
+    final double d1 = t1 - last.t1;
+    final double d2 = t2 - last.t2;
+    final double move = Math.max(Math.abs(d1), Math.abs(d2));
+    if (move < (t2 - t1) * MIN_MOVE || move > (t2 - t1) * MAX_JUMP) {
+      return;
+    }
+
+    final long interval = Math.max(1, now - last.time);
+    final int depth = (int) Math.max(1, Math.min(MAX_DEPTH, SLOW_MOVE / interval));
+    final double end = J2kSec.now();
+    for (int i = 1; i <= depth; i++) {
+      final double start = t1 + i * d1;
+      final double stop = Math.min(end, t2 + i * d2);
+      if (!(stop > start)) {
+        break;
+      }
+      tasks.add(new Task(view, start, stop, helicorder));
+    }
+    if (!tasks.isEmpty()) {
+      LOGGER.debug("prefetching {} windows of {}", depth, station);
+      startWorker();
+    }
+  }
+
+  private boolean isEnabled() {
+    final SwarmConfig config = SwarmConfig.getInstance();
+    return config.prefetchBandwidth > 0 && config.prefetchMemory > 0;
+  }
+
+  /** Stop counting windows a view is showing as unused. */
+  private void settle(final String station, final double t1, final double t2,
+      final boolean helicorder) {
+    final Iterator<Task> it = unused.iterator();
+    while (it.hasNext()) {
+      final Task task = it.next();
+      if (task.helicorder == helicorder && task.view.station.equals(station) && task.t1 < t2
+          && t1 < task.t2) {
+        it.remove();
+      }
+    }
+  }
+
+  private void dropTasks(final View view) {
+    final Iterator<Task> it = tasks.iterator();
+    while (it.hasNext()) {
+      if (it.next().view == view) {
+        it.remove();
+      }
+    }
+  }
+
+  private void startWorker() {
+    if (worker == null) {
+      worker = new Thread(new Runnable() {
+        public void run() {
+          work();
+        }
+      }, "Prefetcher");
+      worker.setDaemon(true);
+      worker.setPriority(Thread.MIN_PRIORITY);
+      worker.start();
+    }
+    notifyAll();
+  }
+
+  private void work() {
+    while (true) {
+      final Task task;
+      try {
+        task = next();
+      } catch (final InterruptedException e) {
+        return;
+      }
+      try {
+        task.fetch();
+      } catch (final Throwable e) {
+        LOGGER.debug("prefetch of {} failed", task.view.station, e);
+      }
+      synchronized (this) {
+        allowance -= task.size;
+        if (task.size > 0) {
+          task.fetched = System.currentTimeMillis();
+          unused.add(task);
+        }
+      }
+    }
+  }
+
+  /** Wait for a task the budgets allow. */
+  private synchronized Task next() throws InterruptedException {
+    while (true) {
+      if (tasks.isEmpty()) {
+        wait();
+        continue;
+      }
+      final SwarmConfig config = SwarmConfig.getInstance();
+      if (!isEnabled()) {
+        tasks.clear();
+        continue;
+      }
+      if (unusedSize() >= config.prefetchMemory * 1024L * 1024L) {
+        LOGGER.debug("prefetch memory budget spent, dropping {} windows", tasks.size());
+        tasks.clear();
+        continue;
+      }
+
+      final double rate = config.prefetchBandwidth * 1024.0;
+      final long now = System.currentTimeMillis();
+      allowance = Math.min(rate * BURST, allowance + rate * (now - allowanceTime) / 1000);
+      allowanceTime = now;
+      if (allowance < 0) {
+        wait((long) Math.ceil(-allowance * 1000 / rate));
+        continue;
+      }
+      return tasks.removeFirst();
+    }
+  }
+
+  /** Size of prefetched data nobody has used, forgetting what's gone stale. */
+  private long unusedSize() {
+    final long now = System.currentTimeMillis();
+    long size = 0;
+    final Iterator<Task> it = unused.iterator();
+    while (it.hasNext()) {
+      final Task task = it.next();
+      if (now - task.fetched > UNUSED_AGE || !task.isCached()) {
+        it.remove();
+      } else {
+        size += task.size;
+      }
+    }
+    return size;
+  }
+
+  /** The last window a view showed. */
+  private static class View {
+    private final SeismicDataSource source;
+    private final String station;
+    private final double t1;
+    private final double t2;
+    private final long time;
+
+    private View(final SeismicDataSource source, final String station, final double t1,
+        final double t2, final long time) {
+      this.source = source;
+      this.station = station;
+      this.t1 = t1;
+      this.t2 = t2;
+      this.time = time;
+    }
+  }
+
+  /** A window to prefetch, and once fetched, how much it cost. */
+  private static class Task {
+    private final View view;
+    private final double t1;
+    private final double t2;
+    private final boolean helicorder;
+    private int size;
+    private long fetched;
+
+    private Task(final View view, final double t1, final double t2, final boolean helicorder) {
+      this.view = view;
+      this.t1 = t1;
+      this.t2 = t2;
+      this.helicorder = helicorder;
+    }
+
+    private boolean isCached() {
+      final CachedDataSource cache = CachedDataSource.getInstance();
+      if (helicorder) {
+        return cache.inHelicorderCache(view.station, t1, t2);
+      }
+      return cache.isWaveCached(view.station, t1, t2);
+    }
+
+    private void fetch() {
+      if (isCached()) {
+        return;
+      }
+      if (helicorder) {
+        final HelicorderData hd = view.source.getHelicorder(view.station, t1, t2, null);
+        size = hd == null ? 0 : hd.getMemorySize();
+      } else {
+        final Wave wave = view.source.getWave(view.station, t1, t2);
+        size = wave == null ? 0 : wave.getMemorySize();
+      }
+    }
+  }
+}
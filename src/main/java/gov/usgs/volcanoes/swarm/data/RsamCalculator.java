@@ -0,0 +1,167 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0 Universal
+ * public domain dedication. https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+import gov.usgs.volcanoes.core.data.Wave;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Computes RSAM for one channel at one period from wave samples as they arrive.
+ *
+ * <p>
+ * Samples are gathered into bins aligned to multiples of the period. A bin's value is the mean
+ * absolute amplitude of its samples after removing their mean, and is computed once, when a
+ * sample for a later bin arrives. Bins which have been computed take no more samples, so waves
+ * which overlap ones already seen don't count samples twice. The first bin seen usually starts
+ * part way through, so it's dropped rather than computed from some of its samples.
+ */
+class RsamCalculator {
+
+  private final int period;
+  private final TreeMap<Long, Bin> bins;
+
+  /** bins up to and including this one have been computed. */
+  private long computed;
+
+  /**
+   * Constructor.
+   *
+   * @param period seconds per RSAM value
+   */
+  public RsamCalculator(final int period) {
+    this.period = period;
+    bins = new TreeMap<Long, Bin>();
+    computed = Long.MIN_VALUE;
+  }
+
+  public int getPeriod() {
+    return period;
+  }
+
+  /**
+   * Add newly arrived samples.
+   *
+   * @param wave wave
+   * @return {time, value} rows for the bins these samples completed, ordered by time
+   */
+  public synchronized List<double[]> update(final Wave wave) {
+    add(wave);
+    if (bins.isEmpty()) {
+      return new ArrayList<double[]>();
+    }
+    return compute(bins.lastKey() - 1);
+  }
+
+  /**
+   * Compute RSAM from a wave in one pass. Only bins lying wholly within both the wave and the
+   * time span are returned, since the others are missing samples.
+   *
+   * @param wave wave
+   * @param period seconds per RSAM value
+   * @param t1 start time
+   * @param t2 end time
+   * @return {time, value} rows ordered by time, possibly empty
+   */
+  public static List<double[]> compute(final Wave wave, final int period, final double t1,
+      final double t2) {
+    final RsamCalculator calc = new RsamCalculator(period);
+    calc.add(wave);
+
+    final double slop = 1 / wave.getSamplingRate();
+    final double start = Math.max(t1, wave.getStartTime() - slop);
+    final double end = Math.min(t2, wave.getEndTime() + slop);
+    final List<double[]> rows = new ArrayList<double[]>();
+    for (final Map.Entry<Long, Bin> entry : calc.bins.entrySet()) {
+      final double binStart = entry.getKey() * (double) period;
+      if (binStart >= start && binStart + period <= end) {
+        rows.add(new double[] {binStart, entry.getValue().value()});
+      }
+    }
+    return rows;
+  }
+
+  private void add(final Wave wave) {
+    final double samplingRate = wave.getSamplingRate();
+    final double start = wave.getStartTime();
+    long key = Long.MIN_VALUE;
+    Bin bin = null;
+    for (int i = 0; i < wave.buffer.length; i++) {
+      final int sample = wave.buffer[i];
+      if (sample == Wave.NO_DATA) {
+        continue;
+      }
+      final double t = start + i / samplingRate;
+      final long k = (long) Math.floor(t / period);
+      if (k <= computed) {
+        continue;
+      }
+      if (k != key) {
+        key = k;
+        bin = bins.get(key);
+        if (bin == null) {
+          bin = new Bin();
+          bin.partial = t - key * (double) period > 1.5 / samplingRate && key - 1 > computed
+              && !bins.containsKey(key - 1);
+          bins.put(key, bin);
+        }
+      }
+      bin.add(t, sample);
+    }
+  }
+
+  /** Compute and forget bins up to and including a given one. */
+  private List<double[]> compute(final long through) {
+    final List<double[]> rows = new ArrayList<double[]>();
+    final Map<Long, Bin> done = bins.headMap(through, true);
+    for (final Map.Entry<Long, Bin> entry : done.entrySet()) {
+      if (entry.getValue().partial) {
+        continue;
+      }
+      rows.add(new double[] {entry.getKey() * (double) period, entry.getValue().value()});
+    }
+    done.clear();
+    computed = Math.max(computed, through);
+    return rows;
+  }
+
+  private static class Bin {
+    private int[] samples = new int[64];
+    private int count;
+    private double lastTime = -Double.MAX_VALUE;
+
+    /** true if samples from the start of the bin were never seen. */
+    private boolean partial;
+
+    /** Samples at or before the latest already added are repeats and are ignored. */
+    private void add(final double t, final int sample) {
+      if (t <= lastTime) {
+        return;
+      }
+      lastTime = t;
+      if (count == samples.length) {
+        samples = Arrays.copyOf(samples, count * 2);
+      }
+      samples[count++] = sample;
+    }
+
+    private double value() {
+      double sum = 0;
+      for (int i = 0; i < count; i++) {
+        sum += samples[i];
+      }
+      final double mean = sum / count;
+      double abs = 0;
+      for (int i = 0; i < count; i++) {
+        abs += Math.abs(samples[i] - mean);
+      }
+      return abs / count;
+    }
+  }
+}
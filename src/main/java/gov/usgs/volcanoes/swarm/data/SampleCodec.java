@@ -0,0 +1,92 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0 Universal
+ * public domain dedication. https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Lossless compression for integer samples.
+ *
+ * <p>
+ * Each sample is stored as the difference from the one before it, zig-zag encoded so small
+ * negative differences stay small, and written as a variable length integer of one to five
+ * bytes. Seismic data is dominated by small differences, so most samples take one or two bytes.
+ * Differences are computed with int arithmetic; overflow wraps and is undone when decoding, so
+ * every int value, including <code>Wave.NO_DATA</code>, round trips.
+ */
+public final class SampleCodec {
+
+  private SampleCodec() {}
+
+  /**
+   * Encode samples.
+   *
+   * @param samples source samples
+   * @param offset index of first sample to encode
+   * @param length number of samples to encode
+   * @return encoded samples
+   */
+  public static byte[] encode(final int[] samples, final int offset, final int length) {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream(length + length / 2);
+    int last = 0;
+    for (int i = offset; i < offset + length; i++) {
+      final int diff = samples[i] - last;
+      last = samples[i];
+      int zz = (diff << 1) ^ (diff >> 31);
+      while ((zz & ~0x7f) != 0) {
+        out.write((zz & 0x7f) | 0x80);
+        zz >>>= 7;
+      }
+      out.write(zz);
+    }
+    return out.toByteArray();
+  }
+
+  /**
+   * Decode samples.
+   *
+   * @param src encoded samples
+   * @param dest destination for decoded samples
+   * @param destPos index in destination of the first decoded sample
+   * @param length number of samples to decode
+   * @return number of bytes of src consumed
+   */
+  public static int decode(final byte[] src, final int[] dest, final int destPos,
+      final int length) {
+    return decode(src, 0, dest, destPos, 0, length);
+  }
+
+  /**
+   * Decode a range of samples. Samples before <code>skip</code> are decoded but not stored.
+   *
+   * @param src encoded samples
+   * @param srcPos position in src of the first encoded sample
+   * @param dest destination for decoded samples
+   * @param destPos index in destination of the first stored sample
+   * @param skip number of leading samples to decode without storing
+   * @param length number of samples to store
+   * @return position in src after the last decoded sample
+   */
+  public static int decode(final byte[] src, int srcPos, final int[] dest, final int destPos,
+      final int skip, final int length) {
+    int last = 0;
+    for (int i = 0; i < skip + length; i++) {
+      int zz = 0;
+      int shift = 0;
+      int b;
+      do {
+        b = src[srcPos++];
+        zz |= (b & 0x7f) << shift;
+        shift += 7;
+      } while ((b & 0x80) != 0);
+      last += (zz >>> 1) ^ -(zz & 1);
+      if (i >= skip) {
+        dest[destPos + i - skip] = last;
+      }
+    }
+    return srcPos;
+  }
+}
@@ -1,8 +1,15 @@
 package gov.usgs.volcanoes.swarm.data;
 
 import gov.usgs.volcanoes.core.data.HelicorderData;
+import gov.usgs.volcanoes.core.data.RSAMData;
 import gov.usgs.volcanoes.core.data.Wave;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 import javax.swing.event.EventListenerList;
 
 /**
@@ -10,14 +17,26 @@ import javax.swing.event.EventListenerList;
  * 
  * @author Dan Cervelli
  */
-public abstract class SeismicDataSource {
+public abstract class SeismicDataSource implements RsamSource {
   protected String name = "Unnamed Data Source";
   protected boolean storeInUserConfig = true;
   protected boolean useCache = true;
   protected int minimumRefreshInterval = 1;
 
+  /** most chunks gulped from this source at once. */
+  protected int fetchParallelism = 2;
+
   protected EventListenerList listeners = new EventListenerList();
 
+  /** shares fetches between concurrent requests, fetching under this source's lock. */
+  private SingleFlight flights = new SingleFlight(this);
+
+  /** whether fetches run without this source's lock. */
+  private boolean concurrentFetches;
+
+  /** set while the calling thread fetches waves which shouldn't be kept in the cache. */
+  private static final ThreadLocal<Boolean> UNCACHED = new ThreadLocal<Boolean>();
+
   public Gulper createGulper(GulperList gl, String k, String ch, double t1, double t2, int size,
       int delay) {
     return new Gulper(gl, k, this, ch, t1, t2, size, delay);
@@ -37,11 +56,247 @@ public abstract class SeismicDataSource {
    */
   public abstract Wave getWave(String station, double t1, double t2);
 
+  /**
+   * Get a view of samples already held by this source, without fetching or copying them. The
+   * view's backing wave is shared and must not be modified. Sources which don't hold samples
+   * return null, and callers fall back to <code>getWave</code>.
+   * 
+   * @param station channel name
+   * @param t1 start time in j2k
+   * @param t2 end time in j2k
+   * @return view or null if the source doesn't hold the whole span
+   */
+  public WaveView getWaveView(String station, double t1, double t2) {
+    return null;
+  }
+
+  /**
+   * Get waves for several channels over the same span. The default gets them one at a time;
+   * sources which can fetch many channels in one request override this.
+   * 
+   * @param channels channel names
+   * @param t1 start time in j2k
+   * @param t2 end time in j2k
+   * @return wave for each channel, in the order given; null where there's no data
+   */
+  public Map<String, Wave> getWaves(Collection<String> channels, double t1, double t2) {
+    final Map<String, Wave> waves = new LinkedHashMap<String, Wave>();
+    for (final String channel : channels) {
+      waves.put(channel, getWave(channel, t1, t2));
+    }
+    return waves;
+  }
+
+  /**
+   * Get a wave through the cache, if this source uses it, and from upstream otherwise. Requests
+   * which overlap ones already waiting or underway share their fetch, and fetches are made while
+   * holding this source's lock, so subclasses needn't synchronize <code>getWave</code>. Sources
+   * which have called <code>allowConcurrentFetches</code> fetch without the lock.
+   * 
+   * @param station channel name
+   * @param t1 start time in j2k
+   * @param t2 end time in j2k
+   * @param fetcher fetches from upstream
+   * @return wave or null if there's no data
+   */
+  protected Wave getWave(final String station, double t1, double t2, final WaveFetcher fetcher) {
+    if (!useCache) {
+      return flights.getWave(station, t1, t2, fetcher);
+    }
+    final CachedDataSource cache = CachedDataSource.getInstance();
+    final Wave cached = cache.getWave(station, t1, t2);
+    if (cached != null) {
+      return cached;
+    }
+    if (UNCACHED.get() != null) {
+      return flights.getWave(station, t1, t2, fetcher);
+    }
+    return flights.getWave(station, t1, t2, new WaveFetcher() {
+      public Wave fetch(double t1, double t2) {
+        return cache.getWave(station, t1, t2, fetcher);
+      }
+    });
+  }
+
+  /**
+   * Get a wave which is only needed once, such as to compute RSAM from. It's taken from the
+   * cache if it's all there, but what's fetched from upstream isn't kept in the cache. Sources
+   * which serve waves only from the cache return them as <code>getWave</code> does.
+   * 
+   * @param station channel name
+   * @param t1 start time in j2k
+   * @param t2 end time in j2k
+   * @return wave or null if there's no data
+   */
+  public Wave getUncachedWave(String station, double t1, double t2) {
+    UNCACHED.set(Boolean.TRUE);
+    try {
+      return getWave(station, t1, t2);
+    } finally {
+      UNCACHED.remove();
+    }
+  }
+
+  /**
+   * Get waves for several channels through the cache, if this source uses it, and from upstream
+   * otherwise. What's missing for every channel is fetched with one call to the fetcher, made
+   * while holding this source's lock.
+   *
+   * <p>
+   * Unless fetches run without the lock, the cache is searched under it too. A fetch for
+   * <code>getWave</code> holds the lock while it waits for spans others are fetching, so spans
+   * claimed before taking the lock would keep it waiting until the claim times out.
+   * 
+   * @param channels channel names
+   * @param t1 start time in j2k
+   * @param t2 end time in j2k
+   * @param fetcher fetches many channels from upstream
+   * @return wave for each channel, in the order given; null where there's no data
+   */
+  protected Map<String, Wave> getWaves(Collection<String> channels, double t1, double t2,
+      final WaveBatchFetcher fetcher) {
+    final WaveBatchFetcher locked = new WaveBatchFetcher() {
+      public Map<String, List<Wave>> fetch(Map<String, List<double[]>> spans) {
+        synchronized (SeismicDataSource.this) {
+          return fetcher.fetch(spans);
+        }
+      }
+    };
+    if (useCache) {
+      final CachedDataSource cache = CachedDataSource.getInstance();
+      if (concurrentFetches) {
+        return cache.getWaves(channels, t1, t2, locked);
+      }
+      synchronized (this) {
+        return cache.getWaves(channels, t1, t2, fetcher);
+      }
+    }
+
+    final Map<String, List<double[]>> spans = new LinkedHashMap<String, List<double[]>>();
+    for (final String channel : channels) {
+      spans.put(channel, Collections.singletonList(new double[] {t1, t2}));
+    }
+    final Map<String, List<Wave>> fetched = locked.fetch(spans);
+    final Map<String, Wave> waves = new LinkedHashMap<String, Wave>();
+    for (final String channel : channels) {
+      final List<Wave> parts = fetched.get(channel);
+      if (parts == null || parts.isEmpty()) {
+        waves.put(channel, null);
+      } else {
+        waves.put(channel, parts.size() == 1 ? parts.get(0) : Wave.join(parts));
+      }
+    }
+    return waves;
+  }
+
   public abstract HelicorderData getHelicorder(String station, double t1, double t2,
       GulperListener gl);
 
+  /**
+   * Get helicorder data at reduced resolution. Each row may summarize up to
+   * <code>resolution</code> seconds. Sources which can't reduce the resolution return one row per
+   * second.
+   * 
+   * @param station channel name
+   * @param t1 start time in j2k
+   * @param t2 end time in j2k
+   * @param gl gulper listener
+   * @param resolution requested seconds per row
+   * @return helicorder data or null
+   */
+  public HelicorderData getHelicorder(String station, double t1, double t2, GulperListener gl,
+      int resolution) {
+    return getHelicorder(station, t1, t2, gl);
+  }
+
+  /**
+   * Get a wave without blocking. The default runs <code>getWave</code> on a shared thread. The
+   * request can be cancelled, or given a timeout with <code>AsyncFetch.withTimeout</code>.
+   * 
+   * @param station channel name
+   * @param t1 start time in j2k
+   * @param t2 end time in j2k
+   * @return future wave, which may be null
+   */
+  public CompletableFuture<Wave> getWaveAsync(final String station, final double t1,
+      final double t2) {
+    return AsyncFetch.supply(new Callable<Wave>() {
+      public Wave call() {
+        return getWave(station, t1, t2);
+      }
+    });
+  }
+
+  /**
+   * Get helicorder data without blocking.
+   * 
+   * @param station channel name
+   * @param t1 start time in j2k
+   * @param t2 end time in j2k
+   * @param gl gulper listener
+   * @return future helicorder data, which may be null
+   * @see #getWaveAsync(String, double, double)
+   */
+  public CompletableFuture<HelicorderData> getHelicorderAsync(String station, double t1,
+      double t2, GulperListener gl) {
+    return getHelicorderAsync(station, t1, t2, gl, 1);
+  }
+
+  /**
+   * Get helicorder data at reduced resolution without blocking.
+   * 
+   * @param station channel name
+   * @param t1 start time in j2k
+   * @param t2 end time in j2k
+   * @param gl gulper listener
+   * @param resolution requested seconds per row
+   * @return future helicorder data, which may be null
+   * @see #getWaveAsync(String, double, double)
+   */
+  public CompletableFuture<HelicorderData> getHelicorderAsync(final String station,
+      final double t1, final double t2, final GulperListener gl, final int resolution) {
+    return AsyncFetch.supply(new Callable<HelicorderData>() {
+      public HelicorderData call() {
+        return getHelicorder(station, t1, t2, gl, resolution);
+      }
+    });
+  }
+
+  /**
+   * Get RSAM. Sources which can't provide RSAM themselves have it computed from their waves and
+   * kept in the cache.
+   * 
+   * @param station channel name
+   * @param t1 start time in j2k
+   * @param t2 end time in j2k
+   * @param period seconds per value
+   * @return RSAM or null if there's no data
+   */
+  public RSAMData getRsam(String station, double t1, double t2, int period) {
+    return CachedDataSource.getInstance().getRsam(station, t1, t2, period, this);
+  }
+
   public abstract String toConfigString();
 
+  /**
+   * Get a copy of this data source, for fetching in parallel with it. Sources which can serve
+   * several requests at once may return themselves, which is the default.
+   * 
+   * @return a copy of this data source
+   */
+  public SeismicDataSource getCopy() {
+    return this;
+  }
+
+  /**
+   * Let fetches made by <code>getWave</code> run at the same time rather than one at a time
+   * under this source's lock, for sources which can serve several requests at once.
+   */
+  protected void allowConcurrentFetches() {
+    flights = new SingleFlight(null);
+    concurrentFetches = true;
+  }
+
   protected SeismicDataSource() {
     // explicit default constructor needed for reflection
   }
@@ -123,6 +378,26 @@ public abstract class SeismicDataSource {
     return false;
   }
 
+  /**
+   * Whether helicorders may be prefetched. Sources which fill helicorders with a gulper per
+   * channel shouldn't be, since the prefetch would steer the gulper serving the view on screen.
+   * 
+   * @return whether or not helicorders may be prefetched
+   */
+  public boolean canPrefetchHelicorders() {
+    return true;
+  }
+
+  /**
+   * Whether this source's channels may be kept in the on-disk channel cache. Sources whose
+   * channels are local, and so cheap to list, gain nothing from it.
+   * 
+   * @return whether or not channels may be cached
+   */
+  public boolean canCacheChannels() {
+    return true;
+  }
+
   /**
    * Close the data source.
    */
@@ -160,4 +435,8 @@ public abstract class SeismicDataSource {
     return minimumRefreshInterval;
   }
 
+  public int getFetchParallelism() {
+    return fetchParallelism;
+  }
+
 }
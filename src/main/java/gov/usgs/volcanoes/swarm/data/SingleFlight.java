@@ -0,0 +1,189 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0 Universal
+ * public domain dedication. https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+import gov.usgs.volcanoes.core.data.Wave;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Makes concurrent requests to one source for the same channel share fetches.
+ *
+ * <p>
+ * A source fetches one thing at a time, under a lock it shares with its other methods. While a
+ * fetch waits for that lock, requests for overlapping or nearly adjacent spans of the same
+ * channel widen it rather than queueing fetches of their own. Once a fetch has started, requests
+ * for spans lying within it wait for it instead of fetching again. Everyone gets their own span
+ * cut from the one result.
+ *
+ * <p>
+ * Sources able to serve several requests at once fetch without a lock. Their fetches start
+ * straight away, so only requests for spans within a fetch underway share it.
+ */
+class SingleFlight {
+
+  /** spans this close together are fetched as one, in seconds. */
+  private static final double MERGE_GAP = 60;
+
+  private final Object lock;
+  private final Map<String, List<Call>> calls;
+
+  /**
+   * Constructor.
+   *
+   * @param lock lock held while fetching, usually the source itself, or null to fetch unlocked
+   */
+  public SingleFlight(final Object lock) {
+    this.lock = lock;
+    calls = new HashMap<String, List<Call>>();
+  }
+
+  /**
+   * Get a wave, sharing a fetch with other threads where possible.
+   *
+   * @param station channel
+   * @param t1 start time
+   * @param t2 end time
+   * @param fetcher fetches a span
+   * @return wave or null if there's no data
+   */
+  public Wave getWave(final String station, final double t1, final double t2,
+      final WaveFetcher fetcher) {
+    // a thread already holding the lock would wait forever for a fetch needing it
+    if (lock != null && Thread.holdsLock(lock)) {
+      return fetcher.fetch(t1, t2);
+    }
+
+    Call call = null;
+    synchronized (this) {
+      List<Call> list = calls.get(station);
+      if (list == null) {
+        list = new ArrayList<Call>();
+        calls.put(station, list);
+      }
+      for (final Call c : list) {
+        if (c.covers(t1, t2)) {
+          call = c;
+          break;
+        }
+      }
+      if (call != null) {
+        call.followers++;
+        if (!call.started) {
+          call.t1 = Math.min(call.t1, t1);
+          call.t2 = Math.max(call.t2, t2);
+        }
+      }
+    }
+
+    if (call != null) {
+      return call.await(t1, t2);
+    }
+    return lead(station, t1, t2, fetcher);
+  }
+
+  /** Fetch for a call of our own, which others may join until it starts. */
+  private Wave lead(final String station, final double t1, final double t2,
+      final WaveFetcher fetcher) {
+    final Call call = new Call(t1, t2);
+    synchronized (this) {
+      calls.get(station).add(call);
+    }
+
+    Wave wave = null;
+    try {
+      if (lock == null) {
+        wave = start(call, fetcher);
+      } else {
+        synchronized (lock) {
+          wave = start(call, fetcher);
+        }
+      }
+    } finally {
+      synchronized (this) {
+        final List<Call> list = calls.get(station);
+        list.remove(call);
+        if (list.isEmpty()) {
+          calls.remove(station);
+        }
+      }
+      call.finish(wave);
+    }
+
+    if (wave == null || call.followers == 0) {
+      return wave;
+    }
+    return call.cut(t1, t2);
+  }
+
+  /** Fetch a call's span, which can no longer be widened. */
+  private Wave start(final Call call, final WaveFetcher fetcher) {
+    final double start;
+    final double end;
+    synchronized (this) {
+      call.started = true;
+      start = call.t1;
+      end = call.t2;
+    }
+    return fetcher.fetch(start, end);
+  }
+
+  private static class Call {
+    private double t1;
+    private double t2;
+    private boolean started;
+    private boolean done;
+    private int followers;
+    private Wave result;
+
+    private Call(final double t1, final double t2) {
+      this.t1 = t1;
+      this.t2 = t2;
+    }
+
+    /** Whether this call will fetch a span, widening it first if need be. */
+    private boolean covers(final double start, final double end) {
+      if (started) {
+        return t1 <= start && end <= t2;
+      }
+      return start <= t2 + MERGE_GAP && t1 - MERGE_GAP <= end;
+    }
+
+    private synchronized void finish(final Wave wave) {
+      result = wave;
+      done = true;
+      notifyAll();
+    }
+
+    private synchronized Wave await(final double start, final double end) {
+      while (!done) {
+        try {
+          wait();
+        } catch (final InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return null;
+        }
+      }
+      return cut(start, end);
+    }
+
+    /** A copy of the part of the result within a span, since the result is shared. */
+    private synchronized Wave cut(final double start, final double end) {
+      if (result == null) {
+        return null;
+      }
+      final double from = Math.max(start, result.getStartTime());
+      final double to = Math.min(end, result.getEndTime());
+      if (from >= to) {
+        return null;
+      }
+      final Wave wave = result.subset(from, to);
+      return wave == result ? new Wave(result) : wave;
+    }
+  }
+}
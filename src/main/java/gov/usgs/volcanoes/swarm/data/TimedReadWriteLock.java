@@ -0,0 +1,106 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0 Universal
+ * public domain dedication. https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A reentrant read/write lock which reports how long it's held. Only the outermost hold by a
+ * thread is timed, so reentrant locking isn't counted twice.
+ */
+class TimedReadWriteLock implements ReadWriteLock {
+
+  private final TimedLock readLock;
+  private final TimedLock writeLock;
+
+  /**
+   * Constructor.
+   *
+   * @param metrics where hold times are reported
+   */
+  public TimedReadWriteLock(final CacheMetrics metrics) {
+    final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    readLock = new TimedLock(lock.readLock(), metrics, false);
+    writeLock = new TimedLock(lock.writeLock(), metrics, true);
+  }
+
+  public Lock readLock() {
+    return readLock;
+  }
+
+  public Lock writeLock() {
+    return writeLock;
+  }
+
+  private static class TimedLock implements Lock {
+    private final Lock lock;
+    private final CacheMetrics metrics;
+    private final boolean write;
+
+    /** per-thread hold count and time of the outermost acquisition. */
+    private final ThreadLocal<long[]> held = new ThreadLocal<long[]>() {
+      @Override
+      protected long[] initialValue() {
+        return new long[2];
+      }
+    };
+
+    private TimedLock(final Lock lock, final CacheMetrics metrics, final boolean write) {
+      this.lock = lock;
+      this.metrics = metrics;
+      this.write = write;
+    }
+
+    private void acquired() {
+      final long[] h = held.get();
+      if (h[0]++ == 0) {
+        h[1] = System.nanoTime();
+      }
+    }
+
+    public void lock() {
+      lock.lock();
+      acquired();
+    }
+
+    public void lockInterruptibly() throws InterruptedException {
+      lock.lockInterruptibly();
+      acquired();
+    }
+
+    public boolean tryLock() {
+      if (lock.tryLock()) {
+        acquired();
+        return true;
+      }
+      return false;
+    }
+
+    public boolean tryLock(final long time, final TimeUnit unit) throws InterruptedException {
+      if (lock.tryLock(time, unit)) {
+        acquired();
+        return true;
+      }
+      return false;
+    }
+
+    public void unlock() {
+      final long[] h = held.get();
+      if (h[0] > 0 && --h[0] == 0) {
+        metrics.lockHeld(write, System.nanoTime() - h[1]);
+      }
+      lock.unlock();
+    }
+
+    public Condition newCondition() {
+      return lock.newCondition();
+    }
+  }
+}
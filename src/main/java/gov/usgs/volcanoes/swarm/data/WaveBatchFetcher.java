@@ -0,0 +1,27 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0 Universal
+ * public domain dedication. https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+import gov.usgs.volcanoes.core.data.Wave;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Fetches wave data for several channels from upstream at once, bypassing any cache.
+ *
+ * @see AbstractCachingDataSource#getWaves(java.util.Collection, double, double,
+ *      WaveBatchFetcher)
+ */
+public interface WaveBatchFetcher {
+
+  /**
+   * Fetch waves.
+   *
+   * @param spans {start, end} spans in j2k to fetch for each channel
+   * @return waves fetched for each channel, in any order; channels with no data may be missing
+   */
+  Map<String, List<Wave>> fetch(Map<String, List<double[]>> spans);
+}
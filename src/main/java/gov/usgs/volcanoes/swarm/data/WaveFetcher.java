@@ -0,0 +1,25 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0 Universal
+ * public domain dedication. https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+import gov.usgs.volcanoes.core.data.Wave;
+
+/**
+ * Fetches wave data from upstream, bypassing any cache.
+ *
+ * @see AbstractCachingDataSource#getWave(String, double, double, WaveFetcher)
+ */
+public interface WaveFetcher {
+
+  /**
+   * Fetch a wave.
+   *
+   * @param t1 start time in j2k
+   * @param t2 end time in j2k
+   * @return wave or null if there's no data
+   */
+  Wave fetch(double t1, double t2);
+}
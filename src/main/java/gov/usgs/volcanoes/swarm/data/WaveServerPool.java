@@ -0,0 +1,186 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0 Universal
+ * public domain dedication. https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+import gov.usgs.volcanoes.core.legacy.ew.WaveServer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Connections to an Earthworm wave server, shared by every source configured for it.
+ *
+ * <p>
+ * A <code>WaveServer</code> serves one request at a time, so each request borrows a connection
+ * and gives it back when done. At most <code>size</code> connections are open at once; further
+ * requests wait for one to come back. A connection whose request failed is closed rather than
+ * reused, since the old client reports a broken socket only by failing. So is one left idle
+ * long enough that the server may have dropped it, both when it's next borrowed and by a sweep
+ * shortly after it goes idle.
+ */
+class WaveServerPool {
+  private static final Logger LOGGER = LoggerFactory.getLogger(WaveServerPool.class);
+
+  /** connections idle this long may have been dropped by the server, in ms. */
+  private static final long IDLE_TIMEOUT = 30 * 1000;
+
+  private static final Map<String, WaveServerPool> POOLS = new HashMap<String, WaveServerPool>();
+
+  private final String key;
+  private final String host;
+  private final int port;
+  private final int size;
+  private int timeout;
+
+  private final Deque<Connection> idle;
+  private int open;
+  private int users;
+  private boolean sweepPending;
+
+  private WaveServerPool(final String key, final String host, final int port, final int size) {
+    this.key = key;
+    this.host = host;
+    this.port = port;
+    this.size = Math.max(1, size);
+    idle = new ArrayDeque<Connection>();
+  }
+
+  /**
+   * Get the pool for a server, creating it if need be. Every call must be matched by a call to
+   * <code>release</code>.
+   *
+   * @param key identifies the configuration sharing the pool
+   * @param host server host
+   * @param port server port
+   * @param size most connections open at once
+   * @return pool
+   */
+  public static synchronized WaveServerPool acquire(final String key, final String host,
+      final int port, final int size) {
+    WaveServerPool pool = POOLS.get(key);
+    if (pool == null) {
+      pool = new WaveServerPool(key, host, port, size);
+      POOLS.put(key, pool);
+    }
+    synchronized (pool) {
+      pool.users++;
+    }
+    return pool;
+  }
+
+  /**
+   * Stop using the pool. Once nobody is, its connections are closed.
+   */
+  public void release() {
+    synchronized (WaveServerPool.class) {
+      synchronized (this) {
+        users--;
+        if (users > 0) {
+          return;
+        }
+        POOLS.remove(key);
+        closeIdle(0);
+      }
+    }
+  }
+
+  /**
+   * Set the socket timeout of every connection.
+   *
+   * @param timeout timeout in ms
+   */
+  public synchronized void setTimeout(final int timeout) {
+    this.timeout = timeout;
+    for (final Connection c : idle) {
+      c.server.setTimeout(timeout);
+    }
+  }
+
+  /**
+   * Borrow a connection, waiting for one if all are in use.
+   *
+   * @return connection, which must be given back
+   * @throws InterruptedException if interrupted while waiting
+   */
+  public synchronized WaveServer borrow() throws InterruptedException {
+    closeIdle(IDLE_TIMEOUT);
+    while (idle.isEmpty() && open >= size) {
+      wait();
+    }
+    if (!idle.isEmpty()) {
+      return idle.pop().server;
+    }
+    open++;
+    final WaveServer server = new WaveServer(host, port);
+    server.setTimeout(timeout);
+    return server;
+  }
+
+  /**
+   * Give back a borrowed connection.
+   *
+   * @param server connection
+   * @param healthy false if its request failed, in which case it's closed
+   */
+  public synchronized void giveBack(final WaveServer server, final boolean healthy) {
+    if (healthy && users > 0) {
+      idle.push(new Connection(server));
+      scheduleSweep();
+    } else {
+      open--;
+      server.close();
+    }
+    notifyAll();
+  }
+
+  /** Close connections idle at least a given time, in ms. */
+  private void closeIdle(final long age) {
+    final long now = System.currentTimeMillis();
+    final Iterator<Connection> it = idle.descendingIterator();
+    while (it.hasNext()) {
+      final Connection c = it.next();
+      if (now - c.lastUsed < age) {
+        break;
+      }
+      it.remove();
+      open--;
+      c.server.close();
+      LOGGER.debug("closed idle connection to {}:{}", host, port);
+    }
+  }
+
+  private void scheduleSweep() {
+    if (sweepPending) {
+      return;
+    }
+    sweepPending = true;
+    AsyncFetch.schedule(new Runnable() {
+      public void run() {
+        synchronized (WaveServerPool.this) {
+          sweepPending = false;
+          closeIdle(IDLE_TIMEOUT);
+          if (!idle.isEmpty()) {
+            scheduleSweep();
+          }
+        }
+      }
+    }, IDLE_TIMEOUT);
+  }
+
+  private static class Connection {
+    private final WaveServer server;
+    private final long lastUsed;
+
+    private Connection(final WaveServer server) {
+      this.server = server;
+      lastUsed = System.currentTimeMillis();
+    }
+  }
+}
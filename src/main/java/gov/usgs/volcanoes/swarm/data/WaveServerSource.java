@@ -8,24 +8,35 @@ import gov.usgs.volcanoes.core.legacy.ew.WaveServer;
 import gov.usgs.volcanoes.core.time.J2kSec;
 import gov.usgs.volcanoes.core.time.Time;
 import gov.usgs.volcanoes.swarm.SwarmConfig;
+import gov.usgs.volcanoes.swarm.data.waveserver.WaveServerClient;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * An implementation of <code>SeismicDataSource</code> that connects to an Earthworm Wave Server.
  * 
+ * <p>
+ * Requests borrow connections from a pool shared by every source, and every copy of a source,
+ * with the same configuration, so concurrent requests are served in parallel without each
+ * gulper opening a connection of its own. Unless <code>pipelineWaveServers</code> is turned off,
+ * waves are fetched with the non-blocking <code>WaveServerClient</code> instead, falling back to
+ * the pool if it fails.
  *
  * @author Dan Cervelli
  */
 public class WaveServerSource extends SeismicDataSource {
-  // private final static Logger LOGGER = LoggerFactory.getLogger(WaveServerSource.class);
+  private static final Logger LOGGER = LoggerFactory.getLogger(WaveServerSource.class);
 
   private String params;
-  private WaveServer waveServer;
+  private WaveServerPool pool;
+  private boolean released;
   private int timeout = 2000;
 
   private String server;
@@ -37,7 +48,7 @@ public class WaveServerSource extends SeismicDataSource {
   private TimeZone timeZone;
 
 
-  private static Map<String, Boolean> scnlSources = new HashMap<String, Boolean>();
+  private static Map<String, Boolean> scnlSources = new ConcurrentHashMap<String, Boolean>();
 
   // explicit default constructor required for reflection
   public WaveServerSource() {}
@@ -63,11 +74,18 @@ public class WaveServerSource extends SeismicDataSource {
     if (ss.length >= 6) {
       timeZone = TimeZone.getTimeZone(ss[5]);
     }
+    if (ss.length >= 7) {
+      fetchParallelism = Math.max(1, Integer.parseInt(ss[6]));
+    }
     if (timeZone == null) {
       timeZone = TimeZone.getTimeZone("UTC");
     }
 
-    waveServer = new WaveServer(server, port);
+    allowConcurrentFetches();
+    close();
+    // one more connection than gulps at once, so views needn't wait behind gulpers
+    pool = WaveServerPool.acquire(params, server, port, fetchParallelism + 1);
+    released = false;
     setTimeout(timeout);
   }
 
@@ -78,8 +96,8 @@ public class WaveServerSource extends SeismicDataSource {
    */
   public String toConfigString() {
     String typeString = DataSourceType.getShortName(this.getClass());
-    return String.format("%s;" + typeString + ":%s:%d:%d:%d:%d:%s", name, server, port, timeout,
-        gulpSize, gulpDelay, timeZone.getID());
+    return String.format("%s;" + typeString + ":%s:%d:%d:%d:%d:%s:%d", name, server, port,
+        timeout, gulpSize, gulpDelay, timeZone.getID(), fetchParallelism);
   }
 
   private boolean isScnl(String p) {
@@ -99,19 +117,27 @@ public class WaveServerSource extends SeismicDataSource {
     scnlSources.put(p, b);
   }
 
-  public synchronized void setTimeout(int to) {
-    waveServer.setTimeout(to);
+  public void setTimeout(int to) {
+    timeout = to;
+    pool().setTimeout(to);
   }
 
   /**
-   * Close data source.
+   * Close data source. It stops sharing the pool, which closes the pool's connections if no other
+   * source is using it, but rejoins the pool if it's used again.
    * 
    * @see gov.usgs.volcanoes.swarm.data.SeismicDataSource#close()
    */
-  public synchronized void close() {
-    if (waveServer != null) {
-      waveServer.close();
+  public void close() {
+    WaveServerPool closing;
+    synchronized (this) {
+      if (pool == null || released) {
+        return;
+      }
+      released = true;
+      closing = pool;
     }
+    closing.release();
   }
 
   /**
@@ -119,8 +145,18 @@ public class WaveServerSource extends SeismicDataSource {
    * 
    * @return menu
    */
-  public synchronized Menu getMenu() {
-    Menu menu = waveServer.getMenuSCNL();
+  public Menu getMenu() {
+    WaveServerPool pool = pool();
+    WaveServer waveServer = borrow(pool);
+    if (waveServer == null) {
+      return null;
+    }
+    Menu menu = null;
+    try {
+      menu = waveServer.getMenuSCNL();
+    } finally {
+      pool.giveBack(waveServer, menu != null);
+    }
     setIsScnl(params, menu.isSCNL());
     return menu;
   }
@@ -153,46 +189,117 @@ public class WaveServerSource extends SeismicDataSource {
    * 
    * @see gov.usgs.volcanoes.swarm.data.SeismicDataSource#getWave(java.lang.String, double, double)
    */
-  public synchronized Wave getWave(String station, double t1, double t2) {
-    CachedDataSource cache = CachedDataSource.getInstance();
-    Wave sw = null;
-    if (useCache) {
-      sw = cache.getWave(station, t1, t2);
+  public Wave getWave(final String station, double t1, double t2) {
+    return getWave(station, t1, t2, new WaveFetcher() {
+      public Wave fetch(double t1, double t2) {
+        return fetchWave(station, t1, t2);
+      }
+    });
+  }
+
+  /**
+   * Get wave from the server, bypassing the cache.
+   * 
+   * @param station channel
+   * @param t1 start time
+   * @param t2 end time
+   * @return wave or null if the server has none
+   */
+  private Wave fetchWave(String station, double t1, double t2) {
+    String seperator = station.indexOf('$') != -1 ? "\\$" : " ";
+    String[] ss = station.split(seperator);
+    String loc = null;
+    if (isScnl(params)) {
+      loc = "--";
+      if (ss.length == 4) {
+        loc = ss[3];
+      }
     }
+    double offset = timeZone.getOffset(J2kSec.asEpoch(t1));
+    double at1 = Time.j2kToEw(t1) + offset / 1000.0;
+    double at2 = Time.j2kToEw(t2) + offset / 1000.0;
+    Wave sw = fetchRawData(ss[0], ss[1], ss[2], loc, at1, at2);
     if (sw == null) {
-      String seperator = station.indexOf('$') != -1 ? "\\$" : " ";
-      String[] ss = station.split(seperator);
-      String loc = null;
-      if (isScnl(params)) {
-        loc = "--";
-        if (ss.length == 4) {
-          loc = ss[3];
-        }
-      }
-      double offset = timeZone.getOffset(J2kSec.asEpoch(t1));
-      double at1 = Time.j2kToEw(t1) + offset / 1000.0;
-      double at2 = Time.j2kToEw(t2) + offset / 1000.0;
-      sw = waveServer.getRawData(ss[0], ss[1], ss[2], loc, at1, at2);
-      if (sw == null) {
+      return null;
+    }
+    sw.convertToJ2K();
+    sw.setStartTime(sw.getStartTime() - offset / 1000.0);
+    sw.register();
+    if (useCache) {
+      CachedDataSource.getInstance().cacheWaveAsHelicorder(station, sw);
+    }
+    return sw;
+  }
+
+  /**
+   * Get raw data from the server, pipelined if allowed.
+   * 
+   * @return wave in Earthworm time, or null if the server has none
+   */
+  private Wave fetchRawData(String sta, String cha, String net, String loc, double t1,
+      double t2) {
+    if (SwarmConfig.getInstance().pipelineWaveServers) {
+      try {
+        return WaveServerClient.getInstance(server, port, timeout)
+            .getScnlRaw(sta, cha, net, loc, t1, t2).get();
+      } catch (ExecutionException e) {
+        LOGGER.debug("Pipelined request to {}:{} failed, retrying", server, port, e.getCause());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
         return null;
       }
-      sw.convertToJ2K();
-      sw.setStartTime(sw.getStartTime() - offset / 1000.0);
-      sw.register();
-      if (useCache) {
-        cache.cacheWaveAsHelicorder(station, sw);
-        cache.putWave(station, sw);
-      }
+    }
+
+    WaveServerPool pool = pool();
+    WaveServer waveServer = borrow(pool);
+    if (waveServer == null) {
+      return null;
+    }
+    Wave sw = null;
+    try {
+      sw = waveServer.getRawData(sta, cha, net, loc, t1, t2);
+    } finally {
+      // the old client answers null for a broken connection as well as for no data
+      pool.giveBack(waveServer, sw != null);
     }
     return sw;
   }
 
+  /**
+   * Get the pool, rejoining it if this source has been closed.
+   * 
+   * @return pool
+   */
+  private synchronized WaveServerPool pool() {
+    if (released) {
+      pool = WaveServerPool.acquire(params, server, port, fetchParallelism + 1);
+      pool.setTimeout(timeout);
+      released = false;
+    }
+    return pool;
+  }
+
+  /**
+   * Borrow a connection from a pool.
+   * 
+   * @param pool pool
+   * @return connection, or null if interrupted while waiting for one
+   */
+  private static WaveServer borrow(WaveServerPool pool) {
+    try {
+      return pool.borrow();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return null;
+    }
+  }
+
   /**
    * Get channels.
    * 
    * @see gov.usgs.volcanoes.swarm.data.SeismicDataSource#getChannels()
    */
-  public synchronized List<String> getChannels() {
+  public List<String> getChannels() {
     Menu menu = getMenu();
     List<String> channels = getMenuList(menu.getSortedItems());
     SwarmConfig.getInstance().assignMetadataSource(channels, this);
@@ -205,8 +312,14 @@ public class WaveServerSource extends SeismicDataSource {
    * @see gov.usgs.volcanoes.swarm.data.SeismicDataSource#getHelicorder (java.lang.String, double,
    *      double, gov.usgs.volcanoes.swarm.data.GulperListener)
    */
-  public synchronized HelicorderData getHelicorder(String station, double t1, double t2,
+  public HelicorderData getHelicorder(String station, double t1, double t2,
       GulperListener gl) {
+    return getHelicorder(station, t1, t2, gl, 1);
+  }
+
+  @Override
+  public HelicorderData getHelicorder(String station, double t1, double t2,
+      GulperListener gl, int resolution) {
     double now = J2kSec.now();
     // if a time later than now has been asked for make sure to get the latest
     if ((t2 - now) >= -20) {
@@ -215,7 +328,7 @@ public class WaveServerSource extends SeismicDataSource {
 
     CachedDataSource cache = CachedDataSource.getInstance();
 
-    HelicorderData hd = cache.getHelicorder(station, t1, t2, (GulperListener) null);
+    HelicorderData hd = cache.getHelicorder(station, t1, t2, (GulperListener) null, resolution);
 
     if (hd == null || hd.rows() == 0 || (hd.getStartTime() - t1 > 10)) {
       GulperList.INSTANCE.requestGulper("ws:" + station, gl, this.getCopy(), station, t1, t2,
@@ -228,12 +341,17 @@ public class WaveServerSource extends SeismicDataSource {
     return new WaveServerSource(this);
   }
 
-  public synchronized void notifyDataNotNeeded(String station, double t1, double t2,
+  public void notifyDataNotNeeded(String station, double t1, double t2,
       GulperListener gl) {
     GulperList.INSTANCE.killGulper("ws:" + station, gl);
   }
 
-  public synchronized boolean isActiveSource() {
+  public boolean isActiveSource() {
     return true;
   }
+
+  @Override
+  public boolean canPrefetchHelicorders() {
+    return false;
+  }
 }
@@ -0,0 +1,136 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0 Universal
+ * public domain dedication. https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+import gov.usgs.volcanoes.core.data.Wave;
+
+/**
+ * A read-only window onto a run of samples in a shared wave. Creating a view or a subset of one
+ * never copies samples; only <code>toWave</code> and <code>copyTo</code> do.
+ *
+ * <p>
+ * The backing wave is shared with the cache, so it must never be modified. Callers which need to
+ * change samples, for instance to filter them, must work on a copy.
+ */
+public class WaveView {
+
+  private final Wave wave;
+  private final int offset;
+  private final int length;
+
+  /**
+   * Constructor.
+   *
+   * @param wave backing wave
+   * @param offset index of the first sample in the view
+   * @param length number of samples in the view
+   */
+  public WaveView(final Wave wave, final int offset, final int length) {
+    if (offset < 0 || length < 0 || offset + length > wave.numSamples()) {
+      throw new ArrayIndexOutOfBoundsException(offset + length);
+    }
+    this.wave = wave;
+    this.offset = offset;
+    this.length = length;
+  }
+
+  /**
+   * Get a view of the samples between two times. Sample indexes are truncated, as they are when
+   * the cache copies samples.
+   *
+   * @param wave backing wave
+   * @param t1 start time
+   * @param t2 end time
+   * @return view or null if the wave doesn't hold the whole span
+   */
+  public static WaveView of(final Wave wave, final double t1, final double t2) {
+    final double samplingRate = wave.getSamplingRate();
+    final int offset = (int) ((t1 - wave.getStartTime()) * samplingRate);
+    final int length = (int) ((t2 - t1) * samplingRate);
+    if (offset < 0 || length < 0 || offset + length > wave.numSamples()) {
+      return null;
+    }
+    return new WaveView(wave, offset, length);
+  }
+
+  /**
+   * Get the backing wave. It's shared and must not be modified.
+   *
+   * @return backing wave
+   */
+  public Wave getWave() {
+    return wave;
+  }
+
+  public int getOffset() {
+    return offset;
+  }
+
+  public int numSamples() {
+    return length;
+  }
+
+  public double getSamplingRate() {
+    return wave.getSamplingRate();
+  }
+
+  public double getStartTime() {
+    return wave.getStartTime() + offset / wave.getSamplingRate();
+  }
+
+  public double getEndTime() {
+    return getStartTime() + length / wave.getSamplingRate();
+  }
+
+  /**
+   * Get a sample.
+   *
+   * @param i index of the sample within the view
+   * @return sample
+   */
+  public int get(final int i) {
+    if (i < 0 || i >= length) {
+      throw new ArrayIndexOutOfBoundsException(i);
+    }
+    return wave.buffer[offset + i];
+  }
+
+  /**
+   * Get a view of part of this view.
+   *
+   * @param t1 start time
+   * @param t2 end time
+   * @return view or null if this view doesn't hold the whole span
+   */
+  public WaveView subset(final double t1, final double t2) {
+    final WaveView view = of(wave, t1, t2);
+    if (view == null || view.offset < offset || view.offset + view.length > offset + length) {
+      return null;
+    }
+    return view;
+  }
+
+  /**
+   * Copy the samples in the view.
+   *
+   * @param dest destination array
+   * @param destPos index in destination of the first sample
+   */
+  public void copyTo(final int[] dest, final int destPos) {
+    System.arraycopy(wave.buffer, offset, dest, destPos, length);
+  }
+
+  /**
+   * Copy the view into a new wave which the caller owns.
+   *
+   * @return new wave
+   */
+  public Wave toWave() {
+    final int[] buffer = new int[length];
+    copyTo(buffer, 0);
+    return new Wave(buffer, getStartTime(), wave.getSamplingRate());
+  }
+}
@@ -5,26 +5,39 @@ import gov.usgs.volcanoes.core.data.RSAMData;
 import gov.usgs.volcanoes.core.data.Scnl;
 import gov.usgs.volcanoes.core.data.Wave;
 import gov.usgs.volcanoes.core.legacy.ew.MenuItem;
-import gov.usgs.volcanoes.core.time.J2kSec;
 import gov.usgs.volcanoes.core.time.TimeSpan;
 import gov.usgs.volcanoes.core.util.UtilException;
 import gov.usgs.volcanoes.swarm.Metadata;
 import gov.usgs.volcanoes.swarm.SwarmConfig;
+import gov.usgs.volcanoes.swarm.data.waveserver.WaveServerClient;
 import gov.usgs.volcanoes.winston.Channel;
 import gov.usgs.volcanoes.wwsclient.WWSClient;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 
 /**
  * An implementation of <code>SeismicDataSource</code> that communicates with a WinstonWaveServer.
  * This is essentially just a copy of WaveServerSource with different helicorder functions. It
  * should probably be made a descendant of WaveServerSource.
  * 
+ * <p>
+ * Unless <code>pipelineWaveServers</code> is turned off, waves and helicorders are fetched with
+ * the non-blocking <code>WaveServerClient</code>, and fetches for different spans run at once.
+ * A request which fails there is retried over this source's own blocking connection.
  * 
  * @author Dan Cervelli
  */
 public class WwsSource extends SeismicDataSource implements RsamSource {
+  /** newest helicorder seconds refetched on refresh, as they may have been partly filled. */
+  private static final double TAIL_OVERLAP = 30;
+
   private WWSClient winstonClient;
   private int timeout = 2000;
   private boolean compress = false;
@@ -32,6 +45,9 @@ public class WwsSource extends SeismicDataSource implements RsamSource {
   private String server;
   private int port;
 
+  /** end of the newest helicorder data fetched for each channel, in J2K. */
+  private final Map<String, Double> helicorderEnds = new ConcurrentHashMap<String, Double>();
+
   /**
    * Explicit default constructor required for reflection.
    */
@@ -50,6 +66,9 @@ public class WwsSource extends SeismicDataSource implements RsamSource {
     compress = ss[3].equals("1");
 
     winstonClient = new WWSClient(server, port, timeout);
+    if (SwarmConfig.getInstance().pipelineWaveServers) {
+      allowConcurrentFetches();
+    }
   }
 
   /**
@@ -104,36 +123,138 @@ public class WwsSource extends SeismicDataSource implements RsamSource {
    * 
    * @see gov.usgs.volcanoes.swarm.data.SeismicDataSource#getWave(java.lang.String, double, double)
    */
-  public synchronized Wave getWave(String station, double t1, double t2) {
+  public Wave getWave(final String station, double t1, double t2) {
+    return getWave(station, t1, t2, new WaveFetcher() {
+      public Wave fetch(double t1, double t2) {
+        return fetchWave(station, t1, t2);
+      }
+    });
+  }
+
+  /**
+   * Get waves for several channels. What's missing from the cache is asked for all at once when
+   * pipelining, and otherwise back to back over this source's one connection, rather than each
+   * channel waiting its turn for the connection separately.
+   * 
+   * @see gov.usgs.volcanoes.swarm.data.SeismicDataSource#getWaves(java.util.Collection, double,
+   *      double)
+   */
+  @Override
+  public Map<String, Wave> getWaves(Collection<String> channels, double t1, double t2) {
+    return getWaves(channels, t1, t2, new WaveBatchFetcher() {
+      public Map<String, List<Wave>> fetch(Map<String, List<double[]>> spans) {
+        final Map<String, List<CompletableFuture<Wave>>> requests =
+            new HashMap<String, List<CompletableFuture<Wave>>>();
+        for (final Map.Entry<String, List<double[]>> entry : spans.entrySet()) {
+          final List<CompletableFuture<Wave>> list = new ArrayList<CompletableFuture<Wave>>();
+          for (final double[] span : entry.getValue()) {
+            list.add(requestWave(entry.getKey(), span[0], span[1]));
+          }
+          requests.put(entry.getKey(), list);
+        }
+
+        final Map<String, List<Wave>> waves = new HashMap<String, List<Wave>>();
+        for (final Map.Entry<String, List<double[]>> entry : spans.entrySet()) {
+          final List<Wave> parts = new ArrayList<Wave>();
+          final List<double[]> list = entry.getValue();
+          for (int i = 0; i < list.size(); i++) {
+            final double[] span = list.get(i);
+            final Wave wave = fetchWave(entry.getKey(), span[0], span[1],
+                requests.get(entry.getKey()).get(i));
+            if (wave != null) {
+              parts.add(wave);
+            }
+          }
+          waves.put(entry.getKey(), parts);
+        }
+        return waves;
+      }
+    });
+  }
+
+  /**
+   * Get wave from the server, bypassing the cache.
+   * 
+   * @param station channel
+   * @param t1 start time
+   * @param t2 end time
+   * @return wave or null if the server has none
+   */
+  private Wave fetchWave(String station, double t1, double t2) {
+    return fetchWave(station, t1, t2, requestWave(station, t1, t2));
+  }
+
+  /**
+   * Get wave from the server, given a pipelined request for it if there is one.
+   * 
+   * @param station channel
+   * @param t1 start time
+   * @param t2 end time
+   * @param request pipelined request, or null to use the blocking client
+   * @return wave or null if the server has none
+   */
+  private Wave fetchWave(String station, double t1, double t2,
+      CompletableFuture<Wave> request) {
     Wave wave = null;
-    if (useCache) {
-      CachedDataSource cache = CachedDataSource.getInstance();
-      wave = cache.getWave(station, t1, t2);
+    boolean done = false;
+    if (request != null) {
+      try {
+        wave = request.get();
+        done = true;
+      } catch (ExecutionException e) {
+        System.err.println("WWSSource.getWave: pipelined request failed, retrying: "
+            + e.getCause());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return null;
+      }
     }
-    if (wave == null) {
+
+    if (!done) {
       String delimiter = station.indexOf("$") == -1 ? " " : "$";
-      Scnl scnl;
       try {
-        scnl = Scnl.parse(station, delimiter);
+        Scnl scnl = Scnl.parse(station, delimiter);
         TimeSpan timeSpan = TimeSpan.fromJ2kSec(t1, t2);
-        wave = winstonClient.getWave(scnl, timeSpan, compress);
+        synchronized (this) {
+          wave = winstonClient.getWave(scnl, timeSpan, compress);
+        }
       } catch (UtilException e) {
         System.err.println("WWSSource.getWave: Cannot parse station " + station);
       }
+    }
 
-      if (wave == null) {
-        return null;
-      }
-
+    if (wave != null) {
       wave.register();
-      if (useCache) {
-        CachedDataSource cache = CachedDataSource.getInstance();
-        cache.putWave(station, wave);
-      }
     }
     return wave;
   }
 
+  /**
+   * Start a pipelined request for a wave.
+   * 
+   * @return request, or null if not pipelining
+   */
+  private CompletableFuture<Wave> requestWave(String station, double t1, double t2) {
+    if (!SwarmConfig.getInstance().pipelineWaveServers) {
+      return null;
+    }
+    String[] ss = splitScnl(station);
+    return WaveServerClient.getInstance(server, port, timeout).getWaveRaw(ss[0], ss[1], ss[2],
+        ss[3], t1, t2, compress);
+  }
+
+  /**
+   * Split a channel into station, channel, network and location, with "--" for no location.
+   */
+  private static String[] splitScnl(String station) {
+    String[] ss = station.split(station.indexOf("$") == -1 ? " " : "\\$");
+    String[] scnl = {ss[0], ss.length > 1 ? ss[1] : "", ss.length > 2 ? ss[2] : "", "--"};
+    if (ss.length > 3) {
+      scnl[3] = ss[3];
+    }
+    return scnl;
+  }
+
   /**
    * Get RSAM data.
    * 
@@ -178,12 +299,26 @@ public class WwsSource extends SeismicDataSource implements RsamSource {
    * @see gov.usgs.volcanoes.swarm.data.SeismicDataSource#getHelicorder(java.lang.String, double,
    *      double, gov.usgs.volcanoes.swarm.data.GulperListener)
    */
-  public synchronized HelicorderData getHelicorder(final String station, double t1, double t2,
+  public HelicorderData getHelicorder(final String station, double t1, double t2,
       GulperListener gl) {
+    return getHelicorder(station, t1, t2, gl, 1);
+  }
+
+  /**
+   * Get helicorder data at reduced resolution. Data already cached is summarized; data fetched from
+   * the server is returned at full resolution. Everything fetched is cached, so a refresh only
+   * asks the server for data newer than what it already has.
+   * 
+   * @see gov.usgs.volcanoes.swarm.data.SeismicDataSource#getHelicorder(java.lang.String, double,
+   *      double, gov.usgs.volcanoes.swarm.data.GulperListener, int)
+   */
+  @Override
+  public HelicorderData getHelicorder(final String station, double t1, double t2,
+      GulperListener gl, int resolution) {
 
     CachedDataSource cache = CachedDataSource.getInstance();
 
-    HelicorderData hd = cache.getHelicorder(station, t1, t2, this);
+    HelicorderData hd = cache.getHelicorder(station, t1, t2, this, resolution);
     if (hd == null) {
       String delimiter = station.indexOf("$") == -1 ? " " : "$";
 
@@ -196,8 +331,7 @@ public class WwsSource extends SeismicDataSource implements RsamSource {
         // fireHelicorderProgress(station, p);
         // }
         // });
-        TimeSpan timeSpan = TimeSpan.fromJ2kSec(t1, t2);
-        hd = winstonClient.getHelicorder(scnl, timeSpan, compress);
+        hd = fetchHelicorder(station, scnl, getHelicorderStart(station, t1), t2);
         // winstonClient.setReadListener(null);
         fireHelicorderProgress(station, 1.0);
       } catch (UtilException e) {
@@ -205,9 +339,14 @@ public class WwsSource extends SeismicDataSource implements RsamSource {
       }
 
       if (hd != null && hd.rows() != 0) {
-        HelicorderData noLatest = hd.subset(hd.getStartTime(), J2kSec.now() - 30);
-        if (noLatest != null && noLatest.rows() > 0) {
-          cache.putHelicorder(station, noLatest);
+        // cached rows are replaced, so the newest seconds are corrected by the next refresh
+        cache.putHelicorder(station, hd);
+        Double end = helicorderEnds.get(station);
+        if (end == null || hd.getEndTime() > end) {
+          helicorderEnds.put(station, hd.getEndTime());
+        }
+        if (hd.getStartTime() < t1) {
+          hd = hd.subset(t1, t2);
         }
       } else {
         hd = null;
@@ -216,6 +355,52 @@ public class WwsSource extends SeismicDataSource implements RsamSource {
     return hd;
   }
 
+  /**
+   * Where to start fetching helicorder data. A request starting near the end of the newest data
+   * fetched for a channel, as a refresh does once the cache holds everything older, starts a
+   * little before it instead, to replace seconds which were still filling in.
+   * 
+   * @param station channel
+   * @param t1 requested start time
+   * @return start time
+   */
+  private double getHelicorderStart(String station, double t1) {
+    Double end = helicorderEnds.get(station);
+    if (end != null && Math.abs(t1 - end) < TAIL_OVERLAP) {
+      return Math.min(t1, end - TAIL_OVERLAP);
+    }
+    return t1;
+  }
+
+  /**
+   * Get helicorder data from the server, pipelined if allowed.
+   * 
+   * @param station channel
+   * @param scnl parsed channel
+   * @param t1 start time
+   * @param t2 end time
+   * @return helicorder data or null if the server has none
+   */
+  private HelicorderData fetchHelicorder(String station, Scnl scnl, double t1, double t2) {
+    if (SwarmConfig.getInstance().pipelineWaveServers) {
+      String[] ss = splitScnl(station);
+      try {
+        return WaveServerClient.getInstance(server, port, timeout)
+            .getHelicorder(ss[0], ss[1], ss[2], ss[3], t1, t2, compress).get();
+      } catch (ExecutionException e) {
+        System.err.println("WWSSource.getHelicorder: pipelined request failed, retrying: "
+            + e.getCause());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return null;
+      }
+    }
+    TimeSpan timeSpan = TimeSpan.fromJ2kSec(t1, t2);
+    synchronized (this) {
+      return winstonClient.getHelicorder(scnl, timeSpan, compress);
+    }
+  }
+
   /**
    * Get list of channels.
    * 
@@ -5,6 +5,8 @@ import java.io.BufferedInputStream;
 import java.io.DataInputStream;
 import java.io.EOFException;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.text.SimpleDateFormat;
@@ -115,6 +117,30 @@ public class DataSelectReader extends StringMSeedQueryReader {
     return query;
   }
 
+  /**
+   * Create one line of a POST request, asking for one channel over one span. All arguments must
+   * be provided.
+   * 
+   * @param network the network.
+   * @param station the station.
+   * @param location the location or empty for the empty location code.
+   * @param channel the channel.
+   * @param begin the begin date.
+   * @param end the end date.
+   * @return the request line.
+   * @see #readPost(List, List)
+   */
+  public String createPostLine(String network, String station, String location, String channel,
+      Date begin, Date end) {
+    if (location == null || location.trim().length() == 0) {
+      location = WebServiceUtils.EMPTY_LOC_CODE;
+    }
+    SimpleDateFormat longFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss");
+    longFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
+    return network + " " + station + " " + location + " " + channel + " "
+        + longFormat.format(begin) + " " + longFormat.format(end);
+  }
+
   /**
    * Get the timeout in milliseconds.
    * 
@@ -184,9 +210,51 @@ public class DataSelectReader extends StringMSeedQueryReader {
     }
     conn.setRequestProperty("User-Agent", userAgent);
     conn.connect();
+    return read(conn, requestUrl, records);
+  }
+
+  /**
+   * Read the data records for a POST request, which asks for any number of channels and spans
+   * in one round trip.
+   * 
+   * @param lines the request lines, one per channel and span.
+   * @param records the data record list or null if none.
+   * @return the data record list.
+   * @throws IOException if an I/O exception occurs.
+   * @throws SeisFileException if not OK repsonse code.
+   * @see #createPostLine(String, String, String, String, Date, Date)
+   */
+  public List<DataRecord> readPost(List<String> lines, List<DataRecord> records)
+      throws IOException, SeisFileException {
+    URL requestUrl = new URL(urlBase);
+    HttpURLConnection conn = (HttpURLConnection) requestUrl.openConnection();
+    if (timeoutMillis != 0) {
+      conn.setReadTimeout(timeoutMillis);
+    }
+    conn.setRequestProperty("User-Agent", userAgent);
+    conn.setRequestProperty("Content-Type", "text/plain");
+    conn.setRequestMethod("POST");
+    conn.setDoOutput(true);
+    Writer out = new OutputStreamWriter(conn.getOutputStream(), "US-ASCII");
+    try {
+      for (String line : lines) {
+        out.write(line);
+        out.write('\n');
+      }
+    } finally {
+      out.close();
+    }
+    return read(conn, requestUrl, records);
+  }
+
+  /**
+   * Read the data records from a connection.
+   */
+  private List<DataRecord> read(HttpURLConnection conn, URL requestUrl, List<DataRecord> records)
+      throws IOException, SeisFileException {
     if (conn.getResponseCode() != 200) {
-      if (conn.getResponseCode() == 404) {
-        LOGGER.info("reponse code 404, no data");
+      if (conn.getResponseCode() == 204 || conn.getResponseCode() == 404) {
+        LOGGER.info("reponse code {}, no data", conn.getResponseCode());
         return records;
       } else {
         throw new SeisFileException("Did not get an OK repsonse code (code="
@@ -1,14 +1,18 @@
 package gov.usgs.volcanoes.swarm.data.fdsnws;
 
 import gov.usgs.volcanoes.core.data.Wave;
+import gov.usgs.volcanoes.swarm.ChannelGroupInfo;
 import gov.usgs.volcanoes.swarm.ChannelInfo;
 import gov.usgs.volcanoes.swarm.SwarmConfig;
 import gov.usgs.volcanoes.swarm.data.SeismicDataSource;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import edu.sc.seis.seisFile.mseed.DataHeader;
 import edu.sc.seis.seisFile.mseed.DataRecord;
 
 public class WebServicesClient extends AbstractDataRecordClient {
@@ -216,6 +220,93 @@ public class WebServicesClient extends AbstractDataRecordClient {
     return wave;
   }
 
+  /**
+   * Get the raw data for several channels with one POST request.
+   * 
+   * @param spans the {start, end} spans to get for each channel.
+   * @return the waves for each channel, one per span with data.
+   */
+  public Map<String, List<Wave>> getRawData(final Map<String, List<double[]>> spans) {
+    final Map<String, String> channels = new HashMap<String, String>();
+    final Map<String, List<List<Wave>>> parts = new HashMap<String, List<List<Wave>>>();
+    final DataSelectReader reader = new DataSelectReader(wsDataSelectUrl, 10000) {
+      /**
+       * Process a data record.
+       * 
+       * @param dr the data record.
+       * @return true if data record should be added to the list, false otherwise.
+       */
+      public boolean processRecord(DataRecord dr) {
+        final DataHeader dh = dr.getHeader();
+        final String channel = channels.get(getRecordKey(dh.getNetworkCode(),
+            dh.getStationIdentifier(), dh.getLocationIdentifier(), dh.getChannelIdentifier()));
+        if (channel == null) {
+          return true;
+        }
+        try {
+          final List<double[]> channelSpans = spans.get(channel);
+          for (Wave wave : addWaves(createWaves(), dr)) {
+            for (int i = 0; i < channelSpans.size(); i++) {
+              if (wave.overlaps(channelSpans.get(i)[0], channelSpans.get(i)[1])) {
+                parts.get(channel).get(i).add(wave);
+                break;
+              }
+            }
+          }
+        } catch (Exception ex) {
+          LOGGER.warn("could not get web service raw data ({}): {}", channel, ex.getMessage());
+        }
+        return true;
+      }
+    };
+
+    final List<String> lines = new ArrayList<String>();
+    for (Map.Entry<String, List<double[]>> entry : spans.entrySet()) {
+      final ChannelInfo channelInfo = new ChannelGroupInfo(entry.getKey());
+      channels.put(getRecordKey(channelInfo.getNetwork(), channelInfo.getStation(),
+          channelInfo.getLocation(), channelInfo.getChannel()), entry.getKey());
+      final List<List<Wave>> channelParts = new ArrayList<List<Wave>>();
+      for (double[] span : entry.getValue()) {
+        lines.add(reader.createPostLine(channelInfo.getNetwork(), channelInfo.getStation(),
+            channelInfo.getLocation(), channelInfo.getChannel(), getDate(span[0]),
+            getDate(span[1])));
+        channelParts.add(createWaves());
+      }
+      parts.put(entry.getKey(), channelParts);
+    }
+    try {
+      reader.readPost(lines, (List<DataRecord>) null);
+    } catch (Exception ex) {
+      LOGGER.warn("could not get web service raw data ({} channels): {}", spans.size(),
+          ex.getMessage());
+    }
+
+    final Map<String, List<Wave>> waves = new HashMap<String, List<Wave>>();
+    for (Map.Entry<String, List<List<Wave>>> entry : parts.entrySet()) {
+      final List<Wave> joined = createWaves();
+      for (List<Wave> part : entry.getValue()) {
+        final Wave wave = join(part);
+        if (wave != null) {
+          joined.add(wave);
+        }
+      }
+      waves.put(entry.getKey(), joined);
+    }
+    return waves;
+  }
+
+  /**
+   * Get the key matching a data record to a requested channel. Codes in record headers are
+   * padded with spaces, and an empty location may be written either way.
+   */
+  private static String getRecordKey(String net, String sta, String loc, String chan) {
+    loc = loc == null ? "" : loc.trim();
+    if (loc.equals(WebServiceUtils.EMPTY_LOC_CODE)) {
+      loc = "";
+    }
+    return net.trim() + "." + sta.trim() + "." + loc + "." + chan.trim();
+  }
+
   /**
    * Retrieve a single waveform without providing full SDS functions.
    * 
@@ -5,14 +5,21 @@ import gov.usgs.volcanoes.core.data.Wave;
 import gov.usgs.volcanoes.core.time.J2kSec;
 import gov.usgs.volcanoes.swarm.ChannelGroupInfo;
 import gov.usgs.volcanoes.swarm.ChannelInfo;
+import gov.usgs.volcanoes.swarm.data.AsyncFetch;
 import gov.usgs.volcanoes.swarm.data.CachedDataSource;
 import gov.usgs.volcanoes.swarm.data.DataSourceType;
 import gov.usgs.volcanoes.swarm.data.Gulper;
 import gov.usgs.volcanoes.swarm.data.GulperList;
 import gov.usgs.volcanoes.swarm.data.GulperListener;
 import gov.usgs.volcanoes.swarm.data.SeismicDataSource;
+import gov.usgs.volcanoes.swarm.data.WaveBatchFetcher;
+import gov.usgs.volcanoes.swarm.data.WaveFetcher;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -188,15 +195,21 @@ public class WebServicesSource extends SeismicDataSource {
    * @param gl the gulper listener.
    * @return the helicorder data or null if none.
    */
-  public synchronized HelicorderData getHelicorder(String station, double t1, double t2,
+  public HelicorderData getHelicorder(String station, double t1, double t2,
       GulperListener gl) {
+    return getHelicorder(station, t1, t2, gl, 1);
+  }
+
+  @Override
+  public synchronized HelicorderData getHelicorder(String station, double t1, double t2,
+      GulperListener gl, int resolution) {
 
     double now = J2kSec.now();
     
     
     CachedDataSource cache = CachedDataSource.getInstance();
 
-    HelicorderData hd = cache.getHelicorder(station, t1, t2, (GulperListener) null);
+    HelicorderData hd = cache.getHelicorder(station, t1, t2, (GulperListener) null, resolution);
 
     if (hd == null || hd.rows() == 0 || (hd.getStartTime() - t1 > 10)) {
       GulperList.INSTANCE.requestGulper(getGulperKey(station), gl, this, station, t1, t2, gulpSize,
@@ -220,23 +233,77 @@ public class WebServicesSource extends SeismicDataSource {
    * @param t2 the end time.
    * @return the wave or null if none.
    */
-  public synchronized Wave getWave(String station, double t1, double t2) {
-    CachedDataSource cache = CachedDataSource.getInstance();
+  public Wave getWave(final String station, double t1, double t2) {
+    return getWave(station, t1, t2, new WaveFetcher() {
+      public Wave fetch(double t1, double t2) {
+        return fetchWave(station, t1, t2);
+      }
+    });
+  }
 
-    Wave sw = null;
-    if (useCache) {
-      sw = cache.getWave(station, t1, t2);
-    }
-    if (sw == null) {
-      ChannelInfo channelInfo = new ChannelGroupInfo(station);
-      sw = client.getRawData(channelInfo, t1, t2);
-      if (sw == null) {
-        return null;
+  /**
+   * Get waves for several channels. What's missing from the cache for every channel is asked
+   * for in one dataselect POST request.
+   * 
+   * @see gov.usgs.volcanoes.swarm.data.SeismicDataSource#getWaves(java.util.Collection, double,
+   *      double)
+   */
+  @Override
+  public Map<String, Wave> getWaves(Collection<String> channels, double t1, double t2) {
+    return getWaves(channels, t1, t2, new WaveBatchFetcher() {
+      public Map<String, List<Wave>> fetch(Map<String, List<double[]>> spans) {
+        final Map<String, List<Wave>> waves = client.getRawData(spans);
+        if (useCache) {
+          for (Map.Entry<String, List<Wave>> entry : waves.entrySet()) {
+            for (Wave wave : entry.getValue()) {
+              CachedDataSource.getInstance().cacheWaveAsHelicorder(entry.getKey(), wave);
+            }
+          }
+        }
+        return waves;
+      }
+    });
+  }
+
+  /**
+   * Get a wave without blocking. Each request to the web service is a separate HTTP request, so
+   * asynchronous requests don't queue behind one another for this source's lock; the cache
+   * still keeps overlapping requests from fetching the same data twice.
+   * 
+   * @see gov.usgs.volcanoes.swarm.data.SeismicDataSource#getWaveAsync(java.lang.String, double,
+   *      double)
+   */
+  @Override
+  public CompletableFuture<Wave> getWaveAsync(final String station, final double t1,
+      final double t2) {
+    final WaveFetcher fetcher = new WaveFetcher() {
+      public Wave fetch(double t1, double t2) {
+        return fetchWave(station, t1, t2);
       }
-      if (useCache) {
-        cache.cacheWaveAsHelicorder(station, sw);
-        cache.putWave(station, sw);
+    };
+    return AsyncFetch.supply(new Callable<Wave>() {
+      public Wave call() {
+        if (!useCache) {
+          return fetcher.fetch(t1, t2);
+        }
+        return CachedDataSource.getInstance().getWave(station, t1, t2, fetcher);
       }
+    });
+  }
+
+  /**
+   * Get wave from the web service, bypassing the cache.
+   * 
+   * @param station channel
+   * @param t1 start time
+   * @param t2 end time
+   * @return wave or null if the service has none
+   */
+  private Wave fetchWave(String station, double t1, double t2) {
+    ChannelInfo channelInfo = new ChannelGroupInfo(station);
+    Wave sw = client.getRawData(channelInfo, t1, t2);
+    if (sw != null && useCache) {
+      CachedDataSource.getInstance().cacheWaveAsHelicorder(station, sw);
     }
     return sw;
   }
@@ -250,6 +317,11 @@ public class WebServicesSource extends SeismicDataSource {
     return true;
   }
 
+  @Override
+  public boolean canPrefetchHelicorders() {
+    return false;
+  }
+
   public synchronized void notifyDataNotNeeded(String station, double t1, double t2,
       GulperListener gl) {
     GulperList.INSTANCE.killGulper(getGulperKey(station), gl);
@@ -13,6 +13,8 @@ import gov.usgs.volcanoes.swarm.data.CachedDataSource;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.TimeZone;
@@ -69,9 +71,23 @@ public class SeedLinkClient implements Runnable {
    * @param scnl channel to get
    */
   public SeedLinkClient(String host, int port, double startTime, double endTime, String scnl) {
+    this(host, port, startTime, endTime, Collections.singleton(scnl));
+  }
+
+  /**
+   * Create SeedLink client with several channels sharing one time window.
+   * 
+   * @param host seedlink server host
+   * @param port seedlink server port
+   * @param startTime data request start time
+   * @param endTime data request end time
+   * @param scnls channels to get
+   */
+  public SeedLinkClient(String host, int port, double startTime, double endTime,
+      Collection<String> scnls) {
     super();
     sladdr = host + ":" + port;
-    scnlList.add(scnl);
+    scnlList.addAll(scnls);
     createConnection();
     setStartEndTimes(startTime, endTime);
     // slconn.setLastpkttime(true);
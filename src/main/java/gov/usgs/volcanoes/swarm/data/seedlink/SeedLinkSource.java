@@ -1,13 +1,16 @@
 package gov.usgs.volcanoes.swarm.data.seedlink;
 
 import gov.usgs.volcanoes.core.data.HelicorderData;
+import gov.usgs.volcanoes.core.data.RSAMData;
 import gov.usgs.volcanoes.core.data.Wave;
 import gov.usgs.volcanoes.core.time.J2kSec;
 import gov.usgs.volcanoes.swarm.ChannelUtil;
+import gov.usgs.volcanoes.swarm.data.AsyncFetch;
 import gov.usgs.volcanoes.swarm.data.CachedDataSource;
 import gov.usgs.volcanoes.swarm.data.DataSourceType;
 import gov.usgs.volcanoes.swarm.data.GulperListener;
 import gov.usgs.volcanoes.swarm.data.SeismicDataSource;
+import gov.usgs.volcanoes.swarm.data.WaveView;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileWriter;
@@ -15,9 +18,16 @@ import java.io.IOException;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -47,6 +57,12 @@ public class SeedLinkSource extends SeismicDataSource {
   /** SeedLink client for real time updates. */
   private SeedLinkClient realtimeClient = null;
 
+  /** Longest wait for past data to arrive, in ms. */
+  private static final long DATA_WAIT = 10 * 1000;
+
+  /** How often to check whether past data has arrived, in ms. */
+  private static final long POLL_INTERVAL = 250;
+
   /** SeedLink clients for past data. */
   private ConcurrentHashMap<String, SeedLinkClient> clients =
       new ConcurrentHashMap<String, SeedLinkClient>();
@@ -179,31 +195,58 @@ public class SeedLinkSource extends SeismicDataSource {
    * @param gl the gulper listener.
    * @return the helicorder data or null if none.
    */
-  public synchronized HelicorderData getHelicorder(String scnl, double t1, double t2,
+  public HelicorderData getHelicorder(String scnl, double t1, double t2,
       GulperListener gl) {
+    return getHelicorder(scnl, t1, t2, gl, 1);
+  }
+
+  @Override
+  public HelicorderData getHelicorder(String scnl, double t1, double t2,
+      GulperListener gl, int resolution) {
+    return getHelicorderAsync(scnl, t1, t2, gl, resolution).join();
+  }
+
+  /**
+   * Get helicorder data without blocking. Missing past data is asked for and the future
+   * completes once it has streamed into the cache, or after <code>DATA_WAIT</code> if the
+   * server is still sending, without a thread waiting in the meantime.
+   * 
+   * @see gov.usgs.volcanoes.swarm.data.SeismicDataSource#getHelicorderAsync(java.lang.String,
+   *      double, double, gov.usgs.volcanoes.swarm.data.GulperListener, int)
+   */
+  @Override
+  public CompletableFuture<HelicorderData> getHelicorderAsync(String scnl, final double t1,
+      double t2, final GulperListener gl, final int resolution) {
     LOGGER.debug("getHelicorder: {} {} {}", scnl, J2kSec.toDateString(t1), J2kSec.toDateString(t2));
-    scnl = scnl.replace(" ", "$"); // just to be sure
-    startRealtimeClient(scnl);
+    final String channel = scnl.replace(" ", "$"); // just to be sure
+    startRealtimeClient(channel);
     
-    CachedDataSource cache = CachedDataSource.getInstance();
+    final CachedDataSource cache = CachedDataSource.getInstance();
 
-    HelicorderData hd = cache.getHelicorder(scnl, t1, t2, gl);
+    HelicorderData hd = cache.getHelicorder(channel, t1, t2, gl, resolution);
     
+    SeedLinkClient client = null;
     if (hd == null || hd.rows()==0) { // no wave; go get all
       double now = J2kSec.now();
       t2 = Math.min(now, t2);
-      getData(scnl, t1, t2);
-      hd = cache.getHelicorder(scnl, t1, t2, gl);
+      client = getData(channel, t1, t2);
     } 
     else {
       double startDiff = hd.getStartTime() - t1;
       if (startDiff > 1) {
-        getData(scnl, t1, hd.getStartTime()); // get older stuff
-        hd = cache.getHelicorder(scnl, t1, t2, gl);
+        client = getData(channel, t1, hd.getStartTime()); // get older stuff
       }
     }
-     
-    return hd;
+    if (client == null) {
+      return CompletableFuture.completedFuture(hd);
+    }
+
+    final double end = t2;
+    return awaitData(client, new Callable<HelicorderData>() {
+      public HelicorderData call() {
+        return cache.getHelicorder(channel, t1, end, gl, resolution);
+      }
+    }, null);
   }
 
 
@@ -216,26 +259,136 @@ public class SeedLinkSource extends SeismicDataSource {
    * @return the wave or null if none.
    */
   public Wave getWave(String scnl, double t1, double t2) {
+    return getWaveAsync(scnl, t1, t2).join();
+  }
+
+  /**
+   * Get a wave without blocking.
+   * 
+   * @see #getHelicorderAsync(String, double, double, GulperListener, int)
+   */
+  @Override
+  public CompletableFuture<Wave> getWaveAsync(String scnl, final double t1, final double t2) {
     LOGGER.trace("getWave: {} {} {}", scnl, J2kSec.toDateString(t1), J2kSec.toDateString(t2));
-    scnl = scnl.replace(" ", "$"); // just to be sure
-    startRealtimeClient(scnl);
+    final String channel = scnl.replace(" ", "$"); // just to be sure
+    startRealtimeClient(channel);
 
-    Wave wave = CachedDataSource.getInstance().getBestWave(scnl, t1, t2);
-    
-    if (wave == null) {
-      double now = J2kSec.now();
-      t2 = Math.min(now, t2);
-      getData(scnl, t1, t2); // no wave; go get all
-      wave = CachedDataSource.getInstance().getBestWave(scnl, t1, t2);
-    } else {
-      double startDiff = wave.getStartTime() - t1;
-      if (startDiff > 1) {
-        getData(scnl, t1, wave.getStartTime()); // get older stuff
-        wave = CachedDataSource.getInstance().getBestWave(scnl, t1, t2);
+    final CachedDataSource cache = CachedDataSource.getInstance();
+    Wave wave = cache.getBestWave(channel, t1, t2);
+
+    // data after the newest cached sample is left to the real-time client
+    double end = Math.min(J2kSec.now(), t2);
+    if (wave != null) {
+      end = Math.min(end, wave.getEndTime());
+    }
+
+    // one client fetches past data per channel, so ask for one span covering every gap
+    final List<double[]> gaps = cache.claimGaps(channel, t1, end);
+    if (gaps.isEmpty()) {
+      return CompletableFuture.completedFuture(wave);
+    }
+    final SeedLinkClient client;
+    try {
+      client = getData(channel, gaps.get(0)[0], gaps.get(gaps.size() - 1)[1]);
+    } catch (RuntimeException e) {
+      cache.releaseGaps(channel, gaps, false);
+      throw e;
+    }
+    return awaitData(client, new Callable<Wave>() {
+      public Wave call() {
+        return cache.getBestWave(channel, t1, t2);
+      }
+    }, new Consumer<Boolean>() {
+      public void accept(Boolean complete) {
+        cache.releaseGaps(channel, gaps, complete);
+      }
+    });
+  }
+
+  /**
+   * Get waves for several channels. Past data missing for any of them is asked for with one
+   * client selecting every such channel over one time window.
+   * 
+   * @see gov.usgs.volcanoes.swarm.data.SeismicDataSource#getWaves(java.util.Collection, double,
+   *      double)
+   */
+  @Override
+  public Map<String, Wave> getWaves(Collection<String> scnls, double t1, double t2) {
+    final CachedDataSource cache = CachedDataSource.getInstance();
+    final Map<String, List<double[]>> claimed = new LinkedHashMap<String, List<double[]>>();
+    double start = Double.MAX_VALUE;
+    double end = -Double.MAX_VALUE;
+    for (String scnl : scnls) {
+      String channel = scnl.replace(" ", "$");
+      startRealtimeClient(channel);
+
+      // data after the newest cached sample is left to the real-time client
+      double channelEnd = Math.min(J2kSec.now(), t2);
+      Wave wave = cache.getBestWave(channel, t1, t2);
+      if (wave != null) {
+        channelEnd = Math.min(channelEnd, wave.getEndTime());
+      }
+      List<double[]> gaps = cache.claimGaps(channel, t1, channelEnd);
+      if (!gaps.isEmpty()) {
+        claimed.put(channel, gaps);
+        start = Math.min(start, gaps.get(0)[0]);
+        end = Math.max(end, gaps.get(gaps.size() - 1)[1]);
       }
     }
 
-    return wave;
+    if (!claimed.isEmpty()) {
+      final Consumer<Boolean> release = new Consumer<Boolean>() {
+        public void accept(Boolean complete) {
+          for (Map.Entry<String, List<double[]>> entry : claimed.entrySet()) {
+            cache.releaseGaps(entry.getKey(), entry.getValue(), complete);
+          }
+        }
+      };
+      SeedLinkClient client;
+      try {
+        LOGGER.debug("getWaves: {} channels {} {}", claimed.size(), J2kSec.toDateString(start),
+            J2kSec.toDateString(end));
+        client = new SeedLinkClient(host, port, start, end, claimed.keySet());
+        client.start();
+      } catch (RuntimeException e) {
+        release.accept(false);
+        throw e;
+      }
+      awaitData(client, new Callable<Void>() {
+        public Void call() {
+          return null;
+        }
+      }, release).join();
+    }
+
+    Map<String, Wave> waves = new LinkedHashMap<String, Wave>();
+    for (String scnl : scnls) {
+      waves.put(scnl, cache.getBestWave(scnl.replace(" ", "$"), t1, t2));
+    }
+    return waves;
+  }
+
+  /**
+   * Get RSAM computed from streamed data.
+   * 
+   * @see gov.usgs.volcanoes.swarm.data.SeismicDataSource#getRsam(java.lang.String, double,
+   *      double, int)
+   */
+  @Override
+  public RSAMData getRsam(String scnl, double t1, double t2, int period) {
+    return super.getRsam(scnl.replace(" ", "$"), t1, t2, period);
+  }
+
+  /**
+   * Get a view of streamed data. Real-time data is written to the cache as it arrives, so once
+   * the client is running recent data is usually there in full.
+   * 
+   * @see gov.usgs.volcanoes.swarm.data.SeismicDataSource#getWaveView(java.lang.String, double,
+   *      double)
+   */
+  @Override
+  public WaveView getWaveView(String scnl, double t1, double t2) {
+    return CachedDataSource.getInstance().getWaveView(scnl.replace(" ", "$"), t1, t2);
   }
 
   /**
@@ -259,8 +412,9 @@ public class SeedLinkSource extends SeismicDataSource {
    * @param scnl channel
    * @param t1 start time
    * @param t2 end time
+   * @return the client fetching the data
    */
-  private void getData(String scnl, double t1, double t2) {
+  private synchronized SeedLinkClient getData(String scnl, double t1, double t2) {
     SeedLinkClient client = clients.get(scnl);
 
     if (client == null) {
@@ -277,14 +431,48 @@ public class SeedLinkSource extends SeismicDataSource {
     } else {
       client.setStartEndTimes(t1, t2);
     }
+    return client;
+  }
 
-    // wait about 10 seconds for some data to come back
-    try {
-      Thread.sleep(10000);
-    } catch (InterruptedException e) {
-      //
-    }
-
+  /**
+   * Complete a future once a client has stopped sending past data, or after
+   * <code>DATA_WAIT</code> if it hasn't. The client is checked on a shared timer rather than by
+   * a waiting thread.
+   * 
+   * @param client client fetching past data
+   * @param result gets the result from the cache
+   * @param done told whether the wait ran its course when the future completes, however it
+   *     completes; may be null
+   * @return future result
+   */
+  private <T> CompletableFuture<T> awaitData(final SeedLinkClient client,
+      final Callable<T> result, final Consumer<Boolean> done) {
+    final CompletableFuture<T> future = new CompletableFuture<T>();
+    final long deadline = System.currentTimeMillis() + DATA_WAIT;
+    AsyncFetch.schedule(new Runnable() {
+      public void run() {
+        if (future.isDone()) {
+          return;
+        }
+        if (client.isRunning() && System.currentTimeMillis() < deadline) {
+          AsyncFetch.schedule(this, POLL_INTERVAL);
+          return;
+        }
+        try {
+          future.complete(result.call());
+        } catch (Exception e) {
+          future.completeExceptionally(e);
+        }
+      }
+    }, POLL_INTERVAL);
+    future.whenComplete(new BiConsumer<T, Throwable>() {
+      public void accept(T value, Throwable e) {
+        if (done != null) {
+          done.accept(e == null);
+        }
+      }
+    });
+    return future;
   }
 
   /**
@@ -297,6 +485,16 @@ public class SeedLinkSource extends SeismicDataSource {
     return true;
   }
 
+  /**
+   * Helicorders are fed by the real-time client, which shouldn't be started for prefetching.
+   * 
+   * @see gov.usgs.volcanoes.swarm.data.SeismicDataSource#canPrefetchHelicorders()
+   */
+  @Override
+  public boolean canPrefetchHelicorders() {
+    return false;
+  }
+
   /**
    * Notify client that a station is no longer needed.
    * 
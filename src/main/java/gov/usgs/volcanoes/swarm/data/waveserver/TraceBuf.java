@@ -0,0 +1,84 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0 Universal
+ * public domain dedication. https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data.waveserver;
+
+import gov.usgs.volcanoes.core.data.Wave;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the Earthworm TRACEBUF2 packets a wave server sends in reply to a raw data request.
+ *
+ * <p>
+ * Each packet is a 64 byte header followed by its samples. The header's data type says how wide
+ * the samples are and in which byte order the whole packet is written: <code>s</code> and
+ * <code>t</code> for big-endian integers and floats, <code>i</code> and <code>f</code> for
+ * little-endian ones.
+ */
+final class TraceBuf {
+
+  private static final int HEADER_SIZE = 64;
+  private static final int DATATYPE_OFFSET = 57;
+
+  private TraceBuf() {}
+
+  /**
+   * Read packets into one wave, with gaps between packets filled with no data.
+   *
+   * @param body packets, back to back
+   * @return wave with start time in epoch seconds, or null if there are no samples
+   */
+  static Wave read(final byte[] body) {
+    final ByteBuffer buffer = ByteBuffer.wrap(body);
+    final List<Wave> packets = new ArrayList<Wave>();
+    while (buffer.remaining() >= HEADER_SIZE) {
+      final int start = buffer.position();
+      final char type = (char) body[start + DATATYPE_OFFSET];
+      final int width = body[start + DATATYPE_OFFSET + 1] - '0';
+      buffer.order(type == 's' || type == 't' ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+
+      buffer.getInt(); // pin number
+      final int count = buffer.getInt();
+      final double startTime = buffer.getDouble();
+      buffer.getDouble(); // end time
+      final double samplingRate = buffer.getDouble();
+      buffer.position(start + HEADER_SIZE);
+      if (count < 0 || width <= 0 || buffer.remaining() < count * width) {
+        throw new IllegalArgumentException("Malformed TRACEBUF2 packet");
+      }
+
+      final boolean floating = type == 't' || type == 'f';
+      final int[] samples = new int[count];
+      for (int i = 0; i < count; i++) {
+        samples[i] = readSample(buffer, width, floating);
+      }
+      packets.add(new Wave(samples, startTime, samplingRate));
+    }
+
+    if (packets.isEmpty()) {
+      return null;
+    }
+    return packets.size() == 1 ? packets.get(0) : Wave.join(packets);
+  }
+
+  private static int readSample(final ByteBuffer buffer, final int width, final boolean floating) {
+    if (floating) {
+      return (int) Math.round(width == 8 ? buffer.getDouble() : buffer.getFloat());
+    }
+    switch (width) {
+      case 2:
+        return buffer.getShort();
+      case 4:
+        return buffer.getInt();
+      case 8:
+        return (int) buffer.getLong();
+      default:
+        throw new IllegalArgumentException("Unsupported TRACEBUF2 sample size " + width);
+    }
+  }
+}
@@ -0,0 +1,555 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0 Universal
+ * public domain dedication. https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data.waveserver;
+
+import gov.usgs.volcanoes.core.data.HelicorderData;
+import gov.usgs.volcanoes.core.data.Wave;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.handler.codec.string.StringEncoder;
+import io.netty.handler.timeout.IdleState;
+import io.netty.handler.timeout.IdleStateEvent;
+import io.netty.handler.timeout.IdleStateHandler;
+import io.netty.util.CharsetUtil;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.zip.InflaterInputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Non-blocking client for Earthworm wave servers and Winston wave servers.
+ *
+ * <p>
+ * Requests are written to a handful of connections without waiting for earlier replies, and
+ * servers answer each connection's requests in the order they were sent, so hundreds of
+ * requests can be outstanding over a few sockets. A new request goes to the connection with the
+ * fewest outstanding, and a further connection is opened only while all are busy. Replies are
+ * decoded as they arrive on a small set of shared I/O threads, and no thread waits on a socket.
+ *
+ * <p>
+ * A connection is closed, failing its outstanding requests, if it breaks or if nothing arrives
+ * for longer than the timeout while its oldest request has been waiting at least that long; the
+ * next request opens a fresh one. Connections left idle are closed after a while.
+ *
+ * <p>
+ * Earthworm requests take times in epoch seconds and return waves timed the same way; Winston
+ * requests use J2K seconds throughout.
+ */
+public class WaveServerClient {
+  private static final Logger LOGGER = LoggerFactory.getLogger(WaveServerClient.class);
+
+  /** most connections to one server. */
+  private static final int CONNECTIONS = 3;
+
+  /** idle connections are closed after this, in ms. */
+  private static final long IDLE_TIMEOUT = 30 * 1000;
+
+  /** longest reply header or line accepted. */
+  private static final int MAX_LINE = 64 * 1024;
+
+  private static final EventLoopGroup GROUP =
+      new NioEventLoopGroup(2, new DefaultThreadFactory("Wave server client", true));
+
+  private static final Map<String, WaveServerClient> CLIENTS =
+      new HashMap<String, WaveServerClient>();
+
+  private final String host;
+  private final int port;
+  private final int timeout;
+  private final Bootstrap bootstrap;
+  private final Connection[] connections;
+  private final AtomicLong requestId;
+
+  private WaveServerClient(final String host, final int port, final int timeout) {
+    this.host = host;
+    this.port = port;
+    this.timeout = timeout;
+    connections = new Connection[CONNECTIONS];
+    requestId = new AtomicLong();
+    bootstrap = new Bootstrap().group(GROUP).channel(NioSocketChannel.class)
+        .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, timeout)
+        .option(ChannelOption.TCP_NODELAY, true);
+  }
+
+  /**
+   * Get the client for a server. Sources using the same server with the same timeout share a
+   * client, and so its connections.
+   *
+   * @param host server host
+   * @param port server port
+   * @param timeout longest a connection may go without answering, in ms
+   * @return client
+   */
+  public static synchronized WaveServerClient getInstance(final String host, final int port,
+      final int timeout) {
+    final String key = host + ":" + port + ":" + timeout;
+    WaveServerClient client = CLIENTS.get(key);
+    if (client == null) {
+      client = new WaveServerClient(host, port, timeout);
+      CLIENTS.put(key, client);
+    }
+    return client;
+  }
+
+  /**
+   * Get raw data from an Earthworm wave server, with GETSCNLRAW, or GETSCNRAW if the server
+   * doesn't know locations.
+   *
+   * @param station station
+   * @param channel channel
+   * @param network network
+   * @param location location, or null for an SCN server
+   * @param t1 start time in epoch seconds
+   * @param t2 end time in epoch seconds
+   * @return wave timed in epoch seconds, or null if the server has none
+   */
+  public CompletableFuture<Wave> getScnlRaw(final String station, final String channel,
+      final String network, final String location, final double t1, final double t2) {
+    final String id = nextId();
+    final String scnl = location == null ? String.format("%s %s %s", station, channel, network)
+        : String.format("%s %s %s %s", station, channel, network, location);
+    final String command = String.format(Locale.US, "%s: %s %s %f %f\n",
+        location == null ? "GETSCNRAW" : "GETSCNLRAW", id, scnl, t1, t2);
+    return send(new Request<Wave>(id, command) {
+      @Override
+      int getLength(final String[] header) {
+        return getRawLength(header, location != null);
+      }
+
+      @Override
+      Wave parse(final String[] header, final List<String> lines, final byte[] body) {
+        return body.length == 0 ? null : TraceBuf.read(body);
+      }
+    });
+  }
+
+  /**
+   * Get the number of bytes of TRACEBUF2 packets following a GETSCNLRAW or GETSCNRAW reply
+   * header.
+   *
+   * @param header reply header, split into fields
+   * @param location whether the request named a location
+   * @return number of bytes, or 0 if the server has no data
+   */
+  static int getRawLength(final String[] header, final boolean location) {
+    // id, pin, scnl, flag, data type, start, end, bytes; any flag but F means no data
+    final int flag = location ? 6 : 5;
+    if (header.length > flag + 1 && header[flag].equals("F")) {
+      return Integer.parseInt(header[header.length - 1]);
+    }
+    return 0;
+  }
+
+  /**
+   * Get a wave from a Winston wave server, with GETWAVERAW.
+   *
+   * @param station station
+   * @param channel channel
+   * @param network network
+   * @param location location, or "--" for none
+   * @param t1 start time in J2K seconds
+   * @param t2 end time in J2K seconds
+   * @param compress whether the server should compress the reply
+   * @return wave or null if the server has none
+   */
+  public CompletableFuture<Wave> getWaveRaw(final String station, final String channel,
+      final String network, final String location, final double t1, final double t2,
+      final boolean compress) {
+    final String id = nextId();
+    return send(new WinstonRequest<Wave>(id,
+        winstonCommand("GETWAVERAW", id, station, channel, network, location, t1, t2, compress),
+        compress) {
+      @Override
+      Wave parse(final ByteBuffer data) {
+        final Wave wave = new Wave();
+        wave.fromBinary(data);
+        return wave;
+      }
+    });
+  }
+
+  /**
+   * Get helicorder data from a Winston wave server, with GETHELICORDER.
+   *
+   * @param station station
+   * @param channel channel
+   * @param network network
+   * @param location location, or "--" for none
+   * @param t1 start time in J2K seconds
+   * @param t2 end time in J2K seconds
+   * @param compress whether the server should compress the reply
+   * @return helicorder data or null if the server has none
+   */
+  public CompletableFuture<HelicorderData> getHelicorder(final String station,
+      final String channel, final String network, final String location, final double t1,
+      final double t2, final boolean compress) {
+    final String id = nextId();
+    return send(new WinstonRequest<HelicorderData>(id,
+        winstonCommand("GETHELICORDER", id, station, channel, network, location, t1, t2,
+            compress),
+        compress) {
+      @Override
+      HelicorderData parse(final ByteBuffer data) {
+        final HelicorderData hd = new HelicorderData();
+        hd.fromBinary(data);
+        return hd;
+      }
+    });
+  }
+
+  /**
+   * Get the channel list from a Winston wave server, with GETCHANNELS.
+   *
+   * @param metadata whether to include channel metadata
+   * @return one line per channel, in the server's format
+   */
+  public CompletableFuture<List<String>> getChannels(final boolean metadata) {
+    final String id = nextId();
+    final String command = "GETCHANNELS: " + id + (metadata ? " METADATA" : "") + "\n";
+    return send(new Request<List<String>>(id, command) {
+      @Override
+      int getLines(final String[] header) {
+        return header.length > 1 ? Integer.parseInt(header[1]) : 0;
+      }
+
+      @Override
+      List<String> parse(final String[] header, final List<String> lines, final byte[] body) {
+        return lines;
+      }
+    });
+  }
+
+  private String nextId() {
+    return "SW" + requestId.incrementAndGet();
+  }
+
+  private static String winstonCommand(final String name, final String id, final String station,
+      final String channel, final String network, final String location, final double t1,
+      final double t2, final boolean compress) {
+    return String.format(Locale.US, "%s: %s %s %s %s %s %f %f %s\n", name, id, station, channel,
+        network, location, t1, t2, compress ? "1" : "0");
+  }
+
+  /** Queue a request on the least busy connection. */
+  private <T> CompletableFuture<T> send(final Request<T> request) {
+    final Connection connection = pickConnection();
+    connection.outstanding.incrementAndGet();
+    request.future.whenComplete(new BiConsumer<T, Throwable>() {
+      public void accept(final T result, final Throwable e) {
+        connection.outstanding.decrementAndGet();
+      }
+    });
+    connection.connected.addListener(new ChannelFutureListener() {
+      public void operationComplete(final ChannelFuture f) {
+        if (!f.isSuccess()) {
+          request.future.completeExceptionally(f.cause());
+          return;
+        }
+        // runs on the connection's I/O thread, as does decoding, so the queue needs no lock
+        if (!f.channel().isActive()) {
+          request.future.completeExceptionally(new ClosedChannelException());
+          return;
+        }
+        request.sent = System.nanoTime();
+        connection.pending.add(request);
+        connection.scheduleCheck(f.channel(), TimeUnit.MILLISECONDS.toNanos(timeout));
+        f.channel().writeAndFlush(request.command)
+            .addListener(ChannelFutureListener.CLOSE_ON_FAILURE);
+      }
+    });
+    return request.future;
+  }
+
+  private synchronized Connection pickConnection() {
+    Connection best = null;
+    int free = -1;
+    for (int i = 0; i < connections.length; i++) {
+      final Connection c = connections[i];
+      if (c == null || c.isClosed()) {
+        connections[i] = null;
+        if (free < 0) {
+          free = i;
+        }
+      } else if (best == null || c.outstanding.get() < best.outstanding.get()) {
+        best = c;
+      }
+    }
+    if (free >= 0 && (best == null || best.outstanding.get() > 0)) {
+      best = new Connection();
+      connections[free] = best;
+    }
+    return best;
+  }
+
+  /** A request and the future its reply completes. */
+  private abstract static class Request<T> {
+    private final String id;
+    private final String command;
+    private final CompletableFuture<T> future;
+
+    /** when the request was written, from <code>System.nanoTime</code>. */
+    private long sent;
+
+    private Request(final String id, final String command) {
+      this.id = id;
+      this.command = command;
+      future = new CompletableFuture<T>();
+    }
+
+    /** Number of binary bytes following the header. */
+    int getLength(final String[] header) {
+      return 0;
+    }
+
+    /** Number of lines following the header. */
+    int getLines(final String[] header) {
+      return 0;
+    }
+
+    abstract T parse(String[] header, List<String> lines, byte[] body) throws IOException;
+
+    private void complete(final String[] header, final List<String> lines, final byte[] body) {
+      if (future.isDone()) {
+        return;
+      }
+      try {
+        future.complete(parse(header, lines, body));
+      } catch (final Exception e) {
+        future.completeExceptionally(e);
+      }
+    }
+  }
+
+  /** A Winston request answered with a byte count and, if there's data, a binary data set. */
+  private abstract static class WinstonRequest<T> extends Request<T> {
+    private final boolean compressed;
+
+    private WinstonRequest(final String id, final String command, final boolean compressed) {
+      super(id, command);
+      this.compressed = compressed;
+    }
+
+    @Override
+    int getLength(final String[] header) {
+      return header.length > 1 ? Integer.parseInt(header[1]) : 0;
+    }
+
+    @Override
+    T parse(final String[] header, final List<String> lines, final byte[] body)
+        throws IOException {
+      if (body.length == 0) {
+        return null;
+      }
+      return parse(ByteBuffer.wrap(compressed ? inflate(body) : body));
+    }
+
+    abstract T parse(ByteBuffer data);
+
+    private static byte[] inflate(final byte[] body) throws IOException {
+      final InputStream in = new InflaterInputStream(new ByteArrayInputStream(body));
+      final ByteArrayOutputStream out = new ByteArrayOutputStream(body.length * 4);
+      final byte[] buffer = new byte[8192];
+      int n;
+      while ((n = in.read(buffer)) > 0) {
+        out.write(buffer, 0, n);
+      }
+      return out.toByteArray();
+    }
+  }
+
+  /**
+   * One socket and the requests written to it still waiting for replies, oldest first. Apart from
+   * <code>outstanding</code>, its state is only touched on the socket's I/O thread.
+   */
+  private class Connection {
+    private final ChannelFuture connected;
+    private final Deque<Request<?>> pending;
+    private final AtomicInteger outstanding;
+
+    /** when anything last arrived, from <code>System.nanoTime</code>. */
+    private long lastRead;
+    private boolean checkScheduled;
+
+    private Connection() {
+      pending = new ArrayDeque<Request<?>>();
+      outstanding = new AtomicInteger();
+      connected = bootstrap.clone().handler(new ChannelInitializer<SocketChannel>() {
+        @Override
+        protected void initChannel(final SocketChannel ch) {
+          ch.pipeline().addLast(
+              new IdleStateHandler(0, 0, IDLE_TIMEOUT, TimeUnit.MILLISECONDS),
+              new StringEncoder(CharsetUtil.US_ASCII), new ReplyDecoder(Connection.this));
+        }
+      }).connect(host, port);
+    }
+
+    private boolean isClosed() {
+      return connected.isDone() && !(connected.isSuccess() && connected.channel().isActive());
+    }
+
+    /** Check for a reply timeout after a delay, unless a check is already due. */
+    private void scheduleCheck(final Channel channel, final long delay) {
+      if (checkScheduled) {
+        return;
+      }
+      checkScheduled = true;
+      channel.eventLoop().schedule(new Runnable() {
+        public void run() {
+          checkScheduled = false;
+          checkTimeout(channel);
+        }
+      }, delay, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Close the connection if the server has sent nothing for the timeout while the oldest
+     * request has waited at least as long, otherwise check again when that could next be so.
+     */
+    private void checkTimeout(final Channel channel) {
+      final Request<?> oldest = pending.peek();
+      if (oldest == null || !channel.isActive()) {
+        return;
+      }
+      final long quiet = System.nanoTime() - Math.max(oldest.sent, lastRead);
+      final long left = TimeUnit.MILLISECONDS.toNanos(timeout) - quiet;
+      if (left <= 0) {
+        LOGGER.debug("server stopped answering, closing connection");
+        channel.close();
+      } else {
+        scheduleCheck(channel, left);
+      }
+    }
+  }
+
+  /** Matches replies to the oldest outstanding request and completes it. */
+  private static class ReplyDecoder extends ByteToMessageDecoder {
+    private final Connection connection;
+    private String[] header;
+    private List<String> lines;
+
+    private ReplyDecoder(final Connection connection) {
+      this.connection = connection;
+    }
+
+    @Override
+    protected void decode(final ChannelHandlerContext ctx, final ByteBuf in,
+        final List<Object> out) {
+      connection.lastRead = System.nanoTime();
+      while (true) {
+        final Request<?> request = connection.pending.peek();
+        if (request == null) {
+          in.skipBytes(in.readableBytes());
+          return;
+        }
+        if (header == null) {
+          final String line = readLine(in);
+          if (line == null) {
+            return;
+          }
+          header = line.trim().split("\\s+");
+          if (!header[0].equals(request.id)) {
+            throw new CorruptedFrameException("Expected reply to " + request.id + ", got " + line);
+          }
+          lines = new ArrayList<String>();
+        }
+
+        final int wanted = request.getLines(header);
+        while (lines.size() < wanted) {
+          final String line = readLine(in);
+          if (line == null) {
+            return;
+          }
+          lines.add(line);
+        }
+        final int length = request.getLength(header);
+        if (in.readableBytes() < length) {
+          return;
+        }
+        final byte[] body = new byte[length];
+        in.readBytes(body);
+
+        connection.pending.poll();
+        final String[] h = header;
+        final List<String> l = lines;
+        header = null;
+        lines = null;
+        request.complete(h, l, body);
+      }
+    }
+
+    private static String readLine(final ByteBuf in) {
+      final int end = in.indexOf(in.readerIndex(), in.writerIndex(), (byte) '\n');
+      if (end < 0) {
+        if (in.readableBytes() > MAX_LINE) {
+          throw new CorruptedFrameException("Reply line too long");
+        }
+        return null;
+      }
+      final String line = in.toString(in.readerIndex(), end - in.readerIndex(),
+          CharsetUtil.US_ASCII);
+      in.readerIndex(end + 1);
+      return line.endsWith("\r") ? line.substring(0, line.length() - 1) : line;
+    }
+
+    @Override
+    public void userEventTriggered(final ChannelHandlerContext ctx, final Object evt)
+        throws Exception {
+      if (evt instanceof IdleStateEvent) {
+        final IdleState state = ((IdleStateEvent) evt).state();
+        if (state == IdleState.ALL_IDLE && connection.pending.isEmpty()) {
+          ctx.close();
+        }
+        return;
+      }
+      super.userEventTriggered(ctx, evt);
+    }
+
+    @Override
+    public void channelInactive(final ChannelHandlerContext ctx) throws Exception {
+      Request<?> request;
+      while ((request = connection.pending.poll()) != null) {
+        request.future.completeExceptionally(new ClosedChannelException());
+      }
+      super.channelInactive(ctx);
+    }
+
+    @Override
+    public void exceptionCaught(final ChannelHandlerContext ctx, final Throwable cause) {
+      LOGGER.debug("closing connection after error", cause);
+      ctx.close();
+    }
+  }
+}
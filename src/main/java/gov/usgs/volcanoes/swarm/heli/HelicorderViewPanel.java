@@ -15,6 +15,7 @@ import gov.usgs.volcanoes.swarm.Icons;
 import gov.usgs.volcanoes.swarm.Metadata;
 import gov.usgs.volcanoes.swarm.SwarmConfig;
 import gov.usgs.volcanoes.swarm.SwingWorker;
+import gov.usgs.volcanoes.swarm.data.AbstractCachingDataSource;
 import gov.usgs.volcanoes.swarm.event.TagData;
 import gov.usgs.volcanoes.swarm.event.TagMenu;
 import gov.usgs.volcanoes.swarm.options.SwarmOptions;
@@ -382,6 +383,27 @@ public class HelicorderViewPanel extends JComponent implements SwarmOptionsListe
     return startTime;
   }
 
+  /**
+   * Get the coarsest helicorder resolution which still gives at least one value per pixel.
+   * 
+   * @return seconds per helicorder row
+   */
+  public int getResolution() {
+    final int width = getWidth() - (minimal ? X_OFFSET + 5 : X_OFFSET + RIGHT_WIDTH);
+    if (width <= 0) {
+      return 1;
+    }
+
+    final double secondsPerPixel = (double) settings.timeChunk / width;
+    int resolution = 1;
+    for (final int r : AbstractCachingDataSource.HELICORDER_RESOLUTIONS) {
+      if (r <= secondsPerPixel) {
+        resolution = r;
+      }
+    }
+    return resolution;
+  }
+
   public double getEndTime() {
     return endTime;
   }
@@ -20,6 +20,7 @@ import gov.usgs.volcanoes.swarm.SwingWorker;
 import gov.usgs.volcanoes.swarm.Throbber;
 import gov.usgs.volcanoes.swarm.chooser.DataChooser;
 import gov.usgs.volcanoes.swarm.data.GulperListener;
+import gov.usgs.volcanoes.swarm.data.Prefetcher;
 import gov.usgs.volcanoes.swarm.data.SeismicDataSource;
 import gov.usgs.volcanoes.swarm.data.SeismicDataSourceListener;
 import gov.usgs.volcanoes.swarm.internalframe.SwarmInternalFrames;
@@ -561,6 +562,13 @@ public class HelicorderViewerFrame extends SwarmFrame implements Kioskable {
           getHelicorder();
         }
       }
+
+      public double[] getVisibleSpan() {
+        if (!isShowing() || isIcon()) {
+          return null;
+        }
+        return new double[] {helicorderViewPanel.getStartTime(), helicorderViewPanel.getEndTime()};
+      }
     };
 
     dataListener = new SeismicDataSourceListener() {
@@ -807,13 +815,17 @@ public class HelicorderViewerFrame extends SwarmFrame implements Kioskable {
 
           before = end - settings.span * 60;
           int tc = 30;
+          int resolution = 1;
           if (helicorderViewPanel != null) {
             tc = settings.timeChunk;
+            resolution = helicorderViewPanel.getResolution();
           }
 
           if (!HelicorderViewerFrame.this.isClosed) {
+            Prefetcher.INSTANCE.helicorderViewed(HelicorderViewerFrame.this, dataSource,
+                settings.channel, before - tc, end + tc);
             hd = dataSource.getHelicorder(settings.channel.replace(' ', '$'), before - tc, end + tc,
-                gulperListener);
+                gulperListener, resolution);
             success = true;
           } else {
             success = false;
@@ -14,6 +14,7 @@ import gov.usgs.volcanoes.swarm.Metadata;
 import gov.usgs.volcanoes.swarm.Scnl;
 import gov.usgs.volcanoes.swarm.Swarm;
 import gov.usgs.volcanoes.swarm.SwingWorker;
+import gov.usgs.volcanoes.swarm.data.WaveView;
 import gov.usgs.volcanoes.swarm.heli.HelicorderViewerFrame;
 import gov.usgs.volcanoes.swarm.map.MapPanel.LabelSetting;
 import gov.usgs.volcanoes.swarm.wave.WaveViewPanel;
@@ -394,9 +395,16 @@ public class MapMiniPanel extends JComponent
         wavePanel.setWorking(true);
         wavePanel.setDataSource(activeMetadata.source);
         wavePanel.setChannel(activeMetadata.getChannel());
-        Wave cw = wavePanel.getWave();
+        // sources which already hold the whole span share it without copying
+        final WaveView view =
+            activeMetadata.source.getWaveView(activeMetadata.getChannel(), st, et);
+        // a wave shared by the source may reach well past the span, so it isn't extended
+        Wave cw = wavePanel.isWaveShared() ? null : wavePanel.getWave();
         // TODO: unify this and the monitor code
-        if (cw != null && cw.numSamples() > 0 && cw.overlaps(st, et)) {
+        if (view != null) {
+          wavePanel.setWaveView(view, st, et);
+          return null;
+        } else if (cw != null && cw.numSamples() > 0 && cw.overlaps(st, et)) {
           activeMetadata.source.setUseCache(false);
 
           if (cw.getEndTime() < et) {
@@ -415,7 +423,10 @@ public class MapMiniPanel extends JComponent
             }
           }
 
-          cw = cw.subset(st, Math.min(et, cw.getEndTime()));
+          // the panel only draws the span, so only trim once the wave is well past it
+          if (st - cw.getStartTime() > et - st) {
+            cw = cw.subset(st, Math.min(et, cw.getEndTime()));
+          }
 
           boolean before = activeMetadata.source.isUseCache();
           activeMetadata.source.setUseCache(before);
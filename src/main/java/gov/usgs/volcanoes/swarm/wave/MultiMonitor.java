@@ -19,6 +19,7 @@ import gov.usgs.volcanoes.swarm.SwarmUtil;
 import gov.usgs.volcanoes.swarm.Throbber;
 import gov.usgs.volcanoes.swarm.chooser.DataChooser;
 import gov.usgs.volcanoes.swarm.data.SeismicDataSource;
+import gov.usgs.volcanoes.swarm.data.WaveView;
 import gov.usgs.volcanoes.swarm.wave.WaveViewSettings.ViewType;
 import java.awt.BorderLayout;
 import java.awt.Color;
@@ -90,6 +91,9 @@ public class MultiMonitor extends SwarmFrame implements Kioskable {
 
   private static final Color SELECT_COLOR = new Color(204, 204, 255);
 
+  /** refreshes overlap the data already held by this much so packets join up, in seconds. */
+  private static final double REFRESH_MARGIN = 1;
+
   private Throbber throbber;
 
   private final Map<String, Wave> waveMap;
@@ -747,8 +751,19 @@ public class MultiMonitor extends SwarmFrame implements Kioskable {
         final double start = times[0];
         for (int i = 0; i < panels.size(); i++) {
           final WaveViewPanel waveViewPanel = panels.get(i);
-          final Wave wave = waveMap.get(waveViewPanel.getChannel());
-          waveViewPanel.setWave(wave, start, now);
+          final String channel = waveViewPanel.getChannel();
+          final Wave wave = waveMap.get(channel);
+          if (wave != null) {
+            waveViewPanel.setWave(wave, start, now);
+            continue;
+          }
+          // a wave shared by the source isn't held here; see refresh
+          final WaveView view = dataSource.getWaveView(channel, start, now);
+          if (view != null) {
+            waveViewPanel.setWaveView(view, start, now);
+          } else if (!waveViewPanel.isWaveShared()) {
+            waveViewPanel.setWave(null, start, now);
+          }
         }
         wavePanel.repaint();
         sliding = false;
@@ -786,27 +801,70 @@ public class MultiMonitor extends SwarmFrame implements Kioskable {
         final double[] times = getTimeWindow();
         final double now = times[1];
         final double start = times[0];
+
+        // fetch what the panels lack for every channel at once, where the source can: from
+        // the earliest point any of them needs, which is only after the data already held
+        final List<String> missing = new ArrayList<String>();
+        double from = now;
+        for (int i = 0; i < panels.size(); i++) {
+          final String ch = panels.get(i).getChannel();
+          if (dataSource.getWaveView(ch, start, now) == null) {
+            missing.add(ch);
+            final Wave sw = waveMap.get(ch);
+            if (sw != null && sw.overlaps(start, now)) {
+              from = Math.min(from, getDataEnd(sw) - REFRESH_MARGIN);
+            } else {
+              from = start;
+            }
+          }
+        }
+        Map<String, Wave> batch = Collections.emptyMap();
+        if (missing.size() > 1 && from < now) {
+          try {
+            batch = dataSource.getWaves(missing, from, now);
+          } catch (final Throwable t) {
+            t.printStackTrace();
+          }
+        }
+
         for (int i = 0; i < panels.size(); i++) {
           final WaveViewPanel wvp = panels.get(i);
           wvp.setWorking(true);
           channel = wvp.getChannel();
           try {
+            // sources which already hold the whole window share it without copying
+            final WaveView view = dataSource.getWaveView(channel, start, now);
+            if (view != null) {
+              // the panel reads only the window of the source's wave; holding the wave here
+              // would keep it after the source lets it go
+              waveMap.remove(channel);
+              wvp.setWaveView(view, start, now);
+              wvp.setWorking(false);
+              continue;
+            }
             Wave sw = waveMap.get(channel);
             if (sw != null) {
               if (sw.overlaps(start, now)) { // runaway monitor bug fix
-                if (sw.getEndTime() < now) {
-                  final Wave w2 = dataSource.getWave(channel, sw.getEndTime() - 10, now);
+                // ask only for what's after the data already held, not a fixed overlap
+                final double dataEnd = getDataEnd(sw);
+                if (dataEnd < now) {
+                  final Wave w2 = batch.containsKey(channel) ? batch.get(channel)
+                      : dataSource.getWave(channel, dataEnd - REFRESH_MARGIN, now);
                   if (w2 != null && (sw.overlaps(w2) || sw.adjacent(w2))) {
                     sw = sw.combine(w2);
                   }
                 }
-                if (sw.getStartTime() > start) {
-                  final Wave w2 = dataSource.getWave(channel, start, sw.getStartTime() + 10);
+                final double dataStart = getDataStart(sw);
+                if (dataStart > start) {
+                  final Wave w2 = dataSource.getWave(channel, start, dataStart + REFRESH_MARGIN);
                   if (w2 != null && (sw.overlaps(w2) || sw.adjacent(w2))) {
                     sw = sw.combine(w2);
                   }
                 }
-                sw = sw.subset(start, sw.getEndTime());
+                // the panel only draws the window, so only trim once the wave is well past it
+                if (start - sw.getStartTime() > now - start) {
+                  sw = sw.subset(start, sw.getEndTime());
+                }
               } else {
                 sw = null;
               }
@@ -814,7 +872,8 @@ public class MultiMonitor extends SwarmFrame implements Kioskable {
 
             // something bad happened above, just get the whole wave
             if (sw == null) {
-              sw = dataSource.getWave(channel, start, now);
+              sw = batch.containsKey(channel) ? batch.get(channel)
+                  : dataSource.getWave(channel, start, now);
             }
             if (sw != null) {
               waveMap.put(channel, sw);
@@ -833,6 +892,36 @@ public class MultiMonitor extends SwarmFrame implements Kioskable {
     worker.start();
   }
 
+  /**
+   * Get the time just after the last sample holding data.
+   * 
+   * @param sw wave
+   * @return end of data, or the wave's start time if it holds none
+   */
+  private static double getDataEnd(final Wave sw) {
+    for (int i = sw.buffer.length - 1; i >= 0; i--) {
+      if (sw.buffer[i] != Wave.NO_DATA) {
+        return sw.getStartTime() + (i + 1) / sw.getSamplingRate();
+      }
+    }
+    return sw.getStartTime();
+  }
+
+  /**
+   * Get the time of the first sample holding data.
+   * 
+   * @param sw wave
+   * @return start of data, or the wave's end time if it holds none
+   */
+  private static double getDataStart(final Wave sw) {
+    for (int i = 0; i < sw.buffer.length; i++) {
+      if (sw.buffer[i] != Wave.NO_DATA) {
+        return sw.getStartTime() + i / sw.getSamplingRate();
+      }
+    }
+    return sw.getEndTime();
+  }
+
   /**
    * Set kiosk mode.
    * 
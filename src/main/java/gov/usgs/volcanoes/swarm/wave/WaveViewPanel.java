@@ -20,7 +20,9 @@ import gov.usgs.volcanoes.swarm.Metadata;
 import gov.usgs.volcanoes.swarm.SwarmConfig;
 import gov.usgs.volcanoes.swarm.SwingWorker;
 import gov.usgs.volcanoes.swarm.data.CachedDataSource;
+import gov.usgs.volcanoes.swarm.data.Prefetcher;
 import gov.usgs.volcanoes.swarm.data.SeismicDataSource;
+import gov.usgs.volcanoes.swarm.data.WaveView;
 import gov.usgs.volcanoes.swarm.event.PickData;
 import gov.usgs.volcanoes.swarm.event.PickMenu;
 import gov.usgs.volcanoes.swarm.event.PickWavePanel;
@@ -76,6 +78,8 @@ public class WaveViewPanel extends JComponent {
   protected SpectrogramRenderer spectrogramRenderer;
   protected SpectraRenderer spectraRenderer;
   protected Wave wave;
+  /** whether the wave is a data source's, which may reach well past the times drawn. */
+  protected boolean sharedWave;
   protected double startTime;
   protected double endTime;
   protected WaveViewSettings settings;
@@ -175,7 +179,8 @@ public class WaveViewPanel extends JComponent {
     maxSpectrogramPower = p.maxSpectrogramPower;
     timeSeries = p.timeSeries;
     allowDragging = p.allowDragging;
-    wave = p.wave;
+    // a copy keeps only what's drawn rather than holding on to the source's wave
+    wave = p.sharedWave ? p.copyDrawn() : p.wave;
     displayTitle = p.displayTitle;
     backgroundColor = p.backgroundColor;
     mark1 = p.mark1;
@@ -511,6 +516,28 @@ public class WaveViewPanel extends JComponent {
     return wave;
   }
 
+  /**
+   * Check whether the wave is a data source's, set from a view. It may reach well past the times
+   * drawn and must not be modified.
+   * 
+   * @return true if shared
+   */
+  public boolean isWaveShared() {
+    return sharedWave;
+  }
+
+  /**
+   * Copy the part of the wave between the start and end times.
+   * 
+   * @return copy, or a copy of the whole wave if the times don't fall within it
+   */
+  private Wave copyDrawn() {
+    double st = Math.max(startTime, wave.getStartTime());
+    double et = Math.min(endTime, wave.getEndTime());
+    WaveView view = st < et ? WaveView.of(wave, st, et) : null;
+    return view != null ? view.toWave() : new Wave(wave);
+  }
+
   public WaveViewSettings getWaveViewSettings() {
     return settings;
   }
@@ -715,17 +742,36 @@ public class WaveViewPanel extends JComponent {
   }
 
   /**
-   * Set wave.
+   * Set wave. Only the part between the start and end times is drawn. The wave may reach past
+   * them and may be shared with a data source, so it's never modified.
    * 
    * @param sw wave to set to
    * @param st start time
    * @param et end time
    */
   public void setWave(Wave sw, double st, double et) {
+    setWave(sw, st, et, false);
+  }
+
+  /**
+   * Set wave to a view of a data source's wave. The backing wave is shared and may reach well
+   * past the view, so only the part between the start and end times is read.
+   * 
+   * @param view view of the wave
+   * @param st start time
+   * @param et end time
+   */
+  public void setWaveView(WaveView view, double st, double et) {
+    setWave(view.getWave(), st, et, true);
+  }
+
+  private void setWave(Wave sw, double st, double et, boolean shared) {
     wave = sw;
+    sharedWave = shared;
     startTime = st;
     endTime = et;
     processSettings();
+    Prefetcher.INSTANCE.waveViewed(this, source, channel, st, et);
   }
 
   /**
@@ -749,8 +795,10 @@ public class WaveViewPanel extends JComponent {
    */
   public void adjustScale(double pct) {
     if (settings.viewType == ViewType.WAVE) {
-      double maxa = settings.autoScaleAmp ? wave.max() : settings.waveMaxAmp;
-      double mina = settings.autoScaleAmp ? wave.min() : settings.waveMinAmp;
+      SliceWave wv = new SliceWave(wave);
+      wv.setSlice(startTime, endTime);
+      double maxa = settings.autoScaleAmp ? wv.max() : settings.waveMaxAmp;
+      double mina = settings.autoScaleAmp ? wv.min() : settings.waveMinAmp;
       settings.autoScaleAmp = false;
       double range = maxa - mina;
       double center = range / 2 + mina;
@@ -1146,7 +1194,8 @@ public class WaveViewPanel extends JComponent {
     Wave renderWave = wave;
 
     if (settings.filterOn) {
-      renderWave = new Wave(wave);
+      // filter a copy of only what's drawn, as the wave may be shared and reach well past it
+      renderWave = copyDrawn();
       renderWave.filter(settings.filter, settings.zeroPhaseShift);
     }
     switch (settings.viewType) {
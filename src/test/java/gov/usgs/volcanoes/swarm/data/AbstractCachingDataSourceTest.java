@@ -0,0 +1,76 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0 Universal
+ * public domain dedication. https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import cern.colt.matrix.DoubleFactory2D;
+import cern.colt.matrix.DoubleMatrix2D;
+import gov.usgs.volcanoes.core.data.RSAMData;
+import org.junit.jupiter.api.Test;
+
+public class AbstractCachingDataSourceTest {
+  private static final int PERIOD = 60;
+
+  private final AbstractCachingDataSource cache = new AbstractCachingDataSource() {
+    public String toConfigString() {
+      return "test:";
+    }
+
+    public void close() {}
+  };
+
+  /** Cached RSAM with ten rows, 0 through 540, which runs to the end of the last period. */
+  private AbstractCachingDataSource.CachedRsam tenRows() {
+    final DoubleMatrix2D data = DoubleFactory2D.dense.make(10, 2);
+    for (int i = 0; i < data.rows(); i++) {
+      data.setQuick(i, 0, i * PERIOD);
+      data.setQuick(i, 1, i);
+    }
+    final RSAMData rsamData = new RSAMData();
+    rsamData.setData(data);
+
+    final AbstractCachingDataSource.CachedRsam cr = cache.new CachedRsam();
+    cr.station = "STA HHZ NET";
+    cr.period = PERIOD;
+    cr.t1 = 0;
+    cr.t2 = 10 * PERIOD;
+    cr.rsamData = rsamData;
+    return cr;
+  }
+
+  @Test
+  public void sliceEndingInLastPeriod() {
+    final DoubleMatrix2D d = tenRows().slice(0, 590).getData();
+    assertEquals(10, d.rows());
+    assertEquals(0, d.getQuick(0, 0), 0);
+    assertEquals(540, d.getQuick(9, 0), 0);
+  }
+
+  @Test
+  public void sliceEndingAtEntryEnd() {
+    assertEquals(10, tenRows().slice(0, 600).getData().rows());
+  }
+
+  @Test
+  public void sliceWithinLastPeriod() {
+    assertEquals(0, tenRows().slice(550, 590).getData().rows());
+  }
+
+  @Test
+  public void sliceInside() {
+    final DoubleMatrix2D d = tenRows().slice(120, 300).getData();
+    assertEquals(3, d.rows());
+    assertEquals(120, d.getQuick(0, 0), 0);
+    assertEquals(240, d.getQuick(2, 0), 0);
+  }
+
+  @Test
+  public void sliceOutside() {
+    assertNull(tenRows().slice(600, 700));
+  }
+}
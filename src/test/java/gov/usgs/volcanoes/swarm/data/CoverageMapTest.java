@@ -0,0 +1,131 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0 Universal
+ * public domain dedication. https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import gov.usgs.volcanoes.core.data.Wave;
+import gov.usgs.volcanoes.core.time.J2kSec;
+import java.util.Collections;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+public class CoverageMapTest {
+  private static final String CHANNEL = "STA HHZ NET";
+
+  private final AbstractCachingDataSource cache = new AbstractCachingDataSource() {
+    public String toConfigString() {
+      return "test:";
+    }
+
+    public void close() {}
+  };
+
+  /** a time long enough ago that data missing then isn't still on its way. */
+  private final double past = Math.floor(J2kSec.now()) - 24 * 60 * 60;
+
+  private static void assertSpans(final double[][] expected, final List<double[]> spans) {
+    assertEquals(expected.length, spans.size());
+    for (int i = 0; i < expected.length; i++) {
+      assertEquals(expected[i][0], spans.get(i)[0], 1e-9);
+      assertEquals(expected[i][1], spans.get(i)[1], 1e-9);
+    }
+  }
+
+  private static List<double[]> span(final double t1, final double t2) {
+    return Collections.singletonList(new double[] {t1, t2});
+  }
+
+  @Test
+  public void claimedGapIsNotClaimedAgain() {
+    assertSpans(new double[][] {{past, past + 100}}, cache.claimGaps(CHANNEL, past, past + 100));
+    assertSpans(new double[][] {{past + 100, past + 150}},
+        cache.claimGaps(CHANNEL, past + 50, past + 150));
+  }
+
+  @Test
+  public void cachedDataIsNotClaimed() {
+    cache.putWave(CHANNEL, new Wave(new int[50], past + 20, 1));
+    assertSpans(new double[][] {{past, past + 20}, {past + 70, past + 100}},
+        cache.claimGaps(CHANNEL, past, past + 100));
+  }
+
+  @Test
+  public void releasedGapCanBeClaimedAgain() {
+    final List<double[]> gaps = cache.claimGaps(CHANNEL, past, past + 100);
+    cache.releaseGaps(CHANNEL, gaps, false);
+    assertSpans(new double[][] {{past, past + 100}}, cache.claimGaps(CHANNEL, past, past + 100));
+  }
+
+  @Test
+  public void completeFetchRecordsWhatsStillMissing() {
+    final List<double[]> gaps = cache.claimGaps(CHANNEL, past, past + 100);
+    cache.putWave(CHANNEL, new Wave(new int[50], past, 1));
+    cache.releaseGaps(CHANNEL, gaps, true);
+
+    // the source had nothing for the rest, so it isn't asked again
+    assertTrue(cache.claimGaps(CHANNEL, past, past + 100).isEmpty());
+  }
+
+  @Test
+  public void recentDataIsNeverKnownEmpty() {
+    final double now = J2kSec.now();
+    final List<double[]> gaps = cache.claimGaps(CHANNEL, now - 10, now);
+    cache.releaseGaps(CHANNEL, gaps, true);
+    assertSpans(new double[][] {{now - 10, now}}, cache.claimGaps(CHANNEL, now - 10, now));
+  }
+
+  @Test
+  public void emptyRangesExpire() throws InterruptedException {
+    final CoverageMap map = new CoverageMap(0);
+    map.mark(0, 100, CoverageMap.State.EMPTY);
+    Thread.sleep(5);
+    assertSpans(new double[][] {{0, 100}}, map.subtract(span(0, 100), 0.1));
+    assertTrue(map.isEmpty());
+  }
+
+  @Test
+  public void clearSplitsRanges() {
+    final CoverageMap map = new CoverageMap(60 * 1000);
+    map.mark(0, 100, CoverageMap.State.PENDING);
+    map.mark(100, 200, CoverageMap.State.EMPTY);
+    map.clear(40, 160, CoverageMap.State.PENDING);
+    assertSpans(new double[][] {{40, 100}}, map.subtract(span(0, 200), 0.1));
+  }
+
+  @Test
+  public void awaitPendingTimesOut() {
+    final CoverageMap map = new CoverageMap(60 * 1000);
+    map.mark(0, 100, CoverageMap.State.PENDING);
+    assertFalse(map.awaitPending(50, 60, 20));
+    assertTrue(map.awaitPending(100, 200, 20));
+  }
+
+  @Test
+  public void awaitPendingWakesWhenCleared() throws InterruptedException {
+    final CoverageMap map = new CoverageMap(60 * 1000);
+    map.mark(0, 100, CoverageMap.State.PENDING);
+    final Thread fetch = new Thread() {
+      @Override
+      public void run() {
+        try {
+          Thread.sleep(50);
+        } catch (final InterruptedException e) {
+          return;
+        }
+        map.clear(0, 100, CoverageMap.State.PENDING);
+      }
+    };
+    fetch.start();
+
+    final long start = System.currentTimeMillis();
+    assertTrue(map.awaitPending(50, 60, 5000));
+    assertTrue(System.currentTimeMillis() - start < 5000);
+    fetch.join();
+  }
+}
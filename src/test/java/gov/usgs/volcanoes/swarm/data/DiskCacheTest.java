@@ -0,0 +1,163 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0 Universal
+ * public domain dedication. https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import cern.colt.matrix.DoubleFactory2D;
+import cern.colt.matrix.DoubleMatrix2D;
+import gov.usgs.volcanoes.core.data.HelicorderData;
+import gov.usgs.volcanoes.core.data.Wave;
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class DiskCacheTest {
+  private static final String CHANNEL = "STA HHZ NET 00";
+
+  /** a UTC midnight, in J2K. */
+  private static final double MIDNIGHT = 100 * 24 * 60 * 60 - 12 * 60 * 60;
+
+  private static final double SAMPLING_RATE = 100;
+
+  @TempDir
+  File dir;
+
+  /** A wave of 100 seconds starting 50 seconds before midnight, with a gap and extremes. */
+  private static Wave wave() {
+    final int[] samples = new int[10000];
+    for (int i = 0; i < samples.length; i++) {
+      samples[i] = (int) (1000 * Math.sin(i / 10.0));
+    }
+    samples[20] = Integer.MAX_VALUE;
+    samples[21] = Integer.MIN_VALUE + 1;
+    Arrays.fill(samples, 7000, 7100, Wave.NO_DATA);
+    return new Wave(samples, MIDNIGHT - 50, SAMPLING_RATE);
+  }
+
+  /** Put waves back together into a buffer covering a span. */
+  private static int[] join(final List<Wave> waves, final double t1, final int n) {
+    final int[] samples = new int[n];
+    Arrays.fill(samples, 12345);
+    for (final Wave wave : waves) {
+      final int offset = (int) Math.round((wave.getStartTime() - t1) * SAMPLING_RATE);
+      System.arraycopy(wave.buffer, 0, samples, offset, wave.numSamples());
+    }
+    return samples;
+  }
+
+  @Test
+  public void waveRoundTrip() {
+    final Wave wave = wave();
+    new DiskCache(dir).putWave(CHANNEL, wave);
+
+    // a new cache reads the segments' indexes back from disk
+    final List<Wave> waves =
+        new DiskCache(dir).getWaves(CHANNEL, wave.getStartTime(), wave.getEndTime());
+    assertEquals(2, waves.size());
+    assertArrayEquals(wave.buffer, join(waves, wave.getStartTime(), wave.numSamples()));
+  }
+
+  @Test
+  public void wavePart() {
+    final Wave wave = wave();
+    final DiskCache cache = new DiskCache(dir);
+    cache.putWave(CHANNEL, wave);
+
+    final double t1 = MIDNIGHT - 10;
+    final List<Wave> waves = cache.getWaves(CHANNEL, t1, MIDNIGHT + 10);
+    assertArrayEquals(Arrays.copyOfRange(wave.buffer, 4000, 6000), join(waves, t1, 2000));
+  }
+
+  @Test
+  public void waveWrittenOnce() {
+    final Wave wave = wave();
+    final DiskCache cache = new DiskCache(dir);
+    cache.putWave(CHANNEL, wave);
+    final long size = size(dir);
+    cache.putWave(CHANNEL, wave);
+    new DiskCache(dir).putWave(CHANNEL, wave);
+    assertEquals(size, size(dir));
+  }
+
+  @Test
+  public void noWave() {
+    assertEquals(0, new DiskCache(dir).getWaves(CHANNEL, MIDNIGHT, MIDNIGHT + 10).size());
+  }
+
+  @Test
+  public void helicorderRoundTrip() {
+    // two runs of rows either side of midnight, with a gap between them
+    final DoubleMatrix2D data = DoubleFactory2D.dense.make(20, 3);
+    for (int i = 0; i < 20; i++) {
+      final double t = MIDNIGHT - 10 + i + (i >= 15 ? 5 : 0);
+      data.setQuick(i, 0, t);
+      data.setQuick(i, 1, -i * 1.5);
+      data.setQuick(i, 2, i * 2.5);
+    }
+    final HelicorderData hd = new HelicorderData();
+    hd.setData(data);
+    new DiskCache(dir).putHelicorder(CHANNEL, hd);
+
+    final HelicorderData read =
+        new DiskCache(dir).getHelicorder(CHANNEL, MIDNIGHT - 100, MIDNIGHT + 100);
+    assertEquals(20, read.rows());
+    for (int i = 0; i < 20; i++) {
+      for (int j = 0; j < 3; j++) {
+        assertEquals(data.getQuick(i, j), read.getData().getQuick(i, j), 0);
+      }
+    }
+    assertNull(new DiskCache(dir).getHelicorder(CHANNEL, MIDNIGHT + 100, MIDNIGHT + 200));
+  }
+
+  @Test
+  public void openSegmentsBounded() {
+    final Wave wave = wave();
+    final DiskCache cache = new DiskCache(dir);
+    cache.putWave(CHANNEL, wave);
+    for (int i = 0; i < 1000; i++) {
+      cache.getWaves("STA" + i + " HHZ NET", MIDNIGHT, MIDNIGHT + 1);
+    }
+    assertTrue(cache.getOpenSegments() <= 256);
+
+    // a closed segment is opened again when next used
+    final List<Wave> waves = cache.getWaves(CHANNEL, wave.getStartTime(), wave.getEndTime());
+    assertArrayEquals(wave.buffer, join(waves, wave.getStartTime(), wave.numSamples()));
+    cache.putWave(CHANNEL, wave);
+    assertEquals(2, cache.getWaves(CHANNEL, wave.getStartTime(), wave.getEndTime()).size());
+  }
+
+  @Test
+  public void removeOlderThan() {
+    final Wave wave = wave();
+    final DiskCache cache = new DiskCache(dir);
+    cache.putWave(CHANNEL, wave);
+    cache.removeOlderThan(MIDNIGHT + 60);
+
+    final List<Wave> waves = cache.getWaves(CHANNEL, wave.getStartTime(), wave.getEndTime());
+    assertEquals(1, waves.size());
+    assertEquals(MIDNIGHT, waves.get(0).getStartTime(), 1e-9);
+  }
+
+  private static long size(final File file) {
+    if (file.isFile()) {
+      return file.length();
+    }
+    long size = 0;
+    final File[] files = file.listFiles();
+    if (files != null) {
+      for (final File f : files) {
+        size += size(f);
+      }
+    }
+    return size;
+  }
+}
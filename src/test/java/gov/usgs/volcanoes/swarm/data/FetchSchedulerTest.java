@@ -0,0 +1,232 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0 Universal
+ * public domain dedication. https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import gov.usgs.volcanoes.core.data.HelicorderData;
+import gov.usgs.volcanoes.core.data.Wave;
+import gov.usgs.volcanoes.core.time.J2kSec;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+public class FetchSchedulerTest {
+  private static final int CHUNK = 60 * 60;
+
+  private static final long RETIRE_DELAY = 20;
+
+  private final double now = Math.floor(J2kSec.now());
+
+  /** names of gulpers in the order their chunks were gulped. */
+  private final List<String> gulped = Collections.synchronizedList(new ArrayList<String>());
+
+  private static SeismicDataSource source(final String config) {
+    return new SeismicDataSource() {
+      public List<String> getChannels() {
+        return null;
+      }
+
+      public void parse(final String params) {}
+
+      public Wave getWave(final String station, final double t1, final double t2) {
+        return null;
+      }
+
+      public HelicorderData getHelicorder(final String station, final double t1, final double t2,
+          final GulperListener gl) {
+        return null;
+      }
+
+      public String toConfigString() {
+        return config;
+      }
+
+      public void close() {}
+    };
+  }
+
+  /** Records its gulps instead of fetching, optionally waiting to be let go first. */
+  private class TestGulper extends Gulper {
+    private final String name;
+    private final CountDownLatch release;
+    private final CountDownLatch started = new CountDownLatch(1);
+    private final CountDownLatch finished = new CountDownLatch(1);
+
+    private TestGulper(final String name, final SeismicDataSource source, final double t1,
+        final double t2, final CountDownLatch release) {
+      super(GulperList.INSTANCE, name, source, name, t1, t2, CHUNK, 0);
+      this.name = name;
+      this.release = release;
+      update(t1, t2);
+    }
+
+    @Override
+    protected boolean isCached(final double t1, final double t2) {
+      return false;
+    }
+
+    @Override
+    protected void gulp(final double t1, final double t2) {
+      gulped.add(name);
+      started.countDown();
+      try {
+        release.await(5, TimeUnit.SECONDS);
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    @Override
+    void finish() {
+      super.finish();
+      finished.countDown();
+    }
+
+    private void awaitFinished() throws InterruptedException {
+      assertTrue(finished.await(5, TimeUnit.SECONDS));
+    }
+  }
+
+  /** Names of gulps in order, with runs of the same name folded into one. */
+  private List<String> runs() {
+    final List<String> runs = new ArrayList<String>();
+    synchronized (gulped) {
+      for (final String name : gulped) {
+        if (runs.isEmpty() || !runs.get(runs.size() - 1).equals(name)) {
+          runs.add(name);
+        }
+      }
+    }
+    return runs;
+  }
+
+  private static boolean hasWorkers(final String name) {
+    for (final Thread thread : Thread.getAllStackTraces().keySet()) {
+      if (thread.isAlive() && thread.getName().endsWith(" for " + name)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Test
+  public void newestChunksFirst() throws InterruptedException {
+    final SeismicDataSource source = source("test:newest");
+    final FetchScheduler scheduler = new FetchScheduler("test:newest", 1, RETIRE_DELAY);
+
+    // keep the one worker busy until both gulpers are waiting
+    final CountDownLatch release = new CountDownLatch(1);
+    final TestGulper busy = new TestGulper("busy", source, now - 100, now, release);
+    busy.start(scheduler);
+    assertTrue(busy.started.await(5, TimeUnit.SECONDS));
+
+    final double old = now - 10 * 24 * CHUNK;
+    final TestGulper backfill =
+        new TestGulper("old", source, old - 2 * CHUNK, old, new CountDownLatch(0));
+    final TestGulper recent =
+        new TestGulper("new", source, now - 2 * CHUNK, now, new CountDownLatch(0));
+    backfill.start(scheduler);
+    recent.start(scheduler);
+    release.countDown();
+    backfill.awaitFinished();
+    recent.awaitFinished();
+
+    assertEquals(3, runs().size());
+    assertEquals("busy", runs().get(0));
+    assertEquals("new", runs().get(1));
+    assertEquals("old", runs().get(2));
+  }
+
+  @Test
+  public void visibleChunksBeforeNewest() throws InterruptedException {
+    final SeismicDataSource source = source("test:visible");
+    final FetchScheduler scheduler = new FetchScheduler("test:visible", 1, RETIRE_DELAY);
+
+    final CountDownLatch release = new CountDownLatch(1);
+    final TestGulper busy = new TestGulper("busy", source, now - 100, now, release);
+    busy.start(scheduler);
+    assertTrue(busy.started.await(5, TimeUnit.SECONDS));
+
+    final double old = now - 10 * 24 * CHUNK;
+    final TestGulper shown =
+        new TestGulper("shown", source, old - 2 * CHUNK, old, new CountDownLatch(0));
+    shown.addListener(new GulperListener() {
+      public void gulperStarted() {}
+
+      public void gulperStopped(final boolean killed) {}
+
+      public void gulperGulped(final double t1, final double t2, final boolean success) {}
+
+      public double[] getVisibleSpan() {
+        return new double[] {old - 3 * CHUNK, old};
+      }
+    });
+    final TestGulper recent =
+        new TestGulper("new", source, now - 2 * CHUNK, now, new CountDownLatch(0));
+    recent.start(scheduler);
+    shown.start(scheduler);
+    release.countDown();
+    shown.awaitFinished();
+    recent.awaitFinished();
+
+    assertEquals(3, runs().size());
+    assertEquals("shown", runs().get(1));
+    assertEquals("new", runs().get(2));
+  }
+
+  @Test
+  public void killedGulperGetsNoMoreTurns() throws InterruptedException {
+    final SeismicDataSource source = source("test:killed");
+    final FetchScheduler scheduler = new FetchScheduler("test:killed", 1, RETIRE_DELAY);
+
+    final CountDownLatch release = new CountDownLatch(1);
+    final TestGulper gulper =
+        new TestGulper("killed", source, now - 10 * CHUNK, now, release);
+    gulper.start(scheduler);
+    assertTrue(gulper.started.await(5, TimeUnit.SECONDS));
+    gulper.kill();
+    release.countDown();
+    gulper.awaitFinished();
+
+    assertEquals(1, gulped.size());
+    assertTrue(gulper.isKilled());
+  }
+
+  @Test
+  public void idleSchedulerRetires() throws InterruptedException {
+    final String name = "test:retire";
+    final SeismicDataSource source = source(name);
+    final FetchScheduler scheduler = new FetchScheduler(name, 2, RETIRE_DELAY);
+
+    final TestGulper first = new TestGulper("first", source, now - CHUNK, now,
+        new CountDownLatch(0));
+    first.start(scheduler);
+    assertSame(scheduler, FetchScheduler.getInstance(source));
+    first.awaitFinished();
+
+    final long end = System.currentTimeMillis() + 5000;
+    while (hasWorkers(name) && System.currentTimeMillis() < end) {
+      Thread.sleep(5);
+    }
+    assertFalse(hasWorkers(name));
+    assertNotSame(scheduler, FetchScheduler.getInstance(source));
+
+    // a retired scheduler starts new threads when it's given another gulper
+    final TestGulper second = new TestGulper("second", source, now - CHUNK, now,
+        new CountDownLatch(0));
+    second.start(scheduler);
+    second.awaitFinished();
+    assertTrue(gulped.contains("second"));
+  }
+}
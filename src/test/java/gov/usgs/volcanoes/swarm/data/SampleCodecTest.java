@@ -0,0 +1,70 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0 Universal
+ * public domain dedication. https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import gov.usgs.volcanoes.core.data.Wave;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+public class SampleCodecTest {
+
+  /** samples with small steps, extreme values and the jumps between them. */
+  private static int[] samples() {
+    final Random random = new Random(1);
+    final int[] samples = new int[1000];
+    for (int i = 1; i < samples.length; i++) {
+      samples[i] = samples[i - 1] + random.nextInt(201) - 100;
+    }
+    samples[10] = Integer.MAX_VALUE;
+    samples[11] = Integer.MIN_VALUE;
+    samples[12] = Integer.MAX_VALUE;
+    samples[500] = Wave.NO_DATA;
+    samples[501] = -1;
+    samples[502] = 0;
+    return samples;
+  }
+
+  @Test
+  public void roundTrip() {
+    final int[] samples = samples();
+    final byte[] encoded = SampleCodec.encode(samples, 0, samples.length);
+    final int[] decoded = new int[samples.length];
+    assertEquals(encoded.length, SampleCodec.decode(encoded, decoded, 0, decoded.length));
+    assertArrayEquals(samples, decoded);
+  }
+
+  @Test
+  public void smallStepsTakeOneByte() {
+    final int[] samples = new int[100];
+    for (int i = 0; i < samples.length; i++) {
+      samples[i] = i % 2 == 0 ? 30 : -30;
+    }
+    // steps of 60 either way are still within the first seven bits once zig-zag encoded
+    assertEquals(samples.length, SampleCodec.encode(samples, 0, samples.length).length);
+  }
+
+  @Test
+  public void encodeRange() {
+    final int[] samples = samples();
+    final byte[] encoded = SampleCodec.encode(samples, 100, 50);
+    final int[] decoded = new int[50];
+    SampleCodec.decode(encoded, decoded, 0, decoded.length);
+    assertArrayEquals(Arrays.copyOfRange(samples, 100, 150), decoded);
+  }
+
+  @Test
+  public void decodeSkipping() {
+    final int[] samples = samples();
+    final byte[] encoded = SampleCodec.encode(samples, 0, samples.length);
+    final int[] decoded = new int[30];
+    SampleCodec.decode(encoded, 0, decoded, 0, 490, decoded.length);
+    assertArrayEquals(Arrays.copyOfRange(samples, 490, 520), decoded);
+  }
+}
@@ -0,0 +1,193 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0 Universal
+ * public domain dedication. https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import gov.usgs.volcanoes.core.data.Wave;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+public class SingleFlightTest {
+  private static final String CHANNEL = "STA HHZ NET";
+
+  /** Fetches one sample a second, each holding its own time, and records what it was asked for. */
+  private static class Fetcher implements WaveFetcher {
+    private final List<double[]> spans = Collections.synchronizedList(new ArrayList<double[]>());
+    private final CountDownLatch started = new CountDownLatch(1);
+    private final CountDownLatch release;
+    private final boolean fail;
+
+    private Fetcher(final CountDownLatch release, final boolean fail) {
+      this.release = release;
+      this.fail = fail;
+    }
+
+    public Wave fetch(final double t1, final double t2) {
+      spans.add(new double[] {t1, t2});
+      started.countDown();
+      try {
+        release.await(5, TimeUnit.SECONDS);
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      if (fail) {
+        throw new RuntimeException("fetch failed");
+      }
+      final int[] samples = new int[(int) (t2 - t1)];
+      for (int i = 0; i < samples.length; i++) {
+        samples[i] = (int) t1 + i;
+      }
+      return new Wave(samples, t1, 1);
+    }
+  }
+
+  /** A thread asking for a span, keeping what it got or what it threw. */
+  private static class Request extends Thread {
+    private final SingleFlight flights;
+    private final double t1;
+    private final double t2;
+    private final Fetcher fetcher;
+    private volatile Wave wave;
+    private volatile Throwable error;
+
+    private Request(final SingleFlight flights, final double t1, final double t2,
+        final Fetcher fetcher) {
+      this.flights = flights;
+      this.t1 = t1;
+      this.t2 = t2;
+      this.fetcher = fetcher;
+      setDaemon(true);
+    }
+
+    @Override
+    public void run() {
+      try {
+        wave = flights.getWave(CHANNEL, t1, t2, fetcher);
+      } catch (final Throwable e) {
+        error = e;
+      }
+    }
+
+    private void finish() throws InterruptedException {
+      join(5000);
+      assertFalse(isAlive());
+    }
+  }
+
+  /** Wait for a thread to block or wait. */
+  private static void awaitParked(final Thread thread) throws InterruptedException {
+    final long end = System.currentTimeMillis() + 5000;
+    while (thread.getState() != Thread.State.BLOCKED && thread.getState() != Thread.State.WAITING
+        && System.currentTimeMillis() < end) {
+      Thread.sleep(1);
+    }
+  }
+
+  @Test
+  public void overlappingRequestsShareOneWiderFetch() throws InterruptedException {
+    final Object lock = new Object();
+    final SingleFlight flights = new SingleFlight(lock);
+    final Fetcher fetcher = new Fetcher(new CountDownLatch(0), false);
+    final Request first = new Request(flights, 100, 200, fetcher);
+    final Request second = new Request(flights, 150, 300, fetcher);
+
+    // while the lock is held the first request can't start, so the second widens it
+    synchronized (lock) {
+      first.start();
+      awaitParked(first);
+      second.start();
+      awaitParked(second);
+    }
+    first.finish();
+    second.finish();
+
+    assertEquals(1, fetcher.spans.size());
+    assertEquals(100, fetcher.spans.get(0)[0], 0);
+    assertEquals(300, fetcher.spans.get(0)[1], 0);
+    assertEquals(100, first.wave.getStartTime(), 0);
+    assertEquals(200, first.wave.getEndTime(), 0);
+    assertEquals(150, second.wave.getStartTime(), 0);
+    assertEquals(300, second.wave.getEndTime(), 0);
+    assertEquals(150, second.wave.buffer[0]);
+  }
+
+  @Test
+  public void containedRequestWaitsForFetchUnderway() throws InterruptedException {
+    final SingleFlight flights = new SingleFlight(null);
+    final CountDownLatch release = new CountDownLatch(1);
+    final Fetcher fetcher = new Fetcher(release, false);
+    final Request outer = new Request(flights, 0, 100, fetcher);
+    outer.start();
+    assertTrue(fetcher.started.await(5, TimeUnit.SECONDS));
+
+    final Request inner = new Request(flights, 10, 20, fetcher);
+    inner.start();
+    awaitParked(inner);
+    release.countDown();
+    outer.finish();
+    inner.finish();
+
+    assertEquals(1, fetcher.spans.size());
+    assertEquals(10, inner.wave.getStartTime(), 0);
+    assertEquals(20, inner.wave.getEndTime(), 0);
+    assertEquals(10, inner.wave.buffer[0]);
+  }
+
+  @Test
+  public void requestOutsideFetchUnderwayFetchesAgain() throws InterruptedException {
+    final SingleFlight flights = new SingleFlight(null);
+    final CountDownLatch release = new CountDownLatch(1);
+    final Fetcher fetcher = new Fetcher(release, false);
+    final Request first = new Request(flights, 0, 100, fetcher);
+    first.start();
+    assertTrue(fetcher.started.await(5, TimeUnit.SECONDS));
+
+    // once started a fetch can't be widened, so a span reaching past it is fetched separately
+    final Request second = new Request(flights, 50, 150, fetcher);
+    second.start();
+    release.countDown();
+    first.finish();
+    second.finish();
+
+    assertEquals(2, fetcher.spans.size());
+    assertEquals(150, second.wave.getEndTime(), 0);
+  }
+
+  @Test
+  public void failedFetchReleasesWaiters() throws InterruptedException {
+    final SingleFlight flights = new SingleFlight(null);
+    final CountDownLatch release = new CountDownLatch(1);
+    final Fetcher fetcher = new Fetcher(release, true);
+    final Request outer = new Request(flights, 0, 100, fetcher);
+    outer.start();
+    assertTrue(fetcher.started.await(5, TimeUnit.SECONDS));
+
+    final Request inner = new Request(flights, 10, 20, fetcher);
+    inner.start();
+    awaitParked(inner);
+    release.countDown();
+    outer.finish();
+    inner.finish();
+
+    assertTrue(outer.error instanceof RuntimeException);
+    assertNull(inner.error);
+    assertNull(inner.wave);
+    assertEquals(1, fetcher.spans.size());
+
+    // the failed fetch is forgotten, so the next request fetches afresh
+    final Fetcher retry = new Fetcher(new CountDownLatch(0), false);
+    assertEquals(10, flights.getWave(CHANNEL, 10, 20, retry).getStartTime(), 0);
+    assertEquals(1, retry.spans.size());
+  }
+}
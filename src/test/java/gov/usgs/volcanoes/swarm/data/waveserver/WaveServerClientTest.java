@@ -0,0 +1,104 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0 Universal
+ * public domain dedication. https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data.waveserver;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import gov.usgs.volcanoes.core.data.Wave;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import org.junit.jupiter.api.Test;
+
+public class WaveServerClientTest {
+  private static final double START = 1500000000;
+
+  private static int length(final String header, final boolean location) {
+    return WaveServerClient.getRawLength(header.trim().split("\\s+"), location);
+  }
+
+  /** A TRACEBUF2 packet of samples one a second, of a type such as s4 or i2. */
+  private static byte[] packet(final String type, final double start, final int... samples) {
+    final int width = type.charAt(1) - '0';
+    final ByteBuffer buffer = ByteBuffer.allocate(64 + samples.length * width);
+    buffer.order(type.charAt(0) == 's' ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+    buffer.putInt(1009);
+    buffer.putInt(samples.length);
+    buffer.putDouble(start);
+    buffer.putDouble(start + samples.length - 1);
+    buffer.putDouble(1);
+    buffer.position(57);
+    buffer.put((byte) type.charAt(0));
+    buffer.put((byte) type.charAt(1));
+    buffer.position(64);
+    for (final int sample : samples) {
+      if (width == 2) {
+        buffer.putShort((short) sample);
+      } else {
+        buffer.putInt(sample);
+      }
+    }
+    return buffer.array();
+  }
+
+  private static byte[] concat(final byte[] a, final byte[] b) {
+    final byte[] both = new byte[a.length + b.length];
+    System.arraycopy(a, 0, both, 0, a.length);
+    System.arraycopy(b, 0, both, a.length, b.length);
+    return both;
+  }
+
+  @Test
+  public void scnlHeaderWithData() {
+    assertEquals(1024,
+        length("12 1009 STA HHZ NET 00 F s4 1500000000.0 1500000010.0 1024\n", true));
+  }
+
+  @Test
+  public void scnHeaderWithData() {
+    assertEquals(1024, length("12 1009 STA HHZ NET F s4 1500000000.0 1500000010.0 1024", false));
+  }
+
+  @Test
+  public void headerWithoutData() {
+    // requested span before or after what the server has, in a gap, or an unknown channel
+    assertEquals(0, length("12 1009 STA HHZ NET 00 FL s4 1500000000.0", true));
+    assertEquals(0, length("12 1009 STA HHZ NET 00 FR s4 1500000010.0", true));
+    assertEquals(0, length("12 1009 STA HHZ NET 00 FG s4", true));
+    assertEquals(0, length("12 0 STA HHZ NET 00 FN", true));
+    assertEquals(0, length("12 0 STA HHZ NET FN", false));
+  }
+
+  @Test
+  public void flagFollowsLocationOnlyForScnl() {
+    final String header = "12 1009 STA HHZ NET -- F s4 1500000000.0 1500000010.0 1024";
+    assertEquals(1024, length(header, true));
+    assertEquals(0, length(header, false));
+  }
+
+  @Test
+  public void readPackets() {
+    final Wave wave = TraceBuf.read(packet("s4", START, 1, -2, 3));
+    assertEquals(START, wave.getStartTime(), 0);
+    assertArrayEquals(new int[] {1, -2, 3}, wave.buffer);
+
+    assertArrayEquals(new int[] {-300, 300}, TraceBuf.read(packet("i2", START, -300, 300)).buffer);
+  }
+
+  @Test
+  public void packetsJoinedAcrossGap() {
+    final byte[] body = concat(packet("i4", START, 1, 2), packet("i4", START + 3, 4));
+    final Wave wave = TraceBuf.read(body);
+    assertEquals(START, wave.getStartTime(), 0);
+    assertArrayEquals(new int[] {1, 2, Wave.NO_DATA, 4}, wave.buffer);
+  }
+
+  @Test
+  public void noPackets() {
+    assertNull(TraceBuf.read(new byte[0]));
+  }
+}